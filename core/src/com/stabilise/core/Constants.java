@@ -95,6 +95,36 @@ public class Constants {
             (1 + 2*(LOADED_SLICE_RADIUS)) * (1 + 2*(LOADED_SLICE_RADIUS));
     /** How many ticks after coming out of use that a region should unload. */
     public static final int REGION_UNLOAD_TICK_BUFFER = 5 * TICKS_PER_SECOND;
+    /** Whether slices should be switched to palette mode where possible once
+     * they have been loaded or generated. See {@link Slice#compact()}. */
+    public static final boolean COMPACT_SLICES = true;
+    /** Whether column generators should generate the columns of each region
+     * in parallel. See {@link
+     * com.stabilise.world.gen.WorldGenerator#setParallel(boolean)}. */
+    public static final boolean PARALLEL_REGION_GEN = true;
+    /** Whether non-adjacent regions should be ticked in parallel. See {@link
+     * com.stabilise.world.RegionTicker}. */
+    public static final boolean PARALLEL_REGION_TICKS = true;
+    /** Whether the dimensions of a multiverse should be ticked in parallel.
+     * Off by default since the integrated client plays sounds from within
+     * world ticks; the dedicated server turns it on. See {@link
+     * com.stabilise.world.multiverse.Multiverse#setParallel(boolean)}. */
+    public static final boolean PARALLEL_DIMENSION_TICKS = false;
+    /** The default memory budget, in bytes, for regions prefetched ahead of
+     * a moving player. See {@link
+     * com.stabilise.world.RegionStore#prefetch(int, int)}. */
+    public static final long PREFETCH_MEMORY_BUDGET = 48L * 1024 * 1024;
+    /** A conservative estimate of how much memory a region takes up, for use
+     * before any have been loaded. Paletted slices take up much less. */
+    public static final long ESTIMATED_REGION_BYTES = REGION_SIZE * REGION_SIZE * 3 * 1024;
+    /** How many seconds ahead of a moving player to prefetch regions. */
+    public static final float PREFETCH_LOOKAHEAD = 4f;
+    /** The speed, in tiles/sec, below which regions aren't prefetched. */
+    public static final float PREFETCH_MIN_SPEED = 8f;
+    /** The memory budget, in bytes, for recently unloaded regions kept in
+     * memory in case they are loaded again soon. See {@link
+     * com.stabilise.world.loader.WarmRegionCache}. */
+    public static final long WARM_REGION_MEMORY_BUDGET = 32L * 1024 * 1024;
     
     /** How large a character's inventory is. */
     public static final int INVENTORY_CAPACITY = 36;
@@ -1,5 +1,6 @@
 package com.stabilise.entity;
 
+import com.stabilise.core.Constants;
 import com.stabilise.entity.component.*;
 import com.stabilise.entity.component.buffs.*;
 import com.stabilise.entity.component.controller.*;
@@ -33,7 +34,7 @@ public class Entities {
                 //.addComponent(new CInvulnerability())
                 .addComponent(new CUnkillable())
                 //.addComponent(new CDebug())
-                .addComponent(new CSliceAnchorer());
+                .addComponent(new CSliceAnchorer(Constants.LOADED_SLICE_RADIUS, true));
     }
     
     public static Entity player2() {
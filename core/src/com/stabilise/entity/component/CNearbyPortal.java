@@ -46,9 +46,12 @@ public class CNearbyPortal extends AbstractComponent {
             // If we're far enough away, we can stop tracking the portal
             if(e.pos.distSq(portal.pos) > CPortal.NEARBY_MAX_DIST_SQ)
                 onPortalOutOfRange(w, e, true);
-            // If we have a phantom, update its position to match ours
-            else if(phantom != null)
-                updatePhantomPos(e, (CPortal)portal.core);
+            // If we have a phantom, update its position to match ours. It
+            // lives in the other dimension, hence crossDimension().
+            else if(phantom != null) {
+                CPortal portalCore = (CPortal)portal.core;
+                w.asAbstract().crossDimension(() -> updatePhantomPos(e, portalCore));
+            }
         } else // portal is null which means it's gone, so we forget about it
             onPortalOutOfRange(w, e, true);
     }
@@ -57,16 +60,19 @@ public class CNearbyPortal extends AbstractComponent {
         remove = true; // remove this component
         e.post(w, new EPortalOutOfRange(portalID)); // let other components know
         if(destroyPhantom)
-            destroyPhantom();
+            destroyPhantom(w);
     }
     
     /**
      * Gets rid of the phantom, if it exists and isn't needed for other
-     * portals.
+     * portals. As the phantom lives in the other dimension, this may be
+     * deferred to the end of the tick.
      */
-    private void destroyPhantom() {
-        if(phantom != null && --((CPhantom)phantom.core).anchors == 0)
-            phantom.destroy();
+    private void destroyPhantom(World w) {
+        w.asAbstract().crossDimension(() -> {
+            if(phantom != null && --((CPhantom)phantom.core).anchors == 0)
+                phantom.destroy();
+        });
     }
     
     /**
@@ -110,7 +116,7 @@ public class CNearbyPortal extends AbstractComponent {
                     onPortalOutOfRange(w, e, true);
                 break;
             case REMOVED_FROM_WORLD:
-                destroyPhantom();
+                destroyPhantom(w);
                 break;
             default:
                 break;
@@ -2,6 +2,11 @@ package com.stabilise.entity.component;
 
 import static com.stabilise.core.Constants.LOADED_SLICE_RADIUS;
 
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 import com.stabilise.core.Constants;
 import com.stabilise.entity.Entity;
 import com.stabilise.entity.Position;
@@ -9,7 +14,11 @@ import com.stabilise.entity.event.EThroughPortalInter;
 import com.stabilise.entity.event.EntityEvent;
 import com.stabilise.util.Checks;
 import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.maths.Point;
 import com.stabilise.world.HostWorld;
+import com.stabilise.world.Region;
+import com.stabilise.world.RegionScheduler;
+import com.stabilise.world.RegionStore;
 import com.stabilise.world.RegionState;
 import com.stabilise.world.World;
 
@@ -19,6 +28,16 @@ import com.stabilise.world.World;
  * always remains loaded. This is typically placed on the player (to ensure the
  * world loads around them) and on portals (to ensure that the dimensions at
  * both ends remain loaded).
+ * 
+ * <p>An anchorer may also prefetch regions ahead of its entity, which is
+ * worthwhile for the player. Using the entity's velocity, as well as its
+ * recent trajectory (which is steadier, being smoothed over {@link
+ * #TRAJECTORY_TIME} seconds), it predicts where the entity will be over the
+ * next {@link Constants#PREFETCH_LOOKAHEAD} seconds, and {@link
+ * RegionStore#prefetch(int, int) prefetches} the regions which would then
+ * need to be loaded, so that fast-moving entities don't keep running into
+ * regions which are still being generated. Prefetched regions are only loaded
+ * once the regions actually needed have been.
  */
 public class CSliceAnchorer extends AbstractComponent {
     
@@ -38,6 +57,20 @@ public class CSliceAnchorer extends AbstractComponent {
      * removed from the attached entity's components list */
     private boolean disabled = false;
     
+    /** Time, in seconds, over which the entity's trajectory is smoothed. */
+    private static final float TRAJECTORY_TIME = 0.5f;
+    /** How often, in ticks, to update which regions are prefetched. */
+    private static final int PREFETCH_INTERVAL = 10;
+    
+    /** true if regions ahead of the entity should be prefetched. */
+    private boolean prefetch;
+    /** The entity's recent trajectory, in tiles/sec. */
+    private float trajDx, trajDy;
+    /** Ticks until we next update which regions are prefetched. */
+    private int ticksToPrefetch = 0;
+    /** The regions we have prefetched. */
+    private final Set<Point> prefetched = new HashSet<>();
+    
     
     /**
      * Creates a slice anchorer component with radius {@link
@@ -54,7 +87,19 @@ public class CSliceAnchorer extends AbstractComponent {
      * @throws IllegalArgumentException if {@code radius < 1}.
      */
     public CSliceAnchorer(int radius) {
+        this(radius, false);
+    }
+    
+    /**
+     * Creates a slice anchorer component which anchors slices within the
+     * specified radius, and optionally prefetches regions ahead of its
+     * entity.
+     * 
+     * @throws IllegalArgumentException if {@code radius < 1}.
+     */
+    public CSliceAnchorer(int radius, boolean prefetch) {
         this.radius = Checks.testMin(radius, 1);
+        this.prefetch = prefetch;
     }
     
     @Override
@@ -72,6 +117,9 @@ public class CSliceAnchorer extends AbstractComponent {
         // if everything is already anchored.
         anchorAll(w, e);
         
+        if(prefetch && w.isHost())
+            updatePrefetch(w.asHost(), e);
+        
         int sliceX = e.pos.sx();
         int sliceY = e.pos.sy();
         
@@ -143,6 +191,86 @@ public class CSliceAnchorer extends AbstractComponent {
         for(int x = minX; x <= maxX; x++) w.deanchorSlice(x, y);
     }
     
+    /**
+     * Updates the entity's trajectory and, every {@link #PREFETCH_INTERVAL}
+     * ticks, which regions are prefetched.
+     */
+    private void updatePrefetch(HostWorld w, Entity e) {
+        float alpha = Math.min(1f, w.getTimeIncrement() / TRAJECTORY_TIME);
+        trajDx += (e.dx - trajDx) * alpha;
+        trajDy += (e.dy - trajDy) * alpha;
+        
+        if(--ticksToPrefetch > 0)
+            return;
+        ticksToPrefetch = PREFETCH_INTERVAL;
+        
+        // Insertion-ordered, so that nearer regions are prefetched first and
+        // so are the ones to make it within the memory budget.
+        Set<Point> wanted = new LinkedHashSet<>();
+        predict(wanted, e, e.dx, e.dy);
+        predict(wanted, e, trajDx, trajDy);
+        
+        for(Iterator<Point> i = prefetched.iterator(); i.hasNext();) {
+            Point p = i.next();
+            if(!wanted.contains(p)) {
+                w.dropPrefetch(p.x(), p.y());
+                i.remove();
+            }
+        }
+        for(Point p : wanted) {
+            if(!prefetched.contains(p) && w.prefetchRegion(p.x(), p.y()))
+                prefetched.add(p);
+        }
+    }
+    
+    /**
+     * Adds to {@code regions} the regions which would need to be loaded
+     * should the entity travel along (dx, dy) for {@link
+     * Constants#PREFETCH_LOOKAHEAD} seconds, less those already loaded.
+     */
+    private void predict(Set<Point> regions, Entity e, float dx, float dy) {
+        float speed = (float)Math.sqrt(dx*dx + dy*dy);
+        if(speed < Constants.PREFETCH_MIN_SPEED)
+            return;
+        
+        // Regions already needed for the current anchors; see
+        // RegionStore.anchorRegion().
+        int r = RegionScheduler.NEEDED_RADIUS;
+        int minX = Position.regionCoordFromSliceCoord(minSliceX) - r;
+        int maxX = Position.regionCoordFromSliceCoord(maxSliceX) + r;
+        int minY = Position.regionCoordFromSliceCoord(minSliceY) - r;
+        int maxY = Position.regionCoordFromSliceCoord(maxSliceY) + r;
+        
+        // Sample the path every half-region, which is plenty given that
+        // each sample covers a whole box of regions.
+        float step = Region.REGION_SIZE_IN_TILES / 2f / speed;
+        for(float t = step; t <= Constants.PREFETCH_LOOKAHEAD; t += step) {
+            double x = e.pos.gx() + dx * t;
+            double y = e.pos.gy() + dy * t;
+            int rMinX = Position.regionCoordFromTileCoord(x - Constants.LOADED_TILE_RADIUS) - r;
+            int rMaxX = Position.regionCoordFromTileCoord(x + Constants.LOADED_TILE_RADIUS) + r;
+            int rMinY = Position.regionCoordFromTileCoord(y - Constants.LOADED_TILE_RADIUS) - r;
+            int rMaxY = Position.regionCoordFromTileCoord(y + Constants.LOADED_TILE_RADIUS) + r;
+            for(int u = rMinX; u <= rMaxX; u++) {
+                for(int v = rMinY; v <= rMaxY; v++) {
+                    if(u < minX || u > maxX || v < minY || v > maxY)
+                        regions.add(Region.createImmutableLoc(u, v));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Drops all regions we have prefetched.
+     */
+    private void dropPrefetches(World w) {
+        if(prefetched.isEmpty() || !w.isHost())
+            return;
+        HostWorld hw = w.asHost();
+        prefetched.forEach(p -> hw.dropPrefetch(p.x(), p.y()));
+        prefetched.clear();
+    }
+    
     /**
      * Refreshes all the anchors. This is useful to call if, say, the entity is
      * teleported and an entirely new batch of slices will need to be anchored.
@@ -202,6 +330,7 @@ public class CSliceAnchorer extends AbstractComponent {
         
         for(int x = minSliceX; x <= maxSliceX; x++)
             deanchorCol(w, x, minSliceY, maxSliceY);
+        dropPrefetches(w);
     }
     
     /**
@@ -270,12 +399,14 @@ public class CSliceAnchorer extends AbstractComponent {
     public void importFromCompound(DataCompound c) {
         radius = c.getI32("radius");
         disabled = c.getBool("disabled");
+        prefetch = c.optBool("prefetch").orElse(false);
     }
     
     @Override
     public void exportToCompound(DataCompound c) {
         c.put("radius", radius);
         c.put("disabled", disabled);
+        c.put("prefetch", prefetch);
     }
     
 }
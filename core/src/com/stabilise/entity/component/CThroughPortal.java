@@ -21,7 +21,9 @@ import com.stabilise.world.World;
  * <em>end</em> of the update tick. How to we accomplish this? You guessed it
  * - we add a CThroughPortal component with an extremely large weight to the
  * entity, which will be the very last thing to be updated on an entity in a
- * given tick.
+ * given tick. If dimensions are being ticked in parallel, the swap is put off
+ * further still, until every dimension has finished its tick, as it touches
+ * both of them.
  */
 public class CThroughPortal extends AbstractComponent {
     
@@ -33,7 +35,7 @@ public class CThroughPortal extends AbstractComponent {
     
     @Override
     public void update(World w, Entity e, float dt) {
-        switchDim(w, e);
+        w.asAbstract().crossDimension(() -> switchDim(w, e));
     }
     
     private void switchDim(World w1, Entity e1) {
@@ -455,8 +455,12 @@ public abstract class CBaseMob extends CCore {
             srcSmoke = w.particleEmitter(ParticleSmoke.class);
         } else if(ev.type() == EntityEvent.Type.DAMAGED)
             damage(w, e, ((EDamaged)ev).src);
-        else if(ev.type() == Type.THROUGH_PORTAL_INTER)
+        else if(ev.type() == Type.THROUGH_PORTAL_INTER) {
             this.e = e; // update our ref to e
+            // Emitters belong to the world they came from
+            srcDmgIndicator = w.particleEmitter(ParticleIndicator.class);
+            srcSmoke = w.particleEmitter(ParticleSmoke.class);
+        }
         
         return false;
     }
@@ -150,7 +150,8 @@ public class CFireball extends CBaseProjectile {
     
     @Override
     public boolean handle(World w, Entity e, EntityEvent ev) {
-        if(ev.type() == EntityEvent.Type.ADDED_TO_WORLD) {
+        if(ev.type() == EntityEvent.Type.ADDED_TO_WORLD
+                || ev.type() == EntityEvent.Type.THROUGH_PORTAL_INTER) {
             particleSrc = w.particleEmitter(ParticleFlame.class);
             explosionSrc = w.particleEmitter(ParticleExplosion.class);
         } else if(ev.type() == EntityEvent.Type.HITBOX_COLLISION) {
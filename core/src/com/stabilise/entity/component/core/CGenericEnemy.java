@@ -105,7 +105,8 @@ public class CGenericEnemy extends CBaseMob {
     
     @Override
     public boolean handle(World w, Entity e, EntityEvent ev) {
-        if(ev.type() == EntityEvent.Type.ADDED_TO_WORLD)
+        if(ev.type() == EntityEvent.Type.ADDED_TO_WORLD
+                || ev.type() == EntityEvent.Type.THROUGH_PORTAL_INTER)
             srcFlame = w.particleEmitter(ParticleFlame.class);
         else if(ev.type() == EntityEvent.Type.KILLED) {
             dropItem(w, e, Items.APPLE, 1, 0.02f);
@@ -3,7 +3,6 @@ package com.stabilise.entity.component.core;
 import java.util.Random;
 
 import com.stabilise.core.Constants;
-import com.stabilise.core.state.SingleplayerState;
 import com.stabilise.entity.Entity;
 import com.stabilise.entity.event.EntityEvent;
 import com.stabilise.item.IContainer;
@@ -87,7 +86,7 @@ public class CItem extends CCore {
                 if(distSquared < PICKUP_RANGE_SQUARED) {
                     // TODO: player picks the item up
                     if(c.addStack(stack)) {
-                        SingleplayerState.pop.play(1f, 1.2f, 0f);
+                        w.playSound(1.2f);
                         e.destroy();
                         break;
                     }
@@ -752,7 +752,11 @@ public class CPerson extends CBaseMob {
     public boolean handle(World w, Entity e, EntityEvent ev) {
         if(ev.type() == EntityEvent.Type.ADDED_TO_WORLD)
             fireParticles = w.particleEmitter(ParticleFlame.class);
-        else if(ev.type() == EntityEvent.Type.KILLED) {
+        else if(ev.type() == EntityEvent.Type.THROUGH_PORTAL_INTER) {
+            // Emitters belong to the world they came from
+            fireParticles = w.particleEmitter(ParticleFlame.class);
+            healParticles = null;
+        } else if(ev.type() == EntityEvent.Type.KILLED) {
             dropItem(w, e, Items.APPLE, 1, 0.02f);
             dropItem(w, e, Items.SWORD, 1, 0.02f);
             dropItem(w, e, Items.ARROW, 1, 0.02f);
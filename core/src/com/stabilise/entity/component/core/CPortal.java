@@ -15,6 +15,7 @@ import com.stabilise.util.io.data.DataCompound;
 import com.stabilise.util.maths.Interpolation;
 import com.stabilise.util.maths.Maths;
 import com.stabilise.util.shape.AABB;
+import com.stabilise.world.AbstractWorld;
 import com.stabilise.world.World;
 import com.stabilise.world.multiverse.Multiverse;
 
@@ -135,21 +136,25 @@ public class CPortal extends CCore {
             return;
         state = State.CLOSED;
         
-        World w2 = pairedWorld(w);
-        Entity ope = w2.getEntity(pairID);
-        CPortal opc = (CPortal) ope.core;
-        
-        opc.state = State.CLOSED;
-        
         // Deanchor both ends, being careful which world to deanchor in
         e.getComponent(CSliceAnchorer.class).deanchorAll(w);
-        ope.getComponent(CSliceAnchorer.class).deanchorAll(w2);
         
         // Destroy the portal that isn't the original, because why not
-        if(original)
-            ope.destroy();
-        else
+        if(!original)
             e.destroy();
+        
+        withPairedWorld(w, () -> {
+            World w2 = pairedWorld(w);
+            Entity ope = w2.getEntity(pairID);
+            if(ope == null) // we closed before the pair was created
+                return;
+            CPortal opc = (CPortal) ope.core;
+            
+            opc.state = State.CLOSED;
+            ope.getComponent(CSliceAnchorer.class).deanchorAll(w2);
+            if(original)
+                ope.destroy();
+        });
     }
     
     @Override
@@ -172,44 +177,61 @@ public class CPortal extends CCore {
     
     private void updateUninitialised(World w, Entity e) {
         // Only do the setup if we're the original portal
-        if(original) {
-            // Subtract the direction vector since we enter from one edge of the
-            // first portal and exit from the opposite edge of the other.
-            offset.setDiff(otherPortalPos, e.pos).align();
-            
-            // ope = "other portal entity", opc = "other portal core"
-            Entity ope = Entities.portal(w.getDimensionName());
-            CPortal opc = (CPortal) ope.core;
-            
-            ope.pos.set(otherPortalPos);
-            
-            opc.original = false;
-            opc.pairedDimension = w.getDimensionName();
-            opc.interdimensional = interdimensional;
-            opc.pairID = id;
-            opc.otherPortalPos.set(e.pos);
-            opc.offset.set(offset).reflect().align();
-            opc.rotation = (rotation + Maths.PIf) % Maths.TAUf;
-            //opc.direction.set(direction).scl(-1); // no need; set by onAddToWorld()
-            opc.doubleSided = doubleSided;
-            opc.height = height;
-            opc.state = State.WAITING_FOR_DIMENSION;
-            
-            World w2 = interdimensional
-                    ? w.multiverse().loadDimension(pairedDimension)
-                    : w;
-            w2.addEntity(ope);
-            ope.getComponent(CSliceAnchorer.class).anchorAll(w2, ope); // preanchor all slices
-            
-            pairID = ope.id();
-        }
+        if(original)
+            withPairedWorld(w, () -> createPair(w, e));
         
         state = State.WAITING_FOR_DIMENSION;
     }
     
+    /**
+     * Creates the paired portal in the paired world.
+     */
+    private void createPair(World w, Entity e) {
+        if(state == State.CLOSED) // we closed before getting this far
+            return;
+        
+        // Subtract the direction vector since we enter from one edge of the
+        // first portal and exit from the opposite edge of the other.
+        offset.setDiff(otherPortalPos, e.pos).align();
+        
+        // ope = "other portal entity", opc = "other portal core"
+        Entity ope = Entities.portal(w.getDimensionName());
+        CPortal opc = (CPortal) ope.core;
+        
+        ope.pos.set(otherPortalPos);
+        
+        opc.original = false;
+        opc.pairedDimension = w.getDimensionName();
+        opc.interdimensional = interdimensional;
+        opc.pairID = id;
+        opc.otherPortalPos.set(e.pos);
+        opc.offset.set(offset).reflect().align();
+        opc.rotation = (rotation + Maths.PIf) % Maths.TAUf;
+        //opc.direction.set(direction).scl(-1); // no need; set by onAddToWorld()
+        opc.doubleSided = doubleSided;
+        opc.height = height;
+        opc.state = State.WAITING_FOR_DIMENSION;
+        
+        World w2 = interdimensional
+                ? w.multiverse().loadDimension(pairedDimension)
+                : w;
+        w2.addEntity(ope);
+        ope.getComponent(CSliceAnchorer.class).anchorAll(w2, ope); // preanchor all slices
+        
+        pairID = ope.id();
+    }
+    
     private void updateWaiting(World w, Entity e) {
         // Do all the work only if we are the original portal
-        if(!original)
+        if(original)
+            withPairedWorld(w, () -> checkPairReady(w));
+    }
+    
+    /**
+     * Opens both portals if the paired portal's surroundings have loaded.
+     */
+    private void checkPairReady(World w) {
+        if(state != State.WAITING_FOR_DIMENSION) // closed in the meantime
             return;
         
         World w2 = pairedWorld(w);
@@ -273,19 +295,21 @@ public class CPortal extends CCore {
         // If this portal is interdimensional, we create a phantom on the other
         // side and let the entity know.
         if(interdimensional) {
-            // If phantom is non-null, then it is already a phantom of another
-            // portal linked to the same dimension. This is fine; we let cnp
-            // track it too.
-            Entity phantom = pairedWorld(w).getEntity(en.id());
-            if(phantom == null) {
-                phantom = Entities.phantom(en);
-                cnp.phantom = phantom;
-                cnp.updatePhantomPos(en, this); // set before adding to world
-                pairedWorld(w).addEntityDontSetID(phantom);
-            } else {
-                ((CPhantom)phantom.core).anchors++;
-                cnp.phantom = phantom;
-            }
+            withPairedWorld(w, () -> {
+                // If phantom is non-null, then it is already a phantom of
+                // another portal linked to the same dimension. This is fine;
+                // we let cnp track it too.
+                Entity phantom = pairedWorld(w).getEntity(en.id());
+                if(phantom == null) {
+                    phantom = Entities.phantom(en);
+                    cnp.phantom = phantom;
+                    cnp.updatePhantomPos(en, this); // set before adding to world
+                    pairedWorld(w).addEntityDontSetID(phantom);
+                } else {
+                    ((CPhantom)phantom.core).anchors++;
+                    cnp.phantom = phantom;
+                }
+            });
         }
     }
     
@@ -312,6 +336,18 @@ public class CPortal extends CCore {
         return false;
     }
     
+    /**
+     * Runs an action which touches the paired world. If this portal is
+     * interdimensional, the action may be deferred to the end of the tick;
+     * see {@link AbstractWorld#crossDimension(Runnable)}.
+     */
+    private void withPairedWorld(World w, Runnable action) {
+        if(interdimensional)
+            w.asAbstract().crossDimension(action);
+        else
+            action.run();
+    }
+    
     /**
      * Returns true if this portal is open.
      */
@@ -1,6 +1,7 @@
 package com.stabilise.entity.component.effect;
 
 import com.stabilise.entity.Entity;
+import com.stabilise.entity.event.EntityEvent;
 import com.stabilise.entity.particle.Particle;
 import com.stabilise.entity.particle.manager.ParticleEmitter;
 import com.stabilise.world.World;
@@ -26,6 +27,14 @@ public abstract class CParticleEffect<T extends Particle> extends CEffect {
             emitter = w.particleEmitter(particleClass());
     }
     
+    @Override
+    public boolean handle(World w, Entity e, EntityEvent ev) {
+        // Emitters belong to the world they came from, so get a new one
+        if(ev.type() == EntityEvent.Type.THROUGH_PORTAL_INTER)
+            emitter = null;
+        return super.handle(w, e, ev);
+    }
+    
     /**
      * Gets the class of this effect's associated particle. With good generics
      * this shouldn't be necessary. Such is life.
@@ -10,7 +10,6 @@ import com.stabilise.entity.event.EThroughPortalInter;
 import com.stabilise.entity.event.EThroughPortalIntra;
 import com.stabilise.entity.event.ETileCollision;
 import com.stabilise.entity.event.EntityEvent;
-import com.stabilise.util.Checks;
 import com.stabilise.util.collect.LongList;
 import com.stabilise.util.io.data.DataCompound;
 import com.stabilise.util.maths.Maths;
@@ -323,12 +322,13 @@ public class CPhysicsImpl extends CPhysics {
         
     @Override
     public void importFromCompound(DataCompound c) {
-        Checks.TODO(); // TODO
+        // nothing to do: everything here is worked out afresh each update,
+        // and portals aren't saved, so neither is our tracking of them
     }
     
     @Override
     public void exportToCompound(DataCompound c) {
-        Checks.TODO(); // TODO
+        // nothing to do; see importFromCompound()
     }
     
 }
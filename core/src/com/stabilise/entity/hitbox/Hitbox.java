@@ -90,14 +90,14 @@ public class Hitbox extends GameObject {
      * {@inheritDoc}
      * 
      * <p>On each update tick, a Hitbox will move to the location of its owner,
-     * then iterate through all entities in the world, colliding with any if
-     * applicable and resolving the collision appropriately.
+     * then iterate through all entities whose AABBs overlap its own bounds,
+     * colliding with any if applicable and resolving the collision appropriately.
      */
     @Override
     protected void update(World world, float dt) {
         moveToOwner(world);
         
-        for(Entity e : world.getEntitiesNearby(pos)) {
+        for(Entity e : world.getEntitiesInAABB(pos, boundingBox.boundingAABB())) {
             if(e.id() == ownerID || entitiesHit.contains(e.id()))
                 continue;
             if(e.aabb.intersects(boundingBox, pos.diffX(e.pos), pos.diffY(e.pos))) {
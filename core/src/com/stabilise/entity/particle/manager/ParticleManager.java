@@ -11,6 +11,7 @@ import com.stabilise.entity.particle.Particle;
 import com.stabilise.util.Checks;
 import com.stabilise.util.box.I32Box;
 import com.stabilise.util.concurrent.event.Event;
+import com.stabilise.util.concurrent.event.EventHandler;
 
 
 /**
@@ -32,17 +33,38 @@ public class ParticleManager {
     
     /** Number of particles to be produced is the reciprocal of this value.
      * Boxed so that we can pass this off to emitters.  */
-    private final I32Box reductionFactor = new I32Box();
+    private final I32Box reductionFactor;
+    /** Our settings listener. Held onto so that the very same handler may be
+     * removed in {@link #shutdown()}, as a new method reference wouldn't be
+     * equal to it. */
+    private final EventHandler<Event> settingListener = this::onSettingChanged;
     
     
     /**
      * Creates a new particle manager.
      */
     public ParticleManager() {
+        reductionFactor = new I32Box();
         refreshReductionFactor();
         
-        Settings.NOTIFIER.addListener(Application.mainThreadExecutor(),
-                new Event("particles"), this::onSettingChanged);
+        // Headless tools run worlds without an application, in which case
+        // the setting can't change anyway.
+        if(Application.get() != null)
+            Settings.NOTIFIER.addListener(Application.mainThreadExecutor(),
+                    new Event("particles"), settingListener);
+    }
+    
+    /**
+     * Creates a particle manager for emitting particles off the main thread,
+     * to be added to the world of the given manager later. It follows the
+     * given manager's particle setting, and its particles are reclaimed by
+     * the given manager once they die. It needn't be {@link #shutdown() shut
+     * down}.
+     * 
+     * @throws NullPointerException if {@code parent} is {@code null}.
+     */
+    public ParticleManager(ParticleManager parent) {
+        reductionFactor = parent.reductionFactor;
     }
     
     /**
@@ -54,6 +76,10 @@ public class ParticleManager {
      * registered.
      */
     public <T extends Particle> ParticleEmitter<T> getEmitter(Class<T> particleClass) {
+        return new ParticleEmitter<>(getPool(particleClass), reductionFactor);
+    }
+    
+    private <T extends Particle> ParticlePool<T> getPool(Class<T> particleClass) {
         // Don't try to change this to map.computeIfAbsent(), it isn't worth
         // the hassle
         @SuppressWarnings("unchecked")
@@ -62,7 +88,7 @@ public class ParticleManager {
             pool = new ParticlePool<>(particleClass);
             pools.put(particleClass, pool);
         }
-        return new ParticleEmitter<>(pool, reductionFactor);
+        return pool;
     }
     
     private void onSettingChanged(Event e) {
@@ -88,7 +114,8 @@ public class ParticleManager {
      * @see ParticlePool#reclaim(Particle)
      */
     public void reclaim(Particle p) {
-        pools.get(p.getClass()).reclaim(p);
+        // There may be no pool yet if p came from a child manager
+        getPool(p.getClass()).reclaim(p);
     }
     
     /**
@@ -103,7 +130,7 @@ public class ParticleManager {
      * Shuts down this particle manager by deregistering its event listener.
      */
     public void shutdown() {
-        Settings.NOTIFIER.removeListener(new Event("particles"), this::onSettingChanged);
+        Settings.NOTIFIER.removeListener(new Event("particles"), settingListener);
         pools.clear(); // also prod the gc
     }
     
@@ -111,10 +111,13 @@ class ParticlePool<T extends Particle> {
      */
     @SuppressWarnings("unchecked")
     public void reclaim(Particle p) {
-        if(activeParticles-- > expansionLoad && pool.length() < CAPACITY_MAX) {
+        if(activeParticles > expansionLoad && pool.length() < CAPACITY_MAX) {
             pool.resize(EXPANSION * pool.length());
             expansionLoad = pool.length() * LOAD_FACTOR;
         }
+        // Particles handed out by another manager's pool weren't counted
+        if(activeParticles > 0)
+            activeParticles--;
         
         put((T)p);
     }
@@ -0,0 +1,104 @@
+package com.stabilise.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.stabilise.util.io.DataOutStream;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.world.Region;
+import com.stabilise.world.gen.WorldGenerator;
+import com.stabilise.world.gen.misc.OreGen;
+import com.stabilise.world.gen.terrain.CaveGen;
+import com.stabilise.world.gen.terrain.OverworldTerrainGen;
+import com.stabilise.world.loader.SliceCodec;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Compares the size and encode/decode throughput of each {@link Compression}
+ * format over slices of real overworld regions, as region containers store
+ * them (i.e. one compressed entry per slice, encoded by {@link SliceCodec}).
+ * Regions are taken from a column spanning the sky, the surface and the
+ * underground.
+ */
+public class CompressionBenchmark {
+    
+    private static final long SEED = 0x5eed;
+    private static final int RUNS = 5;
+    
+    /** Each slice's uncompressed encoding. */
+    private final List<byte[]> entries = new ArrayList<>();
+    private long rawBytes = 0;
+    
+    
+    private CompressionBenchmark() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutStream out = new DataOutStream(bytes);
+        for(int y = -3; y <= 1; y++) {
+            for(int x = 0; x < 2; x++) {
+                Region r = new Region(x, y);
+                WorldGenerator.generateDetached(r, SEED, new OverworldTerrainGen(),
+                        new CaveGen(), new OreGen(2));
+                r.forEachSlice(s -> {
+                    bytes.reset();
+                    try {
+                        SliceCodec.write(s, out);
+                    } catch(IOException e) {
+                        throw new AssertionError(e);
+                    }
+                    entries.add(bytes.toByteArray());
+                    rawBytes += bytes.size();
+                });
+            }
+        }
+        System.out.println(entries.size() + " slices; " + rawBytes / 1024 + "KB uncompressed");
+    }
+    
+    private void run(Compression c) throws IOException {
+        List<byte[]> compressed = new ArrayList<>(entries.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        
+        long t0 = System.nanoTime();
+        for(byte[] e : entries) {
+            bytes.reset();
+            try(OutputStream out = c.wrap(bytes)) {
+                out.write(e);
+            }
+            compressed.add(bytes.toByteArray());
+        }
+        long t1 = System.nanoTime();
+        
+        byte[] buf = new byte[8192];
+        long size = 0;
+        for(byte[] e : compressed) {
+            size += e.length;
+            try(InputStream in = c.wrap(new ByteArrayInputStream(e))) {
+                while(in.read(buf) > 0);
+            }
+        }
+        long t2 = System.nanoTime();
+        
+        System.out.println(String.format("%-12s %6dKB (%5.1f%%)  encode %7.1fMB/s  decode %7.1fMB/s",
+                c, size / 1024, 100.0 * size / rawBytes,
+                mbPerSec(t1 - t0), mbPerSec(t2 - t1)));
+    }
+    
+    private double mbPerSec(long nanos) {
+        return rawBytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Tile.registerTiles();
+        CompressionBenchmark b = new CompressionBenchmark();
+        for(int i = 0; i < RUNS; i++) {
+            System.out.println("Run " + (i + 1));
+            for(Compression c : Compression.values())
+                b.run(c);
+        }
+    }
+    
+}
@@ -0,0 +1,161 @@
+package com.stabilise.tests;
+
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES;
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES_MINUS_ONE;
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES_SHIFT;
+import static com.stabilise.world.Slice.SLICE_SIZE_MINUS_ONE;
+import static com.stabilise.world.Slice.SLICE_SIZE_SHIFT;
+
+import java.util.Random;
+
+import com.stabilise.world.FluidEngine;
+import com.stabilise.world.LightEngine;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.tile.Tile;
+import com.stabilise.world.tile.Tiles;
+
+/**
+ * Measures the {@link FluidEngine}'s throughput, in cells updated per
+ * millisecond, by dropping a block of water into a basin spanning several
+ * regions and ticking until it settles. Checks along the way that no water
+ * is created or destroyed, and that the settled lake costs nothing to tick.
+ */
+public class FluidBenchmark {
+    
+    private static final int REGIONS = 2; // REGIONS x REGIONS loaded
+    private static final int TILES = REGIONS * REGION_SIZE_IN_TILES;
+    /** The side length of the block of water. */
+    private static final int BLOCK = 128;
+    private static final int MAX_TICKS = 100_000;
+    private static final int IDLE_TICKS = 1000;
+    private static final int RUNS = 5;
+    
+    private Region[][] regions;
+    private LightEngine light;
+    private FluidEngine fluids;
+    /** Time spent updating fluids and light, in nanoseconds. */
+    private long fluidNanos, lightNanos;
+    
+    
+    private void reset() {
+        regions = new Region[REGIONS][REGIONS];
+        for(int y = 0; y < REGIONS; y++)
+            for(int x = 0; x < REGIONS; x++)
+                regions[y][x] = new Region(x, y);
+        light = new LightEngine(this::getSliceAt);
+        fluids = new FluidEngine(this::getRegion, light, new Random(1234L));
+        fluidNanos = lightNanos = 0;
+        
+        // A stone basin around the edge, with the block hanging in the middle
+        for(int i = 0; i < TILES; i++) {
+            setTile(i, 0, Tiles.stone);
+            setTile(0, i, Tiles.stone);
+            setTile(TILES - 1, i, Tiles.stone);
+        }
+        int x0 = (TILES - BLOCK) / 2;
+        int y0 = TILES - BLOCK - 1;
+        for(int y = y0; y < y0 + BLOCK; y++) {
+            for(int x = x0; x < x0 + BLOCK; x++) {
+                setTile(x, y, Tiles.water);
+                fluids.wakeAround(x, y);
+            }
+        }
+    }
+    
+    private Region getRegion(int x, int y) {
+        if(x < 0 || y < 0 || x >= REGIONS || y >= REGIONS)
+            return null;
+        return regions[y][x];
+    }
+    
+    private Slice getSliceAt(int x, int y) {
+        Region r = getRegion(x >> Region.REGION_SIZE_SHIFT, y >> Region.REGION_SIZE_SHIFT);
+        return r == null ? Slice.DUMMY_SLICE
+                : r.getSliceAt(x & Region.REGION_SIZE_MINUS_ONE, y & Region.REGION_SIZE_MINUS_ONE);
+    }
+    
+    private Slice sliceAtTile(int x, int y) {
+        return regions[y >> REGION_SIZE_IN_TILES_SHIFT][x >> REGION_SIZE_IN_TILES_SHIFT].getSliceAt(
+                (x & REGION_SIZE_IN_TILES_MINUS_ONE) >> SLICE_SIZE_SHIFT,
+                (y & REGION_SIZE_IN_TILES_MINUS_ONE) >> SLICE_SIZE_SHIFT);
+    }
+    
+    private void setTile(int x, int y, Tile t) {
+        sliceAtTile(x, y).setTileAt(x & SLICE_SIZE_MINUS_ONE, y & SLICE_SIZE_MINUS_ONE, t);
+    }
+    
+    private int countWater() {
+        int n = 0;
+        for(int y = 0; y < TILES; y++)
+            for(int x = 0; x < TILES; x++)
+                if(sliceAtTile(x, y).getTileAt(x & SLICE_SIZE_MINUS_ONE, y & SLICE_SIZE_MINUS_ONE) == Tiles.water)
+                    n++;
+        return n;
+    }
+    
+    private boolean anyActive() {
+        for(Region[] row : regions)
+            for(Region r : row)
+                if(r.hasActiveFluids())
+                    return true;
+        return false;
+    }
+    
+    /**
+     * Ticks as the world does: fluids, then light.
+     */
+    private void tick() {
+        long start = System.nanoTime();
+        for(Region[] row : regions)
+            for(Region r : row)
+                if(r.hasActiveFluids())
+                    fluids.add(r);
+        fluids.update();
+        long mid = System.nanoTime();
+        light.update();
+        fluidNanos += mid - start;
+        lightNanos += System.nanoTime() - mid;
+    }
+    
+    private boolean run(boolean print) {
+        reset();
+        int water = countWater();
+        
+        int ticks = 0;
+        while(anyActive() && ticks < MAX_TICKS) {
+            tick();
+            ticks++;
+        }
+        long cells = fluids.cellsUpdated();
+        long settleNanos = fluidNanos;
+        
+        // Once settled, ticking should do nothing at all.
+        fluidNanos = 0;
+        for(int i = 0; i < IDLE_TICKS; i++)
+            tick();
+        
+        boolean ok = countWater() == water && ticks < MAX_TICKS
+                && fluids.cellsUpdated() == cells;
+        if(print) {
+            System.out.println(String.format("Settled %d water tiles in %d ticks: "
+                    + "%d cells updated in %d ms (%.0f cells/ms, %.0f per tick); "
+                    + "light: %d ms; %d idle ticks: %.3f ms%s",
+                    water, ticks, cells, settleNanos / 1000000,
+                    cells / (settleNanos / 1e6), (double)cells / ticks,
+                    lightNanos / 1000000, IDLE_TICKS, fluidNanos / 1e6,
+                    ok ? "" : " -- FAILED: " + countWater() + " water tiles left"));
+        }
+        return ok;
+    }
+    
+    public static void main(String[] args) {
+        Tile.registerTiles();
+        FluidBenchmark b = new FluidBenchmark();
+        b.run(false); // warm up
+        for(int i = 0; i < RUNS; i++)
+            if(!b.run(true))
+                return;
+    }
+    
+}
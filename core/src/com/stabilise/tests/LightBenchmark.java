@@ -0,0 +1,200 @@
+package com.stabilise.tests;
+
+import static com.stabilise.world.Slice.SLICE_SIZE;
+import static com.stabilise.world.Slice.SLICE_SIZE_MINUS_ONE;
+import static com.stabilise.world.Slice.SLICE_SIZE_SHIFT;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.stabilise.util.TaskTimer;
+import com.stabilise.world.LightEngine;
+import com.stabilise.world.Slice;
+import com.stabilise.world.tile.Tile;
+import com.stabilise.world.tile.Tiles;
+
+/**
+ * Measures light updates per second for placing and breaking light sources,
+ * through the {@link LightEngine} versus by rebuilding the slice's light (as
+ * {@code Slice.updateLight()} used to do).
+ * 
+ * <p>The world is a square of slices, the bottom half stone and the top half
+ * air. Before timing anything, the engine is checked against light computed
+ * from scratch over the whole world after a run of random changes.
+ */
+public class LightBenchmark {
+    
+    private static final int SLICES = 8; // SLICES x SLICES loaded
+    private static final int TILES = SLICES * SLICE_SIZE;
+    private static final int OPS = 20_000;
+    private static final int CHECK_OPS = 2_000;
+    private static final int RUNS = 3;
+    
+    private final Slice[][] slices = new Slice[SLICES][SLICES];
+    private final LightEngine engine = new LightEngine(this::getSliceAt);
+    
+    
+    private LightBenchmark() {
+        for(int y = 0; y < SLICES; y++)
+            for(int x = 0; x < SLICES; x++)
+                slices[y][x] = new Slice(x, y);
+        for(int y = 0; y < TILES / 2; y++)
+            for(int x = 0; x < TILES; x++)
+                setTile(x, y, Tiles.stone);
+        relightFromScratch();
+    }
+    
+    private Slice getSliceAt(int x, int y) {
+        if(x < 0 || y < 0 || x >= SLICES || y >= SLICES)
+            return Slice.DUMMY_SLICE;
+        return slices[y][x];
+    }
+    
+    private Slice sliceAtTile(int x, int y) {
+        return slices[y >> SLICE_SIZE_SHIFT][x >> SLICE_SIZE_SHIFT];
+    }
+    
+    private void setTile(int x, int y, Tile t) {
+        sliceAtTile(x, y).setTileAt(x & SLICE_SIZE_MINUS_ONE, y & SLICE_SIZE_MINUS_ONE, t);
+    }
+    
+    private int getLight(int x, int y) {
+        return sliceAtTile(x, y).getLightAt(x & SLICE_SIZE_MINUS_ONE, y & SLICE_SIZE_MINUS_ONE);
+    }
+    
+    /**
+     * Computes the world's light from scratch, by relaxing every tile until
+     * nothing changes.
+     */
+    private int[][] referenceLight() {
+        int[][] l = new int[TILES][TILES];
+        for(int y = 0; y < TILES; y++) {
+            for(int x = 0; x < TILES; x++) {
+                Slice s = sliceAtTile(x, y);
+                int lx = x & SLICE_SIZE_MINUS_ONE, ly = y & SLICE_SIZE_MINUS_ONE;
+                l[y][x] = Math.max(s.getTileAt(lx, ly).getLight(), s.getWallAt(lx, ly).getLight());
+            }
+        }
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(int y = 0; y < TILES; y++) {
+                for(int x = 0; x < TILES; x++) {
+                    int level = l[y][x] - sliceAtTile(x, y).getTileAt(
+                            x & SLICE_SIZE_MINUS_ONE, y & SLICE_SIZE_MINUS_ONE).getFalloff();
+                    if(x > 0         && level > l[y][x-1]) { l[y][x-1] = level; changed = true; }
+                    if(x < TILES - 1 && level > l[y][x+1]) { l[y][x+1] = level; changed = true; }
+                    if(y > 0         && level > l[y-1][x]) { l[y-1][x] = level; changed = true; }
+                    if(y < TILES - 1 && level > l[y+1][x]) { l[y+1][x] = level; changed = true; }
+                }
+            }
+        }
+        return l;
+    }
+    
+    private void relightFromScratch() {
+        int[][] l = referenceLight();
+        for(int y = 0; y < TILES; y++)
+            for(int x = 0; x < TILES; x++)
+                sliceAtTile(x, y).setLightAt(x & SLICE_SIZE_MINUS_ONE,
+                        y & SLICE_SIZE_MINUS_ONE, (byte)l[y][x]);
+    }
+    
+    /**
+     * Makes random changes, a few per tick, and checks the engine's light
+     * against the reference.
+     */
+    private boolean check() {
+        Tile[] palette = { Tiles.air, Tiles.stone, Tiles.dirt, Tiles.glowstone, Tiles.lava };
+        Random rnd = new Random(42L);
+        for(int i = 0; i < CHECK_OPS; i++) {
+            int x = rnd.nextInt(TILES);
+            int y = rnd.nextInt(TILES);
+            setTile(x, y, palette[rnd.nextInt(palette.length)]);
+            engine.queueUpdate(x, y);
+            if(rnd.nextInt(4) == 0)
+                engine.update();
+        }
+        engine.update();
+        
+        int[][] l = referenceLight();
+        int wrong = 0;
+        for(int y = 0; y < TILES; y++)
+            for(int x = 0; x < TILES; x++)
+                if(l[y][x] != getLight(x, y))
+                    wrong++;
+        System.out.println(wrong == 0 ? "Check passed"
+                : "Check FAILED: " + wrong + " tiles have the wrong light");
+        
+        // Reset for the benchmark
+        for(int y = 0; y < TILES; y++)
+            for(int x = 0; x < TILES; x++)
+                setTile(x, y, y < TILES / 2 ? Tiles.stone : Tiles.air);
+        relightFromScratch();
+        return wrong == 0;
+    }
+    
+    /**
+     * Places and then breaks a light source at random tiles.
+     * 
+     * @param batch The number of changes per tick, when using the engine.
+     */
+    private long run(boolean useEngine, int batch) {
+        Random rnd = new Random(1234L);
+        int[] xs = new int[batch];
+        int[] ys = new int[batch];
+        long updates = 0;
+        for(int i = 0; i < OPS; i += batch) {
+            for(int j = 0; j < batch; j++) {
+                xs[j] = rnd.nextInt(TILES);
+                ys[j] = rnd.nextInt(TILES);
+            }
+            updates += change(xs, ys, Tiles.glowstone, useEngine);
+            updates += change(xs, ys, Tiles.air, useEngine);
+        }
+        // Restore the ground, such that runs are comparable
+        for(int y = 0; y < TILES / 2; y++)
+            for(int x = 0; x < TILES; x++)
+                setTile(x, y, Tiles.stone);
+        relightFromScratch();
+        return updates;
+    }
+    
+    private int change(int[] xs, int[] ys, Tile t, boolean useEngine) {
+        for(int j = 0; j < xs.length; j++) {
+            setTile(xs[j], ys[j], t);
+            if(useEngine)
+                engine.queueUpdate(xs[j], ys[j]);
+            else
+                sliceAtTile(xs[j], ys[j]).buildLight();
+        }
+        if(useEngine)
+            engine.update();
+        return xs.length;
+    }
+    
+    private void time(String name, boolean useEngine, int batch) {
+        long lit = engine.tilesLit();
+        TaskTimer t = new TaskTimer(name);
+        t.start();
+        long updates = run(useEngine, batch);
+        t.stop();
+        long ms = Math.max(1, t.getDuration(TimeUnit.MILLISECONDS));
+        System.out.println(t.getResult(TimeUnit.MILLISECONDS) + " ("
+                + (updates * 1000 / ms) + " light updates/sec"
+                + (useEngine ? ", " + (engine.tilesLit() - lit) / updates + " tiles lit/update)" : ")"));
+    }
+    
+    public static void main(String[] args) {
+        Tile.registerTiles();
+        LightBenchmark b = new LightBenchmark();
+        if(!b.check())
+            return;
+        for(int i = 0; i < RUNS; i++) {
+            b.time("Slice rebuild       ", false, 1);
+            b.time("Engine, 1 per tick  ", true, 1);
+            b.time("Engine, 16 per tick ", true, 16);
+        }
+    }
+    
+}
@@ -0,0 +1,166 @@
+package com.stabilise.tests;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.stabilise.util.collect.ConcurrentLongMap;
+import com.stabilise.world.NeighbourTracker;
+import com.stabilise.world.Region;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Measures contention when worker threads move regions into primary storage
+ * while the main thread removes them, comparing the old scheme -- in which
+ * both sides held a store-wide monitor while updating neighbour counts --
+ * against posting arrivals to a {@link NeighbourTracker} drained by the main
+ * thread.
+ * 
+ * <p>Reported are worker throughput, and the worst time the main thread
+ * spent on a single "tick" of draining and removing.
+ */
+public class NeighbourTrackerBenchmark {
+    
+    private static final int SIZE = 32;
+    private static final long RUN_MILLIS = 2000;
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+    
+    private final Region[][] pool = new Region[SIZE][SIZE];
+    
+    
+    private NeighbourTrackerBenchmark() {
+        for(int y = 0; y < SIZE; y++)
+            for(int x = 0; x < SIZE; x++)
+                pool[y][x] = new Region(x, y);
+    }
+    
+    /**
+     * A way of accounting for neighbours.
+     */
+    private interface Scheme {
+        /** Invoked by a worker. */
+        void add(Region r);
+        /** Invoked by the main thread at the start of a tick. */
+        void tick();
+        /** Invoked by the main thread. */
+        void remove(Region r);
+    }
+    
+    /** The old scheme, with counts in AtomicIntegers as they used to be. */
+    private class Locked implements Scheme {
+        
+        final ConcurrentLongMap<Region> primary = new ConcurrentLongMap<>();
+        final ConcurrentMap<Region, AtomicInteger> counts = new ConcurrentHashMap<>();
+        
+        Locked() {
+            for(Region[] row : pool)
+                for(Region r : row)
+                    counts.put(r, new AtomicInteger());
+        }
+        
+        @Override
+        public void add(Region r) {
+            synchronized(this) {
+                if(primary.putIfAbsent(r.key, r) == null)
+                    notifyNeighbours(r, 1);
+            }
+        }
+        
+        @Override
+        public void tick() {}
+        
+        @Override
+        public void remove(Region r) {
+            synchronized(this) {
+                if(primary.remove(r.key, r))
+                    notifyNeighbours(r, -1);
+            }
+        }
+        
+        private void notifyNeighbours(Region r, int delta) {
+            for(int u = r.x()-1; u <= r.x()+1; u++) {
+                for(int v = r.y()-1; v <= r.y()+1; v++) {
+                    if(u == r.x() && v == r.y()) continue;
+                    Region other = primary.get(Region.key(u, v));
+                    if(other != null) {
+                        counts.get(r).addAndGet(delta);
+                        counts.get(other).addAndGet(delta);
+                    }
+                }
+            }
+        }
+        
+    }
+    
+    private static class Queued implements Scheme {
+        
+        final ConcurrentLongMap<Region> primary = new ConcurrentLongMap<>();
+        final NeighbourTracker tracker = new NeighbourTracker(primary::get);
+        
+        @Override
+        public void add(Region r) {
+            if(primary.putIfAbsent(r.key, r) == null)
+                tracker.arrived(r);
+        }
+        
+        @Override
+        public void tick() {
+            tracker.drain();
+        }
+        
+        @Override
+        public void remove(Region r) {
+            if(primary.remove(r.key, r))
+                tracker.removed(r);
+        }
+        
+    }
+    
+    private void run(String name, Scheme scheme, int threads) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder adds = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while(running.get()) {
+                    scheme.add(pool[rnd.nextInt(SIZE)][rnd.nextInt(SIZE)]);
+                    adds.increment();
+                }
+            });
+            workers[i].start();
+        }
+        
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long end = System.nanoTime() + RUN_MILLIS * 1000000;
+        long worstTick = 0, ticks = 0;
+        while(System.nanoTime() < end) {
+            long start = System.nanoTime();
+            scheme.tick();
+            for(int i = 0; i < 16; i++)
+                scheme.remove(pool[rnd.nextInt(SIZE)][rnd.nextInt(SIZE)]);
+            worstTick = Math.max(worstTick, System.nanoTime() - start);
+            ticks++;
+        }
+        
+        running.set(false);
+        for(Thread t : workers)
+            t.join();
+        
+        System.out.println(String.format("%-7s %d threads: %6.2fM adds/s, %6d ticks, worst tick %7.1fus",
+                name, threads, adds.sum() / (RUN_MILLIS / 1000.0) / 1e6, ticks, worstTick / 1e3));
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        Tile.registerTiles();
+        NeighbourTrackerBenchmark b = new NeighbourTrackerBenchmark();
+        for(int threads : THREADS) {
+            b.run("Locked", b.new Locked(), threads);
+            b.run("Queued", new Queued(), threads);
+        }
+    }
+    
+}
@@ -0,0 +1,139 @@
+package com.stabilise.tests;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.stabilise.util.collect.ConcurrentLongMap;
+import com.stabilise.world.NeighbourTracker;
+import com.stabilise.world.Region;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Hammers a {@link NeighbourTracker} the way a RegionStore uses it: worker
+ * threads move regions into primary storage and post them, while the main
+ * thread drains the arrivals each "tick" and removes regions at random. After
+ * every tick, and once the workers stop, every settled region's prepared
+ * neighbour count is checked against a brute-force count.
+ */
+public class NeighbourTrackerStressTest {
+    
+    private static final int WORKERS = 8;
+    /** Regions are drawn from a SIZE*SIZE area, so neighbours collide often. */
+    private static final int SIZE = 12;
+    private static final int TICKS = 20000;
+    
+    private final ConcurrentLongMap<Region> primary = new ConcurrentLongMap<>();
+    private final NeighbourTracker tracker = new NeighbourTracker(primary::get);
+    /** Every region is reused, so the same region may be posted, removed and
+     * posted again. */
+    private final Region[][] pool = new Region[SIZE][SIZE];
+    
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final AtomicLong added = new AtomicLong();
+    private long removed = 0;
+    
+    
+    private NeighbourTrackerStressTest() {
+        for(int y = 0; y < SIZE; y++)
+            for(int x = 0; x < SIZE; x++)
+                pool[y][x] = new Region(x, y);
+    }
+    
+    private void worker() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        while(running.get()) {
+            Region r = pool[rnd.nextInt(SIZE)][rnd.nextInt(SIZE)];
+            // As in RegionStore.moveToPrimary(), minus the striped lock.
+            if(primary.putIfAbsent(r.key, r) == null) {
+                tracker.arrived(r);
+                added.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Runs the test.
+     * 
+     * @return The number of mismatches found.
+     */
+    private int run() throws InterruptedException {
+        Thread[] workers = new Thread[WORKERS];
+        for(int i = 0; i < WORKERS; i++) {
+            workers[i] = new Thread(this::worker, "Worker" + i);
+            workers[i].start();
+        }
+        
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int mismatches = 0;
+        for(int tick = 0; tick < TICKS; tick++) {
+            tracker.drain();
+            mismatches += check(false);
+            // As in RegionStore.removeFromPrimary()
+            for(int i = rnd.nextInt(4); i > 0; i--) {
+                Region r = pool[rnd.nextInt(SIZE)][rnd.nextInt(SIZE)];
+                if(primary.remove(r.key, r)) {
+                    tracker.removed(r);
+                    removed++;
+                }
+            }
+        }
+        
+        running.set(false);
+        for(Thread t : workers)
+            t.join();
+        tracker.drain();
+        mismatches += check(true);
+        return mismatches;
+    }
+    
+    /**
+     * Compares every settled region's count to the number of its neighbours
+     * which are settled, and checks that every settled region is in primary
+     * storage. Once everything has been drained, every region in primary
+     * storage should be settled, too.
+     */
+    private int check(boolean drained) {
+        int mismatches = 0;
+        int settled = 0;
+        for(int y = 0; y < SIZE; y++) {
+            for(int x = 0; x < SIZE; x++) {
+                Region r = pool[y][x];
+                if(primary.get(r.key) != r)
+                    continue;
+                if(!tracker.isSettled(r)) {
+                    if(drained)
+                        mismatches++;
+                    continue;
+                }
+                settled++;
+                int expected = 0;
+                for(int u = x-1; u <= x+1; u++) {
+                    for(int v = y-1; v <= y+1; v++) {
+                        if((u != x || v != y) && u >= 0 && v >= 0 && u < SIZE && v < SIZE
+                                && tracker.isSettled(pool[v][u]))
+                            expected++;
+                    }
+                }
+                if(r.state.getPreparedNeighbours() != expected)
+                    mismatches++;
+            }
+        }
+        // The primary storage is being concurrently added to, but never
+        // removed from, so this catches settled regions missing from it.
+        if(settled != tracker.settledCount())
+            mismatches++;
+        return mismatches;
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        Tile.registerTiles();
+        NeighbourTrackerStressTest t = new NeighbourTrackerStressTest();
+        long start = System.nanoTime();
+        int mismatches = t.run();
+        System.out.println(String.format("%d ticks, %d regions added, %d removed in %.1fs",
+                TICKS, t.added.get(), t.removed, (System.nanoTime() - start) / 1e9));
+        System.out.println(mismatches == 0 ? "PASSED" : "FAILED: " + mismatches + " mismatches");
+    }
+    
+}
@@ -0,0 +1,119 @@
+package com.stabilise.tests;
+
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES;
+
+import com.stabilise.util.maths.OctaveNoise;
+import com.stabilise.world.Region;
+import com.stabilise.world.gen.WorldGenerator;
+import com.stabilise.world.gen.terrain.CaveGen;
+import com.stabilise.world.gen.terrain.OverworldTerrainGen;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Compares sampling octave noise point-by-point against the bulk {@link
+ * OctaveNoise#fill2D(float[], double, double, int, int) fill2D} over a
+ * region's worth of tiles, for both Perlin and simplex noise with the octaves
+ * {@link CaveGen} uses, and checks that both produce identical values. Then
+ * checks that a single noise instance sampled from several threads at once
+ * produces the same values as when sampled serially, and times generation of
+ * whole regions by {@link OverworldTerrainGen} and {@link CaveGen}, which
+ * sample their noise in bulk.
+ */
+public class NoiseBenchmark {
+    
+    private static final int AREA = REGION_SIZE_IN_TILES * REGION_SIZE_IN_TILES;
+    private static final int REGIONS = 8;
+    private static final int RUNS = 5;
+    
+    private final float[] points = new float[AREA];
+    private final float[] filled = new float[AREA];
+    
+    
+    private static OctaveNoise caveOctaves(OctaveNoise noise) {
+        return noise.addOctave(128, 2)
+                .addOctave(64,  8)
+                .addOctave(32,  4)
+                .addOctave(16,  1)
+                .normalise();
+    }
+    
+    private void noise(String name, OctaveNoise pointNoise, OctaveNoise fillNoise) {
+        int x0 = 3 * REGION_SIZE_IN_TILES, y0 = -2 * REGION_SIZE_IN_TILES;
+        
+        long t0 = System.nanoTime();
+        for(int y = 0; y < REGION_SIZE_IN_TILES; y++)
+            for(int x = 0; x < REGION_SIZE_IN_TILES; x++)
+                points[y*REGION_SIZE_IN_TILES + x] = pointNoise.noise(x0 + x, y0 + y);
+        long t1 = System.nanoTime();
+        fillNoise.fill2D(filled, x0, y0, REGION_SIZE_IN_TILES, REGION_SIZE_IN_TILES);
+        long t2 = System.nanoTime();
+        
+        int mismatches = 0;
+        for(int i = 0; i < AREA; i++)
+            if(points[i] != filled[i])
+                mismatches++;
+        
+        System.out.println(String.format("%-7s point %6.1fms  fill2D %6.1fms  (%.1fx, %d mismatches)",
+                name, (t1 - t0) / 1e6, (t2 - t1) / 1e6, (double)(t1 - t0) / (t2 - t1), mismatches));
+    }
+    
+    private void shared(OctaveNoise noise) throws InterruptedException {
+        int threads = 4;
+        float[][] serial = new float[threads][AREA];
+        float[][] parallel = new float[threads][AREA];
+        for(int i = 0; i < threads; i++)
+            noise.fill2D(serial[i], i * REGION_SIZE_IN_TILES, 0, REGION_SIZE_IN_TILES, REGION_SIZE_IN_TILES);
+        
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++) {
+            final int t = i;
+            workers[i] = new Thread(() -> {
+                float[] row = new float[REGION_SIZE_IN_TILES];
+                // Alternate between bulk and point sampling so that the
+                // threads are at all times interleaving both
+                for(int y = 0; y < REGION_SIZE_IN_TILES; y += 2) {
+                    noise.fillRow(row, t * REGION_SIZE_IN_TILES, y, REGION_SIZE_IN_TILES);
+                    System.arraycopy(row, 0, parallel[t], y*REGION_SIZE_IN_TILES, REGION_SIZE_IN_TILES);
+                    for(int x = 0; x < REGION_SIZE_IN_TILES; x++)
+                        parallel[t][(y+1)*REGION_SIZE_IN_TILES + x] = noise.noise(t * REGION_SIZE_IN_TILES + x, y + 1);
+                }
+            });
+            workers[i].start();
+        }
+        for(Thread w : workers)
+            w.join();
+        
+        int mismatches = 0;
+        for(int t = 0; t < threads; t++)
+            for(int i = 0; i < AREA; i++)
+                if(serial[t][i] != parallel[t][i])
+                    mismatches++;
+        System.out.println("Shared across " + threads + " threads: " + mismatches + " mismatches");
+    }
+    
+    private void generate() {
+        long t0 = System.nanoTime();
+        for(int i = 0; i < REGIONS; i++)
+            WorldGenerator.generateDetached(new Region(i, -1), 1L, new OverworldTerrainGen());
+        long t1 = System.nanoTime();
+        for(int i = 0; i < REGIONS; i++)
+            WorldGenerator.generateDetached(new Region(i, -1), 1L, new CaveGen());
+        long t2 = System.nanoTime();
+        
+        System.out.println(String.format("Regions: terrain %5.1fms/region  caves %5.1fms/region",
+                (t1 - t0) / 1e6 / REGIONS, (t2 - t1) / 1e6 / REGIONS));
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        Tile.registerTiles();
+        NoiseBenchmark b = new NoiseBenchmark();
+        for(int i = 0; i < RUNS; i++) {
+            System.out.println("Run " + (i + 1));
+            b.noise("Perlin", caveOctaves(OctaveNoise.perlin(i)), caveOctaves(OctaveNoise.perlin(i)));
+            b.noise("Simplex", caveOctaves(OctaveNoise.simplex(i)), caveOctaves(OctaveNoise.simplex(i)));
+            b.shared(caveOctaves(OctaveNoise.simplex(i)));
+            b.generate();
+        }
+    }
+    
+}
@@ -0,0 +1,192 @@
+package com.stabilise.tests;
+
+import static com.stabilise.world.Region.REGION_SIZE;
+import static com.stabilise.world.Slice.SLICE_AREA;
+import static com.stabilise.world.Slice.SLICE_SIZE_MINUS_ONE;
+import static com.stabilise.world.Slice.SLICE_SIZE_SHIFT;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.util.TaskTimer;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.loader.RegionContainerStorage;
+import com.stabilise.world.loader.RegionFileStorage;
+import com.stabilise.world.loader.RegionStorage;
+import com.stabilise.world.loader.WorldLoader;
+import com.stabilise.world.loader.impl.BaseRegionLoader;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Compares the load latency of world format version 1 (one file per region)
+ * against version 2 (multi-region containers), both for loading whole regions
+ * and for loading a single slice. Version 1 must inflate and parse the whole
+ * region file to get at one slice, whereas version 2 reads only that slice's
+ * entry.
+ * 
+ * <p>This also checks that {@link RegionContainerStorage#migrateDir(FileHandle)}
+ * faithfully converts version 1 regions.
+ */
+public class RegionFormatBenchmark {
+    
+    private static final int REGIONS = 4; // REGIONS x REGIONS regions
+    private static final int RUNS = 5;
+    
+    private final FileHandle v1Dir, v2Dir, migratedDir;
+    private final Region[] regions = new Region[REGIONS * REGIONS];
+    
+    
+    private RegionFormatBenchmark(FileHandle root) {
+        v1Dir = root.child("v1");
+        v2Dir = root.child("v2");
+        migratedDir = root.child("migrated");
+        v1Dir.mkdirs();
+        v2Dir.mkdirs();
+        migratedDir.mkdirs();
+        
+        Random rnd = new Random(1234L);
+        for(int i = 0; i < regions.length; i++) {
+            Region r = new Region(i % REGIONS, i / REGIONS);
+            r.forEachSlice(s -> fill(s, rnd));
+            regions[i] = r;
+        }
+    }
+    
+    /**
+     * Fills a slice with a mix of solid ground, air and ore-like noise.
+     */
+    private static void fill(Slice s, Random rnd) {
+        for(int i = 0; i < SLICE_AREA; i++) {
+            int t = rnd.nextInt(8) == 0 ? rnd.nextInt(6) : (s.y < 0 ? 1 : 0);
+            s.tiles.set(i, t);
+            s.walls.set(i, s.y < 0 ? 2 : 0);
+            s.setLightAt(i & SLICE_SIZE_MINUS_ONE, i >> SLICE_SIZE_SHIFT, (byte)rnd.nextInt(16));
+        }
+    }
+    
+    private static DataCompound compound(Region r, boolean withSlices) {
+        DataCompound c = WorldLoader.REGION_FORMAT.newCompound();
+        c.put("generated", true);
+        if(withSlices)
+            new BaseRegionLoader().save(r, c, true);
+        return c;
+    }
+    
+    private void writeAll() throws IOException {
+        RegionStorage v1 = new RegionFileStorage(v1Dir);
+        RegionStorage v2 = new RegionContainerStorage(v2Dir, Compression.GZIP);
+        long t1 = 0, t2 = 0;
+        for(Region r : regions) {
+            long s = System.nanoTime();
+            v1.save(r, compound(r, true), true);
+            t1 += System.nanoTime() - s;
+            s = System.nanoTime();
+            v2.save(r, compound(r, false), true);
+            t2 += System.nanoTime() - s;
+            // Also prepare the migration test
+            new RegionFileStorage(migratedDir).save(r, compound(r, true), true);
+        }
+        v1.close();
+        v2.close();
+        System.out.println("Save v1: " + (t1 / 1_000_000) + "ms (" + bytes(v1Dir) + " bytes)");
+        System.out.println("Save v2: " + (t2 / 1_000_000) + "ms (" + bytes(v2Dir) + " bytes)");
+    }
+    
+    private static long bytes(FileHandle dir) {
+        long b = 0;
+        for(FileHandle f : dir.list())
+            b += f.length();
+        return b;
+    }
+    
+    private static RegionStorage open(FileHandle dir, boolean v2) {
+        return v2 ? new RegionContainerStorage(dir, Compression.GZIP) : new RegionFileStorage(dir);
+    }
+    
+    private void loadRegions(String name, FileHandle dir, boolean v2) throws IOException {
+        TaskTimer t = new TaskTimer(name);
+        t.start();
+        try(RegionStorage storage = open(dir, v2)) {
+            for(Region r : regions) {
+                Region loaded = new Region(r.x(), r.y());
+                DataCompound c = storage.load(loaded);
+                if(!v2)
+                    new BaseRegionLoader().load(loaded, c, true);
+            }
+        }
+        t.stop();
+        System.out.println(t.getResult(TimeUnit.MICROSECONDS) + " ("
+                + (t.getDuration(TimeUnit.MICROSECONDS) / regions.length) + "us/region)");
+    }
+    
+    private void loadSlices(String name, FileHandle dir, boolean v2) throws IOException {
+        Random rnd = new Random(5678L);
+        int n = regions.length * 4;
+        TaskTimer t = new TaskTimer(name);
+        t.start();
+        try(RegionStorage storage = open(dir, v2)) {
+            for(int i = 0; i < n; i++) {
+                Region r = regions[rnd.nextInt(regions.length)];
+                int x = rnd.nextInt(REGION_SIZE), y = rnd.nextInt(REGION_SIZE);
+                if(v2)
+                    ((RegionContainerStorage)storage).loadSlice(r, x, y);
+                else {
+                    DataCompound c = storage.load(r);
+                    BaseRegionLoader.readSlice(r, x, y,
+                            c.getCompound(BaseRegionLoader.sliceName(x, y)));
+                }
+            }
+        }
+        t.stop();
+        System.out.println(t.getResult(TimeUnit.MICROSECONDS) + " ("
+                + (t.getDuration(TimeUnit.MICROSECONDS) / n) + "us/slice)");
+    }
+    
+    private void checkMigration() throws IOException {
+        int n = RegionContainerStorage.migrateDir(migratedDir, Compression.GZIP);
+        try(RegionStorage storage = new RegionContainerStorage(migratedDir, Compression.GZIP)) {
+            for(Region r : regions) {
+                Region loaded = new Region(r.x(), r.y());
+                storage.load(loaded);
+                for(int y = 0; y < REGION_SIZE; y++) {
+                    for(int x = 0; x < REGION_SIZE; x++) {
+                        Slice a = r.slices[y][x], b = loaded.slices[y][x];
+                        if(!Arrays.equals(a.tiles.toArray(), b.tiles.toArray())
+                                || !Arrays.equals(a.walls.toArray(), b.walls.toArray())
+                                || !Arrays.equals(a.lightToArray(), b.lightToArray()))
+                            throw new AssertionError("Mismatch in " + r + " at " + x + "," + y);
+                    }
+                }
+            }
+        }
+        System.out.println("Migrated " + n + " regions; contents verified");
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Tile.registerTiles();
+        File tmp = Files.createTempDirectory("regionbench").toFile();
+        FileHandle root = new FileHandle(tmp);
+        try {
+            RegionFormatBenchmark b = new RegionFormatBenchmark(root);
+            b.writeAll();
+            b.checkMigration();
+            for(int i = 0; i < RUNS; i++) {
+                b.loadRegions("Load regions v1", b.v1Dir, false);
+                b.loadRegions("Load regions v2", b.v2Dir, true);
+                b.loadSlices("Load slice v1  ", b.v1Dir, false);
+                b.loadSlices("Load slice v2  ", b.v2Dir, true);
+            }
+        } finally {
+            root.deleteDirectory();
+        }
+    }
+    
+}
@@ -0,0 +1,75 @@
+package com.stabilise.tests;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.stabilise.world.Region;
+import com.stabilise.world.gen.IColumnGenerator;
+import com.stabilise.world.gen.IWorldGenerator;
+import com.stabilise.world.gen.WorldGenerator;
+import com.stabilise.world.gen.misc.OreGen;
+import com.stabilise.world.gen.terrain.CaveGen;
+import com.stabilise.world.gen.terrain.OverworldTerrainGen;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Measures the latency of generating a single overworld region when {@link
+ * IColumnGenerator column generators} run serially versus in parallel on the
+ * common {@link ForkJoinPool}, and checks that both produce identical
+ * regions.
+ */
+public class RegionGenBenchmark {
+    
+    private static final long SEED = 0x5eed;
+    private static final int REGIONS = 12;
+    private static final int RUNS = 5;
+    
+    private final IWorldGenerator[] generators = {
+            new OverworldTerrainGen(), new CaveGen(), new OreGen(2)
+    };
+    
+    
+    private long run(boolean parallel) {
+        long total = 0;
+        for(int i = 0; i < REGIONS; i++) {
+            Region r = new Region(i % 3, i / 3 - 3);
+            long start = System.nanoTime();
+            WorldGenerator.generateDetached(r, SEED, parallel, generators);
+            total += System.nanoTime() - start;
+        }
+        return total / REGIONS;
+    }
+    
+    private int mismatches() {
+        int mismatches = 0;
+        for(int i = 0; i < REGIONS; i++) {
+            Region a = new Region(i % 3, i / 3 - 3);
+            Region b = new Region(a.x(), a.y());
+            WorldGenerator.generateDetached(a, SEED, false, generators);
+            WorldGenerator.generateDetached(b, SEED, true, generators);
+            for(int y = 0; y < Region.REGION_SIZE; y++) {
+                for(int x = 0; x < Region.REGION_SIZE; x++) {
+                    for(int j = 0; j < 256; j++) {
+                        if(a.slices[y][x].tiles.get(j) != b.slices[y][x].tiles.get(j)
+                                || a.slices[y][x].walls.get(j) != b.slices[y][x].walls.get(j))
+                            mismatches++;
+                    }
+                }
+            }
+        }
+        return mismatches;
+    }
+    
+    public static void main(String[] args) {
+        Tile.registerTiles();
+        RegionGenBenchmark b = new RegionGenBenchmark();
+        System.out.println("Common pool parallelism: " + ForkJoinPool.commonPool().getParallelism());
+        for(int i = 0; i < RUNS; i++) {
+            long serial = b.run(false);
+            long parallel = b.run(true);
+            System.out.println(String.format("serial %5.1fms/region  parallel %5.1fms/region  (%.1fx)",
+                    serial / 1e6, parallel / 1e6, (double)serial / parallel));
+        }
+        System.out.println("Tiles differing between modes: " + b.mismatches());
+    }
+    
+}
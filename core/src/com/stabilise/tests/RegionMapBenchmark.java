@@ -0,0 +1,236 @@
+package com.stabilise.tests;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntBinaryOperator;
+
+import com.stabilise.util.collect.ConcurrentLongMap;
+import com.stabilise.util.concurrent.Striper;
+import com.stabilise.util.maths.Maths;
+import com.stabilise.util.maths.Point;
+import com.stabilise.world.Region;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Measures the throughput of the {@code RegionStore.cache()}/{@code
+ * uncacheAll()} pattern run by the world generator threads -- each caches the
+ * 3x3 neighbourhood of the region it is generating, and then uncaches them --
+ * while the main thread concurrently looks up regions in primary storage.
+ * 
+ * <p>This compares the old maps, keyed by {@code Point}s (and so allocating a
+ * key per {@code cache()}), against {@link ConcurrentLongMap}s keyed by
+ * {@link Region#key}.
+ */
+public class RegionMapBenchmark {
+    
+    /** Regions are drawn from a SIZE*SIZE area, half of it in primary. */
+    private static final int SIZE = 64;
+    private static final long RUN_MILLIS = 2000;
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+    
+    private static final int STRIPE_FACTOR = 8;
+    private static final IntBinaryOperator STRIPE_HASHER =
+            Maths.genHashFunction(STRIPE_FACTOR, false);
+    
+    
+    /** Stand-in for RegionStore.CachedRegion. */
+    private static class Cached {
+        final Object region;
+        int timesCached = 0;
+        Cached(Object region) { this.region = region; }
+    }
+    
+    /**
+     * A RegionStore's maps, minus the regions.
+     */
+    private static abstract class Store {
+        
+        final Striper<Object> locks = Striper.generic(STRIPE_FACTOR);
+        
+        Object getLock(int x, int y) {
+            return locks.get(STRIPE_HASHER.applyAsInt(x, y));
+        }
+        
+        /** Puts a region into primary storage. */
+        abstract void putPrimary(int x, int y);
+        /** Looks up a region in primary storage, as the main thread does. */
+        abstract Object getPrimary(int x, int y);
+        abstract void cache(int x, int y);
+        abstract void uncacheAll();
+        
+    }
+    
+    /** As RegionStore was. */
+    private static class PointStore extends Store {
+        
+        final ConcurrentMap<Point, Object> regions = new ConcurrentHashMap<>();
+        final ConcurrentMap<Point, Cached> cache = new ConcurrentHashMap<>();
+        final ThreadLocal<Map<Point, Object>> local = ThreadLocal.withInitial(HashMap::new);
+        /** As RegionStore's unguardedDummyLoc; only used by the main thread. */
+        final Point dummyLoc = Region.createMutableLoc();
+        
+        @Override
+        void putPrimary(int x, int y) {
+            regions.put(Region.createImmutableLoc(x, y), new Object());
+        }
+        
+        @Override
+        Object getPrimary(int x, int y) {
+            return regions.get(dummyLoc.set(x, y));
+        }
+        
+        @Override
+        void cache(int x, int y) {
+            Map<Point, Object> localMap = local.get();
+            Point loc = Region.createImmutableLoc(x, y);
+            if(localMap.get(loc) != null)
+                return;
+            Object r;
+            synchronized(getLock(x, y)) {
+                Cached cr = cache.get(loc);
+                if(cr == null) {
+                    r = regions.get(loc);
+                    if(r == null)
+                        r = new Object();
+                    cr = new Cached(r);
+                    cache.put(loc, cr);
+                } else
+                    r = cr.region;
+                cr.timesCached++;
+            }
+            localMap.put(loc, r);
+        }
+        
+        @Override
+        void uncacheAll() {
+            Map<Point, Object> localMap = local.get();
+            localMap.keySet().forEach(loc -> {
+                synchronized(getLock(loc.x(), loc.y())) {
+                    Cached cr = cache.get(loc);
+                    if(--cr.timesCached == 0)
+                        cache.remove(loc);
+                }
+            });
+            localMap.clear();
+        }
+        
+    }
+    
+    /** As RegionStore is now. */
+    private static class LongStore extends Store {
+        
+        final ConcurrentLongMap<Object> regions = new ConcurrentLongMap<>();
+        final ConcurrentLongMap<Cached> cache = new ConcurrentLongMap<>();
+        final ThreadLocal<ConcurrentLongMap<Point>> local =
+                ThreadLocal.withInitial(ConcurrentLongMap::new);
+        
+        @Override
+        void putPrimary(int x, int y) {
+            regions.put(Region.key(x, y), new Object());
+        }
+        
+        @Override
+        Object getPrimary(int x, int y) {
+            return regions.get(Region.key(x, y));
+        }
+        
+        @Override
+        void cache(int x, int y) {
+            ConcurrentLongMap<Point> localMap = local.get();
+            long key = Region.key(x, y);
+            if(localMap.get(key) != null)
+                return;
+            // The real thing stores the Region, which knows its own location;
+            // we need a stand-in which does, too.
+            Point loc;
+            synchronized(getLock(x, y)) {
+                Cached cr = cache.get(key);
+                if(cr == null) {
+                    cr = new Cached(Region.createImmutableLoc(x, y));
+                    cache.put(key, cr);
+                }
+                loc = (Point)cr.region;
+                cr.timesCached++;
+            }
+            localMap.put(key, loc);
+        }
+        
+        @Override
+        void uncacheAll() {
+            ConcurrentLongMap<Point> localMap = local.get();
+            localMap.forEach(loc -> {
+                long key = Region.key(loc.x(), loc.y());
+                synchronized(getLock(loc.x(), loc.y())) {
+                    Cached cr = cache.get(key);
+                    if(--cr.timesCached == 0)
+                        cache.remove(key);
+                }
+            });
+            localMap.clear();
+        }
+        
+    }
+    
+    private static void run(String name, Store store, int threads) throws InterruptedException {
+        for(int y = 0; y < SIZE; y++)
+            for(int x = 0; x < SIZE / 2; x++)
+                store.putPrimary(x, y);
+        
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder gens = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while(running.get()) {
+                    // As WorldGenerator.genRegion()
+                    int cx = 1 + rnd.nextInt(SIZE - 2);
+                    int cy = 1 + rnd.nextInt(SIZE - 2);
+                    for(int pass = 0; pass < 2; pass++) // second pass hits locally
+                        for(int y = cy-1; y <= cy+1; y++)
+                            for(int x = cx-1; x <= cx+1; x++)
+                                store.cache(x, y);
+                    store.uncacheAll();
+                    gens.increment();
+                }
+            });
+            workers[i].start();
+        }
+        
+        // Meanwhile, the main thread looks up regions as fast as it can.
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long end = System.nanoTime() + RUN_MILLIS * 1000000;
+        long lookups = 0, found = 0;
+        while(System.nanoTime() < end) {
+            for(int i = 0; i < 1024; i++)
+                if(store.getPrimary(rnd.nextInt(SIZE), rnd.nextInt(SIZE)) != null)
+                    found++;
+            lookups += 1024;
+        }
+        
+        running.set(false);
+        for(Thread t : workers)
+            t.join();
+        
+        double secs = RUN_MILLIS / 1000.0;
+        System.out.println(String.format("%-6s %d threads: %7.3fM cache/uncacheAll rounds/s, %7.2fM main-thread lookups/s (%.0f%% found)",
+                name, threads, gens.sum() / secs / 1e6, lookups / secs / 1e6, 100.0 * found / lookups));
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        Tile.registerTiles(); // Region's static init needs them
+        // Warm up both, then measure.
+        run("warmup", new PointStore(), 2);
+        run("warmup", new LongStore(), 2);
+        for(int threads : THREADS) {
+            run("Point", new PointStore(), threads);
+            run("Long", new LongStore(), threads);
+        }
+    }
+    
+}
@@ -0,0 +1,161 @@
+package com.stabilise.tests;
+
+import static com.stabilise.world.Region.REGION_SIZE;
+import static com.stabilise.world.Slice.SLICE_AREA;
+import static com.stabilise.world.Slice.SLICE_SIZE_MINUS_ONE;
+import static com.stabilise.world.Slice.SLICE_SIZE_SHIFT;
+import static com.stabilise.world.loader.WorldLoader.REGION_FORMAT;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.loader.RegionContainerStorage;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Measures how long the main thread is held up by saving every loaded region,
+ * when it writes them itself versus when it only takes {@link
+ * Region#snapshot() snapshots} for another thread to write, along with what
+ * the copy-on-write costs the first tile set in each slice afterwards.
+ * 
+ * <p>This also checks that what's written from the snapshots is exactly what
+ * the regions held when they were snapshotted, even though every region is
+ * being modified throughout the save.
+ */
+public class SaveSnapshotBenchmark {
+    
+    private static final int REGIONS = 64; // about what a player keeps loaded
+    private static final int RUNS = 5;
+    
+    private final Region[] regions = new Region[REGIONS];
+    private final FileHandle dir;
+    private final Random rnd = new Random(1234L);
+    
+    
+    private SaveSnapshotBenchmark(FileHandle dir) {
+        this.dir = dir;
+        for(int i = 0; i < REGIONS; i++) {
+            Region r = new Region(i % 8, i / 8 - 4);
+            r.forEachSlice(s -> {
+                for(int j = 0; j < SLICE_AREA; j++) {
+                    s.tiles.set(j, rnd.nextInt(8) == 0 ? rnd.nextInt(6) : (s.y < 0 ? 1 : 0));
+                    s.walls.set(j, s.y < 0 ? 2 : 0);
+                    s.setLightAt(j & SLICE_SIZE_MINUS_ONE, j >> SLICE_SIZE_SHIFT, (byte)rnd.nextInt(16));
+                }
+                s.compact();
+            });
+            regions[i] = r;
+        }
+    }
+    
+    private static void save(RegionContainerStorage storage, Region r) throws IOException {
+        DataCompound c = REGION_FORMAT.newCompound();
+        c.put("generated", true);
+        storage.save(r, c, true);
+    }
+    
+    /**
+     * Sets a random tile in every slice of every region.
+     */
+    private void mutate() {
+        for(Region r : regions)
+            r.forEachSlice(s -> s.setTileIDAt(rnd.nextInt(16), rnd.nextInt(16), rnd.nextInt(6)));
+    }
+    
+    private void run(boolean print) throws IOException {
+        try(RegionContainerStorage storage = new RegionContainerStorage(dir, Compression.GZIP)) {
+            // Writing everything on the main thread
+            for(Region r : regions)
+                r.forEachSlice(s -> s.markDirty(Slice.DIRTY_ALL));
+            long t0 = System.nanoTime();
+            for(Region r : regions)
+                save(storage, r);
+            storage.flush();
+            long syncNanos = System.nanoTime() - t0;
+            
+            // Only snapshotting on the main thread
+            for(Region r : regions)
+                r.forEachSlice(s -> s.markDirty(Slice.DIRTY_ALL));
+            t0 = System.nanoTime();
+            for(Region r : regions)
+                r.snapshot(null);
+            long snapNanos = System.nanoTime() - t0;
+            
+            // What the snapshots should hold
+            int[][] expected = new int[REGIONS * REGION_SIZE * REGION_SIZE][];
+            for(int i = 0; i < REGIONS; i++)
+                for(int j = 0; j < REGION_SIZE * REGION_SIZE; j++)
+                    expected[i * REGION_SIZE * REGION_SIZE + j] =
+                            regions[i].slices[j / REGION_SIZE][j % REGION_SIZE].tiles.toArray();
+            
+            Thread saver = new Thread(() -> {
+                try {
+                    for(Region r : regions)
+                        save(storage, r.takeSnapshot());
+                    storage.flush();
+                } catch(IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, "Saver");
+            saver.start();
+            
+            // The first change to each slice copies what it shares with the
+            // snapshot; the second doesn't.
+            t0 = System.nanoTime();
+            mutate();
+            long firstNanos = System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            mutate();
+            long secondNanos = System.nanoTime() - t0;
+            int passes = 2;
+            while(saver.isAlive()) {
+                mutate();
+                passes++;
+            }
+            
+            // Check what was written against what we expected
+            for(int i = 0; i < REGIONS; i++) {
+                Region loaded = new Region(regions[i].x(), regions[i].y());
+                storage.load(loaded);
+                for(int j = 0; j < REGION_SIZE * REGION_SIZE; j++) {
+                    Slice s = loaded.slices[j / REGION_SIZE][j % REGION_SIZE];
+                    if(!Arrays.equals(s.tiles.toArray(), expected[i * REGION_SIZE * REGION_SIZE + j]))
+                        throw new AssertionError("Snapshot of " + regions[i] + " torn at slice " + j);
+                }
+                if(!regions[i].needsSave(true))
+                    throw new AssertionError(regions[i] + " not dirty despite changes");
+            }
+            
+            if(print) {
+                System.out.println(String.format("%d regions: saving stalls %.2f ms, "
+                        + "snapshotting stalls %.2f ms; a tile set in every slice: "
+                        + "%.2f ms first, %.2f ms after; %d passes made while saving",
+                        REGIONS, syncNanos / 1e6, snapNanos / 1e6, firstNanos / 1e6,
+                        secondNanos / 1e6, passes));
+            }
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Tile.registerTiles();
+        File tmp = Files.createTempDirectory("snapshotbench").toFile();
+        FileHandle root = new FileHandle(tmp);
+        try {
+            SaveSnapshotBenchmark b = new SaveSnapshotBenchmark(root);
+            b.run(false); // warm up
+            for(int i = 0; i < RUNS; i++)
+                b.run(true);
+        } finally {
+            root.deleteDirectory();
+        }
+    }
+    
+}
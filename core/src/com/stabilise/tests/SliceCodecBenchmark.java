@@ -0,0 +1,155 @@
+package com.stabilise.tests;
+
+import static com.stabilise.world.Region.REGION_SIZE;
+import static com.stabilise.world.Slice.SLICE_AREA;
+import static com.stabilise.world.Slice.SLICE_SIZE_MINUS_ONE;
+import static com.stabilise.world.Slice.SLICE_SIZE_SHIFT;
+import static com.stabilise.world.loader.WorldLoader.REGION_FORMAT;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Random;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.util.io.DataInStream;
+import com.stabilise.util.io.DataOutStream;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.loader.RegionContainer;
+import com.stabilise.world.loader.RegionContainerStorage;
+import com.stabilise.world.loader.impl.BaseRegionLoader;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Measures heap allocation and time per region saved and loaded through a
+ * {@link RegionContainer}, when each slice is encoded as an NBT compound (as
+ * {@link BaseRegionLoader} does) versus with the binary {@link
+ * com.stabilise.world.loader.SliceCodec SliceCodec} used by {@link
+ * RegionContainerStorage}. Allocation is measured using the HotSpot-specific
+ * {@code com.sun.management.ThreadMXBean}.
+ */
+public class SliceCodecBenchmark {
+    
+    private static final int REGIONS = 16;
+    private static final int RUNS = 5;
+    
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    
+    private final Region[] regions = new Region[REGIONS];
+    /** Regions to load into. These are created up-front so that the empty
+     * slices each region is constructed with don't count towards loading. */
+    private final Region[] targets = new Region[REGIONS];
+    private final FileHandle nbtDir, binaryDir;
+    
+    
+    private SliceCodecBenchmark(FileHandle root) {
+        nbtDir = root.child("nbt");
+        binaryDir = root.child("binary");
+        nbtDir.mkdirs();
+        binaryDir.mkdirs();
+        
+        Random rnd = new Random(1234L);
+        for(int i = 0; i < REGIONS; i++) {
+            Region r = new Region(i % 4, i / 4 - 2);
+            r.forEachSlice(s -> {
+                for(int j = 0; j < SLICE_AREA; j++) {
+                    s.tiles.set(j, rnd.nextInt(8) == 0 ? rnd.nextInt(6) : (s.y < 0 ? 1 : 0));
+                    s.walls.set(j, s.y < 0 ? 2 : 0);
+                    s.setLightAt(j & SLICE_SIZE_MINUS_ONE, j >> SLICE_SIZE_SHIFT, (byte)rnd.nextInt(16));
+                }
+                s.compact();
+            });
+            regions[i] = r;
+            targets[i] = new Region(r.x(), r.y());
+        }
+    }
+    
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    private void nbt() throws IOException {
+        long a0 = allocated(), t0 = System.nanoTime();
+        try(RegionContainer c = new RegionContainer(nbtDir.child("c.regions").file())) {
+            for(int i = 0; i < REGIONS; i++) {
+                for(int y = 0; y < REGION_SIZE; y++) {
+                    for(int x = 0; x < REGION_SIZE; x++) {
+                        DataCompound tag = REGION_FORMAT.newCompound();
+                        BaseRegionLoader.writeSlice(regions[i].slices[y][x], tag);
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+                        try(DataOutStream out = new DataOutStream(Compression.GZIP.wrap(bytes))) {
+                            REGION_FORMAT.write(out, tag);
+                        }
+                        byte[] data = bytes.toByteArray();
+                        c.write(i, RegionContainer.sliceEntry(x, y), data, data.length);
+                    }
+                }
+            }
+            long a1 = allocated(), t1 = System.nanoTime();
+            
+            for(int i = 0; i < REGIONS; i++) {
+                Region r = targets[i];
+                for(int y = 0; y < REGION_SIZE; y++) {
+                    for(int x = 0; x < REGION_SIZE; x++) {
+                        byte[] data = c.read(i, RegionContainer.sliceEntry(x, y));
+                        try(DataInStream in = new DataInStream(new BufferedInputStream(
+                                Compression.GZIP.wrap(new ByteArrayInputStream(data))))) {
+                            r.slices[y][x] = BaseRegionLoader.readSlice(r, x, y, REGION_FORMAT.read(in));
+                        }
+                    }
+                }
+            }
+            report("NBT   ", a0, a1, t0, t1);
+        }
+    }
+    
+    private void binary() throws IOException {
+        long a0 = allocated(), t0 = System.nanoTime();
+        try(RegionContainerStorage storage = new RegionContainerStorage(binaryDir, Compression.GZIP)) {
+            for(Region r : regions) {
+                DataCompound c = REGION_FORMAT.newCompound();
+                c.put("generated", true);
+                storage.save(r, c, true);
+            }
+            long a1 = allocated(), t1 = System.nanoTime();
+            
+            for(Region r : targets)
+                storage.load(r);
+            report("Binary", a0, a1, t0, t1);
+        }
+    }
+    
+    private static void report(String name, long a0, long a1, long t0, long t1) {
+        long a2 = allocated(), t2 = System.nanoTime();
+        System.out.println(name + ": save " + ((a1 - a0) / REGIONS / 1024) + "KB/region, "
+                + ((t1 - t0) / REGIONS / 1000) + "us/region; load "
+                + ((a2 - a1) / REGIONS / 1024) + "KB/region, "
+                + ((t2 - t1) / REGIONS / 1000) + "us/region");
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Tile.registerTiles();
+        File tmp = Files.createTempDirectory("codecbench").toFile();
+        FileHandle root = new FileHandle(tmp);
+        try {
+            SliceCodecBenchmark b = new SliceCodecBenchmark(root);
+            for(int i = 0; i < RUNS; i++) {
+                b.nbt();
+                b.binary();
+            }
+            System.out.println("(A slice's own arrays take "
+                    + (Slice.SLICE_AREA * 9 / 1024) + "KB when flat)");
+        } finally {
+            root.deleteDirectory();
+        }
+    }
+    
+}
@@ -0,0 +1,104 @@
+package com.stabilise.tests;
+
+import static com.stabilise.world.Region.REGION_SIZE;
+import static com.stabilise.world.Slice.SLICE_SIZE;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.stabilise.entity.Position;
+import com.stabilise.util.TaskTimer;
+import com.stabilise.util.maths.Point;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.SliceCache;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Measures tile reads per second through the uncached region lookup path
+ * (as {@code HostWorld.getSliceAt()} used to do) versus through a {@link
+ * SliceCache}. Primary storage is stood in for by a ConcurrentHashMap keyed
+ * by region loc, exactly as in {@code RegionStore}.
+ * 
+ * <p>The access pattern mimics a physics collision sweep: a point wanders
+ * about randomly, and each step reads the 3x3 block of tiles around it.
+ */
+public class SliceLookupBenchmark {
+    
+    private static final int REGIONS = 5; // REGIONS x REGIONS loaded
+    private static final int STEPS = 5_000_000;
+    private static final int RUNS = 5;
+    
+    private final ConcurrentMap<Point, Slice[][]> regions = new ConcurrentHashMap<>();
+    private final Point dummyLoc = Region.createMutableLoc();
+    private final SliceCache cache = new SliceCache(this::lookup, () -> 0);
+    
+    private int sink = 0; // defeat dead code elimination
+    
+    
+    private SliceLookupBenchmark() {
+        for(int rx = 0; rx < REGIONS; rx++) {
+            for(int ry = 0; ry < REGIONS; ry++) {
+                Slice[][] slices = new Slice[REGION_SIZE][REGION_SIZE];
+                for(int y = 0; y < REGION_SIZE; y++)
+                    for(int x = 0; x < REGION_SIZE; x++)
+                        slices[y][x] = new Slice(rx*REGION_SIZE + x, ry*REGION_SIZE + y);
+                regions.put(Region.createImmutableLoc(rx, ry), slices);
+            }
+        }
+    }
+    
+    private Slice lookup(int x, int y) {
+        Slice[][] slices = regions.get(dummyLoc.set(
+                Position.regionCoordFromSliceCoord(x),
+                Position.regionCoordFromSliceCoord(y)));
+        if(slices == null)
+            return Slice.DUMMY_SLICE;
+        return slices[Position.sliceCoordRelativeToRegionFromSliceCoord(y)]
+                [Position.sliceCoordRelativeToRegionFromSliceCoord(x)];
+    }
+    
+    private long run(boolean cached) {
+        Random rnd = new Random(1234L);
+        int max = REGIONS * Region.REGION_SIZE_IN_TILES - 2;
+        int tx = max / 2, ty = max / 2;
+        long reads = 0;
+        for(int i = 0; i < STEPS; i++) {
+            tx = Math.max(1, Math.min(max, tx + rnd.nextInt(3) - 1));
+            ty = Math.max(1, Math.min(max, ty + rnd.nextInt(3) - 1));
+            for(int y = ty - 1; y <= ty + 1; y++) {
+                for(int x = tx - 1; x <= tx + 1; x++) {
+                    int sx = x >> Slice.SLICE_SIZE_SHIFT;
+                    int sy = y >> Slice.SLICE_SIZE_SHIFT;
+                    Slice s = cached ? cache.get(sx, sy) : lookup(sx, sy);
+                    sink += s.getTileIDAt(x & (SLICE_SIZE - 1), y & (SLICE_SIZE - 1));
+                    reads++;
+                }
+            }
+        }
+        return reads;
+    }
+    
+    private void time(String name, boolean cached) {
+        TaskTimer t = new TaskTimer(name);
+        t.start();
+        long reads = run(cached);
+        t.stop();
+        long ms = Math.max(1, t.getDuration(TimeUnit.MILLISECONDS));
+        System.out.println(t.getResult(TimeUnit.MILLISECONDS) + " ("
+                + (reads * 1000 / ms) + " tile reads/sec)");
+    }
+    
+    public static void main(String[] args) {
+        Tile.registerTiles();
+        SliceLookupBenchmark b = new SliceLookupBenchmark();
+        for(int i = 0; i < RUNS; i++) {
+            b.time("Uncached", false);
+            b.time("Cached  ", true);
+        }
+        System.out.println(b.cache + " (sink: " + b.sink + ")");
+    }
+    
+}
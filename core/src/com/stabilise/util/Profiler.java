@@ -323,6 +323,33 @@ public class Profiler {
         return sb.toString();
     }
     
+    /**
+     * Adds the data of another profiler, as of when it was last {@link
+     * #flush() flushed}, to the current section of this profiler. The other
+     * profiler's root section becomes a subsection of the current section
+     * with the given name, and is added to if such a subsection already
+     * exists. This does nothing unless both profilers are effectively
+     * enabled.
+     * 
+     * <p>This allows work done on other threads to be profiled by profilers
+     * of its own, each of which should reset on flush, and folded into this
+     * profiler once the work is done. Note that sections absorbed from work
+     * which ran concurrently may add up to more than the section which holds
+     * them.
+     * 
+     * @param other The profiler whose data to absorb.
+     * @param section The name of the section to hold the data.
+     * 
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    public void absorb(Profiler other, String section) {
+        Objects.requireNonNull(section);
+        if(effectivelyEnabled && other.effectivelyEnabled)
+            stack.getLast().getConstituents()
+                    .computeIfAbsent(section, Section::new)
+                    .add(other.lastRoot);
+    }
+    
     /**
      * Gets the profiler's data at the time it was most recently flushed, as
      * per {@link #flush()}.
@@ -394,6 +421,17 @@ public class Profiler {
             }
         }
         
+        /**
+         * Adds the duration of another section, and those of its
+         * constituents, to this section.
+         */
+        private void add(Section s) {
+            duration += s.duration;
+            if(s.constituents != null)
+                for(Section c : s.constituents.values())
+                    getConstituents().computeIfAbsent(c.name, Section::new).add(c);
+        }
+        
         public Map<String, Section> getConstituents() {
             return constituents == null
                     ? constituents = new HashMap<>()
@@ -0,0 +1,308 @@
+package com.stabilise.util.collect;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A concurrent map from primitive {@code long} keys to objects, implemented
+ * as an open-addressed hash table with linear probing. Keys aren't boxed, so
+ * lookups allocate nothing.
+ * 
+ * <p>Reads ({@link #get(long)}, {@link #containsKey(long)} and iteration)
+ * are lock-free. Writes synchronise on the map, on the assumption that they
+ * are much rarer than reads and short.
+ * 
+ * <p>Each slot of the table is claimed by a key once and keeps it until the
+ * table is rebuilt; removing a key leaves a tombstone in its slot, which the
+ * key may later reclaim. As a slot's key is written before its value is
+ * published, and never changes afterwards, a reader which sees a value in a
+ * slot always sees the key it belongs to. Tables are rebuilt (dropping
+ * tombstones) into a new array, so readers still probing the old one are
+ * unaffected.
+ * 
+ * <p>Iteration is weakly consistent, like that of {@code ConcurrentHashMap}:
+ * it reflects the map at some point at or since the start of iteration, and
+ * never throws {@code ConcurrentModificationException}.
+ * 
+ * <p>{@code null} values are not permitted.
+ * 
+ * @param <V> The type of value.
+ */
+@ThreadSafe
+public class ConcurrentLongMap<V> {
+    
+    /** Marks a slot whose key has been removed. */
+    private static final Object TOMBSTONE = new Object();
+    private static final int MIN_CAPACITY = 16;
+    
+    
+    private volatile Table table;
+    /** The number of keys mapped to values. */
+    private volatile int size = 0;
+    /** The number of slots of {@link #table} claimed by a key, including
+     * tombstones. */
+    @GuardedBy("this")
+    private int used = 0;
+    
+    
+    /**
+     * Creates a new map with the default initial capacity.
+     */
+    public ConcurrentLongMap() {
+        this(MIN_CAPACITY);
+    }
+    
+    /**
+     * Creates a new map which can hold the specified number of entries before
+     * it needs to grow.
+     */
+    public ConcurrentLongMap(int initialCapacity) {
+        table = new Table(tableSizeFor(initialCapacity));
+    }
+    
+    /**
+     * Returns the value the given key is mapped to, or {@code null} if it
+     * isn't mapped to anything.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Table t = table;
+        for(int i = hash(key) & t.mask; ; i = (i + 1) & t.mask) {
+            Object v = t.vals.get(i); // volatile read; publishes keys[i]
+            if(v == null)
+                return null;
+            if(t.keys[i] == key)
+                return v == TOMBSTONE ? null : (V)v;
+        }
+    }
+    
+    /**
+     * Returns true if the given key is mapped to a value.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+    
+    /**
+     * Maps a key to a value.
+     * 
+     * @return The value previously mapped to the key, or {@code null}.
+     * @throws NullPointerException if {@code value} is {@code null}.
+     */
+    public synchronized V put(long key, V value) {
+        Objects.requireNonNull(value);
+        int i = slotFor(key);
+        Table t = table;
+        if(i >= 0)
+            return replace(t, i, value);
+        
+        if(used + 1 > t.threshold) {
+            // Grow if over half the claimed slots are live; otherwise merely
+            // sweep away the tombstones. Either way, it'll be a while before
+            // we need to rebuild again.
+            rebuild(size + 1 > t.threshold / 2 ? t.threshold * 2 : t.threshold);
+            t = table;
+        }
+        i = ~slotFor(key);
+        t.keys[i] = key;
+        t.vals.set(i, value); // publishes the key
+        used++;
+        size++;
+        return null;
+    }
+    
+    /**
+     * Maps a key to a value if it isn't already mapped to one.
+     * 
+     * @return The value the key is already mapped to, or {@code null} if it
+     * is now mapped to {@code value}.
+     * @throws NullPointerException if {@code value} is {@code null}.
+     */
+    public synchronized V putIfAbsent(long key, V value) {
+        V v = get(key);
+        return v != null ? v : put(key, value);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private V replace(Table t, int i, V value) {
+        Object old = t.vals.get(i);
+        t.vals.set(i, value);
+        if(old == TOMBSTONE) {
+            size++;
+            return null;
+        }
+        return (V)old;
+    }
+    
+    /**
+     * Removes a key's mapping.
+     * 
+     * @return The value it was mapped to, or {@code null} if it wasn't.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long key) {
+        int i = slotFor(key);
+        if(i < 0)
+            return null;
+        Object old = table.vals.get(i);
+        if(old == TOMBSTONE)
+            return null;
+        table.vals.set(i, TOMBSTONE);
+        size--;
+        return (V)old;
+    }
+    
+    /**
+     * Removes a key's mapping only if it is mapped to the given value (as
+     * per {@code ==}).
+     * 
+     * @return true if the mapping was removed.
+     */
+    public synchronized boolean remove(long key, V value) {
+        int i = slotFor(key);
+        if(i < 0 || table.vals.get(i) != value)
+            return false;
+        table.vals.set(i, TOMBSTONE);
+        size--;
+        return true;
+    }
+    
+    /**
+     * Removes every mapping.
+     */
+    public synchronized void clear() {
+        if(used == 0)
+            return;
+        // Slots can't be emptied in place, as a reader could then match a
+        // new key against an old value.
+        table = new Table(tableSizeFor(MIN_CAPACITY));
+        used = 0;
+        size = 0;
+    }
+    
+    /**
+     * Returns the number of mappings in this map.
+     */
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Runs the given action for each value in this map.
+     * 
+     * @throws NullPointerException if {@code action} is {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> action) {
+        Table t = table;
+        for(int i = 0; i < t.vals.length(); i++) {
+            Object v = t.vals.get(i);
+            if(v != null && v != TOMBSTONE)
+                action.accept((V)v);
+        }
+    }
+    
+    /**
+     * Finds the slot claimed by a key.
+     * 
+     * @return The index of the slot, or the bitwise complement of the
+     * index of the empty slot at which the search ended if the key has not
+     * claimed one.
+     */
+    @GuardedBy("this")
+    private int slotFor(long key) {
+        Table t = table;
+        for(int i = hash(key) & t.mask; ; i = (i + 1) & t.mask) {
+            if(t.vals.get(i) == null)
+                return ~i;
+            if(t.keys[i] == key)
+                return i;
+        }
+    }
+    
+    /**
+     * Replaces the table with one large enough for the given number of
+     * entries, dropping every tombstone.
+     */
+    @GuardedBy("this")
+    private void rebuild(int entries) {
+        Table old = table;
+        Table t = new Table(tableSizeFor(entries));
+        for(int i = 0; i < old.vals.length(); i++) {
+            Object v = old.vals.get(i);
+            if(v == null || v == TOMBSTONE)
+                continue;
+            long key = old.keys[i];
+            int j = hash(key) & t.mask;
+            while(t.vals.get(j) != null)
+                j = (j + 1) & t.mask;
+            t.keys[j] = key;
+            t.vals.set(j, v);
+        }
+        table = t; // publish
+        used = size;
+    }
+    
+    /**
+     * Returns a table length which can hold the given number of entries
+     * with room to spare.
+     */
+    private static int tableSizeFor(int entries) {
+        // Keep the table at most half full so that probe sequences are short
+        int n = Math.max(MIN_CAPACITY, entries * 2);
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+    
+    private static int hash(long key) {
+        // The finaliser of MurmurHash3. Keys often differ only in their low
+        // bits (e.g. packed coordinates), so they need spreading.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key;
+    }
+    
+    /**
+     * Packs two ints into a long, for use as a key.
+     */
+    public static long pack(int x, int y) {
+        return ((long)x << 32) | (y & 0xFFFFFFFFL);
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    private static final class Table {
+        
+        /** Each slot's key. Written before the slot's value is first set, and
+         * never changed after. */
+        final long[] keys;
+        /** Each slot's value: null if the slot is empty, {@link #TOMBSTONE} if
+         * its key has been removed. */
+        final AtomicReferenceArray<Object> vals;
+        final int mask;
+        /** The number of slots which may be claimed before the table must be
+         * rebuilt. */
+        final int threshold;
+        
+        Table(int length) {
+            keys = new long[length];
+            vals = new AtomicReferenceArray<>(length);
+            mask = length - 1;
+            threshold = length / 2;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,357 @@
+package com.stabilise.util.collect;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A fixed-length int array which may optionally be {@link #compact()
+ * compacted} into palette mode. In palette mode, each element is stored as a
+ * bit-packed index into a small palette of distinct values, which makes an
+ * array with few distinct values (e.g. a slice that is all air or all stone)
+ * considerably smaller.
+ * 
+ * <p>Setting a value that isn't in the palette grows the palette, widening
+ * the packed indices if need be. If the palette would need to grow beyond
+ * {@link #MAX_PALETTE_SIZE} values, the array silently reverts to flat mode.
+ * 
+ * <p>Reads in flat mode are a plain array access; reads in palette mode cost
+ * an additional shift and mask.
+ * 
+ * <p>A {@link #snapshot() snapshot} shares this array's backing arrays until
+ * either is next modified, at which point the one being modified copies them
+ * first. A snapshot which is only ever read may thus be handed to another
+ * thread while this array continues to be modified.
+ */
+@NotThreadSafe
+public class PalettedIntArray {
+    
+    /** Maximum number of bits used to index into the palette. Must be a power
+     * of two no greater than 32. */
+    private static final int MAX_BITS = 4;
+    /** The maximum number of distinct values an array may hold while in
+     * palette mode. */
+    public static final int MAX_PALETTE_SIZE = 1 << MAX_BITS;
+    
+    private final int length;
+    
+    /** The values, if in flat mode; {@code null} if in palette mode. */
+    private int[] flat;
+    
+    /** The palette, if in palette mode. Always of length {@link
+     * #MAX_PALETTE_SIZE}; only the first {@link #paletteSize} values are
+     * meaningful. */
+    private int[] palette;
+    private int paletteSize;
+    /** The packed palette indices, if in palette mode. */
+    private long[] packed;
+    /** The number of bits per packed index. */
+    private int bits;
+    /** log2(64 / bits), i.e. log2 of the number of indices in each long. */
+    private int perLongShift;
+    
+    /** true if the backing arrays may be shared with a {@link #snapshot()},
+     * in which case they must be copied before they are modified. */
+    private boolean shared = false;
+    
+    
+    /**
+     * Creates a new zero-filled array in flat mode.
+     * 
+     * @throws NegativeArraySizeException if {@code length < 0}.
+     */
+    public PalettedIntArray(int length) {
+        this(new int[length]);
+    }
+    
+    /**
+     * Creates a new array in flat mode, which is backed by the given array.
+     * 
+     * @throws NullPointerException if {@code data} is {@code null}.
+     */
+    public PalettedIntArray(int[] data) {
+        this.length = data.length;
+        this.flat = data;
+    }
+    
+    /**
+     * Creates a new array in palette mode. The given arrays are used directly.
+     */
+    private PalettedIntArray(int length, int[] palette, int paletteSize, int bits, long[] packed) {
+        this.length = length;
+        this.palette = palette;
+        this.paletteSize = paletteSize;
+        this.bits = bits;
+        this.perLongShift = Integer.numberOfTrailingZeros(64 / bits);
+        this.packed = packed;
+    }
+    
+    /**
+     * Returns the length of this array.
+     */
+    public int length() {
+        return length;
+    }
+    
+    /**
+     * Gets the value at the specified index.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if {@code i} is out of bounds.
+     */
+    public int get(int i) {
+        int[] f = flat;
+        if(f != null)
+            return f[i];
+        if(i < 0 || i >= length)
+            throw new ArrayIndexOutOfBoundsException(i);
+        int slot = i & ((1 << perLongShift) - 1);
+        return palette[(int)(packed[i >>> perLongShift] >>> (slot * bits)) & ((1 << bits) - 1)];
+    }
+    
+    /**
+     * Sets the value at the specified index.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if {@code i} is out of bounds.
+     */
+    public void set(int i, int value) {
+        if(shared)
+            unshare();
+        if(flat != null) {
+            flat[i] = value;
+            return;
+        }
+        if(i < 0 || i >= length)
+            throw new ArrayIndexOutOfBoundsException(i);
+        
+        int p = paletteIndexOf(value);
+        if(p == -1) {
+            if(paletteSize == 1 << bits) {
+                if(bits == MAX_BITS) {
+                    expand();
+                    flat[i] = value;
+                    return;
+                }
+                repack(bits << 1);
+            }
+            p = paletteSize++;
+            palette[p] = value;
+        }
+        writeIndex(i, p);
+    }
+    
+    /**
+     * Attempts to switch this array into palette mode. This does nothing if
+     * this array is already in palette mode, or if it holds more than {@link
+     * #MAX_PALETTE_SIZE} distinct values.
+     * 
+     * @return {@code true} if this array is in palette mode once this method
+     * returns.
+     */
+    public boolean compact() {
+        if(flat == null)
+            return true;
+        
+        int[] pal = new int[MAX_PALETTE_SIZE];
+        int size = 0;
+        for(int i = 0; i < length; i++) {
+            int v = flat[i];
+            int p = indexOf(pal, size, v);
+            if(p == -1) {
+                if(size == MAX_PALETTE_SIZE)
+                    return false;
+                pal[size++] = v;
+            }
+        }
+        
+        int b = 1;
+        while((1 << b) < size)
+            b <<= 1;
+        
+        int[] values = flat; // left as is, as it may be shared
+        palette = pal;
+        paletteSize = size;
+        setBits(b);
+        flat = null;
+        shared = false; // the new arrays are ours alone
+        for(int i = 0; i < length; i++)
+            writeIndex(i, paletteIndexOf(values[i]));
+        return true;
+    }
+    
+    /**
+     * Returns a copy of this array which shares its backing arrays with this
+     * one, so no data is copied up front. Whichever of the two is modified
+     * first copies the arrays at that point, so neither ever sees changes
+     * made to the other.
+     */
+    public PalettedIntArray snapshot() {
+        PalettedIntArray s = flat != null
+                ? new PalettedIntArray(flat)
+                : new PalettedIntArray(length, palette, paletteSize, bits, packed);
+        s.shared = shared = true;
+        return s;
+    }
+    
+    /**
+     * Copies the backing arrays, which are shared with a snapshot.
+     */
+    private void unshare() {
+        if(flat != null)
+            flat = flat.clone();
+        else {
+            palette = palette.clone();
+            packed = packed.clone();
+        }
+        shared = false;
+    }
+    
+    /**
+     * Returns {@code true} if this array is currently in palette mode.
+     */
+    public boolean isPaletted() {
+        return flat == null;
+    }
+    
+    /**
+     * Returns a copy of the contents of this array as a plain int array.
+     */
+    public int[] toArray() {
+        if(flat != null)
+            return flat.clone();
+        int[] arr = new int[length];
+        for(int i = 0; i < length; i++)
+            arr[i] = get(i);
+        return arr;
+    }
+    
+    /**
+     * Estimates the number of bytes of heap used by the arrays backing this
+     * object (not including this object itself).
+     */
+    public long sizeInBytes() {
+        if(flat != null)
+            return arrayBytes(length, 4);
+        return arrayBytes(palette.length, 4) + arrayBytes(packed.length, 8);
+    }
+    
+    /**
+     * Writes this array, in whichever mode it is currently in, to the given
+     * output. The length is not written. The array may be read back using
+     * {@link #read(DataInput, int)}.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(DataOutput out) throws IOException {
+        if(flat != null) {
+            out.writeByte(0);
+            for(int i = 0; i < length; i++)
+                out.writeInt(flat[i]);
+        } else {
+            out.writeByte(bits);
+            out.writeByte(paletteSize);
+            for(int i = 0; i < paletteSize; i++)
+                out.writeInt(palette[i]);
+            for(int i = 0; i < packed.length; i++)
+                out.writeLong(packed[i]);
+        }
+    }
+    
+    /**
+     * Reads an array which was written by {@link #write(DataOutput)}.
+     * 
+     * @param length The length of the array.
+     * 
+     * @throws IOException if an I/O error occurs, or the data is malformed.
+     */
+    public static PalettedIntArray read(DataInput in, int length) throws IOException {
+        int bits = in.readUnsignedByte();
+        if(bits == 0) {
+            int[] data = new int[length];
+            for(int i = 0; i < length; i++)
+                data[i] = in.readInt();
+            return new PalettedIntArray(data);
+        }
+        
+        int size = in.readUnsignedByte();
+        if(Integer.bitCount(bits) != 1 || bits > MAX_BITS || size == 0 || size > 1 << bits)
+            throw new IOException("Malformed paletted array (bits: " + bits
+                    + ", palette size: " + size + ")");
+        int[] pal = new int[MAX_PALETTE_SIZE];
+        for(int i = 0; i < size; i++)
+            pal[i] = in.readInt();
+        int perLongShift = Integer.numberOfTrailingZeros(64 / bits);
+        long[] packed = new long[(length + (1 << perLongShift) - 1) >>> perLongShift];
+        for(int i = 0; i < packed.length; i++)
+            packed[i] = in.readLong();
+        return new PalettedIntArray(length, pal, size, bits, packed);
+    }
+    
+    private int paletteIndexOf(int value) {
+        return indexOf(palette, paletteSize, value);
+    }
+    
+    private void writeIndex(int i, int p) {
+        int idx = i >>> perLongShift;
+        int shift = (i & ((1 << perLongShift) - 1)) * bits;
+        long mask = ((1L << bits) - 1) << shift;
+        packed[idx] = (packed[idx] & ~mask) | ((long)p << shift);
+    }
+    
+    private void setBits(int b) {
+        bits = b;
+        perLongShift = Integer.numberOfTrailingZeros(64 / b);
+        packed = new long[(length + (1 << perLongShift) - 1) >>> perLongShift];
+    }
+    
+    /**
+     * Re-packs the palette indices using {@code newBits} bits per index.
+     */
+    private void repack(int newBits) {
+        int[] indices = new int[length];
+        for(int i = 0; i < length; i++) {
+            int slot = i & ((1 << perLongShift) - 1);
+            indices[i] = (int)(packed[i >>> perLongShift] >>> (slot * bits)) & ((1 << bits) - 1);
+        }
+        setBits(newBits);
+        for(int i = 0; i < length; i++)
+            writeIndex(i, indices[i]);
+    }
+    
+    /**
+     * Reverts to flat mode.
+     */
+    private void expand() {
+        int[] arr = toArray();
+        palette = null;
+        packed = null;
+        paletteSize = 0;
+        flat = arr;
+    }
+    
+    @Override
+    public String toString() {
+        return flat != null
+                ? Arrays.toString(flat)
+                : Arrays.toString(toArray()) + " (paletted: " + paletteSize + " values)";
+    }
+    
+    private static int indexOf(int[] arr, int size, int value) {
+        for(int i = 0; i < size; i++)
+            if(arr[i] == value)
+                return i;
+        return -1;
+    }
+    
+    /**
+     * Estimates the heap size, in bytes, of an array with the given number of
+     * elements of the given size, assuming a 16-byte header and 8-byte
+     * alignment.
+     */
+    public static long arrayBytes(int elements, int elementSize) {
+        return (16L + (long)elements * elementSize + 7) & ~7L;
+    }
+    
+}
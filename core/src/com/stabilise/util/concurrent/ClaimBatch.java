@@ -0,0 +1,108 @@
+package com.stabilise.util.concurrent;
+
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.Checks;
+
+/**
+ * A batch of indexed jobs to be done by several threads at once. Each thread
+ * which {@link #run() runs} the batch claims jobs one at a time until there
+ * are none left, so a thread which starts late (e.g. since its executor was
+ * busy) may find there is nothing left to do. As such, the thread which
+ * hands the batch out should run it too rather than merely wait on it, so
+ * that the batch always gets done; see {@link #runWith(Executor, int)}.
+ */
+@ThreadSafe
+public class ClaimBatch {
+    
+    private final int n;
+    private final IntConsumer job;
+    private final AtomicInteger next = new AtomicInteger();
+    private final CountDownLatch done;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    
+    
+    /**
+     * Creates a new batch.
+     * 
+     * @param n The number of jobs.
+     * @param job The job, which is passed each index from {@code 0} to {@code
+     * n-1} once.
+     * 
+     * @throws IllegalArgumentException if {@code n < 0}.
+     * @throws NullPointerException if {@code job} is {@code null}.
+     */
+    public ClaimBatch(int n, IntConsumer job) {
+        this.n = Checks.testMin(n, 0);
+        this.job = Objects.requireNonNull(job);
+        done = new CountDownLatch(n);
+    }
+    
+    /**
+     * Does jobs until there are none left to claim. An exception thrown by a
+     * job is held onto until {@link #await()}, rather than propagated.
+     */
+    public void run() {
+        int i;
+        while((i = next.getAndIncrement()) < n) {
+            try {
+                job.accept(i);
+            } catch(Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+    
+    /**
+     * Waits for every job to be done, and rethrows the first exception
+     * thrown by a job, if any. If the current thread is interrupted while
+     * waiting, it keeps waiting, and its interrupt status is restored
+     * afterwards.
+     */
+    public void await() {
+        boolean interrupted = false;
+        while(true) {
+            try {
+                done.await();
+                break;
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+        
+        Throwable t = failure.get();
+        if(t instanceof RuntimeException)
+            throw (RuntimeException)t;
+        if(t instanceof Error)
+            throw (Error)t;
+        if(t != null)
+            throw new RuntimeException(t);
+    }
+    
+    /**
+     * Runs this batch on up to {@code helpers} threads of the given executor
+     * besides the current thread, and then {@link #await() waits} for it to
+     * be done. No more helpers are used than there are jobs for.
+     * 
+     * @throws NullPointerException if {@code executor} is {@code null}.
+     */
+    public void runWith(Executor executor, int helpers) {
+        Objects.requireNonNull(executor);
+        for(int i = Math.min(n - 1, helpers); i > 0; i--)
+            executor.execute(this::run);
+        run();
+        await();
+    }
+    
+}
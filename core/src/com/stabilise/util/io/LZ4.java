@@ -0,0 +1,428 @@
+package com.stabilise.util.io;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A pure-Java implementation of the LZ4 block format, plus a simple framing
+ * for streams.
+ * 
+ * <p>LZ4 trades compression ratio for speed: it typically compresses to
+ * somewhat larger output than deflate, but compresses and decompresses
+ * several times faster. Blocks produced by {@link #compress(byte[], int, int,
+ * byte[], int) compress()} are compatible with other LZ4 block decoders; the
+ * stream framing is specific to this class.
+ */
+public class LZ4 {
+    
+    private LZ4() {} // non-instantiable
+    
+    private static final int MIN_MATCH = 4;
+    /** The last match must start at least this many bytes before the end. */
+    private static final int MF_LIMIT = 12;
+    /** The last this-many bytes are always literals. */
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 0xFFFF;
+    
+    private static final int HASH_LOG = 12;
+    
+    /** The maximum amount of uncompressed data in a stream block. */
+    public static final int BLOCK_SIZE = 1 << 16;
+    
+    /** Hash tables for {@link #compress(byte[], int, int, byte[], int)}, one
+     * per thread, so that compressing a small block doesn't need to allocate
+     * a new table each time. */
+    private static final ThreadLocal<int[]> TABLES =
+            ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+    
+    
+    /**
+     * Returns the maximum size of the compressed form of {@code len} bytes.
+     */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+    
+    /**
+     * Compresses {@code len} bytes of {@code src}, starting at {@code off}, into
+     * {@code dst}, starting at {@code dstOff}. {@code dst} must have at least
+     * {@link #maxCompressedLength(int) maxCompressedLength(len)} bytes of
+     * space.
+     * 
+     * @return The number of bytes written to {@code dst}.
+     * @throws ArrayIndexOutOfBoundsException if either array is too small.
+     */
+    public static int compress(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        int[] table = TABLES.get();
+        Arrays.fill(table, -1);
+        
+        int end = off + len;
+        int mfLimit = end - MF_LIMIT;
+        int matchLimit = end - LAST_LITERALS;
+        int anchor = off;
+        int ip = off;
+        int op = dstOff;
+        
+        while(ip < mfLimit) {
+            int seq = readInt(src, ip);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = ip;
+            if(ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                ip++;
+                continue;
+            }
+            
+            // Extend the match backwards over any pending literals
+            while(ip > anchor && ref > off && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            
+            int matchLen = MIN_MATCH;
+            while(ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen])
+                matchLen++;
+            
+            op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLen - MIN_MATCH);
+            ip += matchLen;
+            anchor = ip;
+        }
+        
+        // Last literals
+        return writeSequence(dst, op, src, anchor, end - anchor, 0, -1) - dstOff;
+    }
+    
+    /**
+     * Writes a sequence. If {@code matchLen} is -1, no match is written (as
+     * for the final sequence of a block).
+     * 
+     * @return The new output position.
+     */
+    private static int writeSequence(byte[] dst, int op, byte[] src, int litOff,
+            int litLen, int offset, int matchLen) {
+        int token = (Math.min(litLen, 15) << 4) | (matchLen < 0 ? 0 : Math.min(matchLen, 15));
+        dst[op++] = (byte)token;
+        op = writeLength(dst, op, litLen);
+        System.arraycopy(src, litOff, dst, op, litLen);
+        op += litLen;
+        if(matchLen >= 0) {
+            dst[op++] = (byte)offset;
+            dst[op++] = (byte)(offset >>> 8);
+            op = writeLength(dst, op, matchLen);
+        }
+        return op;
+    }
+    
+    private static int writeLength(byte[] dst, int op, int len) {
+        if(len >= 15) {
+            len -= 15;
+            while(len >= 255) {
+                dst[op++] = (byte)255;
+                len -= 255;
+            }
+            dst[op++] = (byte)len;
+        }
+        return op;
+    }
+    
+    /**
+     * Decompresses a block.
+     * 
+     * @param src The compressed data.
+     * @param off The offset of the compressed data in {@code src}.
+     * @param len The length of the compressed data.
+     * @param dst The array to decompress into.
+     * @param dstOff The offset into {@code dst} at which to decompress.
+     * @param dstLen The exact length of the uncompressed data.
+     * 
+     * @throws IOException if the block is malformed or does not decompress
+     * to exactly {@code dstLen} bytes.
+     */
+    public static void decompress(byte[] src, int off, int len, byte[] dst,
+            int dstOff, int dstLen) throws IOException {
+        int ip = off, end = off + len;
+        int op = dstOff, dstEnd = dstOff + dstLen;
+        
+        try {
+            while(true) {
+                int token = src[ip++] & 0xFF;
+                
+                int litLen = token >>> 4;
+                if(litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        litLen += b;
+                    } while(b == 255);
+                }
+                if(ip + litLen > end || op + litLen > dstEnd)
+                    throw new IOException("Malformed LZ4 block (literals overrun)");
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                
+                if(ip == end)
+                    break; // last sequence has no match
+                
+                int offset = (src[ip++] & 0xFF) | ((src[ip++] & 0xFF) << 8);
+                int ref = op - offset;
+                if(offset == 0 || ref < dstOff)
+                    throw new IOException("Malformed LZ4 block (bad offset)");
+                
+                int matchLen = token & 0x0F;
+                if(matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while(b == 255);
+                }
+                matchLen += MIN_MATCH;
+                if(op + matchLen > dstEnd)
+                    throw new IOException("Malformed LZ4 block (match overrun)");
+                
+                // Matches may overlap their own output, so copy bytewise
+                for(int i = 0; i < matchLen; i++)
+                    dst[op++] = dst[ref++];
+            }
+        } catch(ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed LZ4 block (truncated)", e);
+        }
+        
+        if(op != dstEnd)
+            throw new IOException("Malformed LZ4 block (expected " + dstLen
+                    + " bytes; got " + (op - dstOff) + ")");
+    }
+    
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i+1] & 0xFF) << 8) | ((b[i+2] & 0xFF) << 16) | (b[i+3] << 24);
+    }
+    
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * An OutputStream which compresses data into LZ4 blocks of up to {@link
+     * #BLOCK_SIZE} bytes each. Each block is written as:
+     * 
+     * <pre>
+     * [ uncompressed length (4) | compressed length (4) | data ]
+     * </pre>
+     * 
+     * where a compressed length of -1 indicates that the block is stored
+     * uncompressed. The stream is terminated by an uncompressed length of 0,
+     * which is written when the stream is closed.
+     */
+    public static class LZ4OutputStream extends FilterOutputStream {
+        
+        /** Pending uncompressed data. Grows as needed up to BLOCK_SIZE, so
+         * that short streams stay cheap. */
+        private byte[] buf = new byte[256];
+        private int count = 0;
+        private byte[] compressed;
+        private boolean closed = false;
+        
+        
+        public LZ4OutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            if(count == buf.length)
+                makeRoom();
+            buf[count++] = (byte)b;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                if(count == buf.length)
+                    makeRoom();
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+        
+        /**
+         * Grows the buffer, or writes out a block if it is at capacity.
+         */
+        private void makeRoom() throws IOException {
+            if(buf.length < BLOCK_SIZE)
+                buf = Arrays.copyOf(buf, Math.min(BLOCK_SIZE, buf.length << 2));
+            else
+                writeBlock();
+        }
+        
+        private void writeBlock() throws IOException {
+            if(count == 0)
+                return;
+            int max = maxCompressedLength(count);
+            if(compressed == null || compressed.length < max)
+                compressed = new byte[max];
+            int len = compress(buf, 0, count, compressed, 0);
+            writeInt(count);
+            if(len < count) {
+                writeInt(len);
+                out.write(compressed, 0, len);
+            } else {
+                writeInt(-1);
+                out.write(buf, 0, count);
+            }
+            count = 0;
+        }
+        
+        private void writeInt(int i) throws IOException {
+            out.write(i >>> 24);
+            out.write(i >>> 16);
+            out.write(i >>> 8);
+            out.write(i);
+        }
+        
+        /**
+         * Writes out any pending data as a block and flushes the underlying
+         * stream. Note that flushing often worsens compression.
+         */
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+            out.flush();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if(closed)
+                return;
+            closed = true;
+            try {
+                writeBlock();
+                writeInt(0);
+            } finally {
+                out.close();
+            }
+        }
+        
+    }
+    
+    /**
+     * An InputStream which reads data written by an {@link LZ4OutputStream}.
+     */
+    public static class LZ4InputStream extends FilterInputStream {
+        
+        private byte[] buf = new byte[0];
+        private byte[] compressed = new byte[0];
+        private int pos = 0, count = 0;
+        private boolean eof = false;
+        
+        
+        public LZ4InputStream(InputStream in) {
+            super(in);
+        }
+        
+        /**
+         * Reads the next block into the buffer.
+         * 
+         * @return false if the end of the stream has been reached.
+         */
+        private boolean fill() throws IOException {
+            if(eof)
+                return false;
+            int rawLen = readInt();
+            if(rawLen == 0) {
+                eof = true;
+                return false;
+            }
+            int len = readInt();
+            if(rawLen < 0 || rawLen > BLOCK_SIZE || len < -1 || len > maxCompressedLength(rawLen))
+                throw new IOException("Malformed LZ4 stream");
+            
+            if(buf.length < rawLen)
+                buf = new byte[rawLen];
+            if(len == -1)
+                readFully(buf, rawLen);
+            else {
+                if(compressed.length < len)
+                    compressed = new byte[len];
+                readFully(compressed, len);
+                decompress(compressed, 0, len, buf, 0, rawLen);
+            }
+            pos = 0;
+            count = rawLen;
+            return true;
+        }
+        
+        private int readInt() throws IOException {
+            int a = in.read(), b = in.read(), c = in.read(), d = in.read();
+            if((a | b | c | d) < 0)
+                throw new EOFException("Truncated LZ4 stream");
+            return (a << 24) | (b << 16) | (c << 8) | d;
+        }
+        
+        private void readFully(byte[] b, int len) throws IOException {
+            int off = 0;
+            while(off < len) {
+                int n = in.read(b, off, len - off);
+                if(n < 0)
+                    throw new EOFException("Truncated LZ4 stream");
+                off += n;
+            }
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if(pos == count && !fill())
+                return -1;
+            return buf[pos++] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+            if(pos == count && !fill())
+                return -1;
+            int n = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while(skipped < n) {
+                if(pos == count && !fill())
+                    break;
+                int s = (int)Math.min(n - skipped, count - pos);
+                pos += s;
+                skipped += s;
+            }
+            return skipped;
+        }
+        
+        @Override
+        public int available() {
+            return count - pos;
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+        
+    }
+    
+}
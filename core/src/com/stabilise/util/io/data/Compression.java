@@ -3,17 +3,25 @@ package com.stabilise.util.io.data;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.InflaterInputStream;
 
+import com.stabilise.util.io.LZ4.LZ4InputStream;
+import com.stabilise.util.io.LZ4.LZ4OutputStream;
+
 /**
  * An assortment of compression formats.
+ * 
+ * <p>Each format has a permanent {@link #id() ID} which may be persisted to
+ * identify it, e.g. to let data compressed in one format be read after the
+ * format used for new data has changed.
  */
 public enum Compression {
     
-    UNCOMPRESSED {
+    UNCOMPRESSED(0, 0) {
         @Override
         public InputStream wrap(InputStream in) throws IOException {
             return in;
@@ -24,7 +32,7 @@ public enum Compression {
             return out;
         }
     },
-    GZIP {
+    GZIP(1, Deflater.DEFAULT_COMPRESSION) {
         @Override
         public InputStream wrap(InputStream in) throws IOException {
             return new GZIPInputStream(in);
@@ -35,7 +43,7 @@ public enum Compression {
             return new GZIPOutputStream(out);
         }
     },
-    ZLIB {
+    ZLIB(2, Deflater.DEFAULT_COMPRESSION) {
         @Override
         public InputStream wrap(InputStream in) throws IOException {
             return new InflaterInputStream(in);
@@ -45,16 +53,127 @@ public enum Compression {
         public OutputStream wrap(OutputStream out) throws IOException {
             return new DeflaterOutputStream(out);
         }
+    },
+    /** Zlib at {@link Deflater#BEST_SPEED}. Readable as {@link #ZLIB}. */
+    ZLIB_FAST(3, Deflater.BEST_SPEED) {
+        @Override
+        public InputStream wrap(InputStream in) throws IOException {
+            return new InflaterInputStream(in);
+        }
+        
+        @Override
+        public OutputStream wrap(OutputStream out) throws IOException {
+            return deflate(out, level());
+        }
+    },
+    /** Zlib at {@link Deflater#BEST_COMPRESSION}. Readable as {@link #ZLIB}. */
+    ZLIB_BEST(4, Deflater.BEST_COMPRESSION) {
+        @Override
+        public InputStream wrap(InputStream in) throws IOException {
+            return new InflaterInputStream(in);
+        }
+        
+        @Override
+        public OutputStream wrap(OutputStream out) throws IOException {
+            return deflate(out, level());
+        }
+    },
+    /** A fast, pure-Java LZ4 block codec (see {@link
+     * com.stabilise.util.io.LZ4}). This compresses less than zlib but is
+     * considerably faster at both compression and decompression. */
+    LZ4(5, 0) {
+        @Override
+        public InputStream wrap(InputStream in) throws IOException {
+            return new LZ4InputStream(in);
+        }
+        
+        @Override
+        public OutputStream wrap(OutputStream out) throws IOException {
+            return new LZ4OutputStream(out);
+        }
     };
     
+    private static final Compression[] BY_ID;
+    
+    static {
+        Compression[] values = values();
+        BY_ID = new Compression[values.length];
+        for(Compression c : values) {
+            if(BY_ID[c.id] != null)
+                throw new AssertionError("Duplicate compression ID " + c.id);
+            BY_ID[c.id] = c;
+        }
+    }
+    
+    private final int id;
+    private final int level;
+    
+    
+    private Compression(int id, int level) {
+        this.id = id;
+        this.level = level;
+    }
+    
     /**
-     * Wraps the given InputStream in a compressing stream.
+     * Wraps the given InputStream in a decompressing stream.
      */
     public abstract InputStream wrap(InputStream in) throws IOException;
     
     /**
-     * Wraps the given OutputStream in a decompressing stream.
+     * Wraps the given OutputStream in a compressing stream.
      */
     public abstract OutputStream wrap(OutputStream out) throws IOException;
     
+    /**
+     * Returns this format's permanent ID, which is in the range [0, 255].
+     */
+    public int id() {
+        return id;
+    }
+    
+    /**
+     * Returns the deflate level this format compresses at, if it is a
+     * deflate-based format (which may be {@link
+     * Deflater#DEFAULT_COMPRESSION}); 0 otherwise.
+     */
+    public int level() {
+        return level;
+    }
+    
+    /**
+     * Gets the format with the given {@link #id() ID}.
+     * 
+     * @throws IllegalArgumentException if there is no such format.
+     */
+    public static Compression fromID(int id) {
+        if(id < 0 || id >= BY_ID.length || BY_ID[id] == null)
+            throw new IllegalArgumentException("Unknown compression ID " + id);
+        return BY_ID[id];
+    }
+    
+    /**
+     * Wraps the given OutputStream in a zlib stream which compresses at the
+     * given level.
+     * 
+     * @param level The deflate level, from {@link Deflater#BEST_SPEED} to
+     * {@link Deflater#BEST_COMPRESSION}, or {@link
+     * Deflater#DEFAULT_COMPRESSION}.
+     * 
+     * @throws IllegalArgumentException if {@code level} is invalid.
+     */
+    public static OutputStream deflate(OutputStream out, int level) {
+        Deflater def = new Deflater(level);
+        return new DeflaterOutputStream(out, def) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // We supplied the deflater, so we need to release it
+                    def.end();
+                }
+            }
+        };
+    }
+    
 }
@@ -0,0 +1,86 @@
+package com.stabilise.util.maths;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.badlogic.gdx.math.MathUtils;
+
+/**
+ * A rectangular block of noise gradients, one for each lattice point a batch
+ * of samples touches. Gradient noise touches each lattice point from many
+ * samples, so generating every gradient up-front means each is generated once
+ * per batch (typically once per region) rather than once per sample.
+ * 
+ * <p>A lattice is created for a single batch and is confined to the thread
+ * which samples it, which keeps the noise that creates it thread-safe.
+ */
+@NotThreadSafe
+final class GradientLattice {
+    
+    /** Lattices which would hold more than this many gradients per sample
+     * are not worth building. */
+    private static final int MAX_GRADIENTS_PER_SAMPLE = 2;
+    
+    final int minX, minY, maxX, maxY;
+    private final int width;
+    private final float[] gx, gy;
+    
+    
+    /**
+     * Creates a lattice spanning the given bounds (inclusive). The caller
+     * should then {@link #set(int, int, float) set} every gradient.
+     */
+    GradientLattice(int minX, int minY, int maxX, int maxY) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        width = maxX - minX + 1;
+        int area = width * (maxY - minY + 1);
+        gx = new float[area];
+        gy = new float[area];
+    }
+    
+    /**
+     * Sets the gradient at (x, y) to the unit vector with the given angle.
+     */
+    void set(int x, int y, float angle) {
+        int i = (y - minY) * width + (x - minX);
+        gx[i] = MathUtils.cos(angle);
+        gy[i] = MathUtils.sin(angle);
+    }
+    
+    /**
+     * Dots the gradient at (x, y) with (dx, dy).
+     */
+    float dot(int x, int y, float dx, float dy) {
+        int i = (y - minY) * width + (x - minX);
+        return gx[i]*dx + gy[i]*dy;
+    }
+    
+    /**
+     * Returns true if a lattice with the given bounds (inclusive) is small
+     * enough to be worth building for the given number of samples. Lattices
+     * are only unworthy when noise is sampled more sparsely than its lattice.
+     */
+    static boolean worthBuilding(int minX, int minY, int maxX, int maxY, int samples) {
+        long area = ((long)maxX - minX + 1) * ((long)maxY - minY + 1);
+        return area <= (long)samples * MAX_GRADIENTS_PER_SAMPLE;
+    }
+    
+    /**
+     * Returns the value that {@code new Random(seed).nextFloat()} would,
+     * without the cost of creating or reseeding a {@code Random}. This lets
+     * noise generate its gradients statelessly while remaining identical to
+     * those generated when it reseeded a shared {@code Random} at each
+     * lattice point.
+     */
+    static float randomFloat(long seed) {
+        // See Random.setSeed(), Random.next() and Random.nextFloat()
+        final long multiplier = 0x5DEECE66DL;
+        final long mask = (1L << 48) - 1;
+        seed = (seed ^ multiplier) & mask;
+        seed = (seed * multiplier + 0xBL) & mask;
+        return (int)(seed >>> (48 - 24)) / (float)(1 << 24);
+    }
+    
+}
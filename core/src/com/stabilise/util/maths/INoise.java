@@ -1,7 +1,19 @@
 package com.stabilise.util.maths;
 
+import java.util.Arrays;
+
 /**
  * This interface defines a generator of noise in both 1D and 2D space.
+ * 
+ * <p>As well as noise at individual points, noise may be sampled in bulk
+ * along rows of unit-spaced points using the {@code fill} methods. These are
+ * functionally equivalent to sampling each point in turn, but implementors
+ * are encouraged to override {@link #addRow1D(float[], int, int, double,
+ * double, float) addRow1D}, {@link #addRow(float[], int, int, double, double,
+ * double, float) addRow} and {@link #addGrid(float[], int, int, int, double,
+ * double, double, float) addGrid} with tight loops that exploit the coherence
+ * between adjacent points, since noise is typically sampled for many points
+ * at once (e.g. every tile of a region during world generation).
  */
 public interface INoise {
     
@@ -15,4 +27,81 @@ public interface INoise {
      */
     float noise(double x, double y);
     
+    /**
+     * Fills {@code out[0, n)} with the noise values at {@code x0, x0+1, ...,
+     * x0+n-1}, as if by {@link #noise(double)}.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if {@code out.length < n}.
+     */
+    default void fill1D(float[] out, double x0, int n) {
+        Arrays.fill(out, 0, n, 0f);
+        addRow1D(out, 0, n, x0, 1.0, 1f);
+    }
+    
+    /**
+     * Fills {@code out[0, n)} with the noise values at {@code (x0, y), (x0+1,
+     * y), ..., (x0+n-1, y)}, as if by {@link #noise(double, double)}.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if {@code out.length < n}.
+     */
+    default void fillRow(float[] out, double x0, double y, int n) {
+        Arrays.fill(out, 0, n, 0f);
+        addRow(out, 0, n, x0, y, 1.0, 1f);
+    }
+    
+    /**
+     * Fills {@code out} with the noise values over a {@code width*height}
+     * grid of points with its bottom-left corner at {@code (x0, y0)}. Rows
+     * are stored contiguously, i.e. the noise at {@code (x0+x, y0+y)} is
+     * placed at {@code out[y*width + x]}.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if {@code out.length <
+     * width*height}.
+     */
+    default void fill2D(float[] out, double x0, double y0, int width, int height) {
+        Arrays.fill(out, 0, width*height, 0f);
+        addGrid(out, 0, width, height, x0, y0, 1.0, 1f);
+    }
+    
+    /**
+     * Adds {@code weight * noise((x0+i)*freq)} to {@code out[off+i]} for
+     * each {@code i} in {@code [0, n)}.
+     * 
+     * <p>This is the primitive which backs {@link #fill1D(float[], double,
+     * int) fill1D}, and which lets octave noise accumulate octaves in place.
+     */
+    default void addRow1D(float[] out, int off, int n, double x0, double freq, float weight) {
+        for(int i = 0; i < n; i++)
+            out[off+i] += weight * noise((x0+i)*freq);
+    }
+    
+    /**
+     * Adds {@code weight * noise((x0+i)*freq, y*freq)} to {@code out[off+i]}
+     * for each {@code i} in {@code [0, n)}.
+     * 
+     * <p>This is the primitive which backs {@link #fillRow(float[], double,
+     * double, int) fillRow}, and which lets octave noise accumulate octaves in
+     * place.
+     */
+    default void addRow(float[] out, int off, int n, double x0, double y, double freq, float weight) {
+        double fy = y*freq;
+        for(int i = 0; i < n; i++)
+            out[off+i] += weight * noise((x0+i)*freq, fy);
+    }
+    
+    /**
+     * Adds {@code weight * noise((x0+x)*freq, (y0+y)*freq)} to {@code
+     * out[off + y*width + x]} for each {@code x} in {@code [0, width)} and
+     * {@code y} in {@code [0, height)}.
+     * 
+     * <p>This is the primitive which backs {@link #fill2D(float[], double,
+     * double, int, int) fill2D}, and which lets octave noise accumulate
+     * octaves in place.
+     */
+    default void addGrid(float[] out, int off, int width, int height,
+            double x0, double y0, double freq, float weight) {
+        for(int y = 0; y < height; y++)
+            addRow(out, off + y*width, width, x0, y0 + y, freq, weight);
+    }
+    
 }
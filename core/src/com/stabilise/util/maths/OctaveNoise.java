@@ -1,7 +1,6 @@
 package com.stabilise.util.maths;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.function.LongFunction;
 import java.util.function.LongUnaryOperator;
@@ -11,6 +10,17 @@ import com.stabilise.util.Checks;
 
 /**
  * This class produces noise by superimposing a number of specified octaves.
+ * 
+ * <p>When sampling many points at once, prefer the bulk {@code fill} methods
+ * to {@link #noise(double, double)}: these accumulate each octave over a
+ * whole row or grid in turn, which lets each octave's generator reuse its
+ * gradients between neighbouring points and avoids an interface call per
+ * octave per point.
+ * 
+ * <p>Once its octaves have been added, an {@code OctaveNoise} may be shared
+ * between threads if the noise generators it was given may be (as {@link
+ * PerlinNoise} and {@link SimplexNoise} may), and so a generator may build
+ * its noise once and reuse it for every region.
  */
 public class OctaveNoise implements INoise {
     
@@ -21,7 +31,7 @@ public class OctaveNoise implements INoise {
         return z ^ (z >>> 33);
     };
     
-    private final List<Octave> octaves = new ArrayList<>();
+    private Octave[] octaves = new Octave[0];
     private float invTotalWeight = 1f;
     
     private final LongFunction<INoise> noiseGen;
@@ -65,8 +75,8 @@ public class OctaveNoise implements INoise {
      */
     public OctaveNoise normalise() {
         float totalWeight = 0f;
-        for(int i = 0; i < octaves.size(); i++)
-            totalWeight += octaves.get(i).weight;
+        for(Octave o : octaves)
+            totalWeight += o.weight;
         invTotalWeight = 1/totalWeight;
         return this;
     }
@@ -84,11 +94,12 @@ public class OctaveNoise implements INoise {
      * the constructor) produced a null value.
      */
     public OctaveNoise addOctave(float period, float weight) {
-        octaves.add(new Octave(
+        octaves = Arrays.copyOf(octaves, octaves.length + 1);
+        octaves[octaves.length - 1] = new Octave(
                 Objects.requireNonNull(noiseGen.apply(seed)),
                 1/Checks.testMinExcl(period, 0f),
                 Checks.testMinExcl(weight, 0f)
-        ));
+        );
         seed = seedMixer.applyAsLong(seed);
         return this;
     }
@@ -103,8 +114,8 @@ public class OctaveNoise implements INoise {
     @Override
     public float noise(double x) {
         float noise = 0f;
-        for(int i = 0; i < octaves.size(); i++)
-            noise += octaves.get(i).noise(x);
+        for(Octave o : octaves)
+            noise += o.noise(x);
         return noise * invTotalWeight;
     }
     
@@ -118,11 +129,82 @@ public class OctaveNoise implements INoise {
     @Override
     public float noise(double x, double y) {
         float noise = 0f;
-        for(int i = 0; i < octaves.size(); i++)
-            noise += octaves.get(i).noise(x, y);
+        for(Octave o : octaves)
+            noise += o.noise(x, y);
         return noise * invTotalWeight;
     }
     
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>As with {@link #noise(double)}, values are confined to [0,1] only if
+     * {@link #normalise()} has been invoked.
+     */
+    @Override
+    public void fill1D(float[] out, double x0, int n) {
+        Arrays.fill(out, 0, n, 0f);
+        for(Octave o : octaves)
+            o.noise.addRow1D(out, 0, n, x0, o.freq, o.weight);
+        scale(out, 0, n);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>As with {@link #noise(double, double)}, values are confined to [0,1]
+     * only if {@link #normalise()} has been invoked.
+     */
+    @Override
+    public void fillRow(float[] out, double x0, double y, int n) {
+        Arrays.fill(out, 0, n, 0f);
+        for(Octave o : octaves)
+            o.noise.addRow(out, 0, n, x0, y, o.freq, o.weight);
+        scale(out, 0, n);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>As with {@link #noise(double, double)}, values are confined to [0,1]
+     * only if {@link #normalise()} has been invoked.
+     */
+    @Override
+    public void fill2D(float[] out, double x0, double y0, int width, int height) {
+        Arrays.fill(out, 0, width*height, 0f);
+        for(Octave o : octaves)
+            o.noise.addGrid(out, 0, width, height, x0, y0, o.freq, o.weight);
+        scale(out, 0, width*height);
+    }
+    
+    private void scale(float[] out, int off, int n) {
+        float s = invTotalWeight;
+        for(int i = off; i < off + n; i++)
+            out[i] *= s;
+    }
+    
+    @Override
+    public void addRow1D(float[] out, int off, int n, double x0, double freq, float weight) {
+        // Used when this is itself an octave of some other noise
+        float w = weight * invTotalWeight;
+        for(Octave o : octaves)
+            o.noise.addRow1D(out, off, n, x0, freq * o.freq, w * o.weight);
+    }
+    
+    @Override
+    public void addRow(float[] out, int off, int n, double x0, double y, double freq, float weight) {
+        float w = weight * invTotalWeight;
+        for(Octave o : octaves)
+            o.noise.addRow(out, off, n, x0, y, freq * o.freq, w * o.weight);
+    }
+    
+    @Override
+    public void addGrid(float[] out, int off, int width, int height,
+            double x0, double y0, double freq, float weight) {
+        float w = weight * invTotalWeight;
+        for(Octave o : octaves)
+            o.noise.addGrid(out, off, width, height, x0, y0, freq * o.freq, w * o.weight);
+    }
+    
     /**
      * Gets noise from only a single octave. Octaves are labelled from 0 to
      * numOctaves-1. 
@@ -132,7 +214,7 @@ public class OctaveNoise implements INoise {
      * @throws IndexOutOfBoundsException
      */
     public float noiseN(double x, int octave) {
-        return octaves.get(octave).noise(x);
+        return octaves[octave].noise(x);
     }
     
     /**
@@ -142,7 +224,7 @@ public class OctaveNoise implements INoise {
      * @return The noise from that octave, from 0 to 1.
      */
     public float noiseN(double x, double y, int octave) {
-        return octaves.get(octave).noise(x, y);
+        return octaves[octave].noise(x, y);
     }
     
     //--------------------==========--------------------
@@ -1,16 +1,16 @@
 package com.stabilise.util.maths;
 
-import java.util.Random;
-
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
 
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Vector2;
 
 /**
  * A utility class which generates Perlin noise.
+ * 
+ * <p>Gradients are derived statelessly from a hash of their gridpoint, so
+ * a {@code PerlinNoise} may be shared freely between threads.
  */
-@NotThreadSafe
+@ThreadSafe
 public class PerlinNoise implements INoise {
     
     // Your standard interpolation function
@@ -24,19 +24,9 @@ public class PerlinNoise implements INoise {
     
     
     
-    /** The pseudorandom number generator. */
-    private final Random rnd = new Random();
     /** The base seed. */
     private final long seed;
     
-    /** Gradient vectors for 2D noise. */
-    private final Vector2 g00 = new Vector2(),
-            g01 = new Vector2(),
-            g10 = new Vector2(),
-            g11 = new Vector2();
-    /** The cell location vector. */
-    private final Vector2 p = new Vector2();
-    
     
     /**
      * Creates a new 2-dimensional perlin noise generator.
@@ -47,24 +37,27 @@ public class PerlinNoise implements INoise {
         this.seed = seed;
     }
     
-    private void setSeed(int x) {
+    /**
+     * Hashes a point to the seed from which to generate its value.
+     */
+    private long hash(int x) {
         //long n = x + (x << 32);
         //n ^= (n * 15731) >> 16;
         long n = (x<<13) ^ x;
         n = n * (n * n * 15731 + 789221) + 1376312589;
-        rnd.setSeed(seed ^ n);
+        return seed ^ n;
     }
     
     /**
-     * Sets the seed of the RNG for noise generation at a point.
+     * Hashes a point to the seed from which to generate its gradient.
      */
-    private void setSeed(int x, int y) {
+    private long hash(int x, int y) {
         //long n = x + (y << 32);
         //n ^= (n * 15731) >> 16;
         long n = x + y * 57;
         n = (n<<13) ^ n;
         n = n * (n * n * 15731 + 789221) + 1376312589;
-        rnd.setSeed(seed ^ n);
+        return seed ^ n;
     }
     
     @Override
@@ -83,43 +76,124 @@ public class PerlinNoise implements INoise {
      * @return The noise value at x, between 0.0 and 1.0.
      */
     private float genValue(int x) {
-        setSeed(x);
-        return rnd.nextFloat();
+        return GradientLattice.randomFloat(hash(x));
     }
     
     @Override
     public float noise(double x, double y) {
         int flooredX = Maths.floor(x);
         int flooredY = Maths.floor(y);
-        
-        // Gen gradients for the vertices of the square about the point
-        genGradient(flooredX,   flooredY,   g00);
-        genGradient(flooredX,   flooredY+1, g01);
-        genGradient(flooredX+1, flooredY,   g10);
-        genGradient(flooredX+1, flooredY+1, g11);
-        
-        // We'll need to dot the gradients at each vertex with vectors pointing
-        // from the corners to p
-        p.set((float)(x - flooredX), (float)(y - flooredY));
-        
-        float v00 = g00.dot(p);
-        float v01 = g01.dot(p.x, p.y - 1f);
-        float v10 = g10.dot(p.x - 1f, p.y);
-        float v11 = g11.dot(p.x - 1f, p.y - 1f);
+        return sample(flooredX, flooredY, (float)(x - flooredX), (float)(y - flooredY), null);
+    }
+    
+    /**
+     * Gets the noise value at a point.
+     * 
+     * @param x The x-coordinate of the cell containing the point.
+     * @param y The y-coordinate of the cell containing the point.
+     * @param px The x-coordinate of the point relative to the cell.
+     * @param py The y-coordinate of the point relative to the cell.
+     * @param lat The gradients of every corner of the cell, or null if they
+     * should be generated.
+     */
+    private float sample(int x, int y, float px, float py, GradientLattice lat) {
+        // We'll need to dot the gradients at each vertex of the cell with
+        // vectors pointing from the corners to p
+        float v00 = dotGradient(x,   y,   px,      py,      lat);
+        float v01 = dotGradient(x,   y+1, px,      py - 1f, lat);
+        float v10 = dotGradient(x+1, y,   px - 1f, py,      lat);
+        float v11 = dotGradient(x+1, y+1, px - 1f, py - 1f, lat);
         
         // Interpolate to attain a value
-        return 0.5f + Maths.biInterp(v00, v01, v10, v11, p.x, p.y, interp1);
+        return 0.5f + Maths.biInterp(v00, v01, v10, v11, px, py, interp1);
+    }
+    
+    /**
+     * Dots the noise gradient at a given gridpoint with (dx, dy).
+     * 
+     * @param lat The lattice from which to get the gradient, or null if it
+     * should be generated.
+     */
+    private float dotGradient(int x, int y, float dx, float dy, GradientLattice lat) {
+        if(lat != null)
+            return lat.dot(x, y, dx, dy);
+        float angle = genAngle(x, y);
+        return MathUtils.cos(angle)*dx + MathUtils.sin(angle)*dy;
     }
     
     /**
-     * Generates the noise gradient at a given gridpoint.
+     * Generates the angle of the noise gradient at a given gridpoint.
+     */
+    private float genAngle(int x, int y) {
+        return Maths.TAUf * GradientLattice.randomFloat(hash(x, y));
+    }
+    
+    /**
+     * {@inheritDoc}
      * 
-     * @param dest The destination vector in which to store the gradient.
+     * <p>Generating the values at each gridpoint is by far the most expensive
+     * part of producing noise, so this reuses them for as long as points
+     * remain in the same cell, and reuses the right value of a cell as the
+     * left value of the next.
      */
-    private void genGradient(int x, int y, Vector2 dest) {
-        setSeed(x, y);
-        float angle = Maths.TAUf * rnd.nextFloat();
-        dest.set(MathUtils.cos(angle), MathUtils.sin(angle));
+    @Override
+    public void addRow1D(float[] out, int off, int n, double x0, double freq, float weight) {
+        boolean inCell = false;
+        int cellX = 0;
+        float v0 = 0f, v1 = 0f;
+        
+        for(int i = 0; i < n; i++) {
+            double x = (x0+i)*freq;
+            int flooredX = Maths.floor(x);
+            if(!inCell || flooredX != cellX) {
+                v0 = inCell && flooredX == cellX + 1 ? v1 : genValue(flooredX);
+                v1 = genValue(flooredX + 1);
+                cellX = flooredX;
+                inCell = true;
+            }
+            out[off+i] += weight * interp1.apply(v0, v1, (float)(x - flooredX));
+        }
+    }
+    
+    @Override
+    public void addRow(float[] out, int off, int n, double x0, double y, double freq, float weight) {
+        addGrid(out, off, n, 1, x0, y, freq, weight);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>This generates the gradients at every gridpoint the grid touches
+     * up-front, so that each is generated once rather than once for every
+     * point in each of the four cells it is a corner of.
+     */
+    @Override
+    public void addGrid(float[] out, int off, int width, int height,
+            double x0, double y0, double freq, float weight) {
+        int minX = Maths.floor(x0*freq);
+        int minY = Maths.floor(y0*freq);
+        int maxX = Maths.floor((x0 + width - 1)*freq) + 1;
+        int maxY = Maths.floor((y0 + height - 1)*freq) + 1;
+        if(!GradientLattice.worthBuilding(minX, minY, maxX, maxY, width*height)) {
+            INoise.super.addGrid(out, off, width, height, x0, y0, freq, weight);
+            return;
+        }
+        
+        GradientLattice lat = new GradientLattice(minX, minY, maxX, maxY);
+        for(int y = minY; y <= maxY; y++)
+            for(int x = minX; x <= maxX; x++)
+                lat.set(x, y, genAngle(x, y));
+        
+        for(int r = 0; r < height; r++, off += width) {
+            double y = (y0+r)*freq;
+            int flooredY = Maths.floor(y);
+            float py = (float)(y - flooredY);
+            for(int i = 0; i < width; i++) {
+                double x = (x0+i)*freq;
+                int flooredX = Maths.floor(x);
+                out[off+i] += weight * sample(flooredX, flooredY, (float)(x - flooredX), py, lat);
+            }
+        }
     }
     
 }
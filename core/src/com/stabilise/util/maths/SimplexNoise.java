@@ -1,11 +1,8 @@
 package com.stabilise.util.maths;
 
-import java.util.Random;
-
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
 
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Vector2;
 
 /**
  * A utility class which generates 2-dimensional simplex noise.
@@ -17,8 +14,11 @@ import com.badlogic.gdx.math.Vector2;
  * Based on example code by Stefan Gustavson (stegu@itn.liu.se).<br>
  * Optimisations by Peter Eastman (peastman@drizzle.stanford.edu).<br>
  * Better rank ordering method by Stefan Gustavson in 2012.<br>
+ * 
+ * <p>Gradients are derived statelessly from a hash of their gridpoint, so a
+ * {@code SimplexNoise} may be shared freely between threads.
  */
-@NotThreadSafe
+@ThreadSafe
 public class SimplexNoise implements INoise {
     
     //--------------------==========--------------------
@@ -46,12 +46,8 @@ public class SimplexNoise implements INoise {
     //-------------=====Member Variables=====-----------
     //--------------------==========--------------------
     
-    private final Random rnd = new Random();
     private final long seed;
     
-    /** Gradient vector. */
-    private final Vector2 grad = new Vector2();
-    
     
     /**
      * Creates a simplex noise generator.
@@ -63,17 +59,17 @@ public class SimplexNoise implements INoise {
     }
     
     /**
-     * Sets the seed of the RNG for noise generation at a point.
+     * Hashes a point to the seed from which to generate its gradient.
      * 
-     * @param x The x-coordinate of the point for which to set the seed.
-     * @param y The y-coordinate of the point for which to set the seed.
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
      */
-    private void setSeed(int x, int y) {
+    private long hash(int x, int y) {
         // TODO: Figure out a non-crappy hashing function
         int n = x + y * 57;
         n = (n<<13) ^ n;
         n = n * (n * n * 15731 + 789221) + 1376312589;
-        rnd.setSeed(seed ^ n);
+        return seed ^ n;
     }
     
     @Override
@@ -83,6 +79,16 @@ public class SimplexNoise implements INoise {
     
     @Override
     public float noise(double x, double y) {
+        return sample(x, y, null);
+    }
+    
+    /**
+     * Gets the noise value at (x, y).
+     * 
+     * @param lat The gradients of every corner of the simplex containing
+     * (x, y), or null if they should be generated.
+     */
+    private float sample(double x, double y, GradientLattice lat) {
         float n0, n1, n2; // Noise contributions from the three corners
         
         // Skew the input space to determine which simplex cell we're in
@@ -130,21 +136,21 @@ public class SimplexNoise implements INoise {
             n0 = 0;
         } else {
             t0 *= t0;
-            n0 = (float)(t0*t0) * genGradient(i, j).dot((float)x0, (float)y0);    // (x,y) of grad3 used for 2D gradient
+            n0 = (float)(t0*t0) * dotGradient(i, j, (float)x0, (float)y0, lat);    // (x,y) of grad3 used for 2D gradient
         }
         double t1 = 0.5f - x1*x1 - y1*y1;
         if(t1 < 0D) {
             n1 = 0;
         } else {
             t1 *= t1;
-            n1 = (float)(t1*t1) * genGradient(i+i1, j+j1).dot((float)x1, (float)y1);
+            n1 = (float)(t1*t1) * dotGradient(i+i1, j+j1, (float)x1, (float)y1, lat);
         }
         double t2 = 0.5f - x2*x2 - y2*y2;
         if(t2 < 0D) {
             n2 = 0;
         } else {
             t2 *= t2;
-            n2 = (float)(t2*t2) * genGradient(i+1, j+1).dot((float)x2, (float)y2);
+            n2 = (float)(t2*t2) * dotGradient(i+1, j+1, (float)x2, (float)y2, lat);
         }
         
         // Add contributions from each corner to get the final noise value.
@@ -155,12 +161,65 @@ public class SimplexNoise implements INoise {
     }
     
     /**
-     * Generates the noise 'gradient' at a given gridpoint.
+     * Dots the noise 'gradient' at a given gridpoint with (dx, dy).
+     * 
+     * @param lat The lattice from which to get the gradient, or null if it
+     * should be generated.
+     */
+    private float dotGradient(int x, int y, float dx, float dy, GradientLattice lat) {
+        if(lat != null)
+            return lat.dot(x, y, dx, dy);
+        float angle = genAngle(x, y);
+        return MathUtils.cos(angle)*dx + MathUtils.sin(angle)*dy;
+    }
+    
+    /**
+     * Generates the angle of the noise 'gradient' at a given gridpoint.
      */
-    private Vector2 genGradient(int x, int y) {
-        setSeed(x, y);
-        float angle = Maths.TAUf * rnd.nextFloat();
-        return grad.set(MathUtils.cos(angle), MathUtils.sin(angle));
+    private float genAngle(int x, int y) {
+        return Maths.TAUf * GradientLattice.randomFloat(hash(x, y));
+    }
+    
+    @Override
+    public void addRow(float[] out, int off, int n, double x0, double y, double freq, float weight) {
+        addGrid(out, off, n, 1, x0, y, freq, weight);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>This generates the gradients at every gridpoint the grid touches
+     * up-front, so that each is generated once rather than once for every
+     * point in each of the six simplices it is a corner of.
+     */
+    @Override
+    public void addGrid(float[] out, int off, int width, int height,
+            double x0, double y0, double freq, float weight) {
+        // Skewing preserves order in both axes, so the grid's bottom-left and
+        // top-right points lie in the extreme cells. We pad by a cell either
+        // side to be safe from rounding.
+        double minX = x0*freq, minY = y0*freq;
+        double maxX = (x0 + width - 1)*freq, maxY = (y0 + height - 1)*freq;
+        double minS = (minX + minY) * SKEW_2D, maxS = (maxX + maxY) * SKEW_2D;
+        int minI = Maths.floor(minX + minS) - 1;
+        int minJ = Maths.floor(minY + minS) - 1;
+        int maxI = Maths.floor(maxX + maxS) + 2;
+        int maxJ = Maths.floor(maxY + maxS) + 2;
+        if(!GradientLattice.worthBuilding(minI, minJ, maxI, maxJ, width*height)) {
+            INoise.super.addGrid(out, off, width, height, x0, y0, freq, weight);
+            return;
+        }
+        
+        GradientLattice lat = new GradientLattice(minI, minJ, maxI, maxJ);
+        for(int j = minJ; j <= maxJ; j++)
+            for(int i = minI; i <= maxI; i++)
+                lat.set(i, j, genAngle(i, j));
+        
+        for(int r = 0; r < height; r++, off += width) {
+            double y = (y0+r)*freq;
+            for(int i = 0; i < width; i++)
+                out[off+i] += weight * sample((x0+i)*freq, y, lat);
+        }
     }
     
 }
@@ -25,6 +25,7 @@ import com.stabilise.util.collect.FragList;
 import com.stabilise.util.collect.FunctionalIterable;
 import com.stabilise.util.collect.SimpleList;
 import com.stabilise.util.collect.UnorderedArrayList;
+import com.stabilise.util.shape.AABB;
 import com.stabilise.world.dimension.Dimension;
 import com.stabilise.world.multiverse.Multiverse;
 import com.stabilise.world.tile.tileentity.TileEntity;
@@ -54,6 +55,10 @@ public abstract class AbstractWorld implements World {
     private final FunctionalIterable<Entity> itrEntities =
             FunctionalIterable.wrap(entities.values(), entities::size);
     
+    /** Spatial index of {@link #entities}, which backs {@link
+     * #getEntitiesNearby(Position)} and friends. */
+    protected final SliceIndex<Entity> entityIndex = new SliceIndex<>();
+    
     /** Entities queued to be added to the world at the end of the tick. */
     private final List<Entity> entitiesToAdd = new ArrayList<>();
     
@@ -68,6 +73,9 @@ public abstract class AbstractWorld implements World {
     /** The total number of hitboxes which have existed during the lifetime of
      * the world. */
     public int hitboxCount = 0;
+    /** Spatial index of {@link #hitboxes}, which backs {@link
+     * #getHitboxesNearby(Position)} and friends. */
+    protected final SliceIndex<Hitbox> hitboxIndex = new SliceIndex<>();
     
     /** Stores all particles in the world. This should remain empty if this is
      * a server world.
@@ -96,8 +104,17 @@ public abstract class AbstractWorld implements World {
      * @see #rnd() */
     public final Random rnd = new RandomXS128();
     
-    /** Use this to profile the world's operation. */
-    protected final Profiler profiler;
+    /** Use this to profile the world's operation. Each world has its own,
+     * since dimensions may be ticked on different threads; the multiverse
+     * absorbs it into its own profiler after every tick. */
+    protected final Profiler profiler = new Profiler(false, "world", true);
+    /** Manages this world's particles. Each world has its own, for the same
+     * reason. */
+    private final ParticleManager particleManager = new ParticleManager();
+    
+    /** Actions which reach into other dimensions, deferred until the end of
+     * the tick. See {@link #crossDimension(Runnable)}. */
+    private final List<Runnable> crossDimensionActions = new ArrayList<>();
     protected final Log log;
     
     
@@ -114,7 +131,6 @@ public abstract class AbstractWorld implements World {
         this.multiverse = multiverse;
         this.dimension = dimension;
         
-        profiler = multiverse.getProfiler();
         log = Log.getAgent("World_" + dimension.info.name);
     }
     
@@ -148,26 +164,26 @@ public abstract class AbstractWorld implements World {
     protected void doUpdate() {
         dimension.info.age++;
         
-        profiler.start("entity"); // root.update.game.world.entity
-        updateObjects(getEntities());
-        profiler.next("hitbox"); // root.update.game.world.hitbox
-        updateObjects(getHitboxes());
-        profiler.next("tileEntity"); // root.update.game.world.tileEntity
+        profiler.start("entity"); // root.update.game.world.<dim>.entity
+        updateIndexedObjects(getEntities(), entityIndex);
+        profiler.next("hitbox"); // root.update.game.world.<dim>.hitbox
+        updateIndexedObjects(getHitboxes(), hitboxIndex);
+        profiler.next("tileEntity"); // root.update.game.world.<dim>.tileEntity
         updateObjects(getTileEntities());
-        profiler.next("particle"); // root.update.game.world.particle
+        profiler.next("particle"); // root.update.game.world.<dim>.particle
         getParticles().iterate(p -> p.updateAndCheck(this, timeIncrement) && reclaimParticle(p));
         
         // Now, add all queued entities
-        profiler.next("entity"); // root.update.game.world.entity
-        profiler.start("add"); // root.update.game.world.entity.add
+        profiler.next("entity"); // root.update.game.world.<dim>.entity
+        profiler.start("add"); // root.update.game.world.<dim>.entity.add
         
         if(!entitiesToAdd.isEmpty()) {
             entitiesToAdd.forEach(this::addEntityDirectly);
             entitiesToAdd.clear();
         }
         
-        profiler.end(); // root.update.game.world.entity
-        profiler.end(); // root.update.game.world
+        profiler.end(); // root.update.game.world.<dim>.entity
+        profiler.end(); // root.update.game.world.<dim>
     }
     
     /**
@@ -180,6 +196,23 @@ public abstract class AbstractWorld implements World {
         objects.iterate(o -> o.updateAndCheck(this, timeIncrement));
     }
     
+    /**
+     * As with {@link #updateObjects(FunctionalIterable)}, but additionally
+     * keeps the given spatial index current: objects which have changed
+     * slices are rebucketed, and removed objects are removed from the index.
+     */
+    protected <T extends GameObject> void updateIndexedObjects(
+            FunctionalIterable<T> objects, SliceIndex<T> index) {
+        objects.iterate(o -> {
+            if(o.updateAndCheck(this, timeIncrement)) {
+                index.remove(o);
+                return true;
+            }
+            index.update(o);
+            return false;
+        });
+    }
+    
     /**
      * Sets a mob as a player. The mob will be treated as if the player is
      * controlling it thereafter.
@@ -214,6 +247,7 @@ public abstract class AbstractWorld implements World {
      */
     protected void addEntityDirectly(Entity e) {
         entities.put(e.id(), e);
+        entityIndex.add(e);
         e.post(this, EntityEvent.ADDED_TO_WORLD);
     }
     
@@ -231,6 +265,7 @@ public abstract class AbstractWorld implements World {
     public void addHitbox(Hitbox h) {
         hitboxCount++;
         hitboxes.append(Objects.requireNonNull(h));
+        hitboxIndex.add(h);
     }
     
     @Override
@@ -268,7 +303,17 @@ public abstract class AbstractWorld implements World {
     
     @Override
     public FunctionalIterable<Entity> getEntitiesNearby(Position pos) {
-        return getEntities(); // TODO
+        return entityIndex.nearby(pos);
+    }
+    
+    @Override
+    public FunctionalIterable<Entity> getEntitiesNearby(Position pos, float radius) {
+        return entityIndex.inRadius(pos, radius);
+    }
+    
+    @Override
+    public FunctionalIterable<Entity> getEntitiesInAABB(Position pos, AABB box) {
+        return entityIndex.inAABB(pos, box, e -> e.aabb);
     }
     
     @Override
@@ -278,7 +323,20 @@ public abstract class AbstractWorld implements World {
     
     @Override
     public FunctionalIterable<Hitbox> getHitboxesNearby(Position pos) {
-        return getHitboxes(); // TODO
+        return hitboxIndex.nearby(pos);
+    }
+    
+    @Override
+    public FunctionalIterable<Hitbox> getHitboxesNearby(Position pos, float radius) {
+        return hitboxIndex.inRadius(pos, radius);
+    }
+    
+    /**
+     * Returns a string summarising the query cost counters of this world's
+     * entity and hitbox indices.
+     */
+    public String indexStatsToString() {
+        return "Entity index: " + entityIndex.stats + "; hitbox index: " + hitboxIndex.stats;
     }
     
     @Override
@@ -293,7 +351,7 @@ public abstract class AbstractWorld implements World {
     
     @Override
     public ParticleManager getParticleManager() {
-        return multiverse.particleManager;
+        return particleManager;
     }
     
     // ========== Stuff ==========
@@ -370,6 +428,40 @@ public abstract class AbstractWorld implements World {
         return profiler;
     }
     
+    // ========== Cross-dimension Stuff ==========
+    
+    /**
+     * Runs an action which reaches from this world into another dimension -
+     * e.g., adding an entity to it, or moving or destroying a phantom which
+     * lives there. If the multiverse is {@link Multiverse#isTickingInParallel()
+     * ticking its dimensions in parallel}, the other dimension may be being
+     * ticked at the same time as this one, so the action is instead deferred
+     * until every dimension has finished its tick, at which point the
+     * multiverse runs it on the main thread. Otherwise, it is run
+     * immediately.
+     * 
+     * <p>Deferred actions are run in the order the multiverse ticks its
+     * dimensions, and in the order they were deferred by each world.
+     * 
+     * @throws NullPointerException if {@code action} is {@code null}.
+     */
+    public void crossDimension(Runnable action) {
+        if(multiverse.isTickingInParallel())
+            crossDimensionActions.add(Objects.requireNonNull(action));
+        else
+            action.run();
+    }
+    
+    /**
+     * Runs every action {@link #crossDimension(Runnable) deferred} by this
+     * world during its last tick.
+     */
+    @UserThread("MainThread")
+    public void runCrossDimensionActions() {
+        crossDimensionActions.forEach(Runnable::run);
+        crossDimensionActions.clear();
+    }
+    
     // ========== Lifecycle Methods ==========
     
     /**
@@ -0,0 +1,133 @@
+package com.stabilise.world;
+
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES;
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES_SHIFT;
+
+import java.util.BitSet;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A region's active fluid cells, i.e., the fluid tiles which may yet flow.
+ * Fluid which has settled isn't in here, so it costs nothing until something
+ * near it changes and {@link FluidEngine#wakeAround(int, int) wakes} it.
+ * 
+ * <p>Cells are polled in the order in which they were activated. A cell may
+ * be in here at most once; activating an active cell does nothing.
+ * 
+ * <p>Each cell is stored as its region-relative tile position, packed into
+ * an int as per {@link #posX(int)} and {@link #posY(int)}. This is also the
+ * form in which they are {@link #toArray() saved}.
+ */
+@NotThreadSafe
+public class FluidCells {
+    
+    private static final int COORD_MASK = REGION_SIZE_IN_TILES - 1;
+    
+    
+    /** Ring buffer of cells. Its length is always a power of two. */
+    private int[] cells = new int[16];
+    private int head = 0;
+    private int size = 0;
+    /** Which positions are in {@link #cells}. */
+    private final BitSet active = new BitSet();
+    
+    
+    /**
+     * Activates a cell.
+     * 
+     * @param tx The x-coordinate of the tile, relative to the region.
+     * @param ty The y-coordinate of the tile, relative to the region.
+     * 
+     * @return {@code true} if the cell was activated; {@code false} if it
+     * was already active.
+     */
+    public boolean activate(int tx, int ty) {
+        return add(pos(tx, ty));
+    }
+    
+    private boolean add(int pos) {
+        if(active.get(pos))
+            return false;
+        active.set(pos);
+        if(size == cells.length) {
+            int[] c = new int[size * 2];
+            System.arraycopy(cells, head, c, 0, size - head);
+            System.arraycopy(cells, 0, c, size - head, head);
+            cells = c;
+            head = 0;
+        }
+        cells[(head + size++) & (cells.length - 1)] = pos;
+        return true;
+    }
+    
+    /**
+     * Removes the cell which has been active the longest.
+     * 
+     * @return The cell's position, which may be decoded with {@link
+     * #posX(int)} and {@link #posY(int)}.
+     * @throws IllegalStateException if there are no active cells.
+     */
+    public int poll() {
+        if(size == 0)
+            throw new IllegalStateException("No active cells");
+        int pos = cells[head];
+        head = (head + 1) & (cells.length - 1);
+        size--;
+        active.clear(pos);
+        return pos;
+    }
+    
+    /**
+     * Returns the number of active cells.
+     */
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Returns every active cell, in order, for saving.
+     */
+    public int[] toArray() {
+        int[] arr = new int[size];
+        for(int i = 0; i < size; i++)
+            arr[i] = cells[(head + i) & (cells.length - 1)];
+        return arr;
+    }
+    
+    /**
+     * Creates a set of active cells from an array returned by {@link
+     * #toArray()}.
+     */
+    public static FluidCells fromArray(int[] arr) {
+        FluidCells c = new FluidCells();
+        for(int pos : arr)
+            c.add(pos & ((1 << 2*REGION_SIZE_IN_TILES_SHIFT) - 1));
+        return c;
+    }
+    
+    private static int pos(int tx, int ty) {
+        return (ty << REGION_SIZE_IN_TILES_SHIFT) | tx;
+    }
+    
+    /**
+     * Returns the region-relative x-coordinate of a position returned by
+     * {@link #poll()}.
+     */
+    public static int posX(int pos) {
+        return pos & COORD_MASK;
+    }
+    
+    /**
+     * Returns the region-relative y-coordinate of a position returned by
+     * {@link #poll()}.
+     */
+    public static int posY(int pos) {
+        return pos >>> REGION_SIZE_IN_TILES_SHIFT;
+    }
+    
+}
@@ -0,0 +1,241 @@
+package com.stabilise.world;
+
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES_MINUS_ONE;
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES_SHIFT;
+import static com.stabilise.world.Slice.SLICE_SIZE_MINUS_ONE;
+import static com.stabilise.world.Slice.SLICE_SIZE_SHIFT;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.world.tile.Tile;
+import com.stabilise.world.tile.TileFluid;
+import com.stabilise.world.tile.Tiles;
+
+/**
+ * Makes a world's fluids flow.
+ * 
+ * <p>Only <i>active</i> fluid tiles are simulated. Each region keeps its own
+ * set of them (see {@link Region#getActiveFluids()}), which is saved with
+ * it. Once a tick, each region which has any is {@link #add(Region) added}
+ * to the engine, which updates up to {@link #REGION_BUDGET} of its cells. A
+ * fluid tile which can't flow goes back to sleep, and is only reactivated
+ * when a tile next to it {@link #wakeAround(int, int) changes}. A lake which
+ * has settled thus costs nothing.
+ * 
+ * <p>Fluid falls if it can, and otherwise flows sideways, but only if it
+ * would then fall, or if it is under more of the same fluid; as such a pool
+ * spreads until it is a single tile deep, and then settles. Each tick, an
+ * active tile stays put with a chance equal to its {@link
+ * TileFluid#getViscosity() viscosity}, and remains active if so.
+ * 
+ * <p>Cells activated in a region while it is being updated, such as fluid
+ * which has just moved, aren't updated until the next tick, so fluid
+ * generally moves at most one tile per tick.
+ */
+@NotThreadSafe
+public class FluidEngine {
+    
+    /** The most cells to update in a region per tick. */
+    public static final int REGION_BUDGET = 512;
+    
+    
+    private final RegionSource world;
+    private final LightEngine light;
+    private final Random rnd;
+    
+    /** The regions to update this tick. */
+    private final List<Region> regions = new ArrayList<>();
+    
+    /** The number of cells updated. For benchmarking. */
+    private long cellsUpdated = 0;
+    
+    
+    /**
+     * Creates a new fluid engine.
+     * 
+     * @param world The source of the regions containing the fluids.
+     * @param light The light engine to notify when tiles change, since some
+     * fluids emit light.
+     * @param rnd The random number generator to draw from.
+     */
+    public FluidEngine(RegionSource world, LightEngine light, Random rnd) {
+        this.world = world;
+        this.light = light;
+        this.rnd = rnd;
+    }
+    
+    /**
+     * Adds a region with {@link Region#hasActiveFluids() active fluids} to be
+     * updated at the next {@link #update()}.
+     */
+    @UserThread("MainThread")
+    public void add(Region r) {
+        regions.add(r);
+    }
+    
+    /**
+     * Updates the active fluids of every region {@link #add(Region) added}
+     * since the last update.
+     */
+    @UserThread("MainThread")
+    public void update() {
+        for(Region r : regions)
+            updateRegion(r);
+        regions.clear();
+    }
+    
+    private void updateRegion(Region r) {
+        FluidCells cells = r.getActiveFluids();
+        if(cells == null)
+            return;
+        int x0 = r.x() << REGION_SIZE_IN_TILES_SHIFT;
+        int y0 = r.y() << REGION_SIZE_IN_TILES_SHIFT;
+        // Cells activated as we go go to the back, and wait for next tick.
+        for(int n = Math.min(cells.size(), REGION_BUDGET); n > 0; n--) {
+            int pos = cells.poll();
+            updateCell(r, x0 + FluidCells.posX(pos), y0 + FluidCells.posY(pos));
+        }
+        if(cells.isEmpty())
+            r.setActiveFluids(null);
+    }
+    
+    /**
+     * Updates an active cell.
+     * 
+     * @param r The region containing the cell.
+     * @param x The x-coordinate of the cell, in tile-lengths.
+     * @param y The y-coordinate of the cell, in tile-lengths.
+     */
+    private void updateCell(Region r, int x, int y) {
+        cellsUpdated++;
+        Tile t = tileAt(r, x, y);
+        if(!(t instanceof TileFluid))
+            return; // replaced since it was activated
+        if(rnd.nextFloat() < ((TileFluid)t).getViscosity()) {
+            activate(r, x, y);
+            return;
+        }
+        
+        if(isAir(x, y - 1)) {
+            move(r, x, y, x, y - 1, t);
+            return;
+        }
+        boolean pressed = tileAt(x, y + 1) == t;
+        int dir = rnd.nextBoolean() ? 1 : -1;
+        for(int i = 0; i < 2; i++, dir = -dir) {
+            if(isAir(x + dir, y) && (pressed || isAir(x + dir, y - 1))) {
+                move(r, x, y, x + dir, y, t);
+                return;
+            }
+        }
+        // Nowhere to go; the cell goes to sleep.
+    }
+    
+    /**
+     * Moves fluid from one tile to another, which must be air.
+     */
+    private void move(Region r, int x, int y, int toX, int toY, Tile t) {
+        setTile(r, x, y, Tiles.air);
+        setTile(null, toX, toY, t);
+        activate(null, toX, toY);
+        // Whatever was resting on or beside the fluid may now flow.
+        wakeAround(x, y);
+    }
+    
+    /**
+     * Wakes any fluid at or next to the given tile, as the tile has changed.
+     * This should be invoked whenever a tile is set, except by this engine.
+     * 
+     * @param x The x-coordinate of the tile, in tile-lengths.
+     * @param y The y-coordinate of the tile, in tile-lengths.
+     */
+    @UserThread("MainThread")
+    public void wakeAround(int x, int y) {
+        wake(x, y);
+        wake(x - 1, y);
+        wake(x + 1, y);
+        wake(x, y - 1);
+        wake(x, y + 1);
+    }
+    
+    private void wake(int x, int y) {
+        Region r = regionAt(x, y);
+        if(r != null && tileAt(r, x, y) instanceof TileFluid)
+            activate(r, x, y);
+    }
+    
+    private void activate(Region r, int x, int y) {
+        if(r == null && (r = regionAt(x, y)) == null)
+            return;
+        r.activateFluid(x & REGION_SIZE_IN_TILES_MINUS_ONE, y & REGION_SIZE_IN_TILES_MINUS_ONE);
+    }
+    
+    /**
+     * Returns the number of cells which have been updated.
+     */
+    public long cellsUpdated() {
+        return cellsUpdated;
+    }
+    
+    private Region regionAt(int x, int y) {
+        return world.getRegion(x >> REGION_SIZE_IN_TILES_SHIFT, y >> REGION_SIZE_IN_TILES_SHIFT);
+    }
+    
+    private static Slice sliceAt(Region r, int x, int y) {
+        return r.getSliceAt(
+                (x & REGION_SIZE_IN_TILES_MINUS_ONE) >> SLICE_SIZE_SHIFT,
+                (y & REGION_SIZE_IN_TILES_MINUS_ONE) >> SLICE_SIZE_SHIFT);
+    }
+    
+    private static Tile tileAt(Region r, int x, int y) {
+        return sliceAt(r, x, y).getTileAt(x & SLICE_SIZE_MINUS_ONE, y & SLICE_SIZE_MINUS_ONE);
+    }
+    
+    /**
+     * Returns the tile at the given coordinates, or {@code null} if its
+     * region isn't loaded.
+     */
+    private Tile tileAt(int x, int y) {
+        Region r = regionAt(x, y);
+        return r == null ? null : tileAt(r, x, y);
+    }
+    
+    /**
+     * Returns true if the given tile is air. Tiles in regions which aren't
+     * loaded are considered solid, so fluid never flows into them.
+     */
+    private boolean isAir(int x, int y) {
+        return tileAt(x, y) == Tiles.air;
+    }
+    
+    private void setTile(Region r, int x, int y, Tile t) {
+        if(r == null && (r = regionAt(x, y)) == null)
+            return;
+        sliceAt(r, x, y).setTileAt(x & SLICE_SIZE_MINUS_ONE, y & SLICE_SIZE_MINUS_ONE, t);
+        light.queueUpdate(x, y);
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * Provides the regions of a world.
+     */
+    @FunctionalInterface
+    public static interface RegionSource {
+        
+        /**
+         * Returns the region at the given region coordinates, or {@code
+         * null} if it isn't loaded.
+         */
+        Region getRegion(int x, int y);
+        
+    }
+    
+}
@@ -3,6 +3,10 @@ package com.stabilise.world;
 import static com.stabilise.entity.Position.*;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import com.badlogic.gdx.files.FileHandle;
@@ -15,6 +19,7 @@ import com.stabilise.util.annotation.ForTestingPurposes;
 import com.stabilise.util.annotation.ThreadUnsafeMethod;
 import com.stabilise.util.annotation.UserThread;
 import com.stabilise.util.concurrent.SingleBlockingJob;
+import com.stabilise.util.maths.Point;
 import com.stabilise.world.dimension.Dimension;
 import com.stabilise.world.multiverse.Multiverse;
 import com.stabilise.world.multiverse.HostMultiverse.PlayerData;
@@ -36,6 +41,24 @@ public class HostWorld extends AbstractWorld {
     public final SingleBlockingJob preloadJob = new SingleBlockingJob(this::prepare);
     
     public final WorldStatistics stats = new WorldStatistics();
+    /** Keeps this world's light up to date. Changes are processed once per
+     * tick. */
+    public final LightEngine light = new LightEngine(this::getSliceAt);
+    /** Makes this world's fluids flow. Initialised in the constructor as it
+     * needs {@link #regions}. */
+    public final FluidEngine fluids;
+    
+    /** The entities in each region, as tracked by {@link #entityIndex}. Maps
+     * region loc -> entities. This is maintained for every region containing
+     * an entity, regardless of whether or not that region is in primary
+     * storage. Entries are removed when emptied. */
+    private final Map<Point, Set<Entity>> regionEntities = new HashMap<>();
+    /** Dummy key for {@link #regionEntities}. */
+    private final Point regionEntitiesKey = Region.createMutableLoc();
+    
+    /** Cache sitting in front of {@link #getSliceAt(int, int)}. Initialised
+     * in the constructor as it needs {@link #regions}. */
+    private final SliceCache sliceCache;
     
     
     /**
@@ -52,6 +75,10 @@ public class HostWorld extends AbstractWorld {
         // Instantiate from within the constructor so that it can grab the
         // executor from the multiverse
         regions = new RegionStore(this);
+        sliceCache = new SliceCache(this::lookupSlice, regions::primaryEpoch);
+        fluids = new FluidEngine(regions::getRegion, light, rnd);
+        
+        entityIndex.setListener(new RegionMembership());
     }
     
     /**
@@ -127,14 +154,39 @@ public class HostWorld extends AbstractWorld {
     protected void doUpdate() {
         super.doUpdate();
         
-        profiler.start("regions"); // root.update.game.world.regions
+        profiler.start("regions"); // root.update.game.world.<dim>.regions
         regions.update();
         
+        profiler.next("fluid"); // root.update.game.world.<dim>.fluid
+        fluids.update();
+        profiler.next("light"); // root.update.game.world.<dim>.light
+        light.update();
+        
         // Uncache any regions which may have been cached during this tick.
         // TODO: Once a tick might be too often, since this can be expensive.
         regions.uncacheAll();
         
-        profiler.end(); // root.update.game.world
+        profiler.end(); // root.update.game.world.<dim>
+    }
+    
+    /**
+     * Runs the given action for every entity which is currently in the
+     * specified region. This only touches entities in that region, rather
+     * than every entity in the world.
+     * 
+     * <p>The action may destroy entities, but should not otherwise add
+     * entities to or remove entities from the world.
+     * 
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * 
+     * @throws NullPointerException if {@code action} is {@code null}.
+     */
+    @UserThread("MainThread")
+    public void forEachEntityInRegion(int x, int y, Consumer<Entity> action) {
+        Set<Entity> set = regionEntities.get(regionEntitiesKey.set(x, y));
+        if(set != null)
+            set.forEach(action);
     }
     
     @ForTestingPurposes
@@ -185,8 +237,43 @@ public class HostWorld extends AbstractWorld {
         );
     }
     
+    /**
+     * Prefetches a region in anticipation of it being anchored soon.
+     * 
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * 
+     * @return {@code true} if the region was prefetched, in which case {@link
+     * #dropPrefetch(int, int)} should later be invoked for it.
+     * @see RegionStore#prefetch(int, int)
+     */
+    @UserThread("MainThread")
+    public boolean prefetchRegion(int x, int y) {
+        return regions.prefetch(x, y);
+    }
+    
+    /**
+     * Drops a prefetch made by {@link #prefetchRegion(int, int)}.
+     * 
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     */
+    @UserThread("MainThread")
+    public void dropPrefetch(int x, int y) {
+        regions.dropPrefetch(x, y);
+    }
+    
     @Override
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
     public Slice getSliceAt(int x, int y) {
+        return sliceCache.get(x, y);
+    }
+    
+    /**
+     * Looks up a slice directly from its region, bypassing the slice cache.
+     */
+    private Slice lookupSlice(int x, int y) {
         return getRegionFromSliceCoords(x, y).getSliceAt(
                 sliceCoordRelativeToRegionFromSliceCoord(x),
                 sliceCoordRelativeToRegionFromSliceCoord(y)
@@ -214,16 +301,53 @@ public class HostWorld extends AbstractWorld {
             // TODO: remove this when I make sure one can't set a tile over another
             if(id != s.getTileIDAt(tx, ty)) {
                 s.getTileAt(tx, ty).handleRemove(this, pos);
-                SingleplayerState.pop.play(1f, 0.75f, 0f);
+                playSound(0.75f);
                 
                 s.setTileIDAt(tx, ty, id);
-                //recalcLightingAt(x, y, s.getLightAt(tx, ty));
-                s.updateLight(tx, ty);
+                tileChanged(pos);
                 Tile.getTile(id).handlePlace(this, pos);
             }
         }
     }
     
+    @Override
+    public void setWallAt(Position pos, Tile wall) {
+        setWallAt(pos, wall.getID());
+    }
+    
+    @Override
+    public void setWallAt(Position pos, int id) {
+        Slice s = getSliceAt(pos);
+        if(!s.isDummy() && id != s.getWallIDAt(pos.ltx(), pos.lty())) {
+            s.setWallIDAt(pos.ltx(), pos.lty(), id);
+            light.queueUpdate(pos); // walls may emit light, too
+        }
+    }
+    
+    private void tileChanged(Position pos) {
+        tileChanged(tileCoordFromSliceCoord(pos.sx) + pos.ltx(),
+                tileCoordFromSliceCoord(pos.sy) + pos.lty());
+    }
+    
+    /**
+     * Updates the light and wakes the fluids around a tile which has been
+     * set.
+     */
+    @UserThread("MainThread")
+    void tileChanged(int x, int y) {
+        light.queueUpdate(x, y);
+        fluids.wakeAround(x, y);
+    }
+    
+    @Override
+    public void playSound(float pitch) {
+        // pop is null when running headless. Dimensions ticked in parallel
+        // are off the main thread, so defer it as we would a cross-dimension
+        // action.
+        if(SingleplayerState.pop != null)
+            crossDimension(() -> SingleplayerState.pop.play(1f, pitch, 0f));
+    }
+    
     /*
     @SuppressWarnings("unused")
     private byte recalcLightingAt(int x, int y, byte curLight) {
@@ -264,11 +388,11 @@ public class HostWorld extends AbstractWorld {
             Tile old = s.getTileAt(tx, ty);
             
             if(old != Tiles.air) {
-                SingleplayerState.pop.play(1f, 1.7f, 0f);
+                playSound(1.7f);
                 
                 old.handleBreak(this, pos);
                 s.setTileAt(tx, ty, Tiles.air);
-                s.updateLight(tx, ty);
+                tileChanged(pos);
             }
         }
     }
@@ -322,12 +446,20 @@ public class HostWorld extends AbstractWorld {
                 s.getTileAt(tx, ty).handleBreak(this, pos);
                 
                 s.setTileAt(tx, ty, Tiles.air);
+                tileChanged(pos);
                 
                 //Tiles.AIR.handlePlace(this, x, y);
             }
         }
     }
     
+    @Override
+    public void scheduleTileTick(Position pos, int delay) {
+        Region r = getRegionFromSliceCoords(pos.sx(), pos.sy());
+        if(!r.isDummy())
+            r.scheduleTileTick(pos, getAge() + Math.max(1, delay));
+    }
+    
     /**
      * Gets this world's filesystem directory.
      */
@@ -380,8 +512,11 @@ public class HostWorld extends AbstractWorld {
     @Override
     public void blockUntilClosed() {
         regions.waitUntilDone();
+        regions.loader.close();
         
         log.postDebug(stats.toString());
+        log.postDebug(indexStatsToString());
+        log.postDebug(sliceCache.toString());
     }
     
     public WorldLoadTracker loadTracker() {
@@ -398,4 +533,46 @@ public class HostWorld extends AbstractWorld {
         return o == this;
     }
     
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * Keeps {@link HostWorld#regionEntities} in step with the entity index.
+     */
+    private class RegionMembership implements SliceIndex.Listener<Entity> {
+        
+        @Override
+        public void onAdd(Entity e, int sx, int sy) {
+            Point loc = Region.createImmutableLoc(
+                    regionCoordFromSliceCoord(sx),
+                    regionCoordFromSliceCoord(sy));
+            regionEntities.computeIfAbsent(loc, k -> new HashSet<>()).add(e);
+        }
+        
+        @Override
+        public void onMove(Entity e, int oldSx, int oldSy, int newSx, int newSy) {
+            int oldRx = regionCoordFromSliceCoord(oldSx);
+            int oldRy = regionCoordFromSliceCoord(oldSy);
+            int newRx = regionCoordFromSliceCoord(newSx);
+            int newRy = regionCoordFromSliceCoord(newSy);
+            if(oldRx != newRx || oldRy != newRy) {
+                remove(e, oldRx, oldRy);
+                onAdd(e, newSx, newSy);
+            }
+        }
+        
+        @Override
+        public void onRemove(Entity e, int sx, int sy) {
+            remove(e, regionCoordFromSliceCoord(sx), regionCoordFromSliceCoord(sy));
+        }
+        
+        private void remove(Entity e, int rx, int ry) {
+            Set<Entity> set = regionEntities.get(regionEntitiesKey.set(rx, ry));
+            if(set != null && set.remove(e) && set.isEmpty())
+                regionEntities.remove(regionEntitiesKey);
+        }
+        
+    }
+    
 }
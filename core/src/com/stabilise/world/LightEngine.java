@@ -0,0 +1,397 @@
+package com.stabilise.world;
+
+import static com.stabilise.world.Slice.SLICE_SIZE;
+import static com.stabilise.world.Slice.SLICE_SIZE_MINUS_ONE;
+import static com.stabilise.world.Slice.SLICE_SIZE_SHIFT;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.stabilise.entity.Position;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.world.tile.Tile;
+
+/**
+ * Keeps a world's light up to date as its tiles change.
+ * 
+ * <p>The light at a tile is the greatest of the light it emits itself (that
+ * of its tile or wall, whichever is brighter), and the light of each of its
+ * four neighbours less that neighbour's {@link Tile#getFalloff() falloff}.
+ * This is what {@link Slice#buildLight()} computes for a lone slice; the
+ * engine maintains it across the whole world, across slice and region
+ * borders alike.
+ * 
+ * <p>Changes are {@link #queueUpdate(int, int) queued} as tiles are set, and
+ * are {@link #update() processed} together once a tick. Rather than
+ * rebuilding anything, light is propagated breadth-first from the changed
+ * tiles only:
+ * 
+ * <ol>
+ * <li>Each changed tile is darkened, and the darkness spreads to every
+ * connected tile dimmer than the tile it spread from, as only those could
+ * have been lit through it. Tiles at least as bright, and tiles no brighter
+ * than the light they emit themselves, are left alone, and are remembered as
+ * the edge of the darkened area.
+ * <li>Light spreads back in from the edge of the darkened area, and from any
+ * darkened tile which emits light of its own. A tile only passes light on if
+ * that brightens its neighbour, so this stops wherever light is unchanged.
+ * </ol>
+ * 
+ * <p>As every falloff is positive, any tile lit through another is strictly
+ * dimmer than it, so the first step darkens everything which might have
+ * been lit through a changed tile (and perhaps a little more, which the
+ * second step restores). The cost of an update is thus proportional to the
+ * area the changed tile's light could reach, rather than to the size of its
+ * slice.
+ * 
+ * <p>Light isn't spread into regions which aren't loaded. When a region is
+ * loaded, its borders are {@link #queueRegion(Region) queued}, so that light
+ * spreads across them both ways.
+ */
+@NotThreadSafe
+public class LightEngine {
+    
+    private final SliceSource world;
+    
+    /** Tiles which have changed since the last update, as (x, y) pairs. */
+    private final IntQueue changed = new IntQueue();
+    /** Tiles to darken from, as (x, y, level) triples, where level is the
+     * light the tile had before being darkened. */
+    private final IntQueue darken = new IntQueue();
+    /** Tiles to spread light from, as (x, y) pairs. */
+    private final IntQueue spread = new IntQueue();
+    
+    // The slice most recently looked up, since neighbouring tiles tend to
+    // share one. Only valid within an update.
+    private Slice lastSlice;
+    private int lastX, lastY;
+    
+    /** The number of tiles whose light has been set. For benchmarking. */
+    private long tilesLit = 0;
+    
+    
+    /**
+     * Creates a new light engine.
+     * 
+     * @param world The source of the slices whose light to keep. {@link
+     * Slice#isDummy() Dummy} slices are treated as absent.
+     */
+    public LightEngine(SliceSource world) {
+        this.world = world;
+    }
+    
+    /**
+     * Queues an update to the light at the given tile, as its tile or wall
+     * has changed.
+     */
+    @UserThread("MainThread")
+    public void queueUpdate(Position pos) {
+        queueUpdate(
+                Position.tileCoordFromSliceCoord(pos.sx) + pos.ltx(),
+                Position.tileCoordFromSliceCoord(pos.sy) + pos.lty());
+    }
+    
+    /**
+     * Queues an update to the light at the given tile, as its tile or wall
+     * has changed.
+     * 
+     * @param x The x-coordinate of the tile, in tile-lengths.
+     * @param y The y-coordinate of the tile, in tile-lengths.
+     */
+    @UserThread("MainThread")
+    public void queueUpdate(int x, int y) {
+        changed.add(x, y);
+    }
+    
+    /**
+     * Queues the light of a region which has just been added to the world to
+     * be spread across its slice borders, and across its borders with the
+     * regions around it.
+     * 
+     * <p>Light within each slice is assumed to be correct, as is the case for
+     * a freshly-generated region (see {@link Slice#buildLight()}), except
+     * for light which spread in from the regions around it. That may be
+     * stale if those regions have changed since this one was saved, so the
+     * region's outermost tiles are queued as changed, and any light which
+     * came in through them is darkened before being spread afresh.
+     */
+    @UserThread("MainThread")
+    public void queueRegion(Region r) {
+        int x0 = Position.tileCoordFromRegionCoord(r.x());
+        int y0 = Position.tileCoordFromRegionCoord(r.y());
+        int x1 = x0 + Region.REGION_SIZE_IN_TILES - 1;
+        int y1 = y0 + Region.REGION_SIZE_IN_TILES - 1;
+        
+        // Each slice's border, which includes the region's own
+        for(int y = y0; y <= y1; y++) {
+            int ly = y & SLICE_SIZE_MINUS_ONE;
+            if(ly == 0 || ly == SLICE_SIZE_MINUS_ONE) {
+                for(int x = x0; x <= x1; x++)
+                    spread.add(x, y);
+            } else {
+                for(int x = x0; x <= x1; x += SLICE_SIZE) {
+                    spread.add(x, y);
+                    spread.add(x + SLICE_SIZE_MINUS_ONE, y);
+                }
+            }
+        }
+        
+        // And the tiles just outside the region, so that light can spread
+        // in. These do nothing if their region isn't there.
+        for(int x = x0; x <= x1; x++) {
+            spread.add(x, y0 - 1);
+            spread.add(x, y1 + 1);
+        }
+        for(int y = y0; y <= y1; y++) {
+            spread.add(x0 - 1, y);
+            spread.add(x1 + 1, y);
+        }
+        
+        // The region's own edge, to darken whatever was lit from outside it
+        // when it was saved. Light of its own spreads back from within.
+        for(int x = x0; x <= x1; x++) {
+            changed.add(x, y0);
+            changed.add(x, y1);
+        }
+        for(int y = y0 + 1; y < y1; y++) {
+            changed.add(x0, y);
+            changed.add(x1, y);
+        }
+    }
+    
+    /**
+     * Returns true if there are no light updates pending.
+     */
+    public boolean isIdle() {
+        return changed.isEmpty() && spread.isEmpty();
+    }
+    
+    /**
+     * Returns the number of tiles whose light has been set by this engine.
+     */
+    public long tilesLit() {
+        return tilesLit;
+    }
+    
+    /**
+     * Processes every queued light update.
+     */
+    @UserThread("MainThread")
+    public void update() {
+        if(isIdle())
+            return;
+        lastSlice = null;
+        
+        while(!changed.isEmpty()) {
+            int x = changed.poll();
+            int y = changed.poll();
+            Slice s = sliceAt(x, y);
+            if(s == null)
+                continue;
+            int lx = x & SLICE_SIZE_MINUS_ONE;
+            int ly = y & SLICE_SIZE_MINUS_ONE;
+            int level = s.getLightAt(lx, ly);
+            if(level > 0) {
+                setLight(s, lx, ly, 0);
+                darken.add(x, y, level);
+            }
+            seed(s, x, y);
+        }
+        
+        while(!darken.isEmpty()) {
+            int x = darken.poll();
+            int y = darken.poll();
+            int level = darken.poll();
+            darkenFrom(x - 1, y, level);
+            darkenFrom(x + 1, y, level);
+            darkenFrom(x, y - 1, level);
+            darkenFrom(x, y + 1, level);
+        }
+        
+        while(!spread.isEmpty()) {
+            int x = spread.poll();
+            int y = spread.poll();
+            Slice s = sliceAt(x, y);
+            if(s == null)
+                continue;
+            int level = s.getLightAt(x & SLICE_SIZE_MINUS_ONE, y & SLICE_SIZE_MINUS_ONE)
+                    - s.getTileAt(x & SLICE_SIZE_MINUS_ONE, y & SLICE_SIZE_MINUS_ONE).getFalloff();
+            if(level <= 0)
+                continue;
+            spreadTo(x - 1, y, level);
+            spreadTo(x + 1, y, level);
+            spreadTo(x, y - 1, level);
+            spreadTo(x, y + 1, level);
+        }
+        
+        lastSlice = null; // don't hold onto it past the update
+        darken.compact();
+        spread.compact();
+        changed.compact();
+    }
+    
+    /**
+     * Darkens a tile next to one which has been darkened from the given
+     * level, if it could have been lit through it.
+     */
+    private void darkenFrom(int x, int y, int from) {
+        Slice s = sliceAt(x, y);
+        if(s == null)
+            return;
+        int lx = x & SLICE_SIZE_MINUS_ONE;
+        int ly = y & SLICE_SIZE_MINUS_ONE;
+        int level = s.getLightAt(lx, ly);
+        if(level == 0)
+            return;
+        if(level < from && level > emittedLight(s, lx, ly)) {
+            setLight(s, lx, ly, 0);
+            darken.add(x, y, level);
+            seed(s, x, y);
+        } else {
+            // Lit from elsewhere, or by itself; it'll spread its light back.
+            spread.add(x, y);
+        }
+    }
+    
+    /**
+     * Lights a darkened tile by the light it emits, if any, and queues it to
+     * spread that light.
+     */
+    private void seed(Slice s, int x, int y) {
+        int lx = x & SLICE_SIZE_MINUS_ONE;
+        int ly = y & SLICE_SIZE_MINUS_ONE;
+        int emitted = emittedLight(s, lx, ly);
+        if(emitted > s.getLightAt(lx, ly)) {
+            setLight(s, lx, ly, emitted);
+            spread.add(x, y);
+        }
+    }
+    
+    /**
+     * Returns the light a tile emits by itself.
+     */
+    private static int emittedLight(Slice s, int lx, int ly) {
+        return Math.max(s.getTileAt(lx, ly).getLight(), s.getWallAt(lx, ly).getLight());
+    }
+    
+    /**
+     * Brightens a tile to the given level, if it is dimmer.
+     */
+    private void spreadTo(int x, int y, int level) {
+        Slice s = sliceAt(x, y);
+        if(s == null)
+            return;
+        int lx = x & SLICE_SIZE_MINUS_ONE;
+        int ly = y & SLICE_SIZE_MINUS_ONE;
+        if(level > s.getLightAt(lx, ly)) {
+            setLight(s, lx, ly, level);
+            spread.add(x, y);
+        }
+    }
+    
+    private void setLight(Slice s, int lx, int ly, int level) {
+        s.setLightAt(lx, ly, (byte)level);
+        tilesLit++;
+    }
+    
+    /**
+     * Returns the slice containing the given tile, or {@code null} if it
+     * isn't loaded.
+     */
+    private Slice sliceAt(int x, int y) {
+        int sx = x >> SLICE_SIZE_SHIFT;
+        int sy = y >> SLICE_SIZE_SHIFT;
+        if(lastSlice == null || sx != lastX || sy != lastY) {
+            Slice s = world.getSliceAt(sx, sy);
+            if(s.isDummy())
+                return null;
+            lastSlice = s;
+            lastX = sx;
+            lastY = sy;
+        }
+        return lastSlice;
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * Provides the slices of a world.
+     */
+    @FunctionalInterface
+    public static interface SliceSource {
+        
+        /**
+         * Returns the slice at the given slice coordinates, or a {@link
+         * Slice#isDummy() dummy} slice if it isn't loaded.
+         */
+        Slice getSliceAt(int x, int y);
+        
+    }
+    
+    /**
+     * A FIFO queue of tuples of ints, in a growable ring buffer.
+     */
+    private static class IntQueue {
+        
+        /** Must be a power of two. */
+        private static final int INITIAL_LENGTH = 1024;
+        
+        private int[] data = new int[INITIAL_LENGTH];
+        private int head = 0, tail = 0; // tail == head when empty
+        
+        boolean isEmpty() {
+            return head == tail;
+        }
+        
+        void add(int a, int b) {
+            push(a);
+            push(b);
+        }
+        
+        void add(int a, int b, int c) {
+            push(a);
+            push(b);
+            push(c);
+        }
+        
+        private void push(int v) {
+            data[tail] = v;
+            tail = (tail + 1) & (data.length - 1);
+            if(tail == head)
+                grow();
+        }
+        
+        int poll() {
+            int v = data[head];
+            head = (head + 1) & (data.length - 1);
+            return v;
+        }
+        
+        private void grow() {
+            // The buffer is full, with head == tail. Unroll it into one twice
+            // the size.
+            int n = data.length;
+            int[] d = new int[n * 2];
+            System.arraycopy(data, head, d, 0, n - head);
+            System.arraycopy(data, 0, d, n - head, head);
+            data = d;
+            head = 0;
+            tail = n;
+        }
+        
+        /**
+         * Drops the buffer back to its initial size if it has grown and is
+         * empty, so that one big update doesn't pin a large array forever.
+         */
+        void compact() {
+            if(isEmpty() && data.length > INITIAL_LENGTH) {
+                data = new int[INITIAL_LENGTH];
+                head = tail = 0;
+            } else if(isEmpty())
+                head = tail = 0;
+        }
+        
+    }
+    
+}
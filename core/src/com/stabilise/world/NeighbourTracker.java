@@ -0,0 +1,133 @@
+package com.stabilise.world;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongFunction;
+
+import com.stabilise.util.annotation.ThreadUnsafeMethod;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.collect.ConcurrentLongMap;
+
+/**
+ * Keeps count of the prepared neighbours of each region in a {@link
+ * RegionStore}'s primary storage (see {@link
+ * RegionState#addPreparedNeighbour()}), without a store-wide lock.
+ * 
+ * <p>Worker threads which move a region into primary storage merely {@link
+ * #arrived(Region) post} it to a queue. The main thread {@link #drain()
+ * drains} the queue at the start of each tick and settles each region which
+ * is still in primary storage by counting it against its settled neighbours
+ * and vice-versa. Since only settled regions are ever counted, and only the
+ * main thread settles and {@link #removed(Region) unsettles} them, the counts
+ * are always consistent and need no synchronisation.
+ * 
+ * <p>A region may thus sit in primary storage for up to a tick before its
+ * neighbours know about it, which at worst delays it becoming {@link
+ * RegionState#isActive() active} by a tick.
+ */
+public class NeighbourTracker {
+    
+    /** Regions which have arrived in primary storage since the last drain.
+     * Many producers, one consumer (the main thread). */
+    private final Queue<Region> arrivals = new ConcurrentLinkedQueue<>();
+    /** Settled regions. Only touched on the main thread. */
+    private final ConcurrentLongMap<Region> settled = new ConcurrentLongMap<>();
+    /** Looks up a region in primary storage by its {@link Region#key key}. */
+    private final LongFunction<Region> primary;
+    
+    
+    /**
+     * @param primary The function with which to look up a region in primary
+     * storage by its {@link Region#key key}.
+     */
+    public NeighbourTracker(LongFunction<Region> primary) {
+        this.primary = primary;
+    }
+    
+    /**
+     * Posts a region which has just been put into primary storage, to be
+     * settled at the next {@link #drain()}.
+     */
+    @UserThread("Any")
+    public void arrived(Region r) {
+        arrivals.add(r);
+    }
+    
+    /**
+     * Settles every region which has arrived since the last drain and is still
+     * in primary storage.
+     * 
+     * @return The number of regions settled.
+     */
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
+    public int drain() {
+        int n = 0;
+        Region r;
+        while((r = arrivals.poll()) != null) {
+            // It may have been removed again (and maybe re-added, and so be
+            // queued twice) since it was posted.
+            if(primary.apply(r.key) != r || settled.get(r.key) == r)
+                continue;
+            settled.put(r.key, r);
+            notifyNeighbours(r, true);
+            n++;
+        }
+        return n;
+    }
+    
+    /**
+     * Unsettles a region which has just been removed from primary storage.
+     * Does nothing if it was never settled.
+     */
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
+    public void removed(Region r) {
+        if(settled.get(r.key) != r)
+            return;
+        settled.remove(r.key);
+        notifyNeighbours(r, false);
+    }
+    
+    /**
+     * Notifies a region's settled neighbours that it has been added or
+     * removed, and vice-versa.
+     */
+    private void notifyNeighbours(Region r, boolean added) {
+        int x = r.x(), y = r.y();
+        for(int u = x-1; u <= x+1; u++) {
+            for(int v = y-1; v <= y+1; v++) {
+                if(u == x && v == y) continue; // don't do it if other == r
+                
+                Region other = settled.get(Region.key(u, v));
+                if(other == null)
+                    continue;
+                if(added) {
+                    r.state.addPreparedNeighbour();
+                    other.state.addPreparedNeighbour();
+                } else {
+                    r.state.removePreparedNeighbour();
+                    other.state.removePreparedNeighbour();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns true if the given region is settled, i.e., if it is counted as
+     * a prepared neighbour by its neighbours.
+     */
+    @UserThread("MainThread")
+    public boolean isSettled(Region r) {
+        return settled.get(r.key) == r;
+    }
+    
+    /**
+     * Returns the number of regions which are settled.
+     */
+    @UserThread("MainThread")
+    public int settledCount() {
+        return settled.size();
+    }
+    
+}
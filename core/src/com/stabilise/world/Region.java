@@ -1,20 +1,27 @@
 package com.stabilise.world;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.IntBinaryOperator;
 
 import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.entity.Entity;
 import com.stabilise.entity.Position;
 import com.stabilise.util.annotation.ThreadSafeMethod;
 import com.stabilise.util.annotation.ThreadUnsafeMethod;
 import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.collect.ConcurrentLongMap;
 import com.stabilise.util.concurrent.ClearingQueue;
 import com.stabilise.util.maths.Maths;
 import com.stabilise.util.maths.Point;
 import com.stabilise.util.maths.PointFactory;
 import com.stabilise.world.gen.action.Action;
+import com.stabilise.world.loader.RegionFileStorage;
 
 /**
  * This class represents a region of the world, which contains 16x16 slices,
@@ -60,6 +67,10 @@ public class Region {
     /** The factory with which to generate a region's {@link #loc} member. */
     private static final PointFactory LOC_FACTORY = new PointFactory(16, true);
     
+    /** The most scheduled tile ticks a region runs per tick. Any more which
+     * are due are left for the next tick. */
+    private static final int MAX_SCHEDULED_TICKS = 256;
+    
     /** Dummy region to indicate the lack of a region in preference to a null
      * pointer. */
     public static final Region DUMMY_REGION = new DummyRegion();
@@ -77,6 +88,8 @@ public class Region {
      * should be used as this region's key in any map implementation. This
      * object is always created by {@link #createImmutableLoc(int, int)}. */
     public final Point loc;
+    /** {@link #loc} packed into a long; see {@link #key(int, int)}. */
+    public final long key;
     
     /** The coordinate offsets on the x and y-axes due to the coordinates of
      * the region, in slice-lengths. */
@@ -88,6 +101,15 @@ public class Region {
     
     /** Actions to perform when added to the world. */
     public List<Action> queuedActions = null;
+    
+    /** true if anything this region saves besides its slices (e.g. its
+     * entities, queued actions and structures) may have changed since it was
+     * last saved or loaded. Atomic since regions are saved on worker threads,
+     * which restore the flag should a save fail. See {@link #needsSave()}. */
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    /** true if what was last saved or loaded of this region holds entities.
+     * Touched only on the main thread. See {@link #snapshot(HostWorld)}. */
+    private boolean holdsEntities = false;
     /** The slices to send to clients once the region has finished generating. */
     //private List<QueuedSlice> queuedSlices;
     
@@ -96,15 +118,30 @@ public class Region {
     private final ClearingQueue<QueuedStructure> structures =
             ClearingQueue.create();
     
+    /** Tiles which have asked to be updated at a particular tick, or null if
+     * none have, so that regions without any pay nothing for them. Touched
+     * only by whoever is ticking this region. */
+    private TileTickQueue tileTicks = null;
+    /** Fluid tiles which may yet flow, or null if there are none. Touched only
+     * on the main thread, by the world's {@link FluidEngine}. */
+    private FluidCells fluids = null;
+    
+    /** The most recent {@link #snapshot(HostWorld) snapshot} of this region
+     * which has yet to be written, or null. */
+    private final AtomicReference<Region> snapshot = new AtomicReference<>();
+    
     
     /**
-     * Creates a new region.
+     * Creates a new region. Regions belonging to a world should only ever be
+     * created by its {@link RegionStore}; this is public for the sake of
+     * tools and tests which operate on free-standing regions.
      * 
      * @param x The region's x-coordinate, in region-lengths.
      * @param y The region's y-coordinate, in region-lengths.
      */
-    Region(int x, int y) {
+    public Region(int x, int y) {
         loc = createImmutableLoc(x, y);
+        key = key(x, y);
         
         offsetX = x * REGION_SIZE;
         offsetY = y * REGION_SIZE;
@@ -112,6 +149,16 @@ public class Region {
         initSlices();
     }
     
+    /**
+     * Creates a snapshot of the given region, with no slices as yet.
+     */
+    private Region(Region r) {
+        loc = r.loc;
+        key = r.key;
+        offsetX = r.offsetX;
+        offsetY = r.offsetY;
+    }
+    
     /**
      * Initialises this slices in this region. Invoked on construction.
      */
@@ -127,22 +174,121 @@ public class Region {
      * Updates this region. This is invoked on a per-tick basis by the
      * {@link RegionStore} if this region is {@link RegionState#isActive()
      * active}.
+     * 
+     * <p>This may be invoked off the main thread, concurrently with the
+     * updates of other regions which aren't adjacent to this one (see {@link
+     * RegionTicker}), in which case {@code world} confines writes to this
+     * region and defers the rest.
      */
-    public void update(HostWorld world) {
+    public void update(World world) {
+        if(tileTicks != null)
+            runScheduledTicks(world);
         // Tick any number of random tiles in the region each tick
         tickSlice(world, 4);
     }
     
+    /**
+     * Updates the tiles whose scheduled ticks are due.
+     */
+    private void runScheduledTicks(World world) {
+        long now = world.getAge();
+        Position tmp = Position.create();
+        int pos;
+        for(int i = 0; i < MAX_SCHEDULED_TICKS && (pos = tileTicks.pollDue(now)) != -1; i++) {
+            int tx = TileTickQueue.posX(pos);
+            int ty = TileTickQueue.posY(pos);
+            int sx = tx >> Slice.SLICE_SIZE_SHIFT;
+            int sy = ty >> Slice.SLICE_SIZE_SHIFT;
+            int lx = tx & Slice.SLICE_SIZE_MINUS_ONE;
+            int ly = ty & Slice.SLICE_SIZE_MINUS_ONE;
+            tmp.set(sx + offsetX, sy + offsetY, lx, ly);
+            getSliceAt(sx, sy).getTileAt(lx, ly).update(world, tmp);
+            dirty.set(true);
+        }
+        if(tileTicks.isEmpty())
+            tileTicks = null;
+    }
+    
+    /**
+     * Schedules the tile at the given position, which must lie in this region,
+     * to be updated at the given tick (as per {@link World#getAge()}). Does
+     * nothing if the tile already has an update scheduled.
+     * 
+     * <p>IMPORTANT NOTE: make sure the position is {@link Position#align()
+     * aligned} before invoking this.
+     */
+    public void scheduleTileTick(Position pos, long time) {
+        int tx = ((pos.sx() - offsetX) << Slice.SLICE_SIZE_SHIFT) | pos.ltx();
+        int ty = ((pos.sy() - offsetY) << Slice.SLICE_SIZE_SHIFT) | pos.lty();
+        if(tileTicks == null)
+            tileTicks = new TileTickQueue();
+        if(tileTicks.schedule(tx, ty, time))
+            dirty.set(true);
+    }
+    
+    /**
+     * Returns this region's scheduled tile ticks, or {@code null} if it has
+     * none.
+     */
+    public TileTickQueue getScheduledTicks() {
+        return tileTicks;
+    }
+    
+    /**
+     * Sets this region's scheduled tile ticks. This is for loaders.
+     */
+    public void setScheduledTicks(TileTickQueue ticks) {
+        tileTicks = ticks == null || ticks.isEmpty() ? null : ticks;
+    }
+    
+    /**
+     * Activates the fluid at the given tile, as it may be able to flow.
+     * 
+     * @param tx The x-coordinate of the tile, relative to this region.
+     * @param ty The y-coordinate of the tile, relative to this region.
+     */
+    @UserThread("MainThread")
+    public void activateFluid(int tx, int ty) {
+        if(fluids == null)
+            fluids = new FluidCells();
+        if(fluids.activate(tx, ty))
+            dirty.set(true);
+    }
+    
+    /**
+     * Returns true if this region has any fluid which may yet flow.
+     */
+    public boolean hasActiveFluids() {
+        return fluids != null;
+    }
+    
+    /**
+     * Returns this region's active fluid cells, or {@code null} if it has
+     * none.
+     */
+    public FluidCells getActiveFluids() {
+        return fluids;
+    }
+    
+    /**
+     * Sets this region's active fluid cells. This is for loaders and the
+     * {@link FluidEngine}.
+     */
+    public void setActiveFluids(FluidCells fluids) {
+        this.fluids = fluids == null || fluids.isEmpty() ? null : fluids;
+    }
+    
     /**
      * Ticks {@code tiles}-many tiles in a random slice.
      */
-    private void tickSlice(HostWorld world, int tiles) {
-        int sx = world.rnd.nextInt(REGION_SIZE);
-        int sy = world.rnd.nextInt(REGION_SIZE);
+    private void tickSlice(World world, int tiles) {
+        Random rnd = world.rnd();
+        int sx = rnd.nextInt(REGION_SIZE);
+        int sy = rnd.nextInt(REGION_SIZE);
         Position tmp = Position.create();
         while(tiles-- > 0) {
-            int tx = world.rnd.nextInt(Slice.SLICE_SIZE);
-            int ty = world.rnd.nextInt(Slice.SLICE_SIZE);
+            int tx = rnd.nextInt(Slice.SLICE_SIZE);
+            int ty = rnd.nextInt(Slice.SLICE_SIZE);
             tmp.set(sx + offsetX, sy + offsetY, tx, ty);
             getSliceAt(sx, sy).getTileAt(tx, ty).update(world, tmp);
         }
@@ -183,6 +329,7 @@ public class Region {
     @ThreadSafeMethod
     public void addStructure(QueuedStructure struct) {
         structures.add(Objects.requireNonNull(struct));
+        dirty.set(true);
     }
     
     private void doAddStructure(QueuedStructure s, RegionStore regionStore) {
@@ -211,6 +358,9 @@ public class Region {
      */
     @ThreadUnsafeMethod
     public void implantStructures(RegionStore cache) {
+        if(structures.isEmpty())
+            return;
+        dirty.set(true);
         for(QueuedStructure s : structures) // clears the queue since ClearingQueue
             doAddStructure(s, cache);
     }
@@ -222,11 +372,19 @@ public class Region {
      * <p>This is invoked during an update tick.
      */
     @UserThread("Main Thread")
-    public void importToWorld(HostWorld world, RegionStore regions) {
+    public void importToWorld(HostWorld world) {
     	if(!state.tryImport())
     		return;
     	
+        // Queued actions are about to be applied, so what's saved of them
+        // will need rewriting. Entities go on to live in the world, and are
+        // saved from there by snapshot().
+        if(queuedActions != null)
+            dirty.set(true);
+        holdsEntities = false;
         forEachSlice(s -> {
+            if(s.savedEntities != null)
+                holdsEntities = true;
             //s.buildLight();
             s.importEntities(world);
             s.importTileEntities(world);
@@ -237,50 +395,195 @@ public class Region {
             queuedActions = null;
         }
         
-        // Stitch this region to all adjacent loaded regions
-        int x = x(), y = y();
-        for(int u = x-1; u <= x+1; u++) {
-            for(int v = y-1; v <= y+1; v++) {
-                if(u == x && v == y) continue; // don't do it if other == r
-                
-                Region other = regions.getRegion(u, v);
-                if(other != null)
-                    stitch(other);
-            }
-        }
-    }
-    
-    /**
-     * "Stitches" this region to an adjacent prepared region, i.e., shares
-     * lighting, etc.
-     */
-    private void stitch(Region r) {
-        // TODO
+        // Stitch this region's light to that of the regions around it, and
+        // across its own slices, which were lit separately.
+        world.light.queueRegion(this);
     }
     
     /**
      * Exports this region's contents (e.g., entities, tile entities) from the
      * world, in preparation for this region being unloaded.
      */
+    @UserThread("MainThread")
     public void exportFromWorld(HostWorld world) {
     	state.setUnimported();
     	
-    	// For now just destroy all 
-    	// Unload entities in the region...
-        int minX = x() * Region.REGION_SIZE_IN_TILES;
-        int maxX = minX + Region.REGION_SIZE_IN_TILES;
-        int minY = y() * Region.REGION_SIZE_IN_TILES;
-        int maxY = minY + Region.REGION_SIZE_IN_TILES;
-        
-        world.getEntities().forEach(e -> {
-            if(e.pos.gx() + e.aabb.maxX() >= minX
-                    && e.pos.gx() + e.aabb.minX() <= maxX
-                    && e.pos.gy() + e.aabb.maxY() >= minY
-                    && e.pos.gy() + e.aabb.minY() <= maxY)
-                e.destroy();
+        // Save and unload the entities in the region. We only touch those
+        // which the world tells us belong to us, rather than scanning every
+        // entity in the world.
+        world.forEachEntityInRegion(x(), y(), e -> {
+            if(e.isDestroyed())
+                return;
+            if(persists(e)) {
+                getSliceAt(e.pos.sx - offsetX, e.pos.sy - offsetY).addSavedEntity(e);
+                dirty.set(true);
+            }
+            e.destroy();
         });
     }
     
+    /**
+     * Returns {@code true} if the given entity is saved with the region it is
+     * in. Players, phantoms and portals are all tied to something outside of
+     * any one region, so we don't persist them with one.
+     */
+    private static boolean persists(Entity e) {
+        return !e.isPlayerControlled() && !e.isPhantom() && !e.isPortal();
+    }
+    
+    /**
+     * Flags that something this region saves besides its slices has changed,
+     * so that it is saved the next time it would be. Changes to slices are
+     * tracked by the slices themselves; see {@link Slice#markDirty(int)}.
+     */
+    @ThreadSafeMethod
+    public void markDirty() {
+        dirty.set(true);
+    }
+    
+    /**
+     * Flags this region and every one of its slices as wholly changed, so
+     * that the next save of this region writes all of it. Dirty flags are
+     * updated atomically, so this may be invoked while the main thread is
+     * modifying or {@link #snapshot(HostWorld) snapshotting} this region.
+     */
+    @ThreadSafeMethod
+    public void markAllDirty() {
+        markDirty();
+        forEachSlice(s -> s.markDirty(Slice.DIRTY_ALL));
+    }
+    
+    /**
+     * Clears and returns this region's own dirty flag (not those of its
+     * slices). This is done right before the region is saved, so that any
+     * changes made while it is being saved flag it again. Should the save
+     * fail, the flag should be restored with {@link #markDirty()}.
+     */
+    public boolean clearDirty() {
+        return dirty.getAndSet(false);
+    }
+    
+    /**
+     * Returns {@code true} if this region has changed since it was last
+     * saved or loaded -- that is, if it or any of its slices {@link
+     * Slice#needsSave() need saving}. Saving a region which doesn't is a
+     * waste of time. (The slices of a region which hasn't been generated
+     * aren't saved, so they don't count.)
+     */
+    @ThreadSafeMethod
+    public boolean needsSave() {
+        return needsSave(state.isGenerated());
+    }
+    
+    /**
+     * As with {@link #needsSave()}, but for a region whose state is given
+     * rather than read from {@link #state}, as a {@link #snapshot(HostWorld)
+     * snapshot} doesn't have one of its own.
+     * 
+     * @param generated Whether the region has been generated.
+     */
+    @ThreadSafeMethod
+    public boolean needsSave(boolean generated) {
+        if(dirty.get())
+            return true;
+        if(!generated)
+            return false;
+        for(int y = 0; y < REGION_SIZE; y++)
+            for(int x = 0; x < REGION_SIZE; x++)
+                if(slices[y][x].needsSave())
+                    return true;
+        return false;
+    }
+    
+    /**
+     * Takes a point-in-time snapshot of everything this region saves, to be
+     * written by the next save of this region in place of the region itself,
+     * so that the save may run on a worker thread while this region continues
+     * to be modified. Slice data is shared copy-on-write (see {@link
+     * Slice#snapshot()}), so this is cheap enough to do for every loaded
+     * region at once.
+     * 
+     * <p>Once this region has been {@link #importToWorld(HostWorld)
+     * imported}, its entities live in the world rather than in its slices,
+     * so those which are in this region are written into the snapshot as
+     * they are now, without being taken out of the world. Entities change
+     * without this region knowing, so the snapshot is dirty if this region
+     * holds any, or held any when it was last saved.
+     * 
+     * <p>The snapshot takes on this region's dirty flags, and those of its
+     * slices, which are cleared. If an earlier snapshot has yet to be written
+     * it is superseded, and its dirty flags carried over.
+     * 
+     * @param world The world this region is in. This may be {@code null} if
+     * this region has never been imported, as for free-standing regions.
+     */
+    @UserThread("MainThread")
+    public void snapshot(HostWorld world) {
+        Region snap = new Region(this);
+        forEachSlice(s -> snap.slices[s.y - offsetY][s.x - offsetX] = s.snapshot());
+        boolean d = clearDirty();
+        if(state.isImported()) {
+            boolean held = holdsEntities;
+            holdsEntities = false;
+            world.forEachEntityInRegion(x(), y(), e -> {
+                if(!e.isDestroyed() && persists(e)) {
+                    snap.getSliceAt(e.pos.sx - offsetX, e.pos.sy - offsetY).addSavedEntity(e);
+                    holdsEntities = true;
+                }
+            });
+            d |= held || holdsEntities;
+        }
+        snap.dirty.set(d);
+        if(queuedActions != null)
+            snap.queuedActions = new ArrayList<>(queuedActions);
+        for(QueuedStructure s : structures.asNonClearing())
+            snap.structures.add(s);
+        if(tileTicks != null)
+            snap.tileTicks = TileTickQueue.fromArray(tileTicks.toArray());
+        if(fluids != null)
+            snap.fluids = FluidCells.fromArray(fluids.toArray());
+        
+        Region old = snapshot.getAndSet(snap);
+        if(old != null)
+            snap.restoreDirty(old);
+    }
+    
+    /**
+     * Removes and returns the snapshot of this region which is waiting to be
+     * written, or null if there is none, in which case the region itself
+     * should be written.
+     */
+    @UserThread("WorkerThread")
+    public Region takeSnapshot() {
+        return snapshot.getAndSet(null);
+    }
+    
+    /**
+     * Discards any snapshot of this region which is waiting to be written, so
+     * that the next save writes the region itself. This should be invoked
+     * when the region has been modified off the main thread (and so after any
+     * snapshot was taken) while out of primary storage.
+     */
+    @UserThread("Any")
+    public void discardSnapshot() {
+        Region old = snapshot.getAndSet(null);
+        if(old != null)
+            restoreDirty(old);
+    }
+    
+    /**
+     * Re-flags as dirty whatever was dirty in the given snapshot of this
+     * region, as it won't be written after all.
+     */
+    @ThreadSafeMethod
+    public void restoreDirty(Region snap) {
+        if(snap.dirty.get())
+            dirty.set(true);
+        for(int y = 0; y < REGION_SIZE; y++)
+            for(int x = 0; x < REGION_SIZE; x++)
+                slices[y][x].markDirty(snap.slices[y][x].getDirty());
+    }
+    
     /**
      * @return This region's x-coordinate, in region-lengths.
      */
@@ -306,10 +609,10 @@ public class Region {
     /**
      * @param world This region's parent world.
      * 
-     * @return This region's file.
+     * @return This region's file, as of world format version 1.
      */
     public FileHandle getFile(HostWorld world) {
-        return world.getWorldDir().child("r_" + x() + "_" + y() + ".region");
+        return RegionFileStorage.getFile(world.getWorldDir(), x(), y());
     }
     
     /**
@@ -371,6 +674,14 @@ public class Region {
         return LOC_FACTORY.newImmutablePoint(x, y);
     }
     
+    /**
+     * Returns the key of the region at the given coordinates in a {@link
+     * ConcurrentLongMap}, which is equal to that region's {@link #key}.
+     */
+    public static long key(int x, int y) {
+        return ConcurrentLongMap.pack(x, y);
+    }
+    
     /**
      * Creates a mutable variant of a point returned by {@link
      * #createImmutableLoc(int, int)}. This method should not be invoked
@@ -435,7 +746,7 @@ public class Region {
         }
         
         @Override
-        public void update(HostWorld world) {
+        public void update(World world) {
             throw new IllegalStateException("Dummy region is getting updated!");
         }
         
@@ -0,0 +1,272 @@
+package com.stabilise.world;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.maths.Point;
+import com.stabilise.world.gen.WorldGenerator;
+import com.stabilise.world.loader.WorldLoader;
+
+/**
+ * Orders the region load and generation tasks of a world so that the regions
+ * nearest to an anchor are prepared first. The {@link WorldLoader} and {@link
+ * WorldGenerator} submit their asynchronous tasks here rather than straight to
+ * the executor.
+ * 
+ * <p>A task's priority is the distance (in region-lengths, along whichever
+ * axis is furthest) from its region to the nearest anchored region, so when a
+ * player enters a world or teleports, the region they stand in and its
+ * neighbours are ready long before the outskirts of the loaded area. Ties are
+ * broken in the order tasks were submitted.
+ * 
+ * <p>Whenever the set of anchored regions changes, the next {@link #update()
+ * update tick} re-prioritises every queued task against the new anchors, and
+ * offers the {@link #submit(Region, boolean, Runnable) cancellable} ones whose
+ * regions are no longer within {@link #NEEDED_RADIUS} of any anchor to the
+ * {@link Canceller}, which may drop them. Only loads queued on behalf of an
+ * anchor are cancellable; those queued for anything else, such as a prefetch
+ * or pregeneration, lie beyond the anchors by design, and would otherwise be
+ * offered again on every update. Tasks which have begun running are never
+ * cancelled.
+ */
+@ThreadSafe
+public class RegionScheduler {
+    
+    /** Regions within this distance of an anchor are loaded into primary
+     * storage; queued work for regions further away is no longer needed. */
+    public static final int NEEDED_RADIUS = 1;
+    
+    
+    private final Executor executor;
+    private final Canceller canceller;
+    private final WorldStatistics.SchedulerStats stats;
+    
+    /** Queued tasks, highest priority (i.e., nearest) first. */
+    @GuardedBy("queue")
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    /** Sequence number of the next task, for FIFO tie-breaking. */
+    @GuardedBy("queue")
+    private long nextSeq = 0;
+    
+    /** Anchored regions, mapped to the number of times they've been anchored.
+     * Only touched on the main thread. */
+    private final Map<Point, Integer> anchorCounts = new HashMap<>();
+    /** Snapshot of the coordinates of the anchored regions, as consecutive
+     * (x, y) pairs, for workers to read when submitting tasks. */
+    private volatile int[] anchors = new int[0];
+    /** true if the anchors have changed since the last update tick. Only
+     * touched on the main thread. */
+    private boolean anchorsChanged = false;
+    
+    
+    /**
+     * Creates a new scheduler.
+     * 
+     * @param executor The executor on which to run tasks.
+     * @param canceller The function to offer tasks for regions which are no
+     * longer needed.
+     * @param stats The stats to which to report.
+     */
+    public RegionScheduler(Executor executor, Canceller canceller,
+            WorldStatistics.SchedulerStats stats) {
+        this.executor = executor;
+        this.canceller = canceller;
+        this.stats = stats;
+    }
+    
+    /**
+     * Queues a task to run on the executor once every task nearer to an
+     * anchor has been started.
+     * 
+     * @param r The region the task loads or generates.
+     * @param cancellable true if the task is needed only while its region is
+     * near an anchor, in which case it is offered to the canceller once it no
+     * longer is.
+     * @param task The task.
+     */
+    @UserThread("Any")
+    public void submit(Region r, boolean cancellable, Runnable task) {
+        Task t = new Task(r, cancellable, task, distance(r, anchors));
+        synchronized(queue) {
+            t.seq = nextSeq++;
+            queue.add(t);
+        }
+        stats.scheduled.increment();
+        // Each submission hands the executor one request to run whatever is
+        // nearest at the time, which need not be the task just submitted.
+        executor.execute(this::runNext);
+    }
+    
+    private void runNext() {
+        Task t;
+        synchronized(queue) {
+            t = queue.poll();
+        }
+        // The queue may be empty if tasks were cancelled.
+        if(t != null)
+            t.task.run();
+    }
+    
+    /**
+     * Adds an anchor to a region. Should be invoked before the region is
+     * loaded, so that its tasks are prioritised accordingly.
+     */
+    @UserThread("MainThread")
+    void addAnchor(int x, int y) {
+        if(anchorCounts.merge(Region.createImmutableLoc(x, y), 1, Integer::sum) == 1) {
+            stats.anchored();
+            anchorsChanged();
+        }
+    }
+    
+    /**
+     * Removes an anchor from a region.
+     */
+    @UserThread("MainThread")
+    void removeAnchor(int x, int y) {
+        Point loc = Region.createImmutableLoc(x, y);
+        Integer count = anchorCounts.get(loc);
+        if(count == null)
+            return;
+        if(count == 1) {
+            anchorCounts.remove(loc);
+            anchorsChanged();
+        } else
+            anchorCounts.put(loc, count - 1);
+    }
+    
+    private void anchorsChanged() {
+        int[] a = new int[anchorCounts.size() * 2];
+        int i = 0;
+        for(Point p : anchorCounts.keySet()) {
+            a[i++] = p.x();
+            a[i++] = p.y();
+        }
+        anchors = a;
+        anchorsChanged = true;
+    }
+    
+    /**
+     * Re-prioritises queued tasks if the anchors have changed since the last
+     * invocation, and offers the cancellable tasks for any regions no longer
+     * needed to the canceller.
+     */
+    @UserThread("MainThread")
+    void update() {
+        if(!anchorsChanged)
+            return;
+        anchorsChanged = false;
+        
+        int[] a = anchors;
+        List<Task> unneeded = new ArrayList<>();
+        synchronized(queue) {
+            // PriorityQueue can't re-sift in place, so rebuild it.
+            Task[] tasks = queue.toArray(new Task[queue.size()]);
+            queue.clear();
+            for(Task t : tasks) {
+                t.dist = distance(t.region, a);
+                if(t.cancellable && t.dist > NEEDED_RADIUS)
+                    unneeded.add(t);
+                else
+                    queue.add(t);
+            }
+        }
+        stats.reprioritised.increment();
+        
+        // Cancel outside the queue lock, as the canceller takes locks of its
+        // own.
+        for(Task t : unneeded) {
+            if(canceller.tryCancel(t.region))
+                stats.cancelled.increment();
+            else {
+                stats.refused.increment();
+                synchronized(queue) {
+                    queue.add(t);
+                }
+                // The request which would've run this may have found the
+                // queue empty in the meantime, so issue another.
+                executor.execute(this::runNext);
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of tasks waiting to be run.
+     */
+    @UserThread("Any")
+    public int queueSize() {
+        synchronized(queue) {
+            return queue.size();
+        }
+    }
+    
+    /**
+     * Returns the distance from a region to the nearest of the given anchors,
+     * or {@code Integer.MAX_VALUE} if there are none.
+     */
+    private static int distance(Region r, int[] anchors) {
+        int x = r.x(), y = r.y();
+        int min = Integer.MAX_VALUE;
+        for(int i = 0; i < anchors.length; i += 2) {
+            int d = Math.max(Math.abs(anchors[i] - x), Math.abs(anchors[i+1] - y));
+            if(d < min)
+                min = d;
+        }
+        return min;
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    private static class Task implements Comparable<Task> {
+        
+        private final Region region;
+        private final boolean cancellable;
+        private final Runnable task;
+        /** Guarded by the queue lock once queued. */
+        private int dist;
+        private long seq;
+        
+        private Task(Region region, boolean cancellable, Runnable task, int dist) {
+            this.region = region;
+            this.cancellable = cancellable;
+            this.task = task;
+            this.dist = dist;
+        }
+        
+        @Override
+        public int compareTo(Task o) {
+            int c = Integer.compare(dist, o.dist);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+        
+    }
+    
+    /**
+     * Decides whether queued work for a region which is no longer needed may
+     * be dropped.
+     */
+    @FunctionalInterface
+    public interface Canceller {
+        
+        /**
+         * Attempts to cancel the queued work for a region. The task for the
+         * region has been removed from the queue and will not run if this
+         * returns {@code true}; if this returns {@code false}, it is queued
+         * again.
+         */
+        @UserThread("MainThread")
+        boolean tryCancel(Region r);
+        
+    }
+    
+}
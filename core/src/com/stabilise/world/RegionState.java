@@ -2,7 +2,6 @@ package com.stabilise.world;
 
 import static com.stabilise.core.Constants.REGION_UNLOAD_TICK_BUFFER;
 
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.concurrent.GuardedBy;
@@ -55,13 +54,13 @@ public class RegionState {
      * state, as the save state is for the most part independent of, and can
      * overlap with, multiple different states.
      *
-     * <p>All save state control is localised to {@link #getSavePermit()}
-     * and {@link #finishSaving()}.
+     * <p>All save state control is localised to {@link #getSavePermit()},
+     * {@link #beginSaving()} and {@link #finishSaving()}.
      */
     private enum SaveState {
         /** A region is not currently being saved. */
         NOT_SAVING,
-        /** A region is currently being saved. */
+        /** A region is currently being saved, or is queued to be. */
         SAVING,
         /** A region is currently being saved, and another save has been
          * requested. */
@@ -100,20 +99,13 @@ public class RegionState {
     private int anchoredNeighbours = 0;
     /** Number of adjacent regions which are 'prepared'. A region is considered
      * active if it is anchored and prepared, and all its neighbours are
-     * prepared. */
-    private final AtomicInteger preparedNeighbours = new AtomicInteger();
-    /** true if all this region's neighbours are prepared. A region is
-     * considered active if it is anchored and prepared, and all its neighbours
-     * are prepared.
+     * prepared.
      * 
-     * <p>This value is cached as to avoid reading from an AtomicInteger on a
-     * per-tick basis. Since this is not volatile, the correct value is updated
-     * in the main thread by establishing a happens-before using the
-     * ConcurrentMap in RegionStore. (TODO: not actually airtight -- will 
-     * backfire on me when I use this to assume all neighbouring regions are
-     * definitely present in the region store. Ah well, I'll deal with it when
-     * I get the first NPE.) */
-    private boolean allNeighboursPrepared = false;
+     * <p>Regions arriving in primary storage are only counted once the main
+     * thread has settled them (see {@link NeighbourTracker}), so this is only
+     * touched on the main thread and we don't need to be careful with
+     * synchronisation. */
+    private int preparedNeighbours = 0;
     
     /** Whether a region's contents have been imported into the world.
      * Importing is done on the first tick after a region is added into the
@@ -172,7 +164,7 @@ public class RegionState {
     @UserThread("MainThread")
     @ThreadUnsafeMethod
     public boolean isActive() {
-        return isAnchored() && allNeighboursPrepared;
+        return isAnchored() && preparedNeighbours == 8; // 8 neighbours; don't count self
     }
     
     /**
@@ -208,22 +200,32 @@ public class RegionState {
     
     /**
      * Informs the region that is has a prepared neighbour. This is called by
-     * RegionStore.
+     * the {@link NeighbourTracker}.
      */
-    @UserThread("Any")
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
     public void addPreparedNeighbour() {
-        if(preparedNeighbours.incrementAndGet() == 8) // 8 neighbours; don't count self
-            allNeighboursPrepared = true;
+        preparedNeighbours++;
     }
     
     /**
      * Informs the region that one of its neighbours has been removed from the
-     * world. This is called by RegionStore.
+     * world. This is called by the {@link NeighbourTracker}.
      */
-    @UserThread("Any")
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
     public void removePreparedNeighbour() {
-        preparedNeighbours.getAndDecrement();
-        allNeighboursPrepared = false;
+        preparedNeighbours--;
+    }
+    
+    /**
+     * Returns the number of the region's neighbours which are prepared and
+     * in primary storage.
+     */
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
+    public int getPreparedNeighbours() {
+        return preparedNeighbours;
     }
     
     /**
@@ -252,6 +254,17 @@ public class RegionState {
         return state.compareAndSet(State.NEW, State.LOADING);
     }
     
+    /**
+     * Returns a load permit which was obtained but never acted upon, so that
+     * the region reverts to being new. This should only be invoked when a
+     * queued load is cancelled before it begins.
+     * 
+     * @return {@code true} if the region was loading and is now new.
+     */
+    public boolean cancelLoad() {
+        return state.compareAndSet(State.LOADING, State.NEW);
+    }
+    
     /**
      * Declares that the region has been loaded. This should be called by the
      * WorldLoader once loading of the region is completed.
@@ -314,9 +327,10 @@ public class RegionState {
                 // If we're in SAVING, this means another thread is
                 // currently saving this region. However, since we have no
                 // guarantee that it is saving up-to-date data, we queue up
-                // another save. After completing the current save, the
-                // WorldLoader will pick up on our new save request via
-                // finishSaving() and save again.
+                // another save. If the save hasn't started yet, it absorbs
+                // our request via beginSaving(); otherwise, after completing
+                // the current save, the saver will pick up on our new save
+                // request via finishSaving() and queue the region again.
                 saveState = SaveState.SAVE_QUEUED;
                 return false;
             case SAVE_QUEUED:
@@ -332,11 +346,28 @@ public class RegionState {
         throw Checks.badAssert();
     }
     
+    /**
+     * This is called when a queued save operation starts writing the region.
+     * Any save requested since the region was queued will be satisfied by
+     * this one, as it writes the region as it is now.
+     * 
+     * @return true if such a request was absorbed.
+     */
+    @UserThread("WorkerThread")
+    public synchronized boolean beginSaving() {
+        // ^^^^^^^^^^^^ Synchronised
+        if(saveState == SaveState.SAVE_QUEUED) {
+            saveState = SaveState.SAVING;
+            return true;
+        }
+        return false;
+    }
+    
     /**
      * This is called when a save operation is completed.
      *
      * @return true if another save was requested in the meantime and the
-     * region should be saved again.
+     * region should be queued to be saved again.
      */
     @UserThread("WorkerThread")
     public synchronized boolean finishSaving() {
@@ -375,6 +406,14 @@ public class RegionState {
         return false;
     }
     
+    /**
+     * Returns {@code true} if the region's contents have been imported into
+     * the world, and not since exported.
+     */
+    public boolean isImported() {
+        return imported;
+    }
+    
     /**
      * Sets the region as imported, so that {@link #tryImport()} can return
      * true again. This is invoked when the region is unloaded and moved from
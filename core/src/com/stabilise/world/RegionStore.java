@@ -1,10 +1,8 @@
 package com.stabilise.world;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -13,10 +11,12 @@ import java.util.function.IntBinaryOperator;
 
 import javax.annotation.concurrent.GuardedBy;
 
+import com.stabilise.core.Constants;
 import com.stabilise.util.Checks;
 import com.stabilise.util.Log;
 import com.stabilise.util.annotation.ThreadUnsafeMethod;
 import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.collect.ConcurrentLongMap;
 import com.stabilise.util.concurrent.Striper;
 import com.stabilise.util.maths.Maths;
 import com.stabilise.util.maths.Point;
@@ -85,9 +85,11 @@ import com.stabilise.world.loader.WorldLoader;
  * risk of it being concurrently modified while it is being saved.
  * 
  * <p>A region can also be manually saved (rather, currently, all regions in
- * primary storage may be saved via {@link #saveAll()}) - however, the onus
- * lies on the caller to ensure that concurrency issues won't arise (e.g., by
- * saving only while the game is paused).
+ * primary storage may be saved via {@link #saveAll()}) while the game runs.
+ * The main thread takes a copy-on-write {@link Region#snapshot(HostWorld)
+ * snapshot} of each region as it requests the save, and the saver writes that
+ * rather than the region itself, so the main thread may carry on modifying
+ * the region without tearing what's written, and pays only for the snapshot.
  * 
  * <h3>Region Lifecycle</h3>
  * 
@@ -95,9 +97,17 @@ import com.stabilise.world.loader.WorldLoader;
  * (On anchor): PUT IN CACHE -> LOAD -> GENERATE -> SAVE -> MOVE TO PRIMARY
  * (On unload): MOVE TO CACHE -> SAVE -> REMOVE FROM CACHE
  * (Cached region): PUT IN CACHE -> (LOAD IF NECESSARY) -> UNCACHE
+ * (Prefetch): PUT IN CACHE -> LOAD -> GENERATE -> SAVE -> (KEEP IN CACHE)
+ *                -> (on anchor) MOVE TO PRIMARY
+ *                -> (on drop) REMOVE FROM CACHE
  * </pre>
  * 
- * I have, to the best of my ability, tried to account for all possibilities
+ * Loads and generations are queued with a {@link RegionScheduler}, which runs
+ * those of the regions nearest to an anchor first. Should a region being
+ * prepared for primary storage stop being needed before its load begins, the
+ * load is dropped and the region simply removed from the cache.
+ * 
+ * <p>I have, to the best of my ability, tried to account for all possibilities
  * wherein a region is being loaded, generated, anchored, cached, etc. by
  * multiple threads at once. 
  */
@@ -115,33 +125,38 @@ public class RegionStore {
     /** Reference to the world. */
     private final HostWorld world;
     
+    /** Orders the load and generation tasks of the loader and generator. */
+    public final RegionScheduler scheduler;
     public final WorldLoader loader;
     public final WorldGenerator generator;
+    /** Ticks the active regions each tick. */
+    public final RegionTicker ticker;
+    
     
+    /** Primary storage. Contains all prepared regions. Maps region.key ->
+     * region. Reads are lock-free, which matters as the main thread looks up
+     * regions in here constantly. */
+    private final ConcurrentLongMap<Region> regions = new ConcurrentLongMap<>();
     
-    /** Primary storage. Contains all prepared regions. Maps region.loc ->
-     * region. */
-    private final ConcurrentMap<Point, Region> regions =
-            new ConcurrentHashMap<>();
+    /** Incremented whenever a region is added to or removed from primary
+     * storage. See {@link #primaryEpoch()}. */
+    private final AtomicInteger primaryEpoch = new AtomicInteger();
+    /** Counts the prepared neighbours of the regions in primary storage. */
+    private final NeighbourTracker neighbours = new NeighbourTracker(regions::get);
     
-    /** The map of cached regions. Maps region.loc -> region. */
-    private final ConcurrentMap<Point, CachedRegion> cache =
-            new ConcurrentHashMap<>();
+    /** The map of cached regions. Maps region.key -> region. */
+    private final ConcurrentLongMap<CachedRegion> cache = new ConcurrentLongMap<>();
     
     /** ThreadLocal which tracks the regions cached by each thread. Used by
      * {@link #uncacheAll()}. */
-    private final ThreadLocal<Map<Point, Region>> localCachedRegions =
-            ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<ConcurrentLongMap<Region>> localCachedRegions =
+            ThreadLocal.withInitial(ConcurrentLongMap::new);
     
     /** Locks for everything. The locks are Point objects for convenience in
      * {@link #moveToPrimary(Region)} and {@link #removeFromPrimary(Region)}. */
     private final Striper<Point> locks = 
             new Striper<>(STRIPE_FACTOR, Region::createMutableLoc);
     
-    /** Dummy key for {@link #regions} whose mutability may be abused for
-     * convenience, but ONLY on the main thread. */
-    private final Point unguardedDummyLoc = Region.createMutableLoc();
-    
     // Tracker for determining when all the regions are loaded.
     public final WorldLoadTracker loadTracker = new WorldLoadTracker();
     
@@ -149,6 +164,15 @@ public class RegionStore {
     private final Lock doneLock = new ReentrantLock();
     private final Condition emptyCondition = doneLock.newCondition();
     
+    /** The number of regions which are prefetched but not yet claimed. */
+    private final AtomicInteger prefetched = new AtomicInteger();
+    /** The memory, in bytes, which prefetched regions may occupy. */
+    private volatile long prefetchBudget = Constants.PREFETCH_MEMORY_BUDGET;
+    
+    /** true once a region has become active. Only touched on the main
+     * thread. */
+    private boolean anyActive = false;
+    
     
     private final Log log;
     
@@ -159,8 +183,11 @@ public class RegionStore {
     RegionStore(HostWorld world) {
         this.world = world;
         
-        this.loader = new WorldLoader(world);
+        this.scheduler = new RegionScheduler(world.multiverse().getExecutor(),
+                this::cancelPrepare, world.stats.sched);
+        this.loader = new WorldLoader(world, scheduler);
         this.generator = new WorldGenerator(world, this);
+        this.ticker = new RegionTicker(world, this, world.multiverse().getExecutor());
         
         log = Log.getAgent(world.getDimensionName() + "_RegionStore");
     }
@@ -171,10 +198,20 @@ public class RegionStore {
      * @return The region, or {@code null} if no such region exists in primary
      * storage.
      */
-    @UserThread("MainThread")
-    @ThreadUnsafeMethod
+    @UserThread("Any")
     public Region getRegion(int x, int y) {
-        return regions.get(unguardedDummyLoc.set(x, y));
+        return regions.get(Region.key(x, y));
+    }
+    
+    /**
+     * Returns the current primary storage epoch, which changes whenever a
+     * region is added to or removed from primary storage. This allows
+     * lookup caches (e.g. {@link SliceCache}) to cheaply detect when they
+     * need to be invalidated.
+     */
+    @UserThread("Any")
+    public int primaryEpoch() {
+        return primaryEpoch.get();
     }
     
     /**
@@ -192,13 +229,13 @@ public class RegionStore {
     @ThreadUnsafeMethod
     private Region getRegionTryCache(int x, int y) {
         // Try primary
-        Region r = regions.get(unguardedDummyLoc.set(x, y));
+        Region r = regions.get(Region.key(x, y));
         if(r != null)
             return r;
         
         // Try cache
         // No sync nor mark -- be careful!
-        CachedRegion cr = cache.get(unguardedDummyLoc);
+        CachedRegion cr = cache.get(Region.key(x, y));
         return cr == null ? null : cr.region;
     }
     
@@ -215,7 +252,7 @@ public class RegionStore {
     @ThreadUnsafeMethod
     private Region loadRegion(int x, int y) {
         // Get the region if it is already in primary storage.
-        Region r = regions.get(unguardedDummyLoc.set(x, y));
+        Region r = regions.get(Region.key(x, y));
         if(r != null)
             return r;
         
@@ -230,31 +267,46 @@ public class RegionStore {
             // To avoid a race condition we'll want to try primary storage
             // again while synchronised on the lock just to be safe (see e.g.,
             // moveToPrimary()).
-            r = regions.get(unguardedDummyLoc);
+            r = regions.get(Region.key(x, y));
             if(r != null)
                 return r;
             
-            CachedRegion cr = cache.get(unguardedDummyLoc);
+            CachedRegion cr = cache.get(Region.key(x, y));
             if(cr == null) {
                 r = new Region(x, y);
                 cr = new CachedRegion(r);
-                cache.put(r.loc, cr);
+                cache.put(r.key, cr);
             } else
                 r = cr.region;
             
             // Unless someone else has already initiated a prepare, we do it
             if(!cr.prepareForPrimary) {
                 cr.prepareForPrimary = true;
-                tryPrepare = true;
-                cr.mark();
+                loadTracker.startLoadOp(); // op is ended in moveToPrimary()
+                
+                if(cr.prefetches > 0) {
+                    // The region was prefetched; claim it rather than
+                    // preparing it again. If it's done, it can go straight
+                    // into primary. If not, whatever is preparing it will
+                    // now move it into primary when done, as it would for a
+                    // region we prepared ourselves.
+                    cr.prefetches = 0;
+                    prefetched.decrementAndGet();
+                    world.stats.prefetch.hits.increment();
+                    if(cr.timesCached == 0)
+                        moveToPrimary(r);
+                    else
+                        world.stats.prefetch.lateHits.increment();
+                } else {
+                    tryPrepare = true;
+                    cr.mark();
+                }
             }
         }
         
         // Initiate the prepare outside the synchronized block
-        if(tryPrepare) {
-        	loadTracker.startLoadOp(); // op is ended in moveToPrimary()
-            prepareRegion(r, true);
-        }
+        if(tryPrepare)
+            prepareRegion(r, true, true);
         
         return r;
     }
@@ -264,9 +316,13 @@ public class RegionStore {
      * is already loaded/generated, or if loading/generating is already taking
      * place on another thread. This method cleans up a mark on the region in
      * the cache, so make sure it's marked first before invoking this.
+     * 
+     * @param forAnchor true if the region is being prepared only because it
+     * is to be added to primary storage, in which case its load may be
+     * cancelled if it is no longer needed by the time it would begin.
      */
     @UserThread("Any")
-    private void prepareRegion(Region r, boolean generate) {
+    private void prepareRegion(Region r, boolean generate, boolean forAnchor) {
         // Even if we don't get the load permit, if the region has already been
         // loaded due to being cached for some other purpose, we try getting
         // the gen permit. Note that this permits the possibility of us
@@ -274,7 +330,7 @@ public class RegionStore {
         // was about to then gen the region; ah well, it works either way.
         
         if(r.state.getLoadPermit())
-            loader.loadRegion(r, this::finishLoad);
+            loader.loadRegion(r, forAnchor, this::finishLoad);
         else if(generate && r.state.getGenerationPermit())
             generator.generate(r, false, this::finishGenerate);
         else
@@ -292,11 +348,13 @@ public class RegionStore {
         
         boolean generate;
         boolean save = false;
+        RegionCallback pregenDone = null;
         
         synchronized(getLock(r)) {
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
             
-            generate = cr.prepareForPrimary; // = "please also generate me"
+            // = "please also generate me"
+            generate = cr.prepareForPrimary || cr.prefetches > 0 || cr.pregen != null;
             
             if(generate) {
                 if(!r.state.getGenerationPermit()) {
@@ -304,10 +362,18 @@ public class RegionStore {
                     // and stole generating rights from us in-between the load
                     // finishing and now).
                     generate = false;
-                    if(cr.unmark())
-                        // The region is no longer needed in the cache for
-                        // anything else!
+                    // If the region is no longer needed in the cache for
+                    // anything else, move it on to primary. A prefetched
+                    // region instead stays in the cache until it is claimed.
+                    // A pregenerated one is done with, as what was loaded is
+                    // what's on disk.
+                    boolean last = cr.unmark();
+                    if(last && cr.prepareForPrimary)
                         moveToPrimary(r);
+                    else if(last && cr.prefetches == 0)
+                        cache.remove(r.key);
+                    if(r.state.isGenerated())
+                        pregenDone = takePregen(cr);
                 }
                 // There is a subtle downside to what we've done here. If the
                 // region has already been generated (so that we don't get the
@@ -343,6 +409,9 @@ public class RegionStore {
         // In both cases we continue on using the same thread, outside of the
         // synchronised block.
         
+        if(pregenDone != null)
+            pregenDone.accept(r, success);
+        
         if(generate)
             generator.generate(r, true, this::finishGenerate);
         else if(save)
@@ -362,7 +431,7 @@ public class RegionStore {
         boolean save = false;
         
         synchronized(getLock(r)) {
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
             
             // Save if nothing else has the region cached for other purposes
             if(cr.unmark()) { // remove the "generate" mark
@@ -376,7 +445,8 @@ public class RegionStore {
             // saving and adding to the world in this case.
         }
         
-        // Save on the same thread, outside of the synchronised block
+        // Queue the save outside of the synchronised block. As we're a
+        // worker, the saver may hold us up if it's falling behind.
         
         if(save)
             loader.saveRegion(r, true, this::finishSave);
@@ -392,8 +462,12 @@ public class RegionStore {
         if(!success && handleFailure())
             return;
         
+        RegionCallback pregenDone;
+        boolean retire = false;
+        
         synchronized(getLock(r)) {
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
+            pregenDone = takePregen(cr);
             
             if(cr.unmark()) {
                 // If the region is slated to be added to the world and it has
@@ -411,20 +485,51 @@ public class RegionStore {
                 if(cr.prepareForPrimary) // && r.state.isPrepared())
                     moveToPrimary(r);
                 // Otherwise, the save occurred after the region was cached for
-                // some other purpose, we simply remove it from the cache.
-                else
-                    cache.remove(r.loc);
+                // some other purpose, we simply remove it from the cache --
+                // unless it was prefetched, in which case it stays there
+                // until it is claimed or dropped.
+                else if(cr.prefetches == 0) {
+                    cache.remove(r.key);
+                    // If it's gone from the world entirely (i.e. it was just
+                    // unloaded), keep it warm in case it's needed again soon.
+                    // Its place is reserved under the lock, so that a load
+                    // from disk in the meantime is noticed. Pregenerated
+                    // regions aren't likely to be needed soon, so they don't
+                    // get to.
+                    if(success && pregenDone == null && !regions.containsKey(r.key))
+                        retire = loader.reserveRetirement(r);
+                }
             }
         }
         
+        // Keeping a region warm means re-encoding it, which is done outside
+        // the lock so as not to hold up anything else striped to it.
+        if(retire)
+            loader.retire(r);
+        
+        // A region which failed to generate is saved anyway, but it hasn't
+        // really been pregenerated.
+        if(pregenDone != null)
+            pregenDone.accept(r, success && r.state.isGenerated());
         notifyWaiters();
     }
     
+    /**
+     * Clears and returns the pregeneration callback of a cached region, which
+     * may be null.
+     */
+    @GuardedBy("getLock()")
+    private static RegionCallback takePregen(CachedRegion cr) {
+        RegionCallback c = cr.pregen;
+        cr.pregen = null;
+        return c;
+    }
+    
     /**
      * Called by {@link #uncacheAll()} for each region cached by a thread, and
-     * by {@link #prepareRegion(Region, boolean)} if it is unable to secure a
-     * loading or generation permit. Performs all the necessary uncaching
-     * cleanup.
+     * by {@link #prepareRegion(Region, boolean, boolean)} if it is unable to
+     * secure a loading or generation permit. Performs all the necessary
+     * uncaching cleanup.
      * 
      * @param saveIfAble true to save the region if it is not in primary and
      * calling this would remove it from the cache.
@@ -434,17 +539,23 @@ public class RegionStore {
         boolean save = false;
         
         synchronized(getLock(r)) {
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
             
             if(cr.unmark()) { // remove the mark keeping us in here
                 // If the region is in primary storage, simply remove it from
                 // the cache; it'll be saved in due course. If not, then save
                 // it.
-                if(regions.containsKey(r.loc))
-                    cache.remove(r.loc);
-                else if(saveIfAble && r.state.getSavePermit()) {
-                    cr.mark(); // add the "save" mark
-                    save = true;
+                if(regions.containsKey(r.key))
+                    cache.remove(r.key);
+                else {
+                    // We may have changed the region since the main thread
+                    // snapshotted it on its way out of primary storage, in
+                    // which case the region itself must be written.
+                    r.discardSnapshot();
+                    if(saveIfAble && r.state.getSavePermit()) {
+                        cr.mark(); // add the "save" mark
+                        save = true;
+                    }
                 }
             }
         }
@@ -455,6 +566,37 @@ public class RegionStore {
             notifyWaiters();
     }
     
+    /**
+     * Offered by the {@link #scheduler} a region whose queued load is no
+     * longer needed. The load is dropped, and the region removed from the
+     * cache, only if it is still waiting to load solely so that it could be
+     * added to primary storage; if anything else has cached it in the
+     * meantime, or the load is a generation task instead, we leave it be.
+     * 
+     * @return true if the load was cancelled.
+     */
+    @UserThread("MainThread")
+    private boolean cancelPrepare(Region r) {
+        // Belt and braces; the scheduler only offers regions far from any
+        // anchor.
+        if(r.state.isAnchored() || r.state.hasAnchoredNeighbours())
+            return false;
+        
+        synchronized(getLock(r)) {
+            CachedRegion cr = cache.get(r.key);
+            if(cr == null || !cr.prepareForPrimary || cr.timesCached != 1
+                    || !r.state.cancelLoad())
+                return false;
+            cr.prepareForPrimary = false;
+            cr.unmark(); // remove the "load" mark
+            cache.remove(r.key);
+        }
+        
+        loadTracker.endLoadOp(); // op is started in loadRegion()
+        notifyWaiters();
+        return true;
+    }
+    
     /**
      * Moves a region from the cache to primary storage. This is invoked after
      * a region has been appropriately loaded/generated. This is invoked while
@@ -467,36 +609,21 @@ public class RegionStore {
             Checks.badAssert("Tried to move " + r.toStringDebug() + " from "
                     + "cache to primary storage, but it was not prepared?");
         
-        cache.remove(r.loc); // out of cache
+        cache.remove(r.key); // out of cache
         
-        // Synchronise over this RegionStore to make the "put into primary then
-        // notify adjacent regions that were already in primary" atomic.
-        // It's unfortunate that we can't use a striped lock here, so this may
-        // cause some hitches.
-        synchronized(this) {
-            if(regions.put(r.loc, r) != null) { // into primary
-                log.postWarning("Adding " + r + " to primary storage, but "
-                        + "it's already there?");
-                return;
-            }
-            
-            // Notify neighbouring regions that this region is prepared and
-            // vice-versa.
-            int x = r.x(), y = r.y();
-            Point loc = getLock(x, y); // safe to use since we're synced on it
-            
-            for(int u = x-1; u <= x+1; u++) {
-                for(int v = y-1; v <= y+1; v++) {
-                    if(u == x && v == y) continue; // don't do it if other == r
-                    
-                    Region other = regions.get(loc.set(u, v));
-                    if(other != null) {
-                        r.state.addPreparedNeighbour();
-                        other.state.addPreparedNeighbour();
-                    }
-                }
-            }
+        // The striped lock suffices to keep the move from cache to primary
+        // atomic with respect to loadRegion(). Neighbouring regions are told
+        // that this region is prepared (and vice-versa) by the main thread
+        // at the start of the next tick; see NeighbourTracker.
+        if(regions.put(r.key, r) != null) { // into primary
+            log.postWarning("Adding " + r + " to primary storage, but "
+                    + "it's already there?");
+            return;
         }
+        primaryEpoch.incrementAndGet();
+        neighbours.arrived(r);
+        
+        world.stats.memory.record(r);
         
         loadTracker.endLoadOp(); // op is started in loadRegion()
     }
@@ -509,29 +636,12 @@ public class RegionStore {
     @UserThread("MainThread")
     @GuardedBy("getLock()")
     private void removeFromPrimary(Region r) {
-        // Synchronise over this RegionStore to make the "remove from primary
-        // then notify adjacent regions in primary" atomic.
-        // It's unfortunate that we can't use a striped lock here, so this may
-        // cause some hitches.
-        synchronized(this) {
-            regions.remove(r.loc); // out of primary
-            
-            // Notify neighbouring regions that this region is being removed
-            int x = r.x(), y = r.y();
-            Point loc = getLock(x, y); // safe to use since we're synced on it
-            
-            for(int u = x-1; u <= x+1; u++) {
-                for(int v = y-1; v <= y+1; v++) {
-                    if(u == x && v == y) continue; // don't do it if other == r
-                    
-                    Region other = regions.get(loc.set(u, v));
-                    if(other != null) {
-                        r.state.removePreparedNeighbour(); // could do all at once, but I cbf
-                        other.state.removePreparedNeighbour();
-                    }
-                }
-            }
-        }
+        regions.remove(r.key); // out of primary
+        primaryEpoch.incrementAndGet();
+        
+        // Notify neighbouring regions that this region is being removed. As
+        // we're on the main thread, this needs no lock.
+        neighbours.removed(r);
     }
     
     /**
@@ -550,13 +660,22 @@ public class RegionStore {
      */
     @UserThread("MainThread")
     void update() {
-        regions.values().forEach(r -> {
+        scheduler.update();
+        neighbours.drain(); // settle regions which arrived since last tick
+        
+        regions.forEach(r -> {
             RegionState s = r.state;
             
-            r.importToWorld(world, this);
+            r.importToWorld(world);
             
             if(s.isActive()) {
-                r.update(world);
+                if(!anyActive) {
+                    anyActive = true;
+                    world.stats.sched.playable();
+                }
+                ticker.add(r); // ticked below, once all are imported
+                if(r.hasActiveFluids())
+                    world.fluids.add(r);
                 r.implantStructures(this); // implant structures
             } else if(!s.isAnchored() && !s.hasAnchoredNeighbours() && s.tickDown()) {
                 // Perform any operations needed for proper unloading first.
@@ -566,11 +685,13 @@ public class RegionStore {
                 // It's probably poor style to have the region removed while
                 // we're iterating over them (normally this would give a
                 // ConcurrentModificationException), but since regions is a
-                // ConcurrentHashMap I'm not *too* concerned.
+                // ConcurrentLongMap I'm not *too* concerned.
                 saveRegion(r, true);
             } else
                 r.implantStructures(this); // implant structures even if not active
         });
+        
+        ticker.tick();
     }
     
     /**
@@ -580,7 +701,7 @@ public class RegionStore {
      */
     @UserThread("MainThread")
     public void forEach(Consumer<Region> action) {
-        regions.values().forEach(action);
+        regions.forEach(action);
     }
     
     /**
@@ -595,6 +716,9 @@ public class RegionStore {
      */
     @UserThread("MainThread")
     void anchorRegion(int x, int y) {
+        // Tell the scheduler first so that the region and its neighbours
+        // jump the queue.
+        scheduler.addAnchor(x, y);
         Region r = loadRegion(x, y);
         
         if(r.state.anchor()) {
@@ -626,6 +750,7 @@ public class RegionStore {
         // and we don't get any unhappy concurrency problems.
         
         Region r = getRegionTryCache(x, y); // shouldn't be null
+        scheduler.removeAnchor(x, y);
         
         if(r.state.deAnchor()) {
             // Notify all regions adjacent to r
@@ -638,6 +763,172 @@ public class RegionStore {
         }
     }
     
+    /**
+     * Prefetches a region, which loads and generates it in the cache in
+     * anticipation of it being anchored soon. When the region is anchored, it
+     * is moved into primary storage without being loaded again; until then,
+     * it remains in the cache until {@link #dropPrefetch(int, int) dropped}.
+     * 
+     * <p>Prefetching is best-effort. Nothing is done if the region is already
+     * in primary storage or cached for some other purpose, or if prefetched
+     * regions already occupy the {@link #setPrefetchBudget(long) memory
+     * budget}. Loads for prefetched regions are scheduled like any other, so
+     * as they lie beyond the anchored regions, they are run only once the
+     * loads for anchored regions have been.
+     * 
+     * <p>Prefetches are counted, so each successful invocation of this
+     * method should be paired with a {@code dropPrefetch()}, which is a no-op
+     * once the region has been claimed by an anchor.
+     * 
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * 
+     * @return {@code true} if the region is now prefetched, and {@code false}
+     * if nothing was done.
+     */
+    @UserThread("MainThread")
+    public boolean prefetch(int x, int y) {
+        Region r;
+        
+        synchronized(getLock(x, y)) {
+            if(regions.containsKey(Region.key(x, y)))
+                return false;
+            
+            CachedRegion cr = cache.get(Region.key(x, y));
+            if(cr != null) {
+                // Don't touch regions cached for other reasons, but do count
+                // repeat prefetches.
+                if(cr.prefetches == 0)
+                    return false;
+                cr.prefetches++;
+                return true;
+            }
+            
+            if(prefetched.get() >= prefetchLimit()) {
+                world.stats.prefetch.rejected.increment();
+                return false;
+            }
+            
+            r = new Region(x, y);
+            cr = new CachedRegion(r);
+            cache.put(r.key, cr);
+            cr.prefetches = 1;
+            cr.mark(); // removed once the region is prepared and saved
+            prefetched.incrementAndGet();
+        }
+        
+        world.stats.prefetch.requests.increment();
+        prepareRegion(r, true, false);
+        return true;
+    }
+    
+    /**
+     * Drops a prefetch of a region. If this was the last prefetch, and the
+     * region has not been anchored in the meantime, it is removed from the
+     * cache once it is done being prepared.
+     * 
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     */
+    @UserThread("MainThread")
+    public void dropPrefetch(int x, int y) {
+        synchronized(getLock(x, y)) {
+            CachedRegion cr = cache.get(Region.key(x, y));
+            if(cr == null || cr.prefetches == 0 || --cr.prefetches > 0)
+                return;
+            
+            prefetched.decrementAndGet();
+            world.stats.prefetch.wasted.increment();
+            // If the region is still being prepared, finishSave() will remove
+            // it. Otherwise, it has already been saved (or was loaded
+            // unchanged), so out it goes.
+            if(cr.timesCached == 0)
+                cache.remove(cr.region.key);
+        }
+        
+        notifyWaiters();
+    }
+    
+    /**
+     * Loads a region, generates it if it hasn't been already, and saves it,
+     * without adding it to the world. This is for pregenerating a world ahead
+     * of time.
+     * 
+     * <p>Loads are scheduled like any other, so pregeneration yields to the
+     * regions the world actually needs. Nothing is done if the region is
+     * already in primary storage or cached for some other purpose, as it will
+     * then be generated and saved in due course anyway.
+     * 
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * @param callback Invoked once the region has been saved (or, if it was
+     * already generated, loaded), on whichever thread finished it.
+     * 
+     * @return {@code true} if the region is being pregenerated, and {@code
+     * false} if nothing was done, in which case {@code callback} will not be
+     * invoked.
+     */
+    @UserThread("Any")
+    public boolean pregenerate(int x, int y, RegionCallback callback) {
+        Objects.requireNonNull(callback);
+        Region r;
+        
+        synchronized(getLock(x, y)) {
+            if(regions.containsKey(Region.key(x, y)) || cache.containsKey(Region.key(x, y)))
+                return false;
+            
+            r = new Region(x, y);
+            CachedRegion cr = new CachedRegion(r);
+            cache.put(r.key, cr);
+            cr.pregen = callback;
+            cr.mark(); // removed once the region is prepared and saved
+        }
+        
+        prepareRegion(r, true, false);
+        return true;
+    }
+    
+    /**
+     * Sets the memory budget for prefetched regions. Regions are estimated to
+     * occupy as much memory as the average loaded region so far.
+     * 
+     * @param bytes The budget, in bytes. 0 disables prefetching.
+     * 
+     * @throws IllegalArgumentException if {@code bytes < 0}.
+     */
+    @UserThread("Any")
+    public void setPrefetchBudget(long bytes) {
+        prefetchBudget = Checks.testMin(bytes, 0);
+    }
+    
+    /**
+     * Returns the maximum number of regions which may be prefetched at once.
+     */
+    private long prefetchLimit() {
+        long perRegion = world.stats.memory.bytesPerRegion();
+        if(perRegion == 0)
+            perRegion = Constants.ESTIMATED_REGION_BYTES;
+        return prefetchBudget / perRegion;
+    }
+    
+    /**
+     * Drops every prefetch, regardless of how many times each region was
+     * prefetched.
+     */
+    private void dropAllPrefetches() {
+        cache.forEach(cr -> {
+            synchronized(getLock(cr.region)) {
+                if(cr.prefetches == 0)
+                    return;
+                cr.prefetches = 0;
+                prefetched.decrementAndGet();
+                if(cr.timesCached == 0)
+                    cache.remove(cr.region.key);
+            }
+        });
+        notifyWaiters();
+    }
+    
     /**
      * Caches a region for usage by the current thread. If the region is not
      * already loaded into memory, this method initiates a load, but does <b>
@@ -659,9 +950,9 @@ public class RegionStore {
     @UserThread("Any")
     public Region cache(int x, int y) {
         // If the region is already locally cached by this thread, use it.
-        Map<Point, Region> localMap = localCachedRegions.get();
-        Point loc = Region.createImmutableLoc(x, y);
-        Region r = localMap.get(loc);
+        ConcurrentLongMap<Region> localMap = localCachedRegions.get();
+        long key = Region.key(x, y);
+        Region r = localMap.get(key);
         if(r != null)
             return r;
         
@@ -671,7 +962,7 @@ public class RegionStore {
         boolean needsLoad = false;
         
         synchronized(getLock(x, y)) {
-            CachedRegion cr = cache.get(loc);
+            CachedRegion cr = cache.get(key);
             
             // If the region isn't in the cache, we check primary storage
             if(cr == null) {
@@ -679,13 +970,13 @@ public class RegionStore {
                 // isn't, we create the region in the cache. If the region is
                 // in primary storage, it must already be loaded; if not, we'll
                 // have to load it ourselves.
-                r = regions.get(loc);
+                r = regions.get(key);
                 if(r == null) {
                     r = new Region(x, y);
                     needsLoad = true;
                 }
                 cr = new CachedRegion(r);
-                cache.put(r.loc, cr);
+                cache.put(r.key, cr);
             } else {
                 r = cr.region;
                 // Even if the region isn't loaded yet, whoever cached it
@@ -702,10 +993,10 @@ public class RegionStore {
                 cr.mark();
         }
         
-        localMap.put(loc, r);
+        localMap.put(key, r);
         
         if(needsLoad)
-            prepareRegion(r, false);
+            prepareRegion(r, false, false);
         
         return r;
     }
@@ -721,8 +1012,8 @@ public class RegionStore {
      */
     @UserThread("Any")
     public void uncacheAll() {
-        Map<Point, Region> localRegions = localCachedRegions.get();
-        localRegions.values().forEach(r -> finishGeneric(r, true));
+        ConcurrentLongMap<Region> localRegions = localCachedRegions.get();
+        localRegions.forEach(r -> finishGeneric(r, true));
         localRegions.clear();
     }
     
@@ -738,10 +1029,11 @@ public class RegionStore {
         // Notes: since this is invoked by the main thread, this means the
         // region has already been prepared, so we don't have to worry about
         // whether the save will overlap with any load or generation tasks.
-        // Furthermore, since the save is explicitly requested by the main
-        // thread, we don't worry about whether we might get concurrency issues
-        // from the region being modified while we save -- the onus to be
-        // careful now rests on whoever called this method.
+        // Furthermore, we'll carry on modifying the region while it's being
+        // saved, so we hand the saver a snapshot of it as it is now. This is
+        // done even if a save is already queued, since that save will write
+        // this snapshot rather than whichever it was queued with.
+        r.snapshot(world);
         
         // Note that even if we don't ourselves get the permit, requesting it
         // will ensure it gets carried through by another thread.
@@ -755,11 +1047,11 @@ public class RegionStore {
             if(!hasPermit)
                 return;
             
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
             // If the region isn't already in the cache, stick it in.
             if(cr == null) {
                 cr = new CachedRegion(r);
-                cache.put(r.loc, cr);
+                cache.put(r.key, cr);
             }
             
             cr.mark();
@@ -772,7 +1064,7 @@ public class RegionStore {
      * Saves all regions in primary storage.
      */
     void saveAll() {
-        regions.values().forEach(r -> saveRegion(r, false));
+        regions.forEach(r -> saveRegion(r, false));
     }
     
     private Point getLock(int x, int y) {
@@ -785,10 +1077,10 @@ public class RegionStore {
     
     /**
      * Returns true if all regions have been loaded (this means there are no
-     * regions in the cache).
+     * regions in the cache, other than those being prefetched).
      */
     boolean allRegionsLoaded() {
-        return cache.isEmpty();
+        return cache.size() <= prefetched.get();
     }
     
     /**
@@ -840,10 +1132,10 @@ public class RegionStore {
             			StringBuilder sb = new StringBuilder();
                         sb.append("Regions too long to finish saving! "
                                 + "Here are our offenders:");
-                        for(CachedRegion c : cache.values()) {
+                        cache.forEach(c -> {
                             sb.append("\n    > ");
                             sb.append(c.region.toStringDebug());
-                        }
+                        });
                         log.postWarning(sb.toString());
                         return;
             		}
@@ -870,6 +1162,7 @@ public class RegionStore {
     public void cancelLoads() {
     	loader.shutdown();
     	generator.shutdown();
+    	dropAllPrefetches();
     }
     
     /**
@@ -882,10 +1175,10 @@ public class RegionStore {
         sb.append("(note that the following printout may not be accurate due to");
         sb.append(" obvious concurrency reasons)\n");
         sb.append("    PRIMARY STORAGE: {\n");
-        regions.values().forEach(r -> sb.append("        ").append(r.toStringDebug()).append('\n'));
+        regions.forEach(r -> sb.append("        ").append(r.toStringDebug()).append('\n'));
         sb.append("    },\n");
         sb.append("    CACHE: {\n");
-        cache.values().forEach(cr -> sb.append("        ").append(cr.region.toStringDebug()).append('\n'));
+        cache.forEach(cr -> sb.append("        ").append(cr.region.toStringDebug()).append('\n'));
         sb.append("    }\n");
         sb.append("}");
         return sb.toString();
@@ -911,6 +1204,15 @@ public class RegionStore {
          * prepared. This also indicates that the region should be generated
          * after it's loaded. Default: false. */
         private boolean prepareForPrimary = false;
+        /** The number of outstanding {@link RegionStore#prefetch(int, int)
+         * prefetches} of the region. While nonzero, the region is generated
+         * after it's loaded, and kept in the cache once it's prepared even
+         * without any marks. Default: 0. */
+        private int prefetches = 0;
+        /** Invoked once the region has been {@link RegionStore#pregenerate(int,
+         * int, RegionCallback) pregenerated} and saved, and then cleared. While
+         * non-null, the region is generated after it's loaded. Default: null. */
+        private RegionCallback pregen = null;
         
         
         private CachedRegion(Region region) {
@@ -0,0 +1,409 @@
+package com.stabilise.world;
+
+import static com.stabilise.entity.Position.regionCoordFromSliceCoord;
+import static com.stabilise.entity.Position.sliceCoordRelativeToRegionFromSliceCoord;
+import static com.stabilise.entity.Position.tileCoordFromSliceCoord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import com.badlogic.gdx.math.RandomXS128;
+import com.stabilise.entity.Entity;
+import com.stabilise.entity.Position;
+import com.stabilise.entity.hitbox.Hitbox;
+import com.stabilise.entity.particle.Particle;
+import com.stabilise.entity.particle.manager.ParticleManager;
+import com.stabilise.util.Profiler;
+import com.stabilise.util.collect.FunctionalIterable;
+import com.stabilise.util.shape.AABB;
+import com.stabilise.world.multiverse.Multiverse;
+import com.stabilise.world.tile.Tile;
+import com.stabilise.world.tile.tileentity.TileEntity;
+
+/**
+ * World implementation which is passed to a region while it is {@link
+ * RegionTicker ticked}, possibly off the main thread and alongside other
+ * regions, as to give it a World-y view on the world.
+ * 
+ * <p>Tiles in the region being ticked are read and written directly. Tiles in
+ * other regions may be read, as the ticker guarantees that no region
+ * adjacent to this one is being ticked at the same time, but writes to them
+ * -- and anything which touches the world proper, such as adding entities or
+ * particles -- are deferred, and applied to the world by {@link #merge()} on
+ * the main thread once every region ticking alongside this one is done. So
+ * too are light and fluid updates, which are main-thread only.
+ */
+class RegionTickView implements World {
+    
+    private final HostWorld world;
+    private final RegionStore regions;
+    /** Lock to hold while querying the world's spatial indices, which aren't
+     * thread-safe even for reads. Shared by every view of a ticker. */
+    private final Object queryLock;
+    
+    /** The region being ticked. */
+    private Region r;
+    
+    private final Random rnd = new RandomXS128();
+    private final Profiler profiler = new Profiler(false, "root", false);
+    /** Particles are emitted from a manager of our own, as the world's may
+     * only be used on the main thread, and are added to the world along with
+     * our other writes. Lazily created. */
+    private ParticleManager particles;
+    
+    /** Writes to apply to the world in {@link #merge()}, in order. */
+    private final List<Consumer<HostWorld>> deferred = new ArrayList<>();
+    
+    
+    RegionTickView(HostWorld world, RegionStore regions, Object queryLock) {
+        this.world = world;
+        this.regions = regions;
+        this.queryLock = queryLock;
+    }
+    
+    /**
+     * Readies this view to tick the given region. Invoked on the main thread.
+     * 
+     * @param seed The seed for {@link #rnd()}, so that ticks are
+     * deterministic regardless of which thread runs them.
+     */
+    void reset(Region r, long seed) {
+        this.r = r;
+        rnd.setSeed(seed);
+        deferred.clear(); // in case the last tick threw
+    }
+    
+    /**
+     * Ticks the region. Any writes outside of it are deferred until {@link
+     * #merge()}.
+     */
+    void tick() {
+        r.update(this);
+    }
+    
+    /**
+     * Applies every deferred write to the world. Invoked on the main thread.
+     */
+    void merge() {
+        for(Consumer<HostWorld> write : deferred)
+            write.accept(world);
+        deferred.clear();
+        r = null;
+    }
+    
+    /**
+     * Returns true if the given position lies in the region being ticked.
+     */
+    private boolean isLocal(Position pos) {
+        return regionCoordFromSliceCoord(pos.sx()) == r.x()
+                && regionCoordFromSliceCoord(pos.sy()) == r.y();
+    }
+    
+    private void defer(Consumer<HostWorld> write) {
+        deferred.add(write);
+    }
+    
+    @Override
+    public Slice getSliceAt(int x, int y) {
+        int rx = regionCoordFromSliceCoord(x);
+        int ry = regionCoordFromSliceCoord(y);
+        Region region = rx == r.x() && ry == r.y() ? r : regions.getRegion(rx, ry);
+        if(region == null)
+            return Slice.DUMMY_SLICE;
+        return region.getSliceAt(
+                sliceCoordRelativeToRegionFromSliceCoord(x),
+                sliceCoordRelativeToRegionFromSliceCoord(y));
+    }
+    
+    @Override
+    public void setTileAt(Position pos, int id) {
+        if(!isLocal(pos)) {
+            Position p = pos.clone();
+            defer(w -> w.setTileAt(p, id));
+            return;
+        }
+        
+        // As HostWorld does, but with the sound deferred to the main thread
+        Slice s = getSliceAt(pos);
+        int tx = pos.ltx();
+        int ty = pos.lty();
+        if(id != s.getTileIDAt(tx, ty)) {
+            s.getTileAt(tx, ty).handleRemove(this, pos);
+            playSound(0.75f);
+            s.setTileIDAt(tx, ty, id);
+            int x = tileCoordFromSliceCoord(pos.sx) + tx;
+            int y = tileCoordFromSliceCoord(pos.sy) + ty;
+            defer(w -> w.tileChanged(x, y));
+            Tile.getTile(id).handlePlace(this, pos);
+        }
+    }
+    
+    @Override
+    public void setTileAt(Position pos, Tile tile) {
+        if(isLocal(pos))
+            World.super.setTileAt(pos, tile);
+        else {
+            Position p = pos.clone();
+            defer(w -> w.setTileAt(p, tile));
+        }
+    }
+    
+    @Override
+    public void setWallAt(Position pos, Tile wall) {
+        setWallAt(pos, wall.getID());
+    }
+    
+    @Override
+    public void setWallAt(Position pos, int id) {
+        if(isLocal(pos)) {
+            Slice s = getSliceAt(pos);
+            if(id != s.getWallIDAt(pos.ltx(), pos.lty())) {
+                s.setWallIDAt(pos.ltx(), pos.lty(), id);
+                int x = tileCoordFromSliceCoord(pos.sx) + pos.ltx();
+                int y = tileCoordFromSliceCoord(pos.sy) + pos.lty();
+                defer(w -> w.light.queueUpdate(x, y));
+            }
+        } else {
+            Position p = pos.clone();
+            defer(w -> w.setWallAt(p, id));
+        }
+    }
+    
+    @Override
+    public void setLightAt(Position pos, byte light) {
+        if(isLocal(pos))
+            World.super.setLightAt(pos, light);
+        else {
+            Position p = pos.clone();
+            defer(w -> w.setLightAt(p, light));
+        }
+    }
+    
+    @Override
+    public void scheduleTileTick(Position pos, int delay) {
+        if(isLocal(pos))
+            r.scheduleTileTick(pos, getAge() + Math.max(1, delay));
+        else {
+            Position p = pos.clone();
+            defer(w -> w.scheduleTileTick(p, delay));
+        }
+    }
+    
+    // Tile entities are also tracked by the world, so we always defer.
+    
+    @Override
+    public void setTileEntityAt(Position pos, TileEntity t) {
+        Position p = pos.clone();
+        defer(w -> w.setTileEntityAt(p, t));
+    }
+    
+    @Override
+    public void removeTileEntityAt(Position pos) {
+        Position p = pos.clone();
+        defer(w -> w.removeTileEntityAt(p));
+    }
+    
+    @Override
+    public void addTileEntityToUpdateList(TileEntity t) {
+        defer(w -> w.addTileEntityToUpdateList(t));
+    }
+    
+    @Override
+    public void breakTileAt(Position pos) {
+        Position p = pos.clone();
+        defer(w -> w.breakTileAt(p));
+    }
+    
+    @Override
+    public void blowUpTile(Position pos, float explosionPower) {
+        Position p = pos.clone();
+        defer(w -> w.blowUpTile(p, explosionPower));
+    }
+    
+    @Override
+    public void addEntity(Entity e) {
+        defer(w -> w.addEntity(e));
+    }
+    
+    @Override
+    public void addEntityDontSetID(Entity e) {
+        defer(w -> w.addEntityDontSetID(e));
+    }
+    
+    @Override
+    public void addHitbox(Hitbox h) {
+        defer(w -> w.addHitbox(h));
+    }
+    
+    @Override
+    public void addParticle(Particle p) {
+        defer(w -> w.addParticle(p));
+    }
+    
+    @Override
+    public void playSound(float pitch) {
+        defer(w -> w.playSound(pitch));
+    }
+    
+    @Override
+    public void anchorSlice(int x, int y) {
+        defer(w -> w.anchorSlice(x, y));
+    }
+    
+    @Override
+    public void deanchorSlice(int x, int y) {
+        defer(w -> w.deanchorSlice(x, y));
+    }
+    
+    @Override
+    public void setTimeDelta(float delta) {
+        defer(w -> w.setTimeDelta(delta));
+    }
+    
+    // Nothing besides the regions themselves changes while regions are being
+    // ticked, so the rest may be read directly.
+    
+    @Override
+    public Multiverse<?> multiverse() {
+        return world.multiverse();
+    }
+    
+    @Override
+    public Entity getEntity(long id) {
+        return world.getEntity(id);
+    }
+    
+    @Override
+    public FunctionalIterable<Entity> getPlayers() {
+        return world.getPlayers();
+    }
+    
+    @Override
+    public FunctionalIterable<Entity> getEntities() {
+        return world.getEntities();
+    }
+    
+    @Override
+    public FunctionalIterable<Entity> getEntitiesNearby(Position pos) {
+        synchronized(queryLock) {
+            return world.getEntitiesNearby(pos);
+        }
+    }
+    
+    @Override
+    public FunctionalIterable<Entity> getEntitiesNearby(Position pos, float radius) {
+        synchronized(queryLock) {
+            return world.getEntitiesNearby(pos, radius);
+        }
+    }
+    
+    @Override
+    public FunctionalIterable<Entity> getEntitiesInAABB(Position pos, AABB box) {
+        synchronized(queryLock) {
+            return world.getEntitiesInAABB(pos, box);
+        }
+    }
+    
+    @Override
+    public FunctionalIterable<Hitbox> getHitboxes() {
+        return world.getHitboxes();
+    }
+    
+    @Override
+    public FunctionalIterable<Hitbox> getHitboxesNearby(Position pos) {
+        synchronized(queryLock) {
+            return world.getHitboxesNearby(pos);
+        }
+    }
+    
+    @Override
+    public FunctionalIterable<Hitbox> getHitboxesNearby(Position pos, float radius) {
+        synchronized(queryLock) {
+            return world.getHitboxesNearby(pos, radius);
+        }
+    }
+    
+    @Override
+    public FunctionalIterable<Particle> getParticles() {
+        return world.getParticles();
+    }
+    
+    @Override
+    public FunctionalIterable<TileEntity> getTileEntities() {
+        return world.getTileEntities();
+    }
+    
+    @Override
+    public ParticleManager getParticleManager() {
+        if(particles == null)
+            particles = new ParticleManager(world.getParticleManager());
+        return particles;
+    }
+    
+    @Override
+    public float getGravity() {
+        return world.getGravity();
+    }
+    
+    @Override
+    public float getGravityIncrement() {
+        return world.getGravityIncrement();
+    }
+    
+    @Override
+    public float getGravity2ndOrder() {
+        return world.getGravity2ndOrder();
+    }
+    
+    @Override
+    public float getTimeDelta() {
+        return world.getTimeDelta();
+    }
+    
+    @Override
+    public float getTimeIncrement() {
+        return world.getTimeIncrement();
+    }
+    
+    @Override
+    public long getAge() {
+        return world.getAge();
+    }
+    
+    @Override
+    public String getDimensionName() {
+        return world.getDimensionName();
+    }
+    
+    @Override
+    public boolean isClient() {
+        return world.isClient();
+    }
+    
+    /**
+     * Returns {@code false}, as this is but a view on a host world, through
+     * which it may not be reached. Callers should only {@link #asHost()
+     * cast} a world they have checked with this method.
+     */
+    @Override
+    public boolean isHost() {
+        return false;
+    }
+    
+    @Override
+    public Random rnd() {
+        return rnd;
+    }
+    
+    /**
+     * Returns a disabled profiler, as the world's profiler may only be used
+     * on the main thread.
+     */
+    @Override
+    public Profiler profiler() {
+        return profiler;
+    }
+    
+}
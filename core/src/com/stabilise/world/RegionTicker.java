@@ -0,0 +1,116 @@
+package com.stabilise.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.stabilise.core.Constants;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.concurrent.ClaimBatch;
+
+/**
+ * Ticks the active regions of a {@link RegionStore}, in parallel where
+ * possible.
+ * 
+ * <p>Regions are partitioned into four colour classes by the parity of their
+ * coordinates, such that no two regions of the same class are adjacent, even
+ * diagonally. The classes are ticked one after the other; the regions within
+ * a class are ticked concurrently on the world executor, each through its own
+ * {@link RegionTickView}. As a tile's update only reaches into the regions
+ * adjacent to its own, and none of those are being ticked at the same time,
+ * a region may freely read its surroundings and write to itself. Writes which
+ * spill over into other regions are deferred, and merged into the world on
+ * the main thread once the class is done, in a deterministic order.
+ * 
+ * <p>The main thread ticks regions alongside the executor's threads rather
+ * than merely waiting on them, so a class is always ticked even if the
+ * executor is busy loading and generating.
+ */
+public class RegionTicker {
+    
+    /** The number of colour classes. */
+    private static final int COLOURS = 4;
+    /** The most threads to tick regions on, besides the main thread. */
+    private static final int HELPERS =
+            Math.max(0, Runtime.getRuntime().availableProcessors() - 1);
+    
+    
+    private final HostWorld world;
+    private final RegionStore regions;
+    private final Executor executor;
+    
+    /** The regions to tick this tick, by colour. Only touched on the main
+     * thread. */
+    private final List<List<Region>> classes = new ArrayList<>(COLOURS);
+    /** Views to tick regions through. Grown as needed. Only modified on the
+     * main thread. */
+    private final List<RegionTickView> views = new ArrayList<>();
+    
+    /** Whether regions should be ticked in parallel. */
+    private volatile boolean parallel = Constants.PARALLEL_REGION_TICKS;
+    
+    
+    RegionTicker(HostWorld world, RegionStore regions, Executor executor) {
+        this.world = world;
+        this.regions = regions;
+        this.executor = executor;
+        for(int i = 0; i < COLOURS; i++)
+            classes.add(new ArrayList<>());
+    }
+    
+    /**
+     * Sets whether regions should be ticked in parallel. If not, they are
+     * simply updated one after the other on the main thread, directly
+     * against the world. The default is {@link
+     * Constants#PARALLEL_REGION_TICKS}.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+    
+    /**
+     * Adds a region to be ticked at the next {@link #tick()}.
+     */
+    @UserThread("MainThread")
+    void add(Region r) {
+        classes.get((r.x() & 1) | ((r.y() & 1) << 1)).add(r);
+    }
+    
+    /**
+     * Ticks every region {@link #add(Region) added} since the last tick.
+     */
+    @UserThread("MainThread")
+    void tick() {
+        boolean parallel = this.parallel;
+        for(List<Region> c : classes) {
+            if(c.isEmpty())
+                continue;
+            if(parallel)
+                tickClass(c);
+            else
+                c.forEach(r -> r.update(world));
+            c.clear();
+        }
+    }
+    
+    /**
+     * Ticks a colour class of regions, and then merges their deferred writes.
+     */
+    private void tickClass(List<Region> c) {
+        int n = c.size();
+        while(views.size() < n)
+            views.add(new RegionTickView(world, regions, this));
+        // Seeds are drawn here so that ticks don't depend on thread timing
+        for(int i = 0; i < n; i++)
+            views.get(i).reset(c.get(i), world.rnd.nextLong());
+        
+        if(n == 1)
+            views.get(0).tick();
+        else
+            new ClaimBatch(n, i -> views.get(i).tick()).runWith(executor, HELPERS);
+        
+        for(int i = 0; i < n; i++)
+            views.get(i).merge();
+    }
+    
+}
@@ -1,6 +1,16 @@
 package com.stabilise.world;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.stabilise.entity.Entity;
 import com.stabilise.entity.Position;
+import com.stabilise.util.collect.PalettedIntArray;
+import com.stabilise.util.io.data.DataCompound;
 import com.stabilise.util.maths.Maths;
 import com.stabilise.world.tile.Tile;
 import com.stabilise.world.tile.Tiles;
@@ -22,6 +32,8 @@ public class Slice {
     public static final int SLICE_SIZE_MINUS_ONE = SLICE_SIZE - 1;
     /** The power of 2 of {@link #SLICE_SIZE}; minor optimisation purposes. */
     public static final int SLICE_SIZE_SHIFT = Maths.log2(SLICE_SIZE);
+    /** The number of tiles in a slice. */
+    public static final int SLICE_AREA = SLICE_SIZE * SLICE_SIZE;
     /** See {@link Position#tileCoordRelativeToSliceFromTileCoordFree(double)}. */
     public static final double SLICE_SIZE_MINUS_EPSd = 15.9999995d; // TODO: calculate better epsilon
     /** See {@link Position#tileCoordRelativeToSliceFromTileCoordFree2(float)}. */
@@ -31,6 +43,23 @@ public class Slice {
      * pointer. */
     public static final Slice DUMMY_SLICE = new DummySlice();
     
+    /** {@link #getDirty() Dirty} flag: the slice's tiles have changed. */
+    public static final int DIRTY_TILES = 1;
+    /** {@link #getDirty() Dirty} flag: the slice's walls have changed. */
+    public static final int DIRTY_WALLS = 2;
+    /** {@link #getDirty() Dirty} flag: the slice's light has changed. */
+    public static final int DIRTY_LIGHT = 4;
+    /** {@link #getDirty() Dirty} flag: tile entities have been added to or
+     * removed from the slice. */
+    public static final int DIRTY_TILE_ENTITIES = 8;
+    /** Every {@link #getDirty() dirty} flag. */
+    public static final int DIRTY_ALL = DIRTY_TILES | DIRTY_WALLS | DIRTY_LIGHT | DIRTY_TILE_ENTITIES;
+    
+    /** Updates {@link #dirty} atomically, as flags may be set and cleared on
+     * the main thread and restored on a saver thread at the same time. */
+    private static final AtomicIntegerFieldUpdater<Slice> DIRTY =
+            AtomicIntegerFieldUpdater.newUpdater(Slice.class, "dirty");
+    
     //--------------------==========--------------------
     //-------------=====Member Variables=====-----------
     //--------------------==========--------------------
@@ -39,14 +68,20 @@ public class Slice {
     public final int x, y;
     
     /** The tiles within this slice. This is visible for convenience purposes.
-     * <br>Tiles are indexed in the form [y][x]. */
-    public final int[][] tiles;
+     * <br>Tiles are indexed in the form y*SLICE_SIZE + x (see {@link
+     * #index(int, int)}). */
+    public final PalettedIntArray tiles;
     /** The walls within this slice. Visible for convenience purposes.
-     * <br>Indexed in the form [y][x]. */
-    public final int[][] walls;
-    /** The light levels within this slice.
-     * <br>Indexed in the form [y][x]. */
-    public final byte[][] light;
+     * <br>Indexed in the form y*SLICE_SIZE + x. */
+    public final PalettedIntArray walls;
+    /** The light levels within this slice. This may be shared with a
+     * {@link #snapshot()}, in which case it is replaced by a copy before it
+     * is next modified; hence it should only be accessed via {@link
+     * #getLightAt(int, int)} and {@link #setLightAt(int, int, byte)}.
+     * <br>Indexed in the form y*SLICE_SIZE + x. */
+    private byte[] light;
+    /** true if {@link #light} may be shared with a snapshot. */
+    private boolean lightShared = false;
     
     /** The tile entities within the slice. This is public for convenience
      * purposes, but should generally not be interacted with.
@@ -55,6 +90,20 @@ public class Slice {
      * entity is added to this slice. */
     public TileEntity[][] tileEntities;
     
+    /** Saved entities which live in this slice but which are not currently
+     * in the world, i.e. those exported when this slice's region was unloaded
+     * or read in when it was loaded. These are added to the world by {@link
+     * #importEntities(AbstractWorld)}.
+     * <br>This is lazily initialised - that is, {@code null} if there are no
+     * such entities. */
+    public List<DataCompound> savedEntities;
+    
+    /** Bitset of the DIRTY_* flags for what has changed since this slice was
+     * last saved or loaded. A new slice has yet to be saved, so it is wholly
+     * dirty. Volatile and updated through {@link #DIRTY} since slices may be
+     * saved on a worker thread. */
+    private volatile int dirty = DIRTY_ALL;
+    
     
     /**
      * Creates a new slice.
@@ -63,42 +112,39 @@ public class Slice {
      * @param y The y-coordinate of the slice, in slice-lengths.
      */
     public Slice(int x, int y) {
-        this(x, y, new int[SLICE_SIZE][SLICE_SIZE], new int[SLICE_SIZE][SLICE_SIZE],
-                new byte[SLICE_SIZE][SLICE_SIZE]);
+        this(x, y, new int[SLICE_AREA], new int[SLICE_AREA], new byte[SLICE_AREA]);
     }
     
     /**
      * Creates a new slice. It is implicitly trusted that the given arrays are
-     * legal.
+     * legal, i.e. of length {@link #SLICE_AREA}. The arrays are used directly
+     * rather than copied.
      * 
      * @param x The x-coordinate of the slice, in slice-lengths.
      * @param y The y-coordinate of the slice, in slice-lengths.
      * @param tiles The slice's tiles.
      * @param walls The slice's walls.
      * @param light The slice's light values.
+     * 
+     * @throws NullPointerException if any of the arrays are {@code null}.
      */
-    public Slice(int x, int y, int[][] tiles, int[][] walls, byte[][] light) {
-        this.x = x;
-        this.y = y;
-        this.tiles = tiles;
-        this.walls = walls;
-        this.light = light;
+    public Slice(int x, int y, int[] tiles, int[] walls, byte[] light) {
+        this(x, y, new PalettedIntArray(tiles), new PalettedIntArray(walls), light);
     }
     
     /**
-     * Creates a new slice. The given arrays are unpacked into their respective
-     * 2D arrays.
-     * 
-     * @param x The x-coordinate of the slice, in slice-lengths.
-     * @param y The y-coordinate of the slice, in slice-lengths.
-     * @param tiles The slice's tiles.
-     * @param walls The slice's walls.
-     * @param light The slice's light values.
+     * Creates a new slice. It is implicitly trusted that the given arrays are
+     * legal, i.e. of length {@link #SLICE_AREA}. The arrays are used directly
+     * rather than copied.
      * 
-     * @throws NullPointerException if {@code tiles} is {@code null}.
+     * @throws NullPointerException if any of the arrays are {@code null}.
      */
-    public Slice(int x, int y, int[] tiles, int[] walls, byte[] light) {
-        this(x, y, to2DArray(tiles), to2DArray(walls), to2DArray(light));
+    public Slice(int x, int y, PalettedIntArray tiles, PalettedIntArray walls, byte[] light) {
+        this.x = x;
+        this.y = y;
+        this.tiles = tiles;
+        this.walls = walls;
+        this.light = light;
     }
     
     /**
@@ -114,7 +160,7 @@ public class Slice {
      * >= }{@link #SLICE_SIZE}.
      */
     public Tile getTileAt(int x, int y) {
-        return Tile.getTile(tiles[y][x]);
+        return Tile.getTile(tiles.get(index(x, y)));
     }
     
     /**
@@ -131,7 +177,7 @@ public class Slice {
      * >= }{@link #SLICE_SIZE}.
      */
     public int getTileIDAt(int x, int y) {
-        return tiles[y][x];
+        return tiles.get(index(x, y));
     }
     
     /**
@@ -164,7 +210,8 @@ public class Slice {
      * >= }{@link #SLICE_SIZE}.
      */
     public void setTileIDAt(int x, int y, int tileID) {
-        tiles[y][x] = tileID;
+        tiles.set(index(x, y), tileID);
+        markDirty(DIRTY_TILES);
     }
     
     public Tile getWallAt(int x, int y) {
@@ -172,7 +219,7 @@ public class Slice {
     }
     
     public int getWallIDAt(int x, int y) {
-        return walls[y][x];
+        return walls.get(index(x, y));
     }
     
     public void setWallAt(int x, int y, Tile tile) {
@@ -180,40 +227,21 @@ public class Slice {
     }
     
     public void setWallIDAt(int x, int y, int tileID) {
-        walls[y][x] = tileID;
+        walls.set(index(x, y), tileID);
+        markDirty(DIRTY_WALLS);
     }
     
     public byte getLightAt(int x, int y) {
-        return light[y][x];
+        return light[index(x, y)];
     }
     
     public void setLightAt(int x, int y, byte level) {
-        light[y][x] = level;
-    }
-    
-    public void updateLight(int x, int y) {
-        //spreadLightTo(x, y, getTileAt(x, y).getLight(), false);
-        buildLight(); // 10/10 easy solution
-        
-        /*
-        Tile t = getTileAt(x, y);
-        
-        byte oldLight = getLightAt(x, y);
-        byte level = t.getLight();
-        
-        if(level == oldLight)
-            return;
-        else if(level > oldLight) {
-            setLightAt(x, y, level);
-            level -= t.getFalloff();
-            if(x != 0)           spreadLightTo(x-1, y  , level, false);
-            if(y != 0)           spreadLightTo(x  , y-1, level, false);
-            if(x < SLICE_SIZE-1) spreadLightTo(x+1, y  , level, false);
-            if(y < SLICE_SIZE-1) spreadLightTo(x  , y+1, level, false);
-        } else {
-            
+        if(lightShared) {
+            light = light.clone();
+            lightShared = false;
         }
-        */
+        light[index(x, y)] = level;
+        markDirty(DIRTY_LIGHT);
     }
     
     /**
@@ -249,39 +277,127 @@ public class Slice {
     public void setTileEntityAt(int x, int y, TileEntity tileEntity) {
         if(tileEntity != null)
             initTileEntities();
+        else if(tileEntities == null)
+            return; // nothing to remove
         tileEntities[y][x] = tileEntity;
+        markDirty(DIRTY_TILE_ENTITIES);
+    }
+    
+    /**
+     * Returns a copy of this slice's light levels.
+     */
+    public byte[] lightToArray() {
+        return light.clone();
+    }
+    
+    /**
+     * Writes this slice's light levels to the given output, one byte each.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeLight(DataOutput out) throws IOException {
+        out.write(light);
+    }
+    
+    /**
+     * Flags parts of this slice as changed, so that it is saved the next time
+     * its region is. Setters such as {@link #setTileIDAt(int, int, int)} do
+     * this themselves; this need only be invoked by code which modifies
+     * {@link #tiles}, {@link #walls} or {@link #tileEntities} directly.
+     * 
+     * @param flags Any combination of the DIRTY_* flags.
+     */
+    public void markDirty(int flags) {
+        // Read first, as this is on the path of every tile set and an atomic
+        // update is comparatively expensive.
+        if((dirty & flags) != flags)
+            DIRTY.getAndUpdate(this, d -> d | flags);
+    }
+    
+    /**
+     * Returns the DIRTY_* flags for what has changed in this slice since it
+     * was last saved or loaded, or 0 if nothing has.
+     */
+    public int getDirty() {
+        return dirty;
     }
     
-    public static int[] to1DArray(int[][] sliceData) {
-        int[] arr = new int[SLICE_SIZE * SLICE_SIZE];
-        for(int r = 0; r < SLICE_SIZE; r++)
-            System.arraycopy(sliceData[r], 0, arr, r * SLICE_SIZE, SLICE_SIZE);
-        return arr;
+    /**
+     * Clears and returns this slice's {@link #getDirty() dirty} flags. This is
+     * done right before the slice is saved, so that any changes made while it
+     * is being saved flag it again. Should the save fail, the returned flags
+     * should be restored with {@link #markDirty(int)}.
+     */
+    public int clearDirty() {
+        return DIRTY.getAndSet(this, 0);
+    }
+    
+    /**
+     * Returns {@code true} if this slice needs to be saved with its region,
+     * i.e., if it is {@link #getDirty() dirty} or holds tile entities. Tile
+     * entities may change their own state without this slice knowing, so a
+     * slice which holds any is always saved.
+     */
+    public boolean needsSave() {
+        return dirty != 0 || tileEntities != null;
     }
     
-    public static byte[] to1DArray(byte[][] sliceData) {
-        byte[] arr = new byte[SLICE_SIZE * SLICE_SIZE];
-        for(int r = 0; r < SLICE_SIZE; r++)
-            System.arraycopy(sliceData[r], 0, arr, r * SLICE_SIZE, SLICE_SIZE);
-        return arr;
+    /**
+     * Returns the index into {@link #tiles}, {@link #walls} and {@link #light}
+     * of the tile at the given coordinates relative to a slice.
+     */
+    public static int index(int x, int y) {
+        return (y << SLICE_SIZE_SHIFT) | x;
     }
     
     /**
-     * Converts the specified int array into the 2D int array format used to
-     * store tiles.
+     * Attempts to switch this slice's tiles and walls to {@link
+     * PalettedIntArray#compact() palette mode}, which saves a good deal of
+     * memory for slices which are made up of only a few types of tile (e.g.
+     * mostly air or mostly stone).
      */
-    private static int[][] to2DArray(int[] sliceData) {
-        int[][] arr = new int[SLICE_SIZE][SLICE_SIZE];
-        for(int r = 0; r < SLICE_SIZE; r++)
-            System.arraycopy(sliceData, r*SLICE_SIZE, arr[r], 0, SLICE_SIZE);
-        return arr;
+    public void compact() {
+        tiles.compact();
+        walls.compact();
     }
     
-    private static byte[][] to2DArray(byte[] sliceData) {
-        byte[][] arr = new byte[SLICE_SIZE][SLICE_SIZE];
-        for(int r = 0; r < SLICE_SIZE; r++)
-            System.arraycopy(sliceData, r*SLICE_SIZE, arr[r], 0, SLICE_SIZE);
-        return arr;
+    /**
+     * Estimates the number of bytes of heap used by this slice's tile, wall
+     * and light arrays.
+     */
+    public long sizeInBytes() {
+        return tiles.sizeInBytes() + walls.sizeInBytes()
+                + PalettedIntArray.arrayBytes(light.length, 1);
+    }
+    
+    /**
+     * Returns a point-in-time copy of this slice for saving, which may be
+     * written out on another thread while this slice continues to be
+     * modified. The tiles, walls and light are shared copy-on-write (see
+     * {@link PalettedIntArray#snapshot()}), so this is cheap; tile entities,
+     * which may change their own state at any time, are copied outright. The
+     * copy takes on this slice's {@link #getDirty() dirty} flags, which are
+     * cleared.
+     */
+    public Slice snapshot() {
+        Slice s = new Slice(x, y, tiles.snapshot(), walls.snapshot(), light);
+        s.lightShared = lightShared = true;
+        s.dirty = clearDirty();
+        if(tileEntities != null) {
+            s.initTileEntities();
+            for(int r = 0; r < SLICE_SIZE; r++) {
+                for(int c = 0; c < SLICE_SIZE; c++) {
+                    if(tileEntities[r][c] != null) {
+                        DataCompound tc = DataCompound.create();
+                        tileEntities[r][c].exportToCompound(tc);
+                        s.tileEntities[r][c] = TileEntity.createFromCompound(tc);
+                    }
+                }
+            }
+        }
+        if(savedEntities != null) // the compounds themselves are never modified
+            s.savedEntities = new ArrayList<>(savedEntities);
+        return s;
     }
     
     /**
@@ -292,11 +408,30 @@ public class Slice {
             tileEntities = new TileEntity[SLICE_SIZE][SLICE_SIZE];
     }
     
+    /**
+     * Saves an entity into this slice, to be restored by {@link
+     * #importEntities(AbstractWorld)} when this slice is next imported.
+     */
+    void addSavedEntity(Entity e) {
+        if(savedEntities == null)
+            savedEntities = new ArrayList<>(4);
+        DataCompound c = DataCompound.create();
+        e.exportToCompound(c);
+        savedEntities.add(c);
+    }
+    
     /**
      * Adds any entities contained by this slice to the world.
      */
     void importEntities(AbstractWorld world) {
-        // TODO
+        if(savedEntities == null)
+            return;
+        for(DataCompound c : savedEntities) {
+            // Entities are given fresh IDs, as nothing prevents their old IDs
+            // from having been reassigned since they were saved.
+            world.addEntity(Entity.fromCompound(c));
+        }
+        savedEntities = null;
     }
     
     /**
@@ -316,6 +451,11 @@ public class Slice {
     }
     
     public void buildLight() {
+        // Rebuilding usually reproduces the light we already have (e.g. for
+        // a region which was loaded rather than generated), in which case the
+        // slice shouldn't be considered dirty.
+        byte[] old = (dirty & DIRTY_LIGHT) == 0 ? light.clone() : null;
+        
         for(int y = 0; y < SLICE_SIZE; y++) {
             for(int x = 0; x < SLICE_SIZE; x++) {
                 byte l1 = getTileAt(x, y).getLight();
@@ -331,6 +471,9 @@ public class Slice {
                 spreadLightTo(x, y, l1 > l2 ? l1 : l2, true);
             }
         }
+        
+        if(old != null && Arrays.equals(old, light))
+            DIRTY.getAndUpdate(this, d -> d & ~DIRTY_LIGHT);
     }
     
     private void spreadLightTo(int x, int y, byte level, boolean src) {
@@ -362,15 +505,13 @@ public class Slice {
     private static class DummySlice extends Slice {
         
         public DummySlice() {
-            super(0, 0, new int[SLICE_SIZE][SLICE_SIZE],
-                    new int[SLICE_SIZE][SLICE_SIZE],
-                    new byte[SLICE_SIZE][SLICE_SIZE]);
-            
-            for(int y = 0; y < SLICE_SIZE; y++) {
-                for(int x = 0; x < SLICE_SIZE; x++) {
-                    tiles[y][x] = Tiles.barrier.getID();
-                }
-            }
+            super(0, 0, barriers(), new int[SLICE_AREA], new byte[SLICE_AREA]);
+        }
+        
+        private static int[] barriers() {
+            int[] arr = new int[SLICE_AREA];
+            Arrays.fill(arr, Tiles.barrier.getID());
+            return arr;
         }
         
         @Override public int  getTileIDAt(int x, int y) { return 0; }
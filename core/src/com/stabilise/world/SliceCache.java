@@ -0,0 +1,116 @@
+package com.stabilise.world;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntSupplier;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A small direct-mapped cache of slices which sits in front of a world's
+ * region lookups. Slice lookups tend to be heavily clustered (e.g. collision
+ * sweeps, tile rendering and tile ticks all repeatedly hit the same handful of
+ * slices), so remembering the most recently used slice in each of a few slots
+ * lets most lookups skip the hash map lookup for the slice's region.
+ * 
+ * <p>Only real (i.e. non-{@link Slice#isDummy() dummy}) slices are cached.
+ * The cache is cleared whenever the epoch returned by the given epoch
+ * supplier changes; the owner should ensure that this happens whenever a
+ * region is added to or removed from whatever storage the slice source reads
+ * from (see {@link RegionStore#primaryEpoch()}).
+ * 
+ * <p>A SliceCache is not thread-safe, and is intended for use by the main
+ * thread only.
+ */
+@NotThreadSafe
+public class SliceCache {
+    
+    /** log2 of the width of the square of slots. */
+    private static final int SHIFT = 2;
+    /** Width of the square of slots, minus one. */
+    private static final int MASK = (1 << SHIFT) - 1;
+    
+    /** The slots. Slot (x & MASK) + ((y & MASK) << SHIFT) holds the most
+     * recently looked-up slice whose coordinates map to it, or null. */
+    private final Slice[] slices = new Slice[1 << (SHIFT * 2)];
+    
+    private final SliceSource source;
+    private final IntSupplier epochSource;
+    /** The epoch the contents of {@link #slices} are valid for. */
+    private int epoch;
+    
+    /** Number of lookups served from the cache. */
+    public long hits = 0;
+    /** Number of lookups which fell through to the slice source. */
+    public long misses = 0;
+    
+    
+    /**
+     * Creates a new SliceCache.
+     * 
+     * @param source The function to use to look up slices which aren't
+     * cached.
+     * @param epochSource Supplies the current epoch of the slice source. The
+     * cache is cleared whenever this changes.
+     * 
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    public SliceCache(SliceSource source, IntSupplier epochSource) {
+        this.source = Objects.requireNonNull(source);
+        this.epochSource = Objects.requireNonNull(epochSource);
+        this.epoch = epochSource.getAsInt();
+    }
+    
+    /**
+     * Gets the slice at the specified coordinates, in slice-lengths.
+     * 
+     * @return The slice, as returned by the slice source if it is not
+     * cached.
+     */
+    public Slice get(int x, int y) {
+        int e = epochSource.getAsInt();
+        if(e != epoch) {
+            clear();
+            epoch = e;
+        }
+        
+        int i = (x & MASK) | ((y & MASK) << SHIFT);
+        Slice s = slices[i];
+        if(s != null && s.x == x && s.y == y) {
+            hits++;
+            return s;
+        }
+        
+        misses++;
+        s = source.getSlice(x, y);
+        if(!s.isDummy())
+            slices[i] = s;
+        return s;
+    }
+    
+    /**
+     * Clears this cache.
+     */
+    public void clear() {
+        Arrays.fill(slices, null);
+    }
+    
+    @Override
+    public String toString() {
+        return "SliceCache{hits:" + hits + ", misses:" + misses + "}";
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * Looks up a slice by its coordinates, in slice-lengths. Should return a
+     * dummy slice rather than {@code null} if the slice is not loaded.
+     */
+    @FunctionalInterface
+    public interface SliceSource {
+        Slice getSlice(int x, int y);
+    }
+    
+}
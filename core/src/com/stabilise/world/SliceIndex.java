@@ -0,0 +1,357 @@
+package com.stabilise.world;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.stabilise.entity.GameObject;
+import com.stabilise.entity.Position;
+import com.stabilise.util.collect.FunctionalIterable;
+import com.stabilise.util.collect.UnorderedArrayList;
+import com.stabilise.util.maths.Point;
+import com.stabilise.util.maths.PointFactory;
+import com.stabilise.util.shape.AABB;
+
+/**
+ * A spatial index which buckets GameObjects by the slice their position lies
+ * in. This is used by {@link AbstractWorld} to answer "nearby" queries (e.g.
+ * {@link World#getEntitiesNearby(Position)}) without scanning every object in
+ * the world.
+ *
+ * <p>An object is indexed by the slice coordinates of its {@link
+ * GameObject#pos position} at the time it was last {@link #add(GameObject)
+ * added} or {@link #update(GameObject) updated}; it is up to the owner of the
+ * index to invoke {@code update()} whenever an object might have moved (in
+ * practice, once per object per tick after it has been updated). Queries scan
+ * one extra slice of margin on every side, so an object which has moved less
+ * than a slice since it was last indexed is still found, as are objects whose
+ * bounds poke out of the slice they're indexed in.
+ *
+ * <p>Since a GameObject moving through a portal to another dimension does so
+ * by swapping state with its phantom (see {@code CThroughPortal}) rather than
+ * by changing worlds, each world simply indexes the objects it owns, and the
+ * swap is picked up by the next {@code update()} of each object.
+ *
+ * <p>Query results are returned as a freshly-created list so that queries may
+ * safely be nested (e.g. a hitbox hitting an entity which then queries for
+ * its own neighbours).
+ *
+ * <p>Instances of this class are intended to be used only on the main thread.
+ */
+@NotThreadSafe
+public class SliceIndex<T extends GameObject> {
+    
+    /** Bucket keys; the hash function is tuned for roughly the number of
+     * slices loaded about a few players. */
+    private static final PointFactory KEY_FACTORY = new PointFactory(1024, true);
+    
+    /** The default search radius, in slices, of {@link #nearby(Position)}. */
+    public static final int DEFAULT_SLICE_RADIUS = 1;
+    /** Margin, in slices, added to the bounds of every radius/AABB query. */
+    private static final int MARGIN = 1;
+    
+    /** Maps slice loc -> objects indexed in that slice. Buckets are removed
+     * when emptied. */
+    private final Map<Point, Bucket<T>> buckets = new HashMap<>();
+    /** Maps object -> the bucket it currently lives in. */
+    private final Map<T, Bucket<T>> owners = new IdentityHashMap<>();
+    
+    /** Dummy key whose mutability we abuse when probing {@link #buckets}. */
+    private final Point dummyKey = KEY_FACTORY.newMutablePoint();
+    
+    /** Query cost counters. */
+    public final QueryStats stats = new QueryStats();
+    
+    /** Notified whenever an object enters, changes or leaves a bucket. May be
+     * {@code null}. */
+    private Listener<? super T> listener = null;
+    
+    
+    /**
+     * Adds an object to this index. Does nothing if the object is already
+     * indexed, other than {@link #update(GameObject) update} its bucket.
+     *
+     * @throws NullPointerException if {@code o} is {@code null}.
+     */
+    public void add(T o) {
+        Bucket<T> b = owners.get(o);
+        if(b != null) {
+            update(o);
+            return;
+        }
+        b = bucketFor(o.pos.sx, o.pos.sy);
+        b.append(o);
+        owners.put(o, b);
+        if(listener != null)
+            listener.onAdd(o, b.key.x(), b.key.y());
+    }
+    
+    /**
+     * Removes an object from this index. Does nothing if the object is not
+     * indexed.
+     */
+    public void remove(T o) {
+        Bucket<T> b = owners.remove(o);
+        if(b != null) {
+            removeFrom(b, o);
+            if(listener != null)
+                listener.onRemove(o, b.key.x(), b.key.y());
+        }
+    }
+    
+    /**
+     * Moves an object to the bucket for the slice it is currently in, if it
+     * has changed slices since it was last indexed. Does nothing if the
+     * object is not indexed.
+     */
+    public void update(T o) {
+        Bucket<T> b = owners.get(o);
+        if(b == null)
+            return;
+        // Cheap check: is the object still in the bucket of its slice?
+        Bucket<T> cur = buckets.get(dummyKey.set(o.pos.sx, o.pos.sy));
+        if(cur == b)
+            return;
+        removeFrom(b, o);
+        if(cur == null)
+            cur = bucketFor(o.pos.sx, o.pos.sy);
+        cur.append(o);
+        owners.put(o, cur);
+        stats.moves++;
+        if(listener != null)
+            listener.onMove(o, b.key.x(), b.key.y(), cur.key.x(), cur.key.y());
+    }
+    
+    /**
+     * Returns the number of objects in this index.
+     */
+    public int size() {
+        return owners.size();
+    }
+    
+    /**
+     * Sets the listener to notify whenever an object is added to, moved
+     * between slices of, or removed from this index. Only one listener is
+     * supported; {@code null} removes the current listener.
+     */
+    public void setListener(Listener<? super T> listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Clears this index. The listener, if any, is not notified.
+     */
+    public void clear() {
+        buckets.clear();
+        owners.clear();
+    }
+    
+    /**
+     * Returns every object indexed within {@link #DEFAULT_SLICE_RADIUS} slices
+     * of the slice containing the given position. This is a coarse query; no
+     * filtering on actual distance is performed.
+     *
+     * @throws NullPointerException if {@code pos} is {@code null}.
+     */
+    public FunctionalIterable<T> nearby(Position pos) {
+        UnorderedArrayList<T> result = new UnorderedArrayList<>();
+        stats.queries++;
+        collect(result, pos.sx - DEFAULT_SLICE_RADIUS, pos.sx + DEFAULT_SLICE_RADIUS,
+                pos.sy - DEFAULT_SLICE_RADIUS, pos.sy + DEFAULT_SLICE_RADIUS);
+        stats.candidates += result.size();
+        stats.results += result.size();
+        return result;
+    }
+    
+    /**
+     * Returns every object whose position lies within {@code radius} tiles of
+     * the given position.
+     *
+     * @throws NullPointerException if {@code pos} is {@code null}.
+     */
+    public FunctionalIterable<T> inRadius(Position pos, float radius) {
+        UnorderedArrayList<T> result = new UnorderedArrayList<>();
+        stats.queries++;
+        int sr = sliceSpan(radius);
+        collect(result, pos.sx - sr, pos.sx + sr, pos.sy - sr, pos.sy + sr);
+        stats.candidates += result.size();
+        float r2 = radius * radius;
+        result.iterate(o -> pos.distSq(o.pos) > r2);
+        stats.results += result.size();
+        return result;
+    }
+    
+    /**
+     * Returns every object whose bounds, as given by {@code bounds}, overlap
+     * the given AABB positioned at {@code pos}. Objects for which {@code
+     * bounds} returns {@code null} are tested as points.
+     *
+     * @param pos The position of the AABB.
+     * @param box The AABB, relative to {@code pos}.
+     * @param bounds A function returning the AABB of an object relative to
+     * its own position.
+     *
+     * @throws NullPointerException if any argument is {@code null}.
+     */
+    public FunctionalIterable<T> inAABB(Position pos, AABB box, BoundsFunction<? super T> bounds) {
+        UnorderedArrayList<T> result = new UnorderedArrayList<>();
+        stats.queries++;
+        int minSx = pos.sx + sliceSpanFloor(pos.lx() + box.minX());
+        int maxSx = pos.sx + sliceSpanFloor(pos.lx() + box.maxX());
+        int minSy = pos.sy + sliceSpanFloor(pos.ly() + box.minY());
+        int maxSy = pos.sy + sliceSpanFloor(pos.ly() + box.maxY());
+        collect(result, minSx - MARGIN, maxSx + MARGIN, minSy - MARGIN, maxSy + MARGIN);
+        stats.candidates += result.size();
+        result.iterate(o -> {
+            float dx = pos.diffX(o.pos);
+            float dy = pos.diffY(o.pos);
+            AABB b = bounds.boundsOf(o);
+            if(b == null)
+                return dx < box.minX() || dx > box.maxX()
+                    || dy < box.minY() || dy > box.maxY();
+            return dx + b.maxX() < box.minX() || dx + b.minX() > box.maxX()
+                || dy + b.maxY() < box.minY() || dy + b.minY() > box.maxY();
+        });
+        stats.results += result.size();
+        return result;
+    }
+    
+    /**
+     * Appends the contents of all buckets in the given (inclusive) slice
+     * range to {@code result}.
+     */
+    private void collect(UnorderedArrayList<T> result, int minSx, int maxSx,
+            int minSy, int maxSy) {
+        // If the query spans more slices than we have buckets, it's cheaper
+        // to walk the buckets instead.
+        long span = (long)(maxSx - minSx + 1) * (maxSy - minSy + 1);
+        if(span > buckets.size()) {
+            buckets.forEach((k, b) -> {
+                stats.slicesScanned++;
+                if(k.x() >= minSx && k.x() <= maxSx && k.y() >= minSy && k.y() <= maxSy)
+                    b.forEach(result::append);
+            });
+            return;
+        }
+        
+        for(int y = minSy; y <= maxSy; y++) {
+            for(int x = minSx; x <= maxSx; x++) {
+                stats.slicesScanned++;
+                Bucket<T> b = buckets.get(dummyKey.set(x, y));
+                if(b != null)
+                    b.forEach(result::append);
+            }
+        }
+    }
+    
+    private Bucket<T> bucketFor(int sx, int sy) {
+        Bucket<T> b = buckets.get(dummyKey.set(sx, sy));
+        if(b == null) {
+            b = new Bucket<>(KEY_FACTORY.newImmutablePoint(sx, sy));
+            buckets.put(b.key, b);
+        }
+        return b;
+    }
+    
+    private void removeFrom(Bucket<T> b, T o) {
+        b.remove(o);
+        if(b.isEmpty())
+            buckets.remove(b.key);
+    }
+    
+    /**
+     * Number of slices (rounded up, plus margin) a distance spans.
+     */
+    private static int sliceSpan(float tiles) {
+        return (int)Math.ceil(tiles / Slice.SLICE_SIZE) + MARGIN;
+    }
+    
+    /**
+     * Converts a local tile offset (which may lie outside [0, SLICE_SIZE))
+     * into a slice offset.
+     */
+    private static int sliceSpanFloor(float localTile) {
+        return Position.sliceCoordFromTileCoord2(localTile);
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * A list of the objects in a slice, which remembers its key.
+     */
+    private static class Bucket<T> extends UnorderedArrayList<T> {
+        
+        private final Point key;
+        
+        private Bucket(Point key) {
+            super(4);
+            this.key = key;
+        }
+        
+        // Buckets are compared by identity; AbstractList's content-based
+        // equals() would make every empty bucket equal.
+        @Override public boolean equals(Object o) { return o == this; }
+        @Override public int hashCode() { return System.identityHashCode(this); }
+        
+    }
+    
+    /**
+     * Returns the AABB of an object, relative to its own position.
+     */
+    @FunctionalInterface
+    public interface BoundsFunction<T> {
+        AABB boundsOf(T o);
+    }
+    
+    /**
+     * Receives notifications of objects entering, moving between and leaving
+     * the slices of an index. All slice coordinates are in slice-lengths.
+     */
+    public interface Listener<T> {
+        
+        /** Invoked when {@code o} is added to slice (sx, sy). */
+        void onAdd(T o, int sx, int sy);
+        
+        /** Invoked when {@code o} moves from slice (oldSx, oldSy) to slice
+         * (newSx, newSy). */
+        void onMove(T o, int oldSx, int oldSy, int newSx, int newSy);
+        
+        /** Invoked when {@code o} is removed from slice (sx, sy). */
+        void onRemove(T o, int sx, int sy);
+        
+    }
+    
+    /**
+     * Counters for the cost of queries made against an index. These are only
+     * ever touched on the main thread.
+     */
+    public static class QueryStats {
+        
+        /** Number of queries made. */
+        public long queries;
+        /** Number of slice buckets probed across all queries. */
+        public long slicesScanned;
+        /** Number of objects considered before filtering. */
+        public long candidates;
+        /** Number of objects returned. */
+        public long results;
+        /** Number of times an object changed buckets. */
+        public long moves;
+        
+        @Override
+        public String toString() {
+            return "{queries:" + queries
+                    + ", slicesScanned:" + slicesScanned
+                    + ", candidates:" + candidates
+                    + ", results:" + results
+                    + ", moves:" + moves
+                    + "}";
+        }
+        
+    }
+    
+}
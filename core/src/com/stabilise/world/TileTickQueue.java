@@ -0,0 +1,179 @@
+package com.stabilise.world;
+
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES;
+import static com.stabilise.world.Region.REGION_SIZE_IN_TILES_SHIFT;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A region's queue of scheduled tile ticks, i.e., tiles which have asked to
+ * be updated at a particular tick (as per {@link World#getAge()}), rather
+ * than waiting to be picked by a random tick.
+ * 
+ * <p>Ticks are polled in order of time, and then of position, so they run in
+ * the same order every time. A tile may have at most one tick scheduled at
+ * once; further requests are ignored until it has run.
+ * 
+ * <p>Each tick is encoded as a single long -- its time in the high bits, and
+ * its region-relative tile position in the low {@link #POS_BITS} -- such that
+ * comparing encoded ticks compares their times first. These are kept in a
+ * binary min-heap, which is also the form in which they are {@link
+ * #toArray() saved}.
+ */
+@NotThreadSafe
+public class TileTickQueue {
+    
+    /** The number of low bits of an encoded tick which hold its position. */
+    private static final int POS_BITS = 2 * REGION_SIZE_IN_TILES_SHIFT;
+    private static final long POS_MASK = (1L << POS_BITS) - 1;
+    private static final int COORD_MASK = REGION_SIZE_IN_TILES - 1;
+    
+    
+    /** Binary min-heap of encoded ticks. */
+    private long[] heap;
+    private int size = 0;
+    /** Which positions have a tick in {@link #heap}. */
+    private final BitSet scheduled = new BitSet();
+    
+    
+    /**
+     * Creates a new, empty queue.
+     */
+    public TileTickQueue() {
+        heap = new long[8];
+    }
+    
+    /**
+     * Schedules a tick for a tile.
+     * 
+     * @param tx The x-coordinate of the tile, relative to the region.
+     * @param ty The y-coordinate of the tile, relative to the region.
+     * @param time The tick at which the tile should be updated.
+     * 
+     * @return {@code true} if the tick was scheduled; {@code false} if the
+     * tile already had one scheduled.
+     */
+    public boolean schedule(int tx, int ty, long time) {
+        int pos = pos(tx, ty);
+        if(scheduled.get(pos))
+            return false;
+        scheduled.set(pos);
+        if(size == heap.length)
+            heap = Arrays.copyOf(heap, size * 2);
+        siftUp(size++, (time << POS_BITS) | pos);
+        return true;
+    }
+    
+    /**
+     * Returns {@code true} if the given tile has a tick scheduled.
+     * 
+     * @param tx The x-coordinate of the tile, relative to the region.
+     * @param ty The y-coordinate of the tile, relative to the region.
+     */
+    public boolean isScheduled(int tx, int ty) {
+        return scheduled.get(pos(tx, ty));
+    }
+    
+    /**
+     * Removes the earliest tick if it is due.
+     * 
+     * @param now The current tick.
+     * 
+     * @return The tile position of the tick, which may be decoded with
+     * {@link #posX(int)} and {@link #posY(int)}, or {@code -1} if no tick is
+     * due.
+     */
+    public int pollDue(long now) {
+        if(size == 0 || (heap[0] >>> POS_BITS) > now)
+            return -1;
+        int pos = (int)(heap[0] & POS_MASK);
+        scheduled.clear(pos);
+        long last = heap[--size];
+        if(size > 0)
+            siftDown(0, last);
+        return pos;
+    }
+    
+    /**
+     * Returns the number of scheduled ticks.
+     */
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Returns every scheduled tick, encoded, for saving.
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(heap, size);
+    }
+    
+    /**
+     * Creates a queue from an array returned by {@link #toArray()}.
+     */
+    public static TileTickQueue fromArray(long[] ticks) {
+        TileTickQueue q = new TileTickQueue();
+        q.heap = new long[Math.max(8, ticks.length)];
+        for(long t : ticks) {
+            int pos = (int)(t & POS_MASK);
+            if(!q.scheduled.get(pos)) {
+                q.scheduled.set(pos);
+                q.siftUp(q.size++, t);
+            }
+        }
+        return q;
+    }
+    
+    private void siftUp(int i, long t) {
+        while(i > 0) {
+            int parent = (i - 1) >>> 1;
+            if(heap[parent] <= t)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = t;
+    }
+    
+    private void siftDown(int i, long t) {
+        int half = size >>> 1;
+        while(i < half) {
+            int child = 2*i + 1;
+            if(child + 1 < size && heap[child + 1] < heap[child])
+                child++;
+            if(t <= heap[child])
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = t;
+    }
+    
+    private static int pos(int tx, int ty) {
+        return (ty << REGION_SIZE_IN_TILES_SHIFT) | tx;
+    }
+    
+    /**
+     * Returns the region-relative x-coordinate of a position returned by
+     * {@link #pollDue(long)}.
+     */
+    public static int posX(int pos) {
+        return pos & COORD_MASK;
+    }
+    
+    /**
+     * Returns the region-relative y-coordinate of a position returned by
+     * {@link #pollDue(long)}.
+     */
+    public static int posY(int pos) {
+        return pos >>> REGION_SIZE_IN_TILES_SHIFT;
+    }
+    
+}
@@ -10,7 +10,9 @@ import com.stabilise.util.Profiler;
 import com.stabilise.util.annotation.ThreadUnsafeMethod;
 import com.stabilise.util.annotation.UserThread;
 import com.stabilise.util.collect.FunctionalIterable;
+import com.stabilise.util.shape.AABB;
 import com.stabilise.world.multiverse.Multiverse;
+import com.stabilise.world.tile.Tile;
 import com.stabilise.world.tile.tileentity.TileEntity;
 
 /**
@@ -105,6 +107,14 @@ public interface World extends WorldProvider {
      */
     void addParticle(Particle p);
     
+    /**
+     * Plays the pop sound at the given pitch, on behalf of something which
+     * happened in this world. This does nothing if sounds aren't loaded, as
+     * on a dedicated server. As sounds may only be played from the main
+     * thread, the sound may be deferred until the end of the tick.
+     */
+    void playSound(float pitch);
+    
     // ==========Collection getters==========
     
     /**
@@ -120,20 +130,55 @@ public interface World extends WorldProvider {
     FunctionalIterable<Entity> getEntities();
     
     /**
-     * @return A collection of entities "nearby" the specified position.
+     * Returns a collection of entities "nearby" the specified position. This
+     * is a coarse query: it returns every entity in the slices immediately
+     * surrounding (and including) the slice containing {@code pos}, and no
+     * filtering on actual distance is performed.
+     * 
+     * @throws NullPointerException if {@code pos} is {@code null}.
      */
     FunctionalIterable<Entity> getEntitiesNearby(Position pos);
     
+    /**
+     * Returns a collection of all entities whose position lies within {@code
+     * radius} tiles of the specified position.
+     * 
+     * @throws NullPointerException if {@code pos} is {@code null}.
+     */
+    FunctionalIterable<Entity> getEntitiesNearby(Position pos, float radius);
+    
+    /**
+     * Returns a collection of all entities whose {@link Entity#aabb AABB}
+     * overlaps the given AABB.
+     * 
+     * @param pos The position of the AABB.
+     * @param box The AABB, relative to {@code pos}.
+     * 
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    FunctionalIterable<Entity> getEntitiesInAABB(Position pos, AABB box);
+    
     /**
      * @return The collection of hitboxes in the world.
      */
     FunctionalIterable<Hitbox> getHitboxes();
     
     /**
-     * @return A collection of hitboxes "nearby" the specified position.
+     * Returns a collection of hitboxes "nearby" the specified position. As
+     * with {@link #getEntitiesNearby(Position)}, this is a coarse query.
+     * 
+     * @throws NullPointerException if {@code pos} is {@code null}.
      */
     FunctionalIterable<Hitbox> getHitboxesNearby(Position pos);
     
+    /**
+     * Returns a collection of all hitboxes whose position lies within {@code
+     * radius} tiles of the specified position.
+     * 
+     * @throws NullPointerException if {@code pos} is {@code null}.
+     */
+    FunctionalIterable<Hitbox> getHitboxesNearby(Position pos, float radius);
+    
     /**
      * @return The collection of particles in the world.
      */
@@ -216,6 +261,22 @@ public interface World extends WorldProvider {
      */
     void blowUpTile(Position pos, float explosionPower);
     
+    /**
+     * Schedules the tile at the given position to be {@link
+     * Tile#update(World, Position) updated} in {@code delay} ticks' time,
+     * rather than waiting to be picked by a random tick. Does nothing if the
+     * tile already has an update scheduled, or isn't loaded. Scheduled
+     * updates are saved with the tile's region.
+     * 
+     * <p>IMPORTANT NOTE: make sure the position is {@link Position#align()
+     * aligned} before invoking this.
+     * 
+     * @param pos The position of the tile.
+     * @param delay The number of ticks from now at which to update the tile.
+     * Values less than 1 are treated as 1.
+     */
+    void scheduleTileTick(Position pos, int delay);
+    
     /**
      * Anchors a slice. For a {@link HostWorld}, this will attempt to load and
      * generate the slice's parent region, if it is not already loaded.
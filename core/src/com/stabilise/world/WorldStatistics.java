@@ -1,7 +1,13 @@
 package com.stabilise.world;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.LongAdder;
 
+import com.stabilise.util.collect.PalettedIntArray;
+
 /**
  * Maintains statistics about a world.
  */
@@ -10,11 +16,21 @@ public class WorldStatistics {
     // World generator
     
     public final ProcessStats gen = new ProcessStats("GenStats");
+    public final GenTimings genTimes = new GenTimings();
     
     // World loader
     
     public final ProcessStats load = new ProcessStats("LoadStats");
     public final ProcessStats save = new ProcessStats("SaveStats");
+    public final SliceSaveStats sliceSaves = new SliceSaveStats();
+    public final SaverStats saver = new SaverStats();
+    public final WarmCacheStats warm = new WarmCacheStats();
+    public final SchedulerStats sched = new SchedulerStats();
+    public final PrefetchStats prefetch = new PrefetchStats();
+    
+    // Memory
+    
+    public final MemoryStats memory = new MemoryStats();
     
     
     
@@ -23,8 +39,15 @@ public class WorldStatistics {
         StringBuilder sb = new StringBuilder();
         sb.append("Statistics for world: {\n");
         append(sb, gen);
+        append(sb, genTimes);
         append(sb, load);
         append(sb, save);
+        append(sb, sliceSaves);
+        append(sb, saver);
+        append(sb, warm);
+        append(sb, sched);
+        append(sb, prefetch);
+        append(sb, memory);
         sb.append('}');
         return sb.toString();
     }
@@ -43,6 +66,7 @@ public class WorldStatistics {
                 started = new LongAdder(),
                 aborted = new LongAdder(),
                 completed = new LongAdder(),
+                skipped = new LongAdder(),
                 failed = new LongAdder();
         
         @Override
@@ -53,10 +77,405 @@ public class WorldStatistics {
                     +   "started:" + String.format("%4d", started.sum())   + ", "
                     +   "aborted:" + String.format("%4d", aborted.sum())   + ", "
                     + "completed:" + String.format("%4d", completed.sum()) + ", "
+                    +   "skipped:" + String.format("%4d", skipped.sum())   + ", "
                     +    "failed:" + String.format("%4d", failed.sum())
                     + "}";
         }
         
     }
     
+    /**
+     * Tracks how many slices each region save has actually written, versus
+     * how many it reused from the previous save because they hadn't changed.
+     * Regions which are skipped outright are counted by {@link
+     * ProcessStats#skipped}, not here.
+     */
+    public static class SliceSaveStats {
+        
+        private SliceSaveStats() {}
+        
+        public final LongAdder written = new LongAdder(),
+                reused = new LongAdder();
+        
+        /**
+         * Records that a region save wrote the given number of slices.
+         */
+        public void record(int slicesWritten, boolean generated) {
+            written.add(slicesWritten);
+            if(generated)
+                reused.add(Region.REGION_SIZE * Region.REGION_SIZE - slicesWritten);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%10s", "SliceSaves") + "{"
+                    + "written:" + String.format("%4d", written.sum()) + ", "
+                    +  "reused:" + String.format("%4d", reused.sum())
+                    + "}";
+        }
+        
+    }
+    
+    /**
+     * Tracks the write-behind saver of a world's {@code WorldLoader}: how
+     * many saves it has queued, how many requests it coalesced into saves
+     * already queued, how often workers had to wait for it to catch up, and
+     * how quickly it is writing.
+     */
+    public static class SaverStats {
+        
+        /** Bytes/sec is measured over windows at least this long. */
+        private static final long RATE_WINDOW_NANOS = 1000000000L;
+        
+        private SaverStats() {}
+        
+        public final LongAdder queued = new LongAdder(),
+                coalesced = new LongAdder(),
+                throttled = new LongAdder(),
+                batches = new LongAdder(),
+                flushes = new LongAdder(),
+                bytes = new LongAdder();
+        
+        private volatile int depth = 0;
+        private volatile int maxDepth = 0;
+        
+        // Only touched by the saver's thread
+        private long windowStart = -1;
+        private long windowBytes = 0;
+        private long lastBatchEnd = 0;
+        private volatile long bytesPerSecond = 0;
+        
+        /**
+         * Records the number of regions queued or being saved.
+         */
+        public void recordDepth(int depth) {
+            this.depth = depth;
+            if(depth > maxDepth) // racy, but it's only a stat
+                maxDepth = depth;
+        }
+        
+        /**
+         * Records that a batch of regions was written. Should only be invoked
+         * by the saver's thread.
+         * 
+         * @param regions The number of regions in the batch.
+         * @param bytes The number of bytes written.
+         * @param nanos How long the batch took, including the flush.
+         */
+        public void recordBatch(int regions, long bytes, long nanos) {
+            batches.increment();
+            this.bytes.add(bytes);
+            
+            long now = System.nanoTime();
+            // Start a new window if this is the first batch in a while, so
+            // that idle time doesn't drag down the rate.
+            if(windowStart == -1 || now - nanos - lastBatchEnd > RATE_WINDOW_NANOS) {
+                windowStart = now - nanos;
+                windowBytes = 0;
+            }
+            lastBatchEnd = now;
+            windowBytes += bytes;
+            long elapsed = now - windowStart;
+            if(elapsed >= RATE_WINDOW_NANOS) {
+                bytesPerSecond = windowBytes * 1000000000L / elapsed;
+                windowStart = now;
+                windowBytes = 0;
+            }
+        }
+        
+        /**
+         * Returns the number of regions queued or being saved.
+         */
+        public int queueDepth() {
+            return depth;
+        }
+        
+        /**
+         * Returns the rate at which bytes were written over the most recent
+         * window of a second or more in which anything was written.
+         */
+        public long bytesPerSecond() {
+            return bytesPerSecond;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%10s", "Saver") + "{"
+                    +     "queued:" + String.format("%4d", queued.sum())    + ", "
+                    +  "coalesced:" + String.format("%4d", coalesced.sum()) + ", "
+                    +  "throttled:" + String.format("%4d", throttled.sum()) + ", "
+                    +    "batches:" + String.format("%4d", batches.sum())   + ", "
+                    +    "flushes:" + String.format("%4d", flushes.sum())   + ", "
+                    +      "depth:" + depth + " (max " + maxDepth + "), "
+                    +      "bytes:" + bytes.sum() + ", "
+                    +  "bytes/sec:" + bytesPerSecond
+                    + "}";
+        }
+        
+    }
+    
+    /**
+     * Tracks the {@code WarmRegionCache} of recently unloaded regions. A hit
+     * is a load which was served from the cache, and a miss one which had to
+     * go to disk.
+     */
+    public static class WarmCacheStats {
+        
+        private WarmCacheStats() {}
+        
+        public final LongAdder hits = new LongAdder(),
+                misses = new LongAdder(),
+                evictions = new LongAdder();
+        
+        private volatile int regions = 0;
+        private volatile long bytes = 0;
+        
+        /**
+         * Records the number of regions cached and their total estimated size
+         * in bytes.
+         */
+        public void record(int regions, long bytes) {
+            this.regions = regions;
+            this.bytes = bytes;
+        }
+        
+        /**
+         * Returns the proportion of loads which were hits, or 0 if there have
+         * been none.
+         */
+        public double hitRate() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0 : (double)h / total;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%10s", "WarmCache") + "{"
+                    +      "hits:" + String.format("%4d", hits.sum())      + ", "
+                    +    "misses:" + String.format("%4d", misses.sum())    + ", "
+                    + "evictions:" + String.format("%4d", evictions.sum()) + ", "
+                    +  "hit rate:" + String.format("%.1f%%", hitRate() * 100) + ", "
+                    +   "regions:" + regions + " (" + bytes / 1024 + "KB)"
+                    + "}";
+        }
+        
+    }
+    
+    /**
+     * Tracks the work of a world's {@link RegionScheduler}, and how long it
+     * took from the world's first anchor until the first region around it
+     * became playable (that is, {@link RegionState#isActive() active}).
+     */
+    public static class SchedulerStats {
+        
+        private SchedulerStats() {}
+        
+        public final LongAdder scheduled = new LongAdder(),
+                cancelled = new LongAdder(),
+                refused = new LongAdder(),
+                reprioritised = new LongAdder();
+        
+        private volatile long firstAnchorNanos = -1;
+        private volatile long firstPlayableNanos = -1;
+        
+        /**
+         * Records that a region has been anchored. Only the first is noted.
+         */
+        void anchored() {
+            if(firstAnchorNanos == -1)
+                firstAnchorNanos = System.nanoTime();
+        }
+        
+        /**
+         * Records that a region has become playable. Only the first is noted.
+         */
+        void playable() {
+            if(firstPlayableNanos == -1 && firstAnchorNanos != -1)
+                firstPlayableNanos = System.nanoTime();
+        }
+        
+        /**
+         * Returns the number of milliseconds from the first anchor until the
+         * first region became playable, or -1 if none has yet.
+         */
+        public long timeToFirstPlayable() {
+            long end = firstPlayableNanos;
+            return end == -1 ? -1 : (end - firstAnchorNanos) / 1000000;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%10s", "SchedStats") + "{"
+                    +     "scheduled:" + String.format("%4d", scheduled.sum()) + ", "
+                    +     "cancelled:" + String.format("%4d", cancelled.sum()) + ", "
+                    +       "refused:" + String.format("%4d", refused.sum())   + ", "
+                    + "reprioritised:" + String.format("%4d", reprioritised.sum()) + ", "
+                    + "firstPlayable:" + timeToFirstPlayable() + "ms"
+                    + "}";
+        }
+        
+    }
+    
+    /**
+     * Tracks regions prefetched ahead of moving players; see {@link
+     * RegionStore#prefetch(int, int)}. A prefetch is a hit if the region is
+     * anchored while prefetched (a late hit if it hadn't finished being
+     * prepared by then), and wasted if it is dropped first.
+     */
+    public static class PrefetchStats {
+        
+        private PrefetchStats() {}
+        
+        public final LongAdder requests = new LongAdder(),
+                rejected = new LongAdder(),
+                hits = new LongAdder(),
+                lateHits = new LongAdder(),
+                wasted = new LongAdder();
+        
+        /**
+         * Returns the proportion of resolved prefetches which were hits, or 0
+         * if none have been resolved.
+         */
+        public double hitRate() {
+            long h = hits.sum();
+            long total = h + wasted.sum();
+            return total == 0 ? 0 : (double)h / total;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%10s", "Prefetch") + "{"
+                    +      "req:" + String.format("%4d", requests.sum()) + ", "
+                    +      "rej:" + String.format("%4d", rejected.sum()) + ", "
+                    +     "hits:" + String.format("%4d", hits.sum())     + ", "
+                    +     "late:" + String.format("%4d", lateHits.sum()) + ", "
+                    +   "wasted:" + String.format("%4d", wasted.sum())   + ", "
+                    + "hit rate:" + String.format("%.1f%%", hitRate() * 100)
+                    + "}";
+        }
+        
+    }
+    
+    /**
+     * Tracks how long each stage of region generation takes, keyed by the
+     * name of the stage (for an {@code IWorldGenerator}, the simple name of
+     * its class). Times are wall-clock times, so a stage which generates a
+     * region's columns in parallel is credited only with the time it took to
+     * complete them all.
+     */
+    public static class GenTimings {
+        
+        private final ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<>();
+        
+        private GenTimings() {}
+        
+        /**
+         * Records that the given stage of generating a region took the given
+         * number of nanoseconds.
+         */
+        public void record(String stage, long nanos) {
+            Timing t = timings.computeIfAbsent(stage, k -> new Timing());
+            t.regions.increment();
+            t.nanos.add(nanos);
+        }
+        
+        /**
+         * Returns the average time, in nanoseconds, the given stage has taken
+         * per region, or 0 if it has not been recorded.
+         */
+        public long averageNanos(String stage) {
+            Timing t = timings.get(stage);
+            if(t == null)
+                return 0;
+            long r = t.regions.sum();
+            return r == 0 ? 0 : t.nanos.sum() / r;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format("%10s", "GenTimes")).append('{');
+            boolean first = true;
+            for(Map.Entry<String, Timing> e : new TreeMap<>(timings).entrySet()) {
+                if(!first)
+                    sb.append(", ");
+                first = false;
+                sb.append(e.getKey()).append(':')
+                    .append(String.format("%.2f", averageNanos(e.getKey()) / 1e6)).append("ms");
+            }
+            return sb.append('}').toString();
+        }
+        
+        private static class Timing {
+            final LongAdder regions = new LongAdder(), nanos = new LongAdder();
+        }
+        
+    }
+    
+    /**
+     * Tracks how much memory the tile, wall and light arrays of loaded regions
+     * take up, compared to how much they would have taken up in the old
+     * layout of 2D arrays.
+     */
+    public static class MemoryStats {
+        
+        /** Estimated size of a slice's tile, wall and light arrays when they
+         * were stored as int[16][16], int[16][16] and byte[16][16]. */
+        private static final long LEGACY_SLICE_BYTES =
+                2 * (PalettedIntArray.arrayBytes(Slice.SLICE_SIZE, 4)
+                        + Slice.SLICE_SIZE * PalettedIntArray.arrayBytes(Slice.SLICE_SIZE, 4))
+                + PalettedIntArray.arrayBytes(Slice.SLICE_SIZE, 4)
+                + Slice.SLICE_SIZE * PalettedIntArray.arrayBytes(Slice.SLICE_SIZE, 1);
+        
+        private MemoryStats() {}
+        
+        public final LongAdder regions = new LongAdder(),
+                slices = new LongAdder(),
+                palettedSlices = new LongAdder(),
+                bytes = new LongAdder();
+        
+        /**
+         * Records the memory usage of a region which has just been loaded.
+         */
+        public void record(Region r) {
+            regions.increment();
+            r.forEachSlice(s -> {
+                slices.increment();
+                if(s.tiles.isPaletted())
+                    palettedSlices.increment();
+                bytes.add(s.sizeInBytes());
+            });
+        }
+        
+        /**
+         * Returns the average number of bytes of tile, wall and light data
+         * per loaded region, or 0 if no regions have been loaded.
+         */
+        public long bytesPerRegion() {
+            long r = regions.sum();
+            return r == 0 ? 0 : bytes.sum() / r;
+        }
+        
+        /**
+         * Returns the average number of bytes saved per loaded region,
+         * relative to the old 2D array layout.
+         */
+        public long savedPerRegion() {
+            long r = regions.sum();
+            return r == 0 ? 0 : (slices.sum() * LEGACY_SLICE_BYTES - bytes.sum()) / r;
+        }
+        
+        @Override
+        public String toString() {
+            long r = regions.sum();
+            return String.format("%10s", "MemStats") + "{"
+                    +  "regions:" + String.format("%4d", r) + ", "
+                    + "paletted:" + palettedSlices.sum() + "/" + slices.sum() + " slices, "
+                    + "bytes/region:" + bytesPerRegion() + ", "
+                    + "saved/region:" + savedPerRegion()
+                    + "}";
+        }
+        
+    }
+    
 }
@@ -352,7 +352,7 @@ public class Worlds {
             return Task.builder(Tasks.newThreadExecutor())
                 .name("Loading world")
                 .beginReturn(WorldBundle.class)
-                .andThen(200, (t) -> {
+                .andThen(250, (t) -> {
                     t.setStatus("Loading player data");
                     if(integratedPlayer != null) // host or client
                         integratedPlayer.load();
@@ -361,6 +361,9 @@ public class Worlds {
                         t.next(50, "Loading world data");
                         worldInfo.load();
                         
+                        t.next(50, "Upgrading world format");
+                        WorldFormat.migrate(worldInfo);
+                        
                         t.next(50, "Starting up the world");
                         bMulti.set(new HostMultiverse(worldInfo, profiler));
                         
@@ -386,7 +389,7 @@ public class Worlds {
                         
                         // Regions have been loaded; now properly import them
                         // while we have the luxury of this concurrent loading.
-                        w.forEachRegion(r -> r.importToWorld(w, w.regions));
+                        w.forEachRegion(r -> r.importToWorld(w));
                         
                         return new WorldBundle(
                         		bMulti.get(),
@@ -19,7 +19,7 @@ public class DimOverworld extends Dimension {
     
     @Override
     public void addGenerators(WorldGenerator g) {
-        g.addGenerator(OverworldTerrainGen::new);
+        g.addGenerator(new OverworldTerrainGen());
         g.addGenerator(new CaveGen());
         g.addGenerator(new OreGen(2));
         g.addGenerator(new ChestGen());
@@ -25,31 +25,74 @@ class GenProvider implements WorldProvider {
     private final HostWorld w;
     private final Region r;
     
+    /** Bounds of the slices this provider may access, in slice-coordinates.
+     * The max bounds are exclusive. */
+    private final int minX, maxX, minY, maxY;
+    
     private int lastX, lastY;
     private Slice lastSlice;
     
     private final Random rnd;
     
     
+    /**
+     * Creates a provider for the whole of a region.
+     */
     GenProvider(HostWorld w, Region r, long seed) {
         this.w = w;
         this.r = r;
         
+        minX = r.offsetX;
+        maxX = r.offsetX + Region.REGION_SIZE;
+        minY = r.offsetY;
+        maxY = r.offsetY + Region.REGION_SIZE;
+        
         lastX = lastY = 0;
         lastSlice = r.getSliceAt(0, 0);
         
-        long mix = 0x59c5180355b14d9bL;
-        long n = 13*r.x() + 57*r.y();
+        rnd = new RandomXS128(seed ^ hash(r) ^ 0x59c5180355b14d9bL);
+    }
+    
+    /**
+     * Creates a provider for a range of columns of slices of a region, for an
+     * {@link IColumnGenerator}. The provider's rnd is seeded by the column, so
+     * that columns generate the same regardless of the order or concurrency
+     * in which they are generated.
+     * 
+     * @param minCol The region-relative x-coordinate of the first column.
+     * @param maxCol The region-relative x-coordinate of the last column,
+     * exclusive.
+     */
+    GenProvider(HostWorld w, Region r, long seed, int minCol, int maxCol) {
+        this.w = w;
+        this.r = r;
+        
+        minX = r.offsetX + minCol;
+        maxX = r.offsetX + maxCol;
+        minY = r.offsetY;
+        maxY = r.offsetY + Region.REGION_SIZE;
+        
+        lastX = minX;
+        lastY = minY;
+        lastSlice = r.getSliceAt(minCol, 0);
+        
+        long n = 31*minCol + 7*maxCol;
         n = (n<<13) ^ n;
         n = n * (n*n*15731 + 789221) + 1376312589;
-        rnd = new RandomXS128(seed ^ n ^ mix);
+        rnd = new RandomXS128(seed ^ hash(r) ^ n ^ 0x2a3f9e0c6b1d4857L);
+    }
+    
+    private static long hash(Region r) {
+        long n = 13*r.x() + 57*r.y();
+        n = (n<<13) ^ n;
+        return n * (n*n*15731 + 789221) + 1376312589;
     }
     
     @Override
     public void addEntity(Entity e) {
         ActionAddEntity a = new ActionAddEntity();
         a.e = e;
-        actions().add(a);
+        addAction(a);
     }
     
     @Override
@@ -91,10 +134,15 @@ class GenProvider implements WorldProvider {
                 t);
         ActionAddTileEntity a = new ActionAddTileEntity();
         a.t = t;
-        actions().add(a);
+        addAction(a);
     }
     */
     
+    @Override
+    public void setTileAt(Position pos, Tile tile) {
+        setTileAt(pos, tile.getID()); // so that tile entities are created
+    }
+    
     @Override
     public void setTileAt(Position pos, int id) {
         getTileAt(pos).handleRemove(this, pos);
@@ -136,7 +184,7 @@ class GenProvider implements WorldProvider {
             if(t != null) {
             	ActionAddTileEntity a = new ActionAddTileEntity();
             	a.t = t;
-            	actions().add(a);
+            	addAction(a);
                 //addTileEntity(t);
             }
         }
@@ -147,10 +195,15 @@ class GenProvider implements WorldProvider {
         return rnd;
     }
     
-    private List<Action> actions() {
-        if(r.queuedActions == null)
-            r.queuedActions = new ArrayList<>();
-        return r.queuedActions;
+    private void addAction(Action a) {
+        // Column generators may be adding actions to the same region
+        // concurrently
+        synchronized(r) {
+            if(r.queuedActions == null)
+                r.queuedActions = new ArrayList<>();
+            r.queuedActions.add(a);
+        }
+        r.markDirty();
     }
     
     //private boolean checkBounds(int c) {
@@ -158,11 +211,11 @@ class GenProvider implements WorldProvider {
     //}
     
     private boolean checkXBound(int x) {
-        return x >= r.offsetX && x < r.offsetX + Region.REGION_SIZE;
+        return x >= minX && x < maxX;
     }
     
     private boolean checkYBound(int y) {
-        return y >= r.offsetY && y < r.offsetY + Region.REGION_SIZE;
+        return y >= minY && y < maxY;
     }
     
 }
@@ -0,0 +1,48 @@
+package com.stabilise.world.gen;
+
+import com.stabilise.util.annotation.ThreadSafeMethod;
+import com.stabilise.world.Region;
+import com.stabilise.world.WorldProvider;
+
+/**
+ * An {@link IWorldGenerator} which can generate a region in independent
+ * columns of slices, and so may be parallelised within a region.
+ * 
+ * <p>The contract for a column generator is that, when asked to generate a
+ * range of columns, it reads and writes only the slices in those columns,
+ * and only through the given {@code WorldProvider} (which is confined to those
+ * columns, and throws if asked for a slice outside them). It may then be
+ * invoked concurrently for disjoint ranges of columns of the same region.
+ * 
+ * <p>The {@link WorldGenerator} always runs column generators one column at a
+ * time, each with its own provider (and hence its own {@link
+ * WorldProvider#rnd() rnd}), whether it runs the columns serially or in
+ * parallel, so a region generates identically either way.
+ */
+public interface IColumnGenerator extends IWorldGenerator {
+    
+    /**
+     * Generates a range of columns of slices of a region.
+     * 
+     * @param r The region to generate.
+     * @param w WorldProvider confined to the columns being generated.
+     * @param seed The world seed.
+     * @param minX The region-relative x-coordinate of the first column of
+     * slices to generate.
+     * @param maxX The region-relative x-coordinate of the last column of
+     * slices to generate, exclusive.
+     */
+    @ThreadSafeMethod
+    void generateColumns(Region r, WorldProvider w, long seed, int minX, int maxX);
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>This generates every column of the region with the given provider.
+     */
+    @Override
+    default void generate(Region r, WorldProvider w, long seed) {
+        generateColumns(r, w, seed, 0, Region.REGION_SIZE);
+    }
+    
+}
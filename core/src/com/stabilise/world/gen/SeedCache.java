@@ -0,0 +1,61 @@
+package com.stabilise.world.gen;
+
+import java.util.Objects;
+import java.util.function.LongFunction;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Holds an object derived from the world seed, such as the noise an {@link
+ * IWorldGenerator} samples, so that a generator shared between worker
+ * threads can build it once and reuse it for every region rather than
+ * rebuilding it in every {@code generate()} call.
+ * 
+ * <p>As generators receive the seed with each region rather than at
+ * construction, the object is built lazily from the first seed seen, and
+ * rebuilt should a different seed be given. The object must be safe to
+ * share between threads, as it is handed to every caller; should several
+ * threads race to build it, each simply builds its own, and all but one
+ * copy is discarded.
+ */
+@ThreadSafe
+public final class SeedCache<T> {
+    
+    private final LongFunction<T> factory;
+    private volatile Entry<T> entry = null;
+    
+    
+    /**
+     * @param factory The function which creates the object for a given
+     * seed.
+     * 
+     * @throws NullPointerException if {@code factory} is null.
+     */
+    public SeedCache(LongFunction<T> factory) {
+        this.factory = Objects.requireNonNull(factory);
+    }
+    
+    /**
+     * Gets the object for the given seed, creating it if necessary.
+     */
+    public T get(long seed) {
+        Entry<T> e = entry;
+        if(e == null || e.seed != seed)
+            entry = e = new Entry<>(seed, factory.apply(seed));
+        return e.value;
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    private static final class Entry<T> {
+        private final long seed;
+        private final T value;
+        private Entry(long seed, T value) {
+            this.seed = seed;
+            this.value = value;
+        }
+    }
+    
+}
@@ -3,12 +3,14 @@ package com.stabilise.world.gen;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import javax.annotation.concurrent.ThreadSafe;
 
+import com.stabilise.core.Constants;
 import com.stabilise.util.Log;
 import com.stabilise.util.TaskTimer;
 import com.stabilise.util.annotation.ThreadUnsafeMethod;
@@ -30,6 +32,12 @@ import com.stabilise.world.dimension.Dimension;
  * <p>Note that the generation of a region <em>always</em> comes after a load
  * of that region (whether anything was loaded or not), and thus every part of
  * the load process <i>happens-before</i> generation.
+ * 
+ * <p>Generators run one after another, but a generator which is an {@link
+ * IColumnGenerator} may additionally have its columns generated in parallel
+ * on the common {@link ForkJoinPool} (see {@link #setParallel(boolean)}). This
+ * cuts the latency of generating any single region, which matters most when
+ * a player is waiting on it, e.g. after a teleport.
  */
 @ThreadSafe
 public final class WorldGenerator {
@@ -39,7 +47,6 @@ public final class WorldGenerator {
      * determines what's generated. */
     private final long seed;
     
-    private final Executor executor;
     /** If true, any pending generation requests will abort before starting.
      * In-progress generation operations will be allowed to complete. This is =
      * volatile. */
@@ -50,6 +57,8 @@ public final class WorldGenerator {
     
     /** These generators are what actually generate the terrain of each region. */
     private final List<Supplier<IWorldGenerator>> generators = new ArrayList<>(1);
+    /** Whether column generators should be run in parallel. */
+    private volatile boolean parallel = Constants.PARALLEL_REGION_GEN;
     
     
     final Log log;
@@ -63,7 +72,6 @@ public final class WorldGenerator {
      */
     public WorldGenerator(HostWorld world, RegionStore regionStore) {
         this.world = Objects.requireNonNull(world);
-        this.executor = world.multiverse().getExecutor();
         this.regionStore = regionStore;
         
         seed = world.multiverse().getSeed();
@@ -92,6 +100,17 @@ public final class WorldGenerator {
         generators.add(generator);
     }
     
+    /**
+     * Sets whether {@link IColumnGenerator column generators} should have
+     * the columns of each region generated in parallel. This takes effect
+     * from the next region to begin generating. Regions generate identically
+     * either way. The default is {@link Constants#PARALLEL_REGION_GEN}.
+     */
+    @UserThread("Any")
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+    
     /**
      * Instructs the WorldGenerator to generate the given region. This method
      * does nothing if it's unable to acquire a {@link
@@ -99,7 +118,7 @@ public final class WorldGenerator {
      * 
      * @param r The region to generate.
      * @param useCurrentThread true to generate on the current thread, false to
-     * spawn a worker thread.
+     * queue generation with the world's {@link RegionScheduler}.
      * @param callback The function to call once generation is completed.
      * 
      * @throws NullPointerException if {@code region} is {@code null}.
@@ -110,7 +129,8 @@ public final class WorldGenerator {
         if(useCurrentThread)
             genRegion(r, callback);
         else
-            executor.execute(() -> genRegion(r, callback));
+            // Generation is never cancelled, so don't offer it
+            regionStore.scheduler.submit(r, false, () -> genRegion(r, callback));
     }
     
     /**
@@ -140,15 +160,28 @@ public final class WorldGenerator {
                 r.initSlices();
                 
                 GenProvider prov = new GenProvider(world, r, seed);
+                boolean parallel = this.parallel;
                 // Generate the region, as per the generators
-                generators.forEach(g -> g.get().generate(r, prov, seed));
+                for(Supplier<IWorldGenerator> supplier : generators) {
+                    IWorldGenerator g = supplier.get();
+                    long start = System.nanoTime();
+                    run(g, world, r, seed, prov, parallel);
+                    world.stats.genTimes.record(g.getClass().getSimpleName(),
+                            System.nanoTime() - start);
+                }
             }
             
             // After normal generation processes have been completed, add any
             // queued structures.
             r.implantStructures(regionStore);
+            // Being generated is itself something to be saved.
+            r.markDirty();
             
+            long start = System.nanoTime();
             r.forEachSlice(Slice::buildLight); // TODO: temporary
+            world.stats.genTimes.record("Lighting", System.nanoTime() - start);
+            if(Constants.COMPACT_SLICES)
+                r.forEachSlice(Slice::compact);
             
             timer.stop();
             if(!alreadyGenerated)
@@ -182,4 +215,94 @@ public final class WorldGenerator {
         isShutdown = true;
     }
     
+    /**
+     * Runs a generator over a region. An {@link IColumnGenerator} is run one
+     * column at a time, each with its own provider, either serially or in
+     * parallel.
+     * 
+     * @param prov The provider for the whole region, which is given to
+     * generators which aren't column generators.
+     */
+    private static void run(IWorldGenerator g, HostWorld world, Region r, long seed,
+            GenProvider prov, boolean parallel) {
+        if(!(g instanceof IColumnGenerator))
+            g.generate(r, prov, seed);
+        else if(parallel)
+            ForkJoinPool.commonPool().invoke(new ColumnTask((IColumnGenerator)g,
+                    world, r, seed, 0, Region.REGION_SIZE));
+        else
+            for(int x = 0; x < Region.REGION_SIZE; x++)
+                genColumn((IColumnGenerator)g, world, r, seed, x);
+    }
+    
+    private static void genColumn(IColumnGenerator g, HostWorld world, Region r, long seed, int x) {
+        g.generateColumns(r, new GenProvider(world, r, seed, x, x+1), seed, x, x+1);
+    }
+    
+    /**
+     * Generates a free-standing region which does not belong to any world,
+     * as {@link #generate(Region, boolean, RegionCallback) generate()} would
+     * with the given generators. Structures are not implanted, as there is no
+     * world for them to spill into. This is intended for tools and tests which
+     * want realistic terrain without running a world.
+     */
+    public static void generateDetached(Region r, long seed, IWorldGenerator... generators) {
+        generateDetached(r, seed, false, generators);
+    }
+    
+    /**
+     * As {@link #generateDetached(Region, long, IWorldGenerator...)}, but
+     * with the option of running column generators in parallel.
+     */
+    public static void generateDetached(Region r, long seed, boolean parallel,
+            IWorldGenerator... generators) {
+        r.initSlices();
+        GenProvider prov = new GenProvider(null, r, seed);
+        for(IWorldGenerator g : generators)
+            run(g, null, r, seed, prov, parallel);
+        r.forEachSlice(Slice::buildLight);
+        if(Constants.COMPACT_SLICES)
+            r.forEachSlice(Slice::compact);
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * Generates a range of columns of a region by splitting it in half until
+     * each task has a single column.
+     */
+    @SuppressWarnings("serial")
+    private static class ColumnTask extends RecursiveAction {
+        
+        private final IColumnGenerator g;
+        private final HostWorld world;
+        private final Region r;
+        private final long seed;
+        private final int minX, maxX;
+        
+        private ColumnTask(IColumnGenerator g, HostWorld world, Region r, long seed,
+                int minX, int maxX) {
+            this.g = g;
+            this.world = world;
+            this.r = r;
+            this.seed = seed;
+            this.minX = minX;
+            this.maxX = maxX;
+        }
+        
+        @Override
+        protected void compute() {
+            if(maxX - minX == 1) {
+                genColumn(g, world, r, seed, minX);
+            } else {
+                int mid = (minX + maxX) >>> 1;
+                invokeAll(new ColumnTask(g, world, r, seed, minX, mid),
+                        new ColumnTask(g, world, r, seed, mid, maxX));
+            }
+        }
+        
+    }
+    
 }
@@ -26,4 +26,13 @@ public abstract class Action implements Exportable {
         return a;
     }
     
+    /**
+     * Writes an action such that it may be {@link #read(DataCompound) read}
+     * back.
+     */
+    public static void write(Action a, DataCompound c) {
+        c.put("id", (byte)registry.getID(a.getClass()));
+        a.exportToCompound(c);
+    }
+    
 }
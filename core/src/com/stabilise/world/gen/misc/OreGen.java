@@ -10,6 +10,7 @@ import com.stabilise.world.Region;
 import com.stabilise.world.Slice;
 import com.stabilise.world.WorldProvider;
 import com.stabilise.world.gen.IWorldGenerator;
+import com.stabilise.world.gen.SeedCache;
 import com.stabilise.world.tile.Tiles;
 
 /**
@@ -18,6 +19,13 @@ import com.stabilise.world.tile.Tiles;
 public class OreGen implements IWorldGenerator {
     
     private final int n;
+    private final SeedCache<OctaveNoise> noise = new SeedCache<>(seed -> {
+        long mix = 0xf1d4c49b0ac04506L;
+        return OctaveNoise.simplex(seed^mix)
+                .addOctave(32, 4)
+                .addOctave(8,  1)
+                .normalise();
+    });
     
     /**
      * @param n The inverse chance of an ore vein generating in a slice. That
@@ -31,11 +39,7 @@ public class OreGen implements IWorldGenerator {
     
     @Override
     public void generate(Region r, WorldProvider w, long seed) {
-        long mix = 0xf1d4c49b0ac04506L;
-        OctaveNoise noise = OctaveNoise.simplex(seed^mix)
-                .addOctave(32, 4)
-                .addOctave(8,  1)
-                .normalise();
+        OctaveNoise noise = this.noise.get(seed);
         r.forEachSlice(s -> { if(w.chance(n)) addOreVein(s,w,noise); });
     }
     
@@ -1,6 +1,7 @@
 package com.stabilise.world.gen.terrain;
 
 import static com.stabilise.world.Region.REGION_SIZE_IN_TILES;
+import static com.stabilise.world.Slice.SLICE_SIZE;
 import static com.stabilise.world.tile.Tiles.air;
 import static com.stabilise.world.tile.Tiles.lava;
 
@@ -8,41 +9,53 @@ import com.stabilise.entity.Position;
 import com.stabilise.util.maths.OctaveNoise;
 import com.stabilise.world.Region;
 import com.stabilise.world.WorldProvider;
-import com.stabilise.world.gen.IWorldGenerator;
+import com.stabilise.world.gen.IColumnGenerator;
+import com.stabilise.world.gen.SeedCache;
 
 
-public class CaveGen implements IWorldGenerator {
+public class CaveGen implements IColumnGenerator {
     
-    @Override
-    public void generate(Region r, WorldProvider w, long seed) {
-        long mix1 = 0xd74a9ad1417d79a0L;
-        long mix2 = 0x7227bebc43323e77L;
-        
-        OctaveNoise caveNoise = OctaveNoise.simplex(seed^mix1)
+    private final SeedCache<OctaveNoise> caveNoise = new SeedCache<>(seed -> {
+        long mix = 0xd74a9ad1417d79a0L;
+        return OctaveNoise.simplex(seed^mix)
                 .addOctave(128, 2)
                 .addOctave(64,  8)
                 .addOctave(32,  4)
                 .addOctave(16,  1)
                 .normalise();
-        OctaveNoise maskNoise = OctaveNoise.simplex(seed^mix2)
+    });
+    private final SeedCache<OctaveNoise> maskNoise = new SeedCache<>(seed -> {
+        long mix = 0x7227bebc43323e77L;
+        return OctaveNoise.simplex(seed^mix)
                 .addOctave(2048, 1)
                 .addOctave(512,  1)
                 .normalise();
-        
+    });
+    
+    @Override
+    public void generateColumns(Region r, WorldProvider w, long seed, int minX, int maxX) {
         Position pos = Position.createFixed();
         
-        int tileOffX = r.x() * REGION_SIZE_IN_TILES;
+        int width = (maxX - minX) * SLICE_SIZE;
+        int tileOffX = r.x() * REGION_SIZE_IN_TILES + minX * SLICE_SIZE;
         int tileOffY = r.y() * REGION_SIZE_IN_TILES;
         
-        for(int y = 0, ty = tileOffY; y < REGION_SIZE_IN_TILES; y++, ty++) {
-            for(int x = 0, tx = tileOffX; x < REGION_SIZE_IN_TILES; x++, tx++) {
+        // Sampling all our columns at once lets each octave generate each of
+        // its gradients only once.
+        float[] caves = new float[width * REGION_SIZE_IN_TILES];
+        float[] masks = new float[width * REGION_SIZE_IN_TILES];
+        caveNoise.get(seed).fill2D(caves, tileOffX, tileOffY, width, REGION_SIZE_IN_TILES);
+        maskNoise.get(seed).fill2D(masks, tileOffX, tileOffY, width, REGION_SIZE_IN_TILES);
+        
+        for(int y = 0, ty = tileOffY, i = 0; y < REGION_SIZE_IN_TILES; y++, ty++) {
+            for(int x = 0, tx = tileOffX; x < width; x++, tx++, i++) {
                 pos.set(tx, ty);
                 
-                float cave = caveNoise.noise(tx, ty);
+                float cave = caves[i];
                 // This should produce varying cave types across the world as
                 // the noise forms characteristically different contours at
                 // different points between 0.25-0.75.
-                float caveMask = 0.25f + transformCaveMask(maskNoise.noise(tx,ty))/2;
+                float caveMask = 0.25f + transformCaveMask(masks[i])/2;
                 
                 // Multiply caveNoise or caveMask by 0 to 1 based on the depth
                 // to try to deter a great multitude of surface cave entrances
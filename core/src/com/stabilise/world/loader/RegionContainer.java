@@ -0,0 +1,384 @@
+package com.stabilise.world.loader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.BitSet;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.world.Region;
+
+/**
+ * A RegionContainer is a single file which holds the saved data of a square
+ * group of {@link #GROUP_SIZE}x{@link #GROUP_SIZE} regions. Each region is
+ * stored as {@link #ENTRIES_PER_REGION} separate <i>entries</i>: one {@link
+ * #META_ENTRY metadata entry}, plus one entry for each of its slices (see
+ * {@link #sliceEntry(int, int)}). Each entry is an opaque blob of bytes which
+ * may be read, written or mapped on its own, without touching any other entry
+ * in the file.
+ * 
+ * <p>The file is laid out as follows:
+ * 
+ * <pre>
+ * [ magic (4) | container version (4) | reserved (8) ]
+ * [ entry table: REGIONS_PER_CONTAINER * ENTRIES_PER_REGION * (sector (4) | length (4)) ]
+ * [ data sectors ... ]
+ * </pre>
+ * 
+ * The entry table is memory-mapped. Entry data is allocated in units of
+ * {@link #SECTOR_SIZE} bytes, from the first run of free sectors long enough
+ * to hold it, or else from the end of the file. A sector index of 0 denotes
+ * an absent entry.
+ * 
+ * <p>An entry is never overwritten in place. Writing an entry writes its data
+ * to free sectors, and only then points the entry table at them. The sectors
+ * it replaces aren't reused until the next {@link #flush()} has made the new
+ * entry table durable, so the table on disk only ever points at intact data,
+ * and a crash mid-write leaves an entry pointing at its old data. Callers who
+ * care about the entries of a region being consistent with one another should
+ * write the {@link #META_ENTRY} last, as {@link RegionContainerStorage} does.
+ * 
+ * <p>This class is thread-safe, but it is assumed that any single region is
+ * only being read or written by one thread at a time (which {@link
+ * com.stabilise.world.RegionStore RegionStore} guarantees).
+ */
+@ThreadSafe
+public class RegionContainer implements Closeable {
+    
+    /** log2 of {@link #GROUP_SIZE}. */
+    public static final int GROUP_SHIFT = 2;
+    /** The length of an edge of the square of regions in a container. */
+    public static final int GROUP_SIZE = 1 << GROUP_SHIFT;
+    /** The number of regions in a container. */
+    public static final int REGIONS_PER_CONTAINER = GROUP_SIZE * GROUP_SIZE;
+    
+    /** The entry which holds a region's metadata. */
+    public static final int META_ENTRY = 0;
+    /** The number of entries per region: one for the metadata plus one per
+     * slice. */
+    public static final int ENTRIES_PER_REGION = 1 + Region.REGION_SIZE * Region.REGION_SIZE;
+    
+    /** The granularity of data allocation, in bytes. */
+    public static final int SECTOR_SIZE = 512;
+    
+    private static final int MAGIC = 0x53524743; // "SRGC"
+    private static final int CONTAINER_VERSION = 1;
+    private static final int PREAMBLE_BYTES = 16;
+    private static final int ENTRY_BYTES = 8;
+    private static final int HEADER_BYTES = PREAMBLE_BYTES
+            + REGIONS_PER_CONTAINER * ENTRIES_PER_REGION * ENTRY_BYTES;
+    /** The first sector available for data. */
+    private static final int FIRST_SECTOR = sectorsFor(HEADER_BYTES);
+    
+    
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    /** The preamble and entry table. */
+    @GuardedBy("this") private final MappedByteBuffer header;
+    /** The first sector past the end of the file, in terms of allocation. */
+    @GuardedBy("this") private int nextSector;
+    /** Sectors which are in use by the entry table, or which have been
+     * allocated to a write in progress. */
+    @GuardedBy("this") private final BitSet used = new BitSet();
+    /** Sectors which the entry table stopped using since the last flush.
+     * These remain set in {@link #used} until the flush. */
+    @GuardedBy("this") private final BitSet released = new BitSet();
+    @GuardedBy("this") private boolean closed = false;
+    
+    
+    /**
+     * Opens a container file, creating it if it doesn't exist.
+     * 
+     * @throws IOException if the file could not be opened or created, or if
+     * it exists but is not a valid container.
+     */
+    public RegionContainer(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        
+        try {
+            boolean create = raf.length() == 0;
+            if(create)
+                raf.setLength((long)FIRST_SECTOR * SECTOR_SIZE);
+            
+            header = channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+            
+            if(create) {
+                header.putInt(0, MAGIC);
+                header.putInt(4, CONTAINER_VERSION);
+            } else {
+                if(header.getInt(0) != MAGIC)
+                    throw new IOException(file + " is not a region container");
+                if(header.getInt(4) != CONTAINER_VERSION)
+                    throw new IOException("Unsupported region container version "
+                            + header.getInt(4) + " in " + file);
+            }
+            
+            nextSector = Math.max(FIRST_SECTOR,
+                    (int)((raf.length() + SECTOR_SIZE - 1) / SECTOR_SIZE));
+            
+            // Whatever the table doesn't point at is free
+            used.set(0, FIRST_SECTOR);
+            for(int t = PREAMBLE_BYTES; t < HEADER_BYTES; t += ENTRY_BYTES) {
+                int sector = header.getInt(t);
+                if(sector != 0)
+                    used.set(sector, sector + sectorsFor(header.getInt(t + 4)));
+            }
+        } catch(IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Returns {@code true} if the specified entry exists.
+     * 
+     * @param region The index of the region; see {@link #regionIndex(int,
+     * int)}.
+     * @param entry The entry; either {@link #META_ENTRY} or one of {@link
+     * #sliceEntry(int, int)}.
+     * 
+     * @throws IndexOutOfBoundsException if either index is out of bounds.
+     */
+    public synchronized boolean has(int region, int entry) {
+        return header.getInt(tableOffset(region, entry)) != 0;
+    }
+    
+    /**
+     * Reads the specified entry.
+     * 
+     * @return The entry's data, or {@code null} if the entry does not exist.
+     * @throws IndexOutOfBoundsException if either index is out of bounds.
+     * @throws IOException if an I/O error occurs.
+     */
+    public byte[] read(int region, int entry) throws IOException {
+        ByteBuffer buf = read(region, entry, null);
+        return buf == null ? null : buf.array();
+    }
+    
+    /**
+     * Reads the specified entry into a heap buffer, reusing {@code dst} if it
+     * is large enough.
+     * 
+     * @param dst The buffer to try to read into. May be {@code null}.
+     * 
+     * @return {@code dst}, or a new buffer if {@code dst} was too small,
+     * holding the entry's data between position 0 and its limit; or {@code
+     * null} if the entry does not exist.
+     * @throws IndexOutOfBoundsException if either index is out of bounds.
+     * @throws IOException if an I/O error occurs.
+     */
+    public ByteBuffer read(int region, int entry, ByteBuffer dst) throws IOException {
+        int sector, length;
+        synchronized(this) {
+            int t = tableOffset(region, entry);
+            sector = header.getInt(t);
+            length = header.getInt(t + 4);
+        }
+        if(sector == 0)
+            return null;
+        
+        if(dst == null || dst.capacity() < length)
+            dst = ByteBuffer.allocate(length);
+        dst.clear().limit(length);
+        long pos = (long)sector * SECTOR_SIZE;
+        while(dst.hasRemaining()) {
+            int n = channel.read(dst, pos + dst.position());
+            if(n < 0)
+                throw new EOFException("Truncated entry " + region + ":" + entry + " in " + file);
+        }
+        dst.flip();
+        return dst;
+    }
+    
+    /**
+     * Memory-maps the specified entry, read-only. Note that mappings are not
+     * released until they are garbage collected, so on some platforms this
+     * file may not be able to be deleted or renamed until then.
+     * 
+     * @return The mapped entry, or {@code null} if the entry does not exist.
+     * @throws IndexOutOfBoundsException if either index is out of bounds.
+     * @throws IOException if an I/O error occurs.
+     */
+    public MappedByteBuffer map(int region, int entry) throws IOException {
+        int sector, length;
+        synchronized(this) {
+            int t = tableOffset(region, entry);
+            sector = header.getInt(t);
+            length = header.getInt(t + 4);
+        }
+        if(sector == 0)
+            return null;
+        return channel.map(MapMode.READ_ONLY, (long)sector * SECTOR_SIZE, length);
+    }
+    
+    /**
+     * Writes the specified entry, replacing any existing data.
+     * 
+     * @param data The data. This is not retained.
+     * @param length The number of bytes of {@code data} to write. Must be
+     * positive.
+     * 
+     * @throws IndexOutOfBoundsException if either index is out of bounds.
+     * @throws IllegalArgumentException if {@code length <= 0}.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(int region, int entry, byte[] data, int length) throws IOException {
+        if(length <= 0)
+            throw new IllegalArgumentException("Entries must be non-empty");
+        
+        int sectors = sectorsFor(length);
+        int t = tableOffset(region, entry);
+        int sector = allocate(sectors);
+        
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+        long pos = (long)sector * SECTOR_SIZE;
+        try {
+            while(buf.hasRemaining())
+                channel.write(buf, pos + buf.position());
+        } catch(IOException | RuntimeException e) {
+            synchronized(this) {
+                used.clear(sector, sector + sectors);
+            }
+            throw e;
+        }
+        
+        synchronized(this) {
+            release(t);
+            header.putInt(t, sector);
+            header.putInt(t + 4, length);
+        }
+    }
+    
+    /**
+     * Removes the specified entry. Its sectors are freed once the removal has
+     * been {@link #flush() flushed}.
+     * 
+     * @throws IndexOutOfBoundsException if either index is out of bounds.
+     */
+    public synchronized void remove(int region, int entry) {
+        int t = tableOffset(region, entry);
+        release(t);
+        header.putInt(t, 0);
+        header.putInt(t + 4, 0);
+    }
+    
+    /**
+     * Allocates a run of free sectors.
+     * 
+     * @return The first sector of the run.
+     */
+    private synchronized int allocate(int sectors) {
+        int sector = FIRST_SECTOR;
+        while(true) {
+            sector = used.nextClearBit(sector);
+            if(sector >= nextSector) {
+                sector = nextSector;
+                break;
+            }
+            int end = used.nextSetBit(sector);
+            if(end < 0 || end >= nextSector || end - sector >= sectors)
+                break; // the run is long enough, or runs into the end
+            sector = end;
+        }
+        used.set(sector, sector + sectors);
+        nextSector = Math.max(nextSector, sector + sectors);
+        return sector;
+    }
+    
+    /**
+     * Releases the sectors of the entry at the given table offset, to be
+     * freed at the next flush.
+     */
+    @GuardedBy("this")
+    private void release(int t) {
+        int sector = header.getInt(t);
+        if(sector != 0)
+            released.set(sector, sector + sectorsFor(header.getInt(t + 4)));
+    }
+    
+    /**
+     * Forces any changes to this container out to disk. Entry data is forced
+     * out before the entry table, so that the table on disk never points at
+     * data which isn't. Does nothing if this container has been closed.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void flush() throws IOException {
+        if(closed)
+            return;
+        channel.force(false);
+        header.force();
+        // Nothing on disk points at released sectors any more
+        used.andNot(released);
+        released.clear();
+    }
+    
+    /**
+     * Flushes and closes this container. Does nothing if this container has
+     * already been closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed)
+            return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            raf.close();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "RegionContainer[" + file.getName() + "]";
+    }
+    
+    private static int tableOffset(int region, int entry) {
+        if(region < 0 || region >= REGIONS_PER_CONTAINER)
+            throw new IndexOutOfBoundsException("region " + region);
+        if(entry < 0 || entry >= ENTRIES_PER_REGION)
+            throw new IndexOutOfBoundsException("entry " + entry);
+        return PREAMBLE_BYTES + (region * ENTRIES_PER_REGION + entry) * ENTRY_BYTES;
+    }
+    
+    private static int sectorsFor(int bytes) {
+        return (bytes + SECTOR_SIZE - 1) / SECTOR_SIZE;
+    }
+    
+    /**
+     * Returns the coordinate of the container holding the region with the
+     * given coordinate.
+     */
+    public static int containerCoord(int regionCoord) {
+        return regionCoord >> GROUP_SHIFT;
+    }
+    
+    /**
+     * Returns the index within its container of the region at the given
+     * coordinates, in region-lengths.
+     */
+    public static int regionIndex(int regionX, int regionY) {
+        return ((regionY & (GROUP_SIZE - 1)) << GROUP_SHIFT) | (regionX & (GROUP_SIZE - 1));
+    }
+    
+    /**
+     * Returns the entry which holds the slice at the given coordinates
+     * relative to its region.
+     */
+    public static int sliceEntry(int sliceX, int sliceY) {
+        return 1 + sliceY * Region.REGION_SIZE + sliceX;
+    }
+    
+}
@@ -0,0 +1,535 @@
+package com.stabilise.world.loader;
+
+import static com.stabilise.world.Region.REGION_SIZE;
+import static com.stabilise.world.loader.RegionContainer.META_ENTRY;
+import static com.stabilise.world.loader.RegionContainer.containerCoord;
+import static com.stabilise.world.loader.RegionContainer.regionIndex;
+import static com.stabilise.world.loader.RegionContainer.sliceEntry;
+import static com.stabilise.world.loader.WorldLoader.REGION_FORMAT;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.util.io.DataInStream;
+import com.stabilise.util.io.DataOutStream;
+import com.stabilise.util.io.IOUtil;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.io.data.IData;
+import com.stabilise.util.maths.Point;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.loader.impl.BaseRegionLoader;
+
+/**
+ * The storage for world format version 2, wherein regions are grouped into
+ * {@link RegionContainer}s ({@code c_x_y.regions}), and each slice of a region
+ * is saved as its own entry so that it may be read or rewritten without
+ * touching the rest of the region.
+ * 
+ * <p>The region's compound (i.e. everything the IRegionLoaders save, minus
+ * the slices) is saved as the region's {@link RegionContainer#META_ENTRY meta
+ * entry}. This is always written after the slices, so a region whose meta
+ * entry exists has had all of its slices written at least once.
+ * 
+ * <p>Each entry is prefixed by the {@link Compression#id() ID} of the
+ * compression format it was written with, and is read back with that
+ * format. New entries are written using the storage's configured format, so
+ * changing a world's format takes effect gradually as regions are saved, or
+ * all at once with {@link #recompressDir(FileHandle, Compression)}.
+ * 
+ * <p>Slices are saved incrementally: a slice which hasn't changed since it
+ * was loaded from or last saved to its container (see {@link
+ * Slice#needsSave()}) already has a current entry, so it isn't re-encoded or
+ * rewritten. Slices loaded from a version 1 file have no entry yet, and so
+ * are left dirty.
+ * 
+ * <p>If a region is not present in its container, this falls back to reading
+ * its version 1 file (see {@link RegionFileStorage}), if one exists. The old
+ * file is deleted once the region has been saved in the new format. This
+ * means a world upgraded by {@link WorldFormat#migrate(com.stabilise.world.WorldInfo)
+ * WorldFormat.migrate()} which failed partway through is still loaded
+ * correctly.
+ * 
+ * <p>At most {@link #MAX_OPEN_CONTAINERS} containers are kept open at once;
+ * beyond that, the least recently used container which isn't being read or
+ * written is flushed and closed.
+ */
+public class RegionContainerStorage implements RegionStorage {
+    
+    private static final Pattern LEGACY_FILE = Pattern.compile("r_(-?\\d+)_(-?\\d+)\\.region");
+    
+    /** The most containers to keep open at once. Each holds a file
+     * descriptor and a mapped entry table. */
+    public static final int MAX_OPEN_CONTAINERS = 64;
+    
+    private final FileHandle dir;
+    /** The compression format with which to write new entries. */
+    private final Compression compression;
+    /** Open containers, keyed by container coordinates, in order of least
+     * to most recently used. */
+    @GuardedBy("containers")
+    private final LinkedHashMap<Point, OpenContainer> containers =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** Containers written to since they were last flushed. */
+    private final Set<RegionContainer> unflushed = ConcurrentHashMap.newKeySet();
+    private final LongAdder bytesWritten = new LongAdder();
+    
+    /** Reusable buffers for each thread which uses any storage. */
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+    
+    
+    /**
+     * @param dir The dimension directory.
+     * @param compression The compression format with which to write new
+     * entries.
+     * 
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    public RegionContainerStorage(FileHandle dir, Compression compression) {
+        this.dir = Objects.requireNonNull(dir);
+        this.compression = Objects.requireNonNull(compression);
+    }
+    
+    @Override
+    public DataCompound load(Region r) throws IOException {
+        try(OpenContainer open = openContainer(r.x(), r.y(), false)) {
+            if(open == null)
+                return loadLegacy(r);
+            RegionContainer container = open.container;
+            
+            int idx = regionIndex(r.x(), r.y());
+            Buffers buf = BUFFERS.get();
+            if(!buf.read(container, idx, META_ENTRY))
+                return loadLegacy(r);
+            
+            DataCompound c = REGION_FORMAT.read(buf.decode());
+            if(c.optBool("generated").orElse(false)) {
+                for(int y = 0; y < REGION_SIZE; y++) {
+                    for(int x = 0; x < REGION_SIZE; x++) {
+                        if(!buf.read(container, idx, sliceEntry(x, y)))
+                            throw new IOException("Missing slice " + x + "," + y + " of " + r);
+                        r.slices[y][x] = SliceCodec.read(r, x, y, buf.decode());
+                        r.slices[y][x].clearDirty(); // matches its entry
+                    }
+                }
+            }
+            return c;
+        }
+    }
+    
+    /**
+     * Reads a region from its version 1 file.
+     */
+    private DataCompound loadLegacy(Region r) throws IOException {
+        FileHandle file = RegionFileStorage.getFile(dir, r.x(), r.y());
+        if(!file.exists())
+            return null;
+        DataCompound c = IOUtil.read(file, REGION_FORMAT, RegionFileStorage.COMPRESSION);
+        boolean generated = c.optBool("generated").orElse(false);
+        new BaseRegionLoader().load(r, c, generated);
+        return c;
+    }
+    
+    /**
+     * Reads a single slice of a saved region without reading the rest of the
+     * region.
+     * 
+     * @param r The region. Its slices are not modified.
+     * @param x The x-coordinate of the slice relative to the region.
+     * @param y The y-coordinate of the slice relative to the region.
+     * 
+     * @return The slice, or {@code null} if the region has not been saved in
+     * a container, or has not been generated.
+     * @throws IOException if an I/O error occurs.
+     */
+    public Slice loadSlice(Region r, int x, int y) throws IOException {
+        try(OpenContainer open = openContainer(r.x(), r.y(), false)) {
+            if(open == null)
+                return null;
+            Buffers buf = BUFFERS.get();
+            if(!buf.read(open.container, regionIndex(r.x(), r.y()), sliceEntry(x, y)))
+                return null;
+            return SliceCodec.read(r, x, y, buf.decode());
+        }
+    }
+    
+    @Override
+    public int save(Region r, DataCompound c, boolean generated) throws IOException {
+        int written;
+        try(OpenContainer open = openContainer(r.x(), r.y(), true)) {
+            written = save(open.container, r, c, generated);
+        }
+        
+        FileHandle legacy = RegionFileStorage.getFile(dir, r.x(), r.y());
+        if(legacy.exists())
+            legacy.delete();
+        
+        return written;
+    }
+    
+    private int save(RegionContainer container, Region r, DataCompound c,
+            boolean generated) throws IOException {
+        int idx = regionIndex(r.x(), r.y());
+        
+        Buffers buf = BUFFERS.get();
+        int written = 0;
+        
+        if(generated) {
+            try {
+                for(int y = 0; y < REGION_SIZE; y++) {
+                    for(int x = 0; x < REGION_SIZE; x++) {
+                        Slice s = r.slices[y][x];
+                        if(!s.needsSave())
+                            continue; // its entry is current
+                        s.clearDirty();
+                        SliceCodec.write(s, buf.beginEncode());
+                        bytesWritten.add(buf.finishEncode(container, idx, sliceEntry(x, y), compression));
+                        written++;
+                    }
+                }
+            } catch(IOException | RuntimeException e) {
+                // We can't be sure which entries made it, so conservatively
+                // have every slice rewritten next time.
+                r.forEachSlice(s -> s.markDirty(Slice.DIRTY_ALL));
+                throw e;
+            }
+        }
+        
+        REGION_FORMAT.write(buf.beginEncode(), c);
+        bytesWritten.add(buf.finishEncode(container, idx, META_ENTRY, compression));
+        unflushed.add(container);
+        
+        return written;
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        for(RegionContainer c : unflushed) {
+            // Removed first, so that a write made during the flush sees to
+            // it that the container is flushed again next time.
+            unflushed.remove(c);
+            c.flush();
+        }
+    }
+    
+    @Override
+    public long bytesWritten() {
+        return bytesWritten.sum();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        unflushed.clear();
+        IOException ex = null;
+        synchronized(containers) {
+            for(OpenContainer open : containers.values()) {
+                try {
+                    open.container.close();
+                } catch(IOException e) {
+                    if(ex == null)
+                        ex = e;
+                    else
+                        ex.addSuppressed(e);
+                }
+            }
+            containers.clear();
+        }
+        if(ex != null)
+            throw ex;
+    }
+    
+    /**
+     * Opens the container for the region at the given coordinates, in
+     * region-lengths, for the duration of a read or write. The container is
+     * not closed until the returned handle is, and hasn't been used for a
+     * while.
+     * 
+     * @param create Whether to create the container if it does not exist.
+     * 
+     * @return The container, or {@code null} if {@code create} is false and
+     * the container does not exist.
+     * @throws IOException if the container could not be opened.
+     */
+    private OpenContainer openContainer(int rx, int ry, boolean create) throws IOException {
+        Point p = Region.createImmutableLoc(containerCoord(rx), containerCoord(ry));
+        synchronized(containers) {
+            OpenContainer open = containers.get(p);
+            if(open == null) {
+                FileHandle file = getContainerFile(dir, p.x(), p.y());
+                if(!create && !file.exists())
+                    return null;
+                if(create)
+                    IOUtil.createParentDir(file);
+                open = new OpenContainer(new RegionContainer(file.file()));
+                containers.put(p, open);
+            }
+            open.users++;
+            try {
+                evictContainers();
+            } catch(IOException e) {
+                open.users--;
+                throw e;
+            }
+            return open;
+        }
+    }
+    
+    /**
+     * Closes the least recently used containers which aren't in use until
+     * no more than {@link #MAX_OPEN_CONTAINERS} remain open, or there are no
+     * more which can be closed.
+     */
+    @GuardedBy("containers")
+    private void evictContainers() throws IOException {
+        Iterator<OpenContainer> itr = containers.values().iterator();
+        while(containers.size() > MAX_OPEN_CONTAINERS && itr.hasNext()) {
+            OpenContainer open = itr.next();
+            if(open.users == 0) {
+                itr.remove();
+                open.container.close(); // flushes it
+                unflushed.remove(open.container);
+            }
+        }
+    }
+    
+    /**
+     * Gets the container file with the given coordinates.
+     */
+    public static FileHandle getContainerFile(FileHandle dir, int cx, int cy) {
+        return dir.child("c_" + cx + "_" + cy + ".regions");
+    }
+    
+    /**
+     * Converts every version 1 region file in the given dimension directory
+     * into version 2 containers, deleting each region file once it has been
+     * converted.
+     * 
+     * @param compression The compression format to write the containers'
+     * entries with.
+     * 
+     * @return The number of regions converted.
+     * @throws IOException if an I/O error occurs. Regions which were
+     * converted before the error remain converted.
+     */
+    public static int migrateDir(FileHandle dir, Compression compression) throws IOException {
+        int count = 0;
+        try(RegionContainerStorage storage = new RegionContainerStorage(dir, compression)) {
+            for(FileHandle file : dir.list(".region")) {
+                Matcher m = LEGACY_FILE.matcher(file.name());
+                if(!m.matches())
+                    continue;
+                Region r = new Region(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)));
+                
+                DataCompound c = IOUtil.read(file, REGION_FORMAT, RegionFileStorage.COMPRESSION);
+                boolean generated = c.optBool("generated").orElse(false);
+                new BaseRegionLoader().load(r, c, generated);
+                
+                // Everything but the slices goes into the meta entry
+                DataCompound meta = REGION_FORMAT.newCompound();
+                for(Map.Entry<String, IData> e : c) {
+                    if(!e.getKey().startsWith("slice"))
+                        meta.putData(e.getKey(), e.getValue());
+                }
+                
+                storage.save(r, meta, generated); // this deletes the old file
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Rewrites every container in the given dimension directory such that all
+     * entries are compressed with the given format. Entries which already are
+     * are copied as-is. As containers are rewritten from scratch, this also
+     * trims any free sectors left between entries.
+     * 
+     * <p>No storage may have the directory open while this runs.
+     * 
+     * @return The total size of the containers before and after, in bytes.
+     * @throws IOException if an I/O error occurs. Containers which were
+     * rewritten before the error remain rewritten.
+     */
+    public static long[] recompressDir(FileHandle dir, Compression compression) throws IOException {
+        long before = 0, after = 0;
+        Buffers buf = BUFFERS.get();
+        for(FileHandle file : dir.list(".regions")) {
+            before += file.length();
+            IOUtil.safelySaveFile(file, tmp -> {
+                // Both are closed before the old file is replaced
+                try(RegionContainer in = new RegionContainer(file.file());
+                        RegionContainer out = new RegionContainer(tmp.file())) {
+                    for(int r = 0; r < RegionContainer.REGIONS_PER_CONTAINER; r++) {
+                        for(int e = 0; e < RegionContainer.ENTRIES_PER_REGION; e++) {
+                            if(!buf.read(in, r, e))
+                                continue;
+                            if(buf.compression() == compression)
+                                out.write(r, e, buf.packed.array(), buf.packed.limit());
+                            else {
+                                buf.decode();
+                                buf.finishEncode(out, r, e, compression);
+                            }
+                        }
+                    }
+                }
+            });
+            after += file.length();
+        }
+        return new long[] { before, after };
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * An open container, and the number of threads currently reading or
+     * writing it. Closing this releases it.
+     */
+    private class OpenContainer implements AutoCloseable {
+        
+        private final RegionContainer container;
+        @GuardedBy("containers") private int users = 0;
+        
+        private OpenContainer(RegionContainer container) {
+            this.container = container;
+        }
+        
+        @Override
+        public void close() {
+            synchronized(containers) {
+                users--;
+            }
+        }
+        
+    }
+    
+    /**
+     * Per-thread buffers which are reused for every entry, so that saving and
+     * loading a region allocates little beyond the slices themselves and the
+     * compression streams.
+     */
+    private static class Buffers {
+        
+        /** Holds an entry's uncompressed data. */
+        private final Bytes raw = new Bytes();
+        /** Holds an entry's compressed data, when encoding. */
+        private final Bytes compressed = new Bytes();
+        private final DataOutStream rawOut = new DataOutStream(raw);
+        
+        /** Holds an entry's compressed data, when decoding. */
+        private ByteBuffer packed;
+        private final BytesIn packedIn = new BytesIn();
+        private final BytesIn rawIn = new BytesIn();
+        private final DataInStream in = new DataInStream(rawIn);
+        private final byte[] chunk = new byte[4096];
+        
+        
+        /**
+         * Prepares to encode an entry, and returns the stream to write its
+         * uncompressed data to.
+         */
+        DataOutStream beginEncode() {
+            raw.reset();
+            return rawOut;
+        }
+        
+        /**
+         * Compresses the data written since {@link #beginEncode()} (or last
+         * {@link #decode() decoded}), and writes it to the given entry.
+         * 
+         * @return The number of bytes written.
+         */
+        int finishEncode(RegionContainer container, int region, int entry,
+                Compression compression) throws IOException {
+            compressed.reset();
+            compressed.write(compression.id());
+            try(OutputStream out = compression.wrap(compressed)) {
+                raw.writeTo(out);
+            }
+            container.write(region, entry, compressed.buf(), compressed.size());
+            return compressed.size();
+        }
+        
+        /**
+         * Reads an entry's compressed data into {@link #packed}.
+         * 
+         * @return {@code false} if the entry does not exist.
+         */
+        boolean read(RegionContainer container, int region, int entry) throws IOException {
+            ByteBuffer data = container.read(region, entry, packed);
+            if(data == null)
+                return false;
+            packed = data;
+            return true;
+        }
+        
+        /**
+         * Returns the compression format of the entry last {@link
+         * #read(RegionContainer, int, int) read}.
+         * 
+         * @throws IOException if the format is unknown.
+         */
+        Compression compression() throws IOException {
+            try {
+                return Compression.fromID(packed.get(0) & 0xFF);
+            } catch(IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        
+        /**
+         * Decompresses the entry last {@link #read(RegionContainer, int, int)
+         * read}, and returns the stream from which to read its data. The
+         * stream remains valid until the next invocation of this method.
+         */
+        DataInStream decode() throws IOException {
+            Compression compression = compression();
+            packedIn.set(packed.array(), 1, packed.limit());
+            raw.reset();
+            try(InputStream in = compression.wrap(packedIn)) {
+                int n;
+                while((n = in.read(chunk)) > 0)
+                    raw.write(chunk, 0, n);
+            }
+            rawIn.set(raw.buf(), 0, raw.size());
+            return in;
+        }
+        
+    }
+    
+    /** A ByteArrayOutputStream which exposes its buffer. */
+    private static class Bytes extends ByteArrayOutputStream {
+        Bytes() { super(4096); }
+        byte[] buf() { return buf; }
+    }
+    
+    /** A ByteArrayInputStream which may be pointed at a different array. */
+    private static class BytesIn extends ByteArrayInputStream {
+        BytesIn() { super(new byte[0]); }
+        void set(byte[] data, int offset, int end) {
+            buf = data;
+            pos = offset;
+            count = end;
+            mark = offset;
+        }
+    }
+    
+}
@@ -0,0 +1,76 @@
+package com.stabilise.world.loader;
+
+import static com.stabilise.world.Region.REGION_SIZE;
+import static com.stabilise.world.loader.WorldLoader.REGION_FORMAT;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.util.io.IOUtil;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.world.Region;
+
+/**
+ * The storage for world format version 1, wherein each region is saved in
+ * full as a single compressed compound in its own file ({@code
+ * r_x_y.region}). Slices are saved into that compound by {@link
+ * com.stabilise.world.loader.impl.BaseRegionLoader BaseRegionLoader}.
+ */
+public class RegionFileStorage implements RegionStorage {
+    
+    /** Region files are always compressed with GZIP. */
+    public static final Compression COMPRESSION = Compression.GZIP;
+    
+    private final FileHandle dir;
+    private final LongAdder bytesWritten = new LongAdder();
+    
+    
+    /**
+     * @param dir The dimension directory.
+     */
+    public RegionFileStorage(FileHandle dir) {
+        this.dir = dir;
+    }
+    
+    @Override
+    public DataCompound load(Region r) throws IOException {
+        FileHandle file = getFile(dir, r.x(), r.y());
+        if(!file.exists())
+            return null;
+        return IOUtil.read(file, REGION_FORMAT, COMPRESSION);
+    }
+    
+    @Override
+    public int save(Region r, DataCompound c, boolean generated) throws IOException {
+        // Slices are part of the region's compound, so every one is written.
+        FileHandle file = getFile(dir, r.x(), r.y());
+        IOUtil.writeSafe(file, c, COMPRESSION);
+        bytesWritten.add(file.length());
+        return generated ? REGION_SIZE * REGION_SIZE : 0;
+    }
+    
+    @Override
+    public void flush() {
+        // nothing to do; each file is written in full as it's saved
+    }
+    
+    @Override
+    public long bytesWritten() {
+        return bytesWritten.sum();
+    }
+    
+    @Override
+    public void close() {
+        // nothing to do
+    }
+    
+    /**
+     * Gets the file of the region at the given coordinates, in region-lengths.
+     */
+    public static FileHandle getFile(FileHandle dir, int x, int y) {
+        return dir.child("r_" + x + "_" + y + ".region");
+    }
+    
+}
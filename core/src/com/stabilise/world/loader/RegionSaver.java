@@ -0,0 +1,234 @@
+package com.stabilise.world.loader;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.Log;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.world.Region;
+import com.stabilise.world.RegionState;
+import com.stabilise.world.RegionStore.RegionCallback;
+import com.stabilise.world.WorldStatistics;
+
+/**
+ * The write-behind saver of a {@link WorldLoader}. Save requests are queued
+ * and return immediately, and a dedicated thread writes the queued regions
+ * out in batches, flushing the storage to disk once per batch rather than
+ * once per region.
+ * 
+ * <p>Repeated requests to save the same region are coalesced: a region is
+ * only ever queued once at a time (see {@link RegionState#getSavePermit()}),
+ * and a request made while the region is still waiting in the queue is
+ * satisfied by the write already queued (see {@link
+ * RegionState#beginSaving()}). A request made while the region is being
+ * written sends it to the back of the queue once the write is done, rather
+ * than having it written again straight away.
+ * 
+ * <p>Regions stay cached by the {@link com.stabilise.world.RegionStore
+ * RegionStore} until they have been saved, so queued regions can't be
+ * unloaded. To keep memory bounded when regions are being generated faster
+ * than they can be written, worker threads are made to wait when more than
+ * {@link #MAX_PENDING} regions are queued or being written. The main thread
+ * is never made to wait.
+ */
+@ThreadSafe
+class RegionSaver {
+    
+    /** The maximum number of regions to write between flushes. */
+    static final int BATCH_SIZE = 32;
+    /** The number of pending regions beyond which worker threads wait for
+     * the queue to drain. */
+    static final int MAX_PENDING = 256;
+    
+    
+    private final WorldLoader loader;
+    private final RegionStorage storage;
+    private final WorldStatistics.SaverStats stats;
+    private final Log log;
+    
+    /** Regions waiting to be written. */
+    @GuardedBy("queue")
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    /** The number of regions queued or being written. */
+    @GuardedBy("queue")
+    private int pending = 0;
+    @GuardedBy("queue")
+    private boolean shutdown = false;
+    
+    private final Thread thread;
+    
+    
+    /**
+     * Creates a new saver and starts its thread.
+     * 
+     * @param loader The loader with which to write each region.
+     * @param storage The storage to flush after each batch.
+     * @param stats The stats to which to report.
+     * @param log The log to which to report flush failures.
+     * @param name The name of the dimension, for naming the thread.
+     */
+    RegionSaver(WorldLoader loader, RegionStorage storage,
+            WorldStatistics.SaverStats stats, Log log, String name) {
+        this.loader = loader;
+        this.storage = storage;
+        this.stats = stats;
+        this.log = log;
+        
+        thread = new Thread(this::run, "RegionSaver-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Queues a region to be saved. It is assumed that the caller has acquired
+     * a {@link RegionState#getSavePermit() permit} to save the region.
+     * 
+     * @param r The region to save.
+     * @param throttle true if the caller is a worker thread, which should
+     * wait for the queue to drain if too many regions are pending.
+     * @param callback The function to call once the region has been saved
+     * and flushed.
+     */
+    @UserThread("Any")
+    void save(Region r, boolean throttle, RegionCallback callback) {
+        int depth;
+        synchronized(queue) {
+            if(throttle && pending >= MAX_PENDING && !shutdown) {
+                stats.throttled.increment();
+                while(pending >= MAX_PENDING && !shutdown) {
+                    try {
+                        queue.wait();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            queue.add(new Entry(r, callback));
+            depth = ++pending;
+            queue.notifyAll();
+        }
+        stats.queued.increment();
+        stats.recordDepth(depth);
+    }
+    
+    private void run() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        
+        while(true) {
+            synchronized(queue) {
+                while(queue.isEmpty() && !shutdown) {
+                    try {
+                        queue.wait();
+                    } catch(InterruptedException ignored) {}
+                }
+                if(queue.isEmpty())
+                    return; // shut down, and nothing left to write
+                while(batch.size() < BATCH_SIZE && !queue.isEmpty())
+                    batch.add(queue.poll());
+            }
+            
+            long start = System.nanoTime();
+            long bytes = storage.bytesWritten();
+            
+            for(Entry e : batch) {
+                if(e.region.state.beginSaving())
+                    stats.coalesced.increment();
+                e.success = loader.writeRegion(e.region);
+            }
+            
+            // One flush for the whole batch. Nothing in it counts as saved
+            // until it's on disk, so callbacks (which may let the regions be
+            // unloaded) are held back until now.
+            try {
+                storage.flush();
+                stats.flushes.increment();
+            } catch(IOException ex) {
+                log.postSevere("Could not flush region storage", ex);
+                // We can't know what made it, so have it all written again.
+                // The regions may be in use on the main thread, so this must
+                // only ever set flags atomically.
+                for(Entry e : batch) {
+                    if(e.success) {
+                        e.success = false;
+                        e.region.markAllDirty();
+                    }
+                }
+            }
+            
+            stats.recordBatch(batch.size(), storage.bytesWritten() - bytes,
+                    System.nanoTime() - start);
+            
+            List<Entry> requeued = new ArrayList<>(0);
+            for(Entry e : batch) {
+                // If the region was asked to be saved again while we were
+                // writing it, send it to the back of the queue.
+                if(e.region.state.finishSaving())
+                    requeued.add(e);
+                else
+                    e.callback.accept(e.region, e.success);
+            }
+            
+            int depth;
+            synchronized(queue) {
+                queue.addAll(requeued);
+                pending -= batch.size() - requeued.size();
+                depth = pending;
+                queue.notifyAll(); // wake any throttled workers
+            }
+            stats.recordDepth(depth);
+            batch.clear();
+        }
+    }
+    
+    /**
+     * Returns the number of regions queued or being written.
+     */
+    @UserThread("Any")
+    int pending() {
+        synchronized(queue) {
+            return pending;
+        }
+    }
+    
+    /**
+     * Writes out every remaining queued region, and then stops this saver's
+     * thread. This should only be invoked once no more saves will be
+     * requested.
+     */
+    @UserThread("MainThread")
+    void shutdown() {
+        synchronized(queue) {
+            shutdown = true;
+            queue.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    private static class Entry {
+        
+        private final Region region;
+        private final RegionCallback callback;
+        private boolean success;
+        
+        private Entry(Region region, RegionCallback callback) {
+            this.region = region;
+            this.callback = callback;
+        }
+        
+    }
+    
+}
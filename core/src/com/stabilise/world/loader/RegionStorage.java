@@ -0,0 +1,75 @@
+package com.stabilise.world.loader;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.stabilise.util.annotation.ThreadSafeMethod;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.world.Region;
+
+/**
+ * A RegionStorage is where a {@link WorldLoader} physically puts the regions
+ * of a world. Which storage a world uses depends on its format version; see
+ * {@link WorldFormat#createStorage(com.badlogic.gdx.files.FileHandle,
+ * com.stabilise.world.WorldInfo) WorldFormat.createStorage()}.
+ * 
+ * <p>A storage is handed the region's compound as produced by the {@link
+ * IRegionLoader}s, and may additionally read or write the region's slices
+ * itself if it stores them separately from that compound.
+ * 
+ * <p>A storage which keeps slices separately should {@link
+ * com.stabilise.world.Slice#clearDirty() clear} the dirty flags of the slices
+ * it loads, since they then match what's saved.
+ */
+public interface RegionStorage extends Closeable {
+    
+    /**
+     * Loads a region. If this storage keeps slices separately, they are
+     * read into {@code r} before this method returns.
+     * 
+     * @return The region's compound, or {@code null} if the region has not
+     * been saved.
+     * @throws IOException if an I/O error occurs.
+     */
+    @ThreadSafeMethod
+    DataCompound load(Region r) throws IOException;
+    
+    /**
+     * Saves a region. A storage which keeps slices separately may skip
+     * slices which don't {@link com.stabilise.world.Slice#needsSave() need
+     * saving}, as their last-saved form is still current.
+     * 
+     * @param r The region.
+     * @param c The compound which the region's IRegionLoaders saved into.
+     * @param generated Whether the region has been generated.
+     * 
+     * @return The number of slices written.
+     * @throws IOException if an I/O error occurs.
+     */
+    @ThreadSafeMethod
+    int save(Region r, DataCompound c, boolean generated) throws IOException;
+    
+    /**
+     * Forces everything saved so far out to disk. Saves needn't be durable
+     * until this is invoked, so that a batch of them may share a single
+     * flush.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    @ThreadSafeMethod
+    void flush() throws IOException;
+    
+    /**
+     * Returns the total number of bytes this storage has written.
+     */
+    @ThreadSafeMethod
+    long bytesWritten();
+    
+    /**
+     * Flushes and releases any resources held by this storage. This should
+     * only be invoked once all loads and saves have completed.
+     */
+    @Override
+    void close() throws IOException;
+    
+}
@@ -0,0 +1,113 @@
+package com.stabilise.world.loader;
+
+import static com.stabilise.world.Slice.SLICE_AREA;
+import static com.stabilise.world.Slice.SLICE_SIZE;
+
+import java.io.IOException;
+
+import com.stabilise.util.collect.PalettedIntArray;
+import com.stabilise.util.io.DataInStream;
+import com.stabilise.util.io.DataOutStream;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.io.data.DataList;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.tile.tileentity.TileEntity;
+
+/**
+ * Reads and writes slices in a compact binary form, straight from and into
+ * slice storage without going through a {@link DataCompound}. Only tile
+ * entities, which are few and far between, are written as a compound.
+ * 
+ * <p>A slice is written as:
+ * 
+ * <pre>
+ * [ codec version (1) ]
+ * [ tiles: see PalettedIntArray.write() ]
+ * [ walls: see PalettedIntArray.write() ]
+ * [ light: SLICE_AREA bytes ]
+ * [ has tile entities (1) | if so, a compound holding list "tileEntities" ]
+ * </pre>
+ * 
+ * Tiles and walls are written in whichever mode they are in, so a compacted
+ * slice is written (and read back) compacted.
+ */
+public class SliceCodec {
+    
+    private static final int VERSION = 1;
+    
+    
+    private SliceCodec() {} // non-instantiable
+    
+    /**
+     * Writes a slice.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(Slice s, DataOutStream out) throws IOException {
+        out.writeByte(VERSION);
+        s.tiles.write(out);
+        s.walls.write(out);
+        s.writeLight(out);
+        
+        DataCompound te = tileEntities(s);
+        out.writeBoolean(te != null);
+        if(te != null)
+            WorldLoader.REGION_FORMAT.write(out, te);
+    }
+    
+    private static DataCompound tileEntities(Slice s) {
+        if(s.tileEntities == null)
+            return null;
+        
+        DataCompound c = null;
+        DataList list = null;
+        TileEntity t;
+        for(int tileX = 0; tileX < SLICE_SIZE; tileX++) {
+            for(int tileY = 0; tileY < SLICE_SIZE; tileY++) {
+                if((t = s.tileEntities[tileY][tileX]) != null) {
+                    if(c == null) {
+                        c = WorldLoader.REGION_FORMAT.newCompound();
+                        list = c.childList("tileEntities");
+                    }
+                    t.exportToCompound(list.childCompound());
+                }
+            }
+        }
+        return c;
+    }
+    
+    /**
+     * Reads a slice.
+     * 
+     * @param r The region the slice belongs to.
+     * @param x The x-coordinate of the slice relative to the region.
+     * @param y The y-coordinate of the slice relative to the region.
+     * 
+     * @throws IOException if an I/O error occurs, or the data is malformed.
+     */
+    public static Slice read(Region r, int x, int y, DataInStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if(version != VERSION)
+            throw new IOException("Unknown slice codec version " + version);
+        
+        PalettedIntArray tiles = PalettedIntArray.read(in, SLICE_AREA);
+        PalettedIntArray walls = PalettedIntArray.read(in, SLICE_AREA);
+        byte[] light = new byte[SLICE_AREA];
+        in.readFully(light);
+        Slice s = new Slice(r.offsetX + x, r.offsetY + y, tiles, walls, light);
+        
+        if(in.readBoolean()) {
+            DataList tileEntities = WorldLoader.REGION_FORMAT.read(in).childList("tileEntities");
+            if(tileEntities.size() > 0)
+                s.initTileEntities();
+            for(int i = 0; i < tileEntities.size(); i++) {
+                TileEntity te = TileEntity.createFromCompound(tileEntities.getCompound());
+                s.tileEntities[te.pos.lty()][te.pos.ltx()] = te;
+            }
+        }
+        
+        return s;
+    }
+    
+}
@@ -0,0 +1,228 @@
+package com.stabilise.world.loader;
+
+import static com.stabilise.world.Region.REGION_SIZE;
+import static com.stabilise.world.Slice.SLICE_SIZE;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.io.IOUtil;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.maths.Point;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.WorldStatistics;
+import com.stabilise.world.tile.tileentity.TileEntity;
+
+/**
+ * A memory-budgeted, least-recently-used cache of regions which have recently
+ * been unloaded, so that a region which is loaded again soon after (e.g. as a
+ * player wanders back and forth across a region border) needn't be read and
+ * decoded from disk.
+ * 
+ * <p>A region is kept in the form it was in when unloaded: its slices as they
+ * were (compacted, where possible), and the compound its {@link
+ * IRegionLoader}s saved everything else into. Restoring it is then a matter
+ * of handing the slices to the new region and running the loaders on the
+ * compound. A region is only kept once it has been saved and is no longer in
+ * use, so its slices are the same as what's on disk and remain clean.
+ * 
+ * <p>Preparing a region to be kept takes a while, so it is done in two steps.
+ * A place is {@link #reserve(Region) reserved} for the region while its
+ * removal from the world is still locked, and the region is {@link
+ * #put(Region, DataCompound) put} once it has been prepared, after the lock
+ * has been released. Should the region be loaded again in between, it is
+ * loaded from disk, and the reservation is voided so that the now outdated
+ * copy isn't kept.
+ * 
+ * <p>This only works for storages which save slices separately from the
+ * compound (i.e. not {@link RegionFileStorage}), as otherwise the slices
+ * would be kept twice.
+ */
+@ThreadSafe
+public class WarmRegionCache {
+    
+    /** Rough per-slice overhead of the Slice object and its arrays, on top
+     * of {@link Slice#sizeInBytes()}. */
+    private static final long SLICE_OVERHEAD = 128;
+    
+    
+    private final long budget;
+    private final WorldStatistics.WarmCacheStats stats;
+    
+    /** Cached regions, least-recently used first. */
+    @GuardedBy("this")
+    private final Map<Point, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** The total {@link Entry#bytes size} of all entries. */
+    @GuardedBy("this")
+    private long bytes = 0;
+    /** Regions with a place {@link #reserve(Region) reserved}, by location.
+     * A region loaded anew is a different object, so it can't take over the
+     * reservation of the one it replaces. */
+    @GuardedBy("this")
+    private final Map<Point, Region> reserved = new HashMap<>();
+    
+    
+    /**
+     * @param budget The memory, in bytes, which cached regions may occupy.
+     * @param stats The stats to which to report.
+     */
+    public WarmRegionCache(long budget, WorldStatistics.WarmCacheStats stats) {
+        this.budget = budget;
+        this.stats = stats;
+    }
+    
+    /**
+     * Reserves a place for a region which has just been unloaded, to be
+     * {@link #put(Region, DataCompound) put} once prepared. This should be
+     * invoked while the region's removal is locked, such that nothing can
+     * have begun loading it again.
+     */
+    @UserThread("WorkerThread")
+    synchronized void reserve(Region r) {
+        reserved.put(r.loc, r);
+    }
+    
+    /**
+     * Drops the reservation of a region which won't be put after all.
+     */
+    @UserThread("WorkerThread")
+    synchronized void unreserve(Region r) {
+        reserved.remove(r.loc, r);
+    }
+    
+    /**
+     * Keeps a region which has just been unloaded, if its place is still
+     * {@link #reserve(Region) reserved}. The region must have been saved
+     * since it last changed, and must no longer be in use anywhere, as this
+     * takes its slices.
+     * 
+     * <p>Nearly all the work is done before this cache is locked.
+     * 
+     * @param r The region.
+     * @param c The compound the region's loaders saved into.
+     */
+    @UserThread("WorkerThread")
+    void put(Region r, DataCompound c) {
+        Slice[][] slices = new Slice[REGION_SIZE][];
+        long size = 0;
+        for(int y = 0; y < REGION_SIZE; y++) {
+            slices[y] = r.slices[y].clone();
+            for(int x = 0; x < REGION_SIZE; x++) {
+                Slice s = slices[y][x];
+                // These are in c, and will be put back when it's loaded.
+                s.savedEntities = null;
+                renewTileEntities(s);
+                s.compact();
+                size += s.sizeInBytes() + SLICE_OVERHEAD;
+            }
+        }
+        size += IOUtil.countBytes(c, WorldLoader.REGION_FORMAT, Compression.UNCOMPRESSED);
+        
+        Entry e = new Entry(slices, c, size);
+        synchronized(this) {
+            // If the reservation is gone, the region has been loaded again
+            if(!reserved.remove(r.loc, r) || size > budget)
+                return;
+            
+            Entry old = entries.put(r.loc, e);
+            if(old != null)
+                bytes -= old.bytes;
+            bytes += size;
+            
+            Iterator<Entry> i = entries.values().iterator();
+            while(bytes > budget) {
+                bytes -= i.next().bytes;
+                i.remove();
+                stats.evictions.increment();
+            }
+            stats.record(entries.size(), bytes);
+        }
+    }
+    
+    /**
+     * Replaces a slice's tile entities with fresh copies, as the originals
+     * were part of the world the region was unloaded from.
+     */
+    private static void renewTileEntities(Slice s) {
+        if(s.tileEntities == null)
+            return;
+        for(int y = 0; y < SLICE_SIZE; y++) {
+            for(int x = 0; x < SLICE_SIZE; x++) {
+                TileEntity t = s.tileEntities[y][x];
+                if(t != null) {
+                    DataCompound tc = WorldLoader.REGION_FORMAT.newCompound();
+                    t.exportToCompound(tc);
+                    s.tileEntities[y][x] = TileEntity.createFromCompound(tc);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns true if the given region is cached. This doesn't count as a
+     * use of it.
+     */
+    @UserThread("Any")
+    synchronized boolean contains(Region r) {
+        return entries.containsKey(r.loc);
+    }
+    
+    /**
+     * Removes a region from this cache and restores it into the given
+     * region, by setting its slices.
+     * 
+     * @return The compound the region's loaders saved into, which should now
+     * be loaded from, or {@code null} if the region isn't cached.
+     */
+    @UserThread("WorkerThread")
+    DataCompound take(Region r) {
+        Entry e;
+        synchronized(this) {
+            // If the region is yet to be put, it's too late now
+            reserved.remove(r.loc);
+            e = entries.remove(r.loc);
+            if(e != null) {
+                bytes -= e.bytes;
+                stats.record(entries.size(), bytes);
+            }
+        }
+        
+        if(e == null) {
+            stats.misses.increment();
+            return null;
+        }
+        
+        stats.hits.increment();
+        for(int y = 0; y < REGION_SIZE; y++)
+            System.arraycopy(e.slices[y], 0, r.slices[y], 0, REGION_SIZE);
+        return e.compound;
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    private static class Entry {
+        
+        private final Slice[][] slices;
+        private final DataCompound compound;
+        /** Estimated heap usage of this entry. */
+        private final long bytes;
+        
+        private Entry(Slice[][] slices, DataCompound compound, long bytes) {
+            this.slices = slices;
+            this.compound = compound;
+            this.bytes = bytes;
+        }
+        
+    }
+    
+}
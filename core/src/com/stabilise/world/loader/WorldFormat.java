@@ -1,13 +1,34 @@
 package com.stabilise.world.loader;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.badlogic.gdx.files.FileHandle;
 import com.stabilise.util.Log;
+import com.stabilise.util.io.data.Compression;
 import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.world.World;
 import com.stabilise.world.WorldInfo;
 import com.stabilise.world.loader.impl.*;
 
 
 public class WorldFormat {
     
+    /** The version of the original format, in which each region is saved as
+     * a single file. See {@link RegionFileStorage}. */
+    public static final int VERSION_REGION_FILES = 1;
+    /** The version in which regions are saved in multi-region containers with
+     * individually-addressable slices. See {@link RegionContainerStorage}. */
+    public static final int VERSION_REGION_CONTAINERS = 2;
+    /** The format version of newly-created worlds. */
+    public static final int LATEST_VERSION = VERSION_REGION_CONTAINERS;
+    
+    /** The compression with which regions of newly-created worlds are saved.
+     * See {@code CompressionBenchmark} for how the options compare. */
+    public static final Compression DEFAULT_COMPRESSION = Compression.LZ4;
+    
+    
     private WorldFormat() {} // non-instantiable
     
     
@@ -16,7 +37,35 @@ public class WorldFormat {
      * Invoking this is suitable when creating a new world.
      */
     public static void putLatest(WorldInfo info) {
-        info.worldFormat.put("version", 1);
+        info.worldFormat.put("version", LATEST_VERSION);
+        info.worldFormat.put("compression", DEFAULT_COMPRESSION.name());
+    }
+    
+    /**
+     * Returns the format version of the given world.
+     */
+    public static int getVersion(WorldInfo info) {
+        return info.worldFormat.optI32("version").orElse(VERSION_REGION_FILES);
+    }
+    
+    /**
+     * Returns the compression with which the given world's regions are
+     * saved. This is always {@link RegionFileStorage#COMPRESSION} for version
+     * 1 worlds.
+     */
+    public static Compression getCompression(WorldInfo info) {
+        if(getVersion(info) == VERSION_REGION_FILES)
+            return RegionFileStorage.COMPRESSION;
+        String name = info.worldFormat.optString("compression").orElse(null);
+        if(name == null)
+            return DEFAULT_COMPRESSION;
+        try {
+            return Compression.valueOf(name);
+        } catch(IllegalArgumentException e) {
+            Log.get().postWarning("Unknown region compression \"" + name
+                    + "\"; using " + DEFAULT_COMPRESSION);
+            return DEFAULT_COMPRESSION;
+        }
     }
     
     /**
@@ -24,18 +73,101 @@ public class WorldFormat {
      * accordance with the given WorldInfo's format.
      */
     public static void registerLoaders(WorldLoader loader, WorldInfo info) {
-        DataCompound format = info.worldFormat;
+        // Containers save slices themselves
+        if(getVersion(info) == VERSION_REGION_FILES)
+            loader.addLoaderAndSaver(new BaseRegionLoader());
+        loader.addLoaderAndSaver(new EntityLoader()); // after BaseRegionLoader
+        loader.addLoaderAndSaver(new ActionLoader());
+        loader.addLoaderAndSaver(new StructureLoader());
+        loader.addLoaderAndSaver(new TileTickLoader());
+        loader.addLoaderAndSaver(new FluidLoader());
+    }
+    
+    /**
+     * Creates the RegionStorage to be used for the given dimension directory
+     * in accordance with the given WorldInfo's format.
+     */
+    public static RegionStorage createStorage(FileHandle dimDir, WorldInfo info) {
+        return getVersion(info) == VERSION_REGION_FILES
+                ? new RegionFileStorage(dimDir)
+                : new RegionContainerStorage(dimDir, getCompression(info));
+    }
+    
+    /**
+     * Upgrades the given world to the latest format version, if it isn't
+     * already, and saves its info. This should be invoked before any of the
+     * world's dimensions are loaded.
+     * 
+     * <p>Dimensions which are private to a character are saved in that
+     * character's directory rather than the world's, and so cannot be found
+     * from here; those are still readable since {@link RegionContainerStorage}
+     * falls back to reading version 1 region files, and are upgraded region by
+     * region as they are saved.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void migrate(WorldInfo info) throws IOException {
+        int version = getVersion(info);
+        if(version >= LATEST_VERSION)
+            return;
         
-        // We'll modify this function here to actually do something with the
-        // format if in the future I change the save format and want a smooth
-        // compatible transition from an older to a newer version.
+        Log log = Log.getAgent("WorldFormat");
+        log.postInfo("Upgrading \"" + info.name + "\" from format version "
+                + version + " to " + LATEST_VERSION);
         
-        if(format.getI32("version") != 1)
-            Log.get().postInfo("World format version not 1? (not that it matters for now)");
+        for(FileHandle dir : dimensionDirs(info)) {
+            int n = RegionContainerStorage.migrateDir(dir, DEFAULT_COMPRESSION);
+            log.postInfo("Converted " + n + " regions in " + dir.name());
+        }
         
-        loader.addLoaderAndSaver(new BaseRegionLoader());
-        loader.addLoaderAndSaver(new ActionLoader());
-        loader.addLoaderAndSaver(new StructureLoader());
+        putLatest(info);
+        info.save();
+    }
+    
+    /**
+     * Re-encodes all of the given world's regions with the given compression,
+     * and sets it as the compression to use for the world from now on. The
+     * world must not be running, and must be of the {@link #LATEST_VERSION
+     * latest version}.
+     * 
+     * <p>As with {@link #migrate(WorldInfo)}, dimensions private to a
+     * character cannot be found from here. Since each region entry records its
+     * own compression, those are still readable, and are re-encoded region by
+     * region as they are saved.
+     * 
+     * @throws IllegalStateException if the world is not of the latest
+     * version.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void setCompression(WorldInfo info, Compression compression) throws IOException {
+        if(getVersion(info) != LATEST_VERSION)
+            throw new IllegalStateException("World must be migrated first");
+        
+        Log log = Log.getAgent("WorldFormat");
+        for(FileHandle dir : dimensionDirs(info)) {
+            long[] sizes = RegionContainerStorage.recompressDir(dir, compression);
+            log.postInfo("Re-encoded " + dir.name() + " with " + compression + " ("
+                    + sizes[0] / 1024 + "KB -> " + sizes[1] / 1024 + "KB)");
+        }
+        
+        info.worldFormat.put("compression", compression.name());
+        info.save();
+    }
+    
+    /**
+     * Returns the directories of all of a world's dimensions which are saved
+     * in the world's own directory.
+     */
+    private static List<FileHandle> dimensionDirs(WorldInfo info) {
+        List<FileHandle> dirs = new ArrayList<>();
+        FileHandle dims = info.getWorldDir().child(World.DIR_DIMENSIONS);
+        if(dims.exists()) {
+            for(FileHandle dir : dims.list()) {
+                if(dir.isDirectory())
+                    dirs.add(dir);
+            }
+        }
+        return dirs;
     }
     
 }
@@ -1,22 +1,23 @@
 package com.stabilise.world.loader;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 
-import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.core.Constants;
 import com.stabilise.util.Log;
 import com.stabilise.util.annotation.ThreadUnsafeMethod;
 import com.stabilise.util.annotation.UserThread;
-import com.stabilise.util.io.IOUtil;
-import com.stabilise.util.io.data.Compression;
 import com.stabilise.util.io.data.DataCompound;
 import com.stabilise.util.io.data.Format;
 import com.stabilise.world.HostWorld;
 import com.stabilise.world.Region;
+import com.stabilise.world.RegionScheduler;
 import com.stabilise.world.RegionState;
 import com.stabilise.world.RegionStore;
 import com.stabilise.world.RegionStore.RegionCallback;
+import com.stabilise.world.Slice;
 import com.stabilise.world.WorldStatistics;
 
 
@@ -32,13 +33,13 @@ import com.stabilise.world.WorldStatistics;
 public class WorldLoader {
     
     public static final Format REGION_FORMAT = Format.NBT;
-    public static final Compression REGION_COMPRESSION = Compression.GZIP;
     
 	
     /** A reference to the world that this WorldLoader handles the loading for. */
     private final HostWorld world;
-    /** A reference to the Executor with which we send off all asynchronous
-     * loading tasks. */
+    /** The scheduler with which we queue all asynchronous loading tasks. */
+    private final RegionScheduler scheduler;
+    /** The executor on which we load regions from the warm cache. */
     private final Executor executor;
     
     private volatile boolean cancelLoadOperations = false;
@@ -46,8 +47,17 @@ public class WorldLoader {
     private final List<IRegionLoader> loaders = new ArrayList<>();
     private final List<IRegionLoader> savers = new ArrayList<>();
     
+    /** Where regions are physically stored. */
+    private final RegionStorage storage;
+    /** The write-behind saver through which all saves go. */
+    private final RegionSaver saver;
+    /** Recently unloaded regions, which are loaded from in preference to
+     * {@link #storage}. {@code null} if the storage doesn't support it. */
+    private final WarmRegionCache warm;
+    
     private final WorldStatistics.ProcessStats loadStats;
     private final WorldStatistics.ProcessStats saveStats;
+    private final WorldStatistics.SliceSaveStats sliceSaveStats;
     
     private final Log log;
     
@@ -55,20 +65,29 @@ public class WorldLoader {
     /**
      * Creates a new WorldLoader for the given world.
      * 
+     * @param scheduler The scheduler with which to queue loads.
+     * 
      * @throws NullPointerException if world is null.
      */
-    public WorldLoader(HostWorld world) {
+    public WorldLoader(HostWorld world, RegionScheduler scheduler) {
         this.world = world;
+        this.scheduler = scheduler;
         this.executor = world.multiverse().getExecutor();
         
         this.loadStats = world.stats.load;
         this.saveStats = world.stats.save;
+        this.sliceSaveStats = world.stats.sliceSaves;
         
         this.log = Log.getAgent("WORLDLOADER: " + world.getDimensionName());
         
         // Register all the base loaders in accordance with the world's save
         // format.
         WorldFormat.registerLoaders(this, world.multiverse().info);
+        storage = WorldFormat.createStorage(world.getWorldDir(), world.multiverse().info);
+        saver = new RegionSaver(this, storage, world.stats.saver, log, world.getDimensionName());
+        warm = storage instanceof RegionContainerStorage
+                ? new WarmRegionCache(Constants.WARM_REGION_MEMORY_BUDGET, world.stats.warm)
+                : null;
         // Any additional dimension-specific loaders are added immediately
         // after this constructor in the HostWorld constructor.
     }
@@ -111,15 +130,25 @@ public class WorldLoader {
     /**
      * Instructs this WorldLoader to asynchronously load a region. It is
      * assumed the caller has acquired a {@link RegionState#getLoadPermit()
-     * permit} to load the region.
+     * permit} to load the region. Loads are queued with the {@link
+     * RegionScheduler}, so this region will be loaded after any queued region
+     * nearer an anchor, or not at all if it is cancellable and no longer
+     * needed by then. The exception is a region in the {@link
+     * WarmRegionCache}, which is cheap enough to restore that it skips the
+     * queue.
      * 
      * @param r The region to load.
+     * @param cancellable true if the region is being loaded only for an
+     * anchor. See {@link RegionScheduler#submit(Region, boolean, Runnable)}.
      * @param callback The function to call once loading is completed.
      */
     @UserThread("Any")
-    public void loadRegion(Region r, RegionCallback callback) {
+    public void loadRegion(Region r, boolean cancellable, RegionCallback callback) {
         loadStats.requests.increment();
-        executor.execute(() -> doLoad(r, callback));
+        if(warm != null && warm.contains(r))
+            executor.execute(() -> doLoad(r, callback));
+        else
+            scheduler.submit(r, cancellable, () -> doLoad(r, callback));
     }
     
     private void doLoad(Region r, RegionCallback callback) {
@@ -139,78 +168,151 @@ public class WorldLoader {
         }
         
         boolean success = true;
-    	FileHandle file = r.getFile(world);
-    	if(file.exists()) {
-            try {
-            	DataCompound c = IOUtil.read(file, REGION_FORMAT, REGION_COMPRESSION);
+        try {
+            // Try the warm cache before going to disk
+            DataCompound warmed = warm == null ? null : warm.take(r);
+            DataCompound c = warmed != null ? warmed : storage.load(r);
+            if(c != null) {
                 boolean generated = c.optBool("generated").orElse(false);
                 
                 loaders.forEach(l -> l.load(r, c, generated));
+                if(generated && Constants.COMPACT_SLICES)
+                    r.forEachSlice(Slice::compact);
                 
                 r.state.setLoaded(generated, r.hasQueuedStructures());
-            	
-                loadStats.completed.increment();
-            } catch(Exception e) {
-                log.postSevere("Loading " + r + " failed!", e);
-                loadStats.failed.increment();
-                success = false;
-            }
-    	} else {
-    	    loadStats.completed.increment(); // we'll count this as completed
-    	    r.state.setLoaded(false, false); // nothing to load = "loaded", but not generated
-    	}
+            } else
+                r.state.setLoaded(false, false); // nothing to load = "loaded", but not generated
+            
+            // The region now matches what's saved, so there's no need to save
+            // it again until something changes. The storage takes care of
+            // the slices.
+            r.clearDirty();
+            
+            loadStats.completed.increment();
+        } catch(Exception e) {
+            log.postSevere("Loading " + r + " failed!", e);
+            loadStats.failed.increment();
+            success = false;
+        }
     	
     	callback.accept(r, success);
     }
     
     /**
-     * Saves a region. It is assumed that the caller has acquired a {@link
+     * Begins to retire a region which has just been successfully saved and
+     * removed from the world entirely, by reserving it a place in the {@link
+     * WarmRegionCache}. Nothing else may use or modify the region once this
+     * is invoked.
+     * 
+     * <p>This should be invoked while holding the same lock as the region's
+     * removal, so that it can't be loaded again in the meantime.
+     * 
+     * @return true if the region should now be {@link #retire(Region)
+     * retired}, which may be done once the lock is released.
+     */
+    @UserThread("WorkerThread")
+    public boolean reserveRetirement(Region r) {
+        if(warm == null || !r.state.isGenerated())
+            return false;
+        warm.reserve(r);
+        return true;
+    }
+    
+    /**
+     * Offers a region {@link #reserveRetirement(Region) reserved a place} in
+     * the {@link WarmRegionCache} to it, so that it may be restored quickly
+     * should it be loaded again soon. If it has been loaded again since
+     * being reserved a place, it isn't kept.
+     */
+    @UserThread("WorkerThread")
+    public void retire(Region r) {
+        DataCompound c = REGION_FORMAT.newCompound();
+        c.put("generated", true);
+        try {
+            savers.forEach(s -> s.save(r, c, true));
+        } catch(RuntimeException e) {
+            warm.unreserve(r);
+            return; // it'll just have to be loaded from disk
+        }
+        warm.put(r, c);
+    }
+    
+    /**
+     * Queues a region to be saved by the write-behind {@link RegionSaver}. It
+     * is assumed that the caller has acquired a {@link
      * RegionState#getSavePermit() permit} to save the region.
      * 
+     * <p>Only what has changed since the region was loaded or last saved is
+     * written: a region which hasn't changed at all is skipped entirely (see
+     * {@link Region#needsSave()}), and otherwise only its changed slices are
+     * re-encoded, if the storage keeps slices separately.
+     * 
+     * <p>If the region has a pending {@link Region#snapshot(HostWorld)
+     * snapshot}, that is written in its place.
+     * 
      * @param region The region to save.
-     * @param useCurrentThread true to save on the current thread, false to
-     * spawn a worker thread.
-     * @param callback The function to call once saving is completed.
+     * @param throttle true if the caller is a worker thread, which may be
+     * made to wait if too many saves are pending. The main thread should
+     * never pass true.
+     * @param callback The function to call once the region has been saved
+     * and flushed to disk.
      */
     @UserThread("Any")
-    public void saveRegion(Region region, boolean useCurrentThread, RegionCallback callback) {
+    public void saveRegion(Region region, boolean throttle, RegionCallback callback) {
         saveStats.requests.increment();
-        if(useCurrentThread)
-            doSave(region, callback);
-        else
-            executor.execute(() -> doSave(region, callback));
+        saver.save(region, throttle, callback);
     }
     
-    private void doSave(Region r, RegionCallback callback) {
-    	saveStats.started.increment();
-        boolean success;
-    	
-        do {
-            DataCompound c = REGION_FORMAT.newCompound();
-            boolean generated = r.state.isGenerated();
-            c.put("generated", generated);
-            
-            try {
-                // Include the savers in the try-catch because it'd be foolish
-                // to trust them.
-                savers.forEach(s -> s.save(r, c, generated));
-                
-                IOUtil.writeSafe(r.getFile(world), c, REGION_COMPRESSION);
-                
-                success = true;
-                saveStats.completed.increment();
-            } catch(Throwable t) {
-                success = false;
-                saveStats.failed.increment();
-                log.postSevere("Saving " + r + " failed!", t);
-                
-                // Don't break from the do..while on a fail; if another save
-                // was requested, we might get lucky and it may work the second
-                // time.
-            }
-        } while(r.state.finishSaving()); // save again if another save was requested
+    /**
+     * Writes a region to storage, on the saver's thread.
+     * 
+     * @return true if the region was written (or didn't need to be).
+     */
+    @UserThread("WorkerThread")
+    boolean writeRegion(Region r) {
+        saveStats.started.increment();
+        
+        // A region saved from the main thread comes with a snapshot of it as
+        // it was when the save was requested, which we write instead, as the
+        // region itself may be being modified as we speak.
+        Region snap = r.takeSnapshot();
+        Region data = snap != null ? snap : r;
+        boolean generated = r.state.isGenerated();
+        
+        if(!data.needsSave(generated)) {
+            saveStats.skipped.increment();
+            return true;
+        }
+        
+        DataCompound c = REGION_FORMAT.newCompound();
+        c.put("generated", generated);
         
-        callback.accept(r, success);
+        // Cleared before saving so that any changes made while we save flag
+        // the region again.
+        boolean dirty = data.clearDirty();
+        
+        try {
+            // Include the savers in the try-catch because it'd be foolish to
+            // trust them.
+            savers.forEach(s -> s.save(data, c, generated));
+            
+            int written = storage.save(data, c, generated);
+            sliceSaveStats.record(written, generated);
+            
+            saveStats.completed.increment();
+            return true;
+        } catch(Throwable t) {
+            if(dirty)
+                r.markDirty();
+            if(snap != null)
+                r.restoreDirty(snap);
+            saveStats.failed.increment();
+            log.postSevere("Saving " + r + " failed!", t);
+            // If another save is requested, the saver will queue the region
+            // again, and we might get lucky and have it work the second
+            // time.
+            return false;
+        }
     }
     
     /**
@@ -221,5 +323,19 @@ public class WorldLoader {
     public void shutdown() {
         cancelLoadOperations = true;
     }
+    
+    /**
+     * Stops this WorldLoader's saver and closes its region storage. This
+     * should only be invoked once all loads and saves have completed.
+     */
+    @UserThread("MainThread")
+    public void close() {
+        saver.shutdown();
+        try {
+            storage.close();
+        } catch(IOException e) {
+            log.postSevere("Could not close region storage", e);
+        }
+    }
 	
 }
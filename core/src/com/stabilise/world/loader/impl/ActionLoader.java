@@ -30,7 +30,7 @@ public class ActionLoader implements IRegionLoader {
         List<Action> queuedActions = r.queuedActions;
         if(queuedActions != null) {
             DataList actions = c.childList("queuedActions");
-            queuedActions.forEach(a -> a.exportToCompound(actions.childCompound()));
+            queuedActions.forEach(a -> Action.write(a, actions.childCompound()));
         }
     }
     
@@ -18,22 +18,7 @@ public class BaseRegionLoader implements IRegionLoader {
 		
         for(int y = 0; y < REGION_SIZE; y++) {
             for(int x = 0; x < REGION_SIZE; x++) {
-                DataCompound sliceTag = c.getCompound("slice" + x + "_" + y);
-                Slice s = new Slice(r.offsetX + x, r.offsetY + y,
-                        sliceTag.getI32Arr("tiles"),
-                        sliceTag.getI32Arr("walls"),
-                        sliceTag.getI8Arr("light"));
-                
-                DataList tileEntities = sliceTag.childList("tileEntities");
-                if(tileEntities.size() > 0)
-                    s.initTileEntities();
-                for(int i = 0; i < tileEntities.size(); i++) {
-                    DataCompound tc = tileEntities.getCompound();
-                    TileEntity te = TileEntity.createFromCompound(tc);
-                    s.tileEntities[te.pos.lty()][te.pos.ltx()] = te; 
-                }
-                
-                r.slices[y][x] = s;
+                r.slices[y][x] = readSlice(r, x, y, c.getCompound(sliceName(x, y)));
             }
         }
 	}
@@ -45,26 +30,68 @@ public class BaseRegionLoader implements IRegionLoader {
 		
 		for(int y = 0; y < REGION_SIZE; y++) {
             for(int x = 0; x < REGION_SIZE; x++) {
-                DataCompound sliceTag = c.childCompound("slice" + x + "_" + y);
-                Slice s = r.slices[y][x];
-                sliceTag.put("tiles", Slice.to1DArray(s.tiles));
-                sliceTag.put("walls", Slice.to1DArray(s.walls));
-                sliceTag.put("light", Slice.to1DArray(s.light));
-                
-                if(s.tileEntities != null) {
-                    DataList tileEntities = sliceTag.childList("tileEntities");
-                    
-                    TileEntity t;
-                    for(int tileX = 0; tileX < Slice.SLICE_SIZE; tileX++) {
-                        for(int tileY = 0; tileY < Slice.SLICE_SIZE; tileY++) {
-                            if((t = s.tileEntities[tileY][tileX]) != null) {
-                                t.exportToCompound(tileEntities.childCompound());
-                            }
-                        }
-                    }
-                }
+                writeSlice(r.slices[y][x], c.childCompound(sliceName(x, y)));
             }
 		}
 	}
 	
+    /**
+     * Returns the name of the compound a slice is saved under in a region's
+     * compound.
+     * 
+     * @param x The x-coordinate of the slice relative to the region.
+     * @param y The y-coordinate of the slice relative to the region.
+     */
+    public static String sliceName(int x, int y) {
+        return "slice" + x + "_" + y;
+    }
+    
+    /**
+     * Reads a slice from its compound.
+     * 
+     * @param r The region the slice belongs to.
+     * @param x The x-coordinate of the slice relative to the region.
+     * @param y The y-coordinate of the slice relative to the region.
+     * @param sliceTag The compound to read from.
+     */
+    public static Slice readSlice(Region r, int x, int y, DataCompound sliceTag) {
+        Slice s = new Slice(r.offsetX + x, r.offsetY + y,
+                sliceTag.getI32Arr("tiles"),
+                sliceTag.getI32Arr("walls"),
+                sliceTag.getI8Arr("light"));
+        
+        DataList tileEntities = sliceTag.childList("tileEntities");
+        if(tileEntities.size() > 0)
+            s.initTileEntities();
+        for(int i = 0; i < tileEntities.size(); i++) {
+            DataCompound tc = tileEntities.getCompound();
+            TileEntity te = TileEntity.createFromCompound(tc);
+            s.tileEntities[te.pos.lty()][te.pos.ltx()] = te;
+        }
+        
+        return s;
+    }
+    
+    /**
+     * Writes a slice to the given compound.
+     */
+    public static void writeSlice(Slice s, DataCompound sliceTag) {
+        sliceTag.put("tiles", s.tiles.toArray());
+        sliceTag.put("walls", s.walls.toArray());
+        sliceTag.put("light", s.lightToArray());
+        
+        if(s.tileEntities != null) {
+            DataList tileEntities = sliceTag.childList("tileEntities");
+            
+            TileEntity t;
+            for(int tileX = 0; tileX < Slice.SLICE_SIZE; tileX++) {
+                for(int tileY = 0; tileY < Slice.SLICE_SIZE; tileY++) {
+                    if((t = s.tileEntities[tileY][tileX]) != null) {
+                        t.exportToCompound(tileEntities.childCompound());
+                    }
+                }
+            }
+        }
+    }
+    
 }
@@ -0,0 +1,60 @@
+package com.stabilise.world.loader.impl;
+
+import static com.stabilise.world.Region.REGION_SIZE;
+
+import java.util.ArrayList;
+
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.io.data.DataList;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.loader.IRegionLoader;
+
+
+/**
+ * Handles loading and saving of the entities saved into a region's slices when
+ * it was unloaded (see {@link Slice#savedEntities}). This must be registered
+ * after {@link BaseRegionLoader}, since that replaces the region's slices.
+ */
+public class EntityLoader implements IRegionLoader {
+    
+    @Override
+    public void load(Region r, DataCompound c, boolean generated) {
+        if(!generated)
+            return;
+        
+        c.optList("entities").peek(entities -> {
+            for(int i = 0; i < entities.size(); i++) {
+                DataCompound ec = entities.getCompound();
+                Slice s = r.getSliceAt(ec.getI32("sx"), ec.getI32("sy"));
+                if(s.savedEntities == null)
+                    s.savedEntities = new ArrayList<>(4);
+                s.savedEntities.add(ec.getCompound("entity"));
+            }
+        });
+    }
+    
+    @Override
+    public void save(Region r, DataCompound c, boolean generated) {
+        if(!generated)
+            return;
+        
+        DataList entities = null;
+        for(int y = 0; y < REGION_SIZE; y++) {
+            for(int x = 0; x < REGION_SIZE; x++) {
+                Slice s = r.getSliceAt(x, y);
+                if(s.savedEntities == null)
+                    continue;
+                if(entities == null)
+                    entities = c.childList("entities");
+                for(DataCompound e : s.savedEntities) {
+                    DataCompound ec = entities.childCompound();
+                    ec.put("sx", x);
+                    ec.put("sy", y);
+                    ec.put("entity", e);
+                }
+            }
+        }
+    }
+    
+}
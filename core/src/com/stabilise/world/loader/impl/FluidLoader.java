@@ -0,0 +1,26 @@
+package com.stabilise.world.loader.impl;
+
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.world.FluidCells;
+import com.stabilise.world.Region;
+import com.stabilise.world.loader.IRegionLoader;
+
+/**
+ * Handles loading and saving of active fluid cells.
+ */
+public class FluidLoader implements IRegionLoader {
+    
+    @Override
+    public void load(Region r, DataCompound c, boolean generated) {
+        c.optI32Arr("fluids").peek(cells ->
+                r.setActiveFluids(FluidCells.fromArray(cells)));
+    }
+    
+    @Override
+    public void save(Region r, DataCompound c, boolean generated) {
+        FluidCells cells = r.getActiveFluids();
+        if(cells != null)
+            c.put("fluids", cells.toArray());
+    }
+    
+}
@@ -0,0 +1,26 @@
+package com.stabilise.world.loader.impl;
+
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.world.Region;
+import com.stabilise.world.TileTickQueue;
+import com.stabilise.world.loader.IRegionLoader;
+
+/**
+ * Handles loading and saving of scheduled tile ticks.
+ */
+public class TileTickLoader implements IRegionLoader {
+    
+    @Override
+    public void load(Region r, DataCompound c, boolean generated) {
+        c.optI64Arr("tileTicks").peek(ticks ->
+                r.setScheduledTicks(TileTickQueue.fromArray(ticks)));
+    }
+    
+    @Override
+    public void save(Region r, DataCompound c, boolean generated) {
+        TileTickQueue ticks = r.getScheduledTicks();
+        if(ticks != null)
+            c.put("tileTicks", ticks.toArray());
+    }
+    
+}
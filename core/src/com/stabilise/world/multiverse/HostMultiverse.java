@@ -3,6 +3,7 @@ package com.stabilise.world.multiverse;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -45,8 +46,9 @@ public class HostMultiverse extends Multiverse<HostWorld> {
     /** The total number of entities which have existed during the lifetime of
      * all worlds. When a new entity is created this is incremented and set as
      * its ID. This is shared between dimensions since, of course, entities may
-     * move between dimensions and it would suck to encounter an ID collision. */
-    private long entityCount = 0;
+     * move between dimensions and it would suck to encounter an ID collision.
+     * Atomic since dimensions may be ticked in parallel. */
+    private final AtomicLong entityCount = new AtomicLong();
     
     
     /**
@@ -134,12 +136,12 @@ public class HostMultiverse extends Multiverse<HostWorld> {
     
     @Override
     public long getNextEntityID() {
-        return ++entityCount;
+        return entityCount.incrementAndGet();
     }
     
     @Override
     public long getTotalEntityCount() {
-        return entityCount;
+        return entityCount.get();
     }
     
     @Override
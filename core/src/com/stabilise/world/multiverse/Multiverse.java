@@ -1,19 +1,25 @@
 package com.stabilise.world.multiverse;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import com.stabilise.entity.particle.manager.ParticleManager;
+import com.stabilise.core.Constants;
 import com.stabilise.util.Log;
 import com.stabilise.util.Profiler;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.concurrent.ClaimBatch;
 import com.stabilise.world.AbstractWorld;
 import com.stabilise.world.WorldInfo;
 
@@ -29,9 +35,21 @@ import com.stabilise.world.WorldInfo;
  * member through which they interact with the dimension they are in, and we
  * have AbstractWorld, HostWorld etc. instead of AbstractDimension,
  * HostDimension) for both legacy and aesthetic purposes.
+ * 
+ * <p>Dimensions are independent of one another but for what passes through
+ * portals, so they may be {@link #setParallel(boolean) ticked in parallel}.
+ * In that case the main thread ticks dimensions alongside a fork/join pool,
+ * and anything one dimension does to another is {@link
+ * AbstractWorld#crossDimension(Runnable) deferred} until every dimension has
+ * finished its tick, whereupon it is run on the main thread in a
+ * deterministic order.
  */
 public abstract class Multiverse<W extends AbstractWorld> {
     
+    /** The most threads to tick dimensions on, besides the main thread. */
+    private static final int HELPERS =
+            Math.max(0, Runtime.getRuntime().availableProcessors() - 1);
+    
     /** The ExecutorService to use for delegating loader and generator threads. */
     protected final ExecutorService executor;
     
@@ -41,13 +59,21 @@ public abstract class Multiverse<W extends AbstractWorld> {
     /** The WorldInfo. Dimensions should treat this as read-only. */
     public final WorldInfo info;
     
-    /** The global particle manager, shared between worlds. */
-    public final ParticleManager particleManager = new ParticleManager();
-    
     /** Profile any world's operation with this. Never {@code null}. */
     protected Profiler profiler;
     protected final Log log = Log.getAgent("Multiverse");
     
+    /** Whether dimensions should be ticked in parallel. */
+    private volatile boolean parallel = Constants.PARALLEL_DIMENSION_TICKS;
+    /** true while dimensions are being ticked in parallel. */
+    private volatile boolean tickingInParallel = false;
+    /** The pool on which to tick dimensions in parallel. Lazily created. Only
+     * touched on the main thread. */
+    private ForkJoinPool tickPool;
+    /** The dimensions being ticked this tick, in order. Only touched on the
+     * main thread. */
+    private final List<W> ticking = new ArrayList<>();
+    
     
     /**
      * Creates a new Multiverse.
@@ -80,17 +106,96 @@ public abstract class Multiverse<W extends AbstractWorld> {
         log.postDebug("Started thread pool with " + coreThreads + " threads.");
     }
     
+    /**
+     * Sets whether dimensions should be ticked in parallel. If not, they are
+     * simply updated one after the other on the main thread. The default is
+     * {@link Constants#PARALLEL_DIMENSION_TICKS}.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+    
+    /**
+     * Returns {@code true} if dimensions are currently being ticked in
+     * parallel, in which case a dimension must not touch any other; see
+     * {@link AbstractWorld#crossDimension(Runnable)}.
+     */
+    public boolean isTickingInParallel() {
+        return tickingInParallel;
+    }
+    
     /**
      * Updates all worlds.
      */
+    @UserThread("MainThread")
     public void update() {
-        dimensions.values().removeIf(AbstractWorld::update);
+        ticking.addAll(dimensions.values());
+        try {
+            tickAll();
+        } finally {
+            ticking.clear();
+        }
         
         info.age++;
         // Do a particle cleanup every 10-ish seconds
         if(info.age % 600 == 0)
-            particleManager.cleanup();
+            dimensions.values().forEach(d -> d.getParticleManager().cleanup());
+    }
+    
+    /**
+     * Ticks every dimension in {@link #ticking}, and then lets them touch
+     * one another.
+     */
+    private void tickAll() {
+        int n = ticking.size();
+        boolean enabled = profiler.isEnabled();
+        for(W dim : ticking) {
+            if(enabled)
+                dim.profiler().enable();
+            else
+                dim.profiler().disable();
+        }
+        
+        // Whether each dimension unloaded during its tick
+        boolean[] unloaded = new boolean[n];
+        if(parallel && n > 1 && HELPERS > 0) {
+            if(tickPool == null)
+                tickPool = new ForkJoinPool(HELPERS, new DimensionThreadFactory(), null, false);
+            tickingInParallel = true;
+            try {
+                new ClaimBatch(n, i -> unloaded[i] = tick(ticking.get(i)))
+                        .runWith(tickPool, HELPERS);
+            } finally {
+                tickingInParallel = false;
+            }
+        } else {
+            for(int i = 0; i < n; i++)
+                unloaded[i] = tick(ticking.get(i));
+        }
         
+        // The barrier: every dimension is done, so now they may touch one
+        // another.
+        for(int i = 0; i < n; i++) {
+            W dim = ticking.get(i);
+            profiler.absorb(dim.profiler(), dim.getDimensionName());
+            dim.runCrossDimensionActions();
+        }
+        for(int i = 0; i < n; i++) {
+            W dim = ticking.get(i);
+            if(unloaded[i] && dimensions.remove(dim.getDimensionName(), dim))
+                dim.getParticleManager().shutdown();
+        }
+    }
+    
+    /**
+     * Ticks a dimension, and returns {@code true} if it has unloaded.
+     */
+    private boolean tick(W dim) {
+        Profiler p = dim.profiler();
+        p.flush();
+        boolean unloaded = dim.update();
+        p.flush(); // for absorb()
+        return unloaded;
     }
     
     /**
@@ -109,6 +214,10 @@ public abstract class Multiverse<W extends AbstractWorld> {
      * returned world may not yet be loaded nor ready (as I/O or other
      * preparative operations may be being performed asynchronously).
      * 
+     * <p>A dimension should only invoke this via {@link
+     * AbstractWorld#crossDimension(Runnable)}, as it may otherwise be
+     * modifying the set of dimensions while they are being ticked.
+     * 
      * @param name The name of the dimension.
      * 
      * @return The dimension.
@@ -173,10 +282,10 @@ public abstract class Multiverse<W extends AbstractWorld> {
      * @throws RuntimeException if an I/O error occurred while saving.
      */
     public void close() {
-        particleManager.shutdown();
-        
-        for(AbstractWorld dim : dimensions.values())
+        for(AbstractWorld dim : dimensions.values()) {
+            dim.getParticleManager().shutdown();
             dim.close();
+        }
         
         closeExtra();
         
@@ -184,6 +293,8 @@ public abstract class Multiverse<W extends AbstractWorld> {
             dim.blockUntilClosed();
         
         executor.shutdown();
+        if(tickPool != null)
+            tickPool.shutdown();
         
         try {
             if(!executor.awaitTermination(10, TimeUnit.SECONDS))
@@ -206,6 +317,23 @@ public abstract class Multiverse<W extends AbstractWorld> {
     //-------------=====Nested Classes=====-------------
     //--------------------==========--------------------
     
+    /**
+     * Thread factory for the threads on which dimensions are ticked in
+     * parallel.
+     */
+    private class DimensionThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("DimensionThread" + t.getPoolIndex());
+            t.setUncaughtExceptionHandler((th, e) ->
+                log.postSevere("Dimension thread \"" + th.getName() + "\" died!", e)
+            );
+            return t;
+        }
+    }
+    
     /**
      * Thread factory implementation for world loader and world generator
      * threads.
@@ -0,0 +1,212 @@
+package com.stabilise.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+
+import com.stabilise.core.Constants;
+import com.stabilise.core.main.Stabilise;
+import com.stabilise.network.Server;
+import com.stabilise.network.TCPConnection;
+import com.stabilise.network.protocol.Protocol;
+import com.stabilise.network.protocol.handshake.C000VersionInfo;
+import com.stabilise.network.protocol.handshake.IServerHandshake;
+import com.stabilise.network.protocol.handshake.S000VersionInfo;
+import com.stabilise.util.Profiler;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.world.HostWorld;
+import com.stabilise.world.WorldInfo;
+import com.stabilise.world.WorldLoadTracker;
+import com.stabilise.world.dimension.Dimension;
+import com.stabilise.world.loader.WorldFormat;
+import com.stabilise.world.multiverse.HostMultiverse;
+
+/**
+ * Hosts a world without a window, a renderer or an integrated player. Nothing
+ * here touches GL or {@code Gdx.graphics}; the world is run on the server
+ * thread by the server's own {@link com.stabilise.util.AppDriver AppDriver}
+ * loop, and clients connect through the {@link Protocol#HANDSHAKE handshake}
+ * protocol as usual.
+ * 
+ * <pre>
+ * DedicatedServer &lt;world&gt; [port &lt;port&gt;] [bench &lt;ticks&gt;]
+ * </pre>
+ * 
+ * <p>With {@code bench}, no socket is opened; the world is instead ticked
+ * the given number of times back-to-back, and the time taken per tick and
+ * the heap used are printed, along with the world's profiler data, which
+ * breaks the tick down by dimension. This is the intended harness for
+ * server-side benchmarks.
+ * 
+ * <p>Typing {@code stop} into the console saves the world and shuts the
+ * server down.
+ */
+public class DedicatedServer extends Server implements IServerHandshake {
+    
+    /** The radius about the spawn slice which is kept loaded, in slices. */
+    private static final int SPAWN_RADIUS = Constants.LOADED_SLICE_RADIUS;
+    
+    
+    private final int port;
+    private final HostMultiverse multiverse;
+    private final HostWorld world;
+    
+    
+    /**
+     * Creates a new server and loads its world, blocking until the area
+     * about spawn has been loaded.
+     * 
+     * @param info The world to host.
+     * @param port The port on which to listen for clients.
+     * @param profiler The profiler for the world. May be null.
+     * 
+     * @throws IOException if the world info could not be loaded.
+     */
+    public DedicatedServer(WorldInfo info, int port, Profiler profiler) throws IOException {
+        super(Constants.TICKS_PER_SECOND, Protocol.HANDSHAKE);
+        this.port = port;
+        
+        info.load();
+        WorldFormat.migrate(info);
+        multiverse = new HostMultiverse(info, profiler);
+        // Nothing here plays sounds, and every player's private dimension
+        // would otherwise add to the tick.
+        multiverse.setParallel(true);
+        world = multiverse.loadDimension(Dimension.defaultDimensionName());
+        world.preloadJob.run();
+        
+        // With no players to anchor anything, keep spawn loaded ourselves.
+        int sx = world.getDimension().info.spawnSliceX;
+        int sy = world.getDimension().info.spawnSliceY;
+        for(int y = sy - SPAWN_RADIUS; y <= sy + SPAWN_RADIUS; y++)
+            for(int x = sx - SPAWN_RADIUS; x <= sx + SPAWN_RADIUS; x++)
+                world.anchorSlice(x, y);
+        
+        WorldLoadTracker status = world.loadTracker();
+        try {
+            status.waitUntilDone();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        world.forEachRegion(r -> r.importToWorld(world));
+        log.postInfo("Loaded " + info.name + " (" + status.numTotal() + " regions about spawn)");
+    }
+    
+    @Override
+    protected ServerSocket createSocket() throws IOException {
+        return new ServerSocket(port);
+    }
+    
+    @Override
+    @UserThread("ServerThread/MainThread")
+    protected void doUpdate() {
+        multiverse.update();
+    }
+    
+    /**
+     * Closes the world, which saves it. This must be done on the thread which
+     * has been ticking it, once it has stopped.
+     */
+    private void closeWorld() {
+        log.postInfo("Saving the world...");
+        multiverse.close();
+    }
+    
+    @Override
+    @UserThread("ServerThread/MainThread")
+    public void handleVersionInfo(C000VersionInfo packet, TCPConnection con) {
+        boolean canLogin = packet.isCompatible();
+        con.sendPacket(new S000VersionInfo(canLogin).setVersionInfo());
+        if(canLogin)
+            con.setProtocol(Protocol.LOGIN);
+        else
+            con.closeConnection();
+    }
+    
+    /**
+     * Ticks the world back-to-back and reports how long it took.
+     */
+    private void bench(int ticks) {
+        Profiler profiler = multiverse.getProfiler();
+        long worst = 0;
+        profiler.flush(); // discard loading
+        long start = System.nanoTime();
+        for(int i = 0; i < ticks; i++) {
+            long t = System.nanoTime();
+            profiler.start("update");
+            multiverse.update();
+            profiler.end();
+            worst = Math.max(worst, System.nanoTime() - t);
+        }
+        long total = System.nanoTime() - start;
+        profiler.flush();
+        
+        Runtime rt = Runtime.getRuntime();
+        System.out.println(String.format("%d ticks: %.3f ms/tick (worst %.3f ms), "
+                + "%.1f ticks/sec; heap used: %d MB",
+                ticks, total / 1e6 / ticks, worst / 1e6, ticks / (total / 1e9),
+                (rt.totalMemory() - rt.freeMemory()) >> 20));
+        System.out.println(profiler.getData());
+        System.out.println(world.stats);
+        closeWorld();
+    }
+    
+    /**
+     * Reads the console until it is told to stop or closed.
+     */
+    private void readConsole() {
+        try(BufferedReader br = new BufferedReader(new InputStreamReader(System.in))) {
+            String s;
+            while((s = br.readLine()) != null) {
+                s = s.trim();
+                if(s.equals("stop") || s.equals("quit") || s.equals("exit"))
+                    break;
+                else if(s.equals("stats"))
+                    System.out.println(world.stats);
+                else if(!s.isEmpty())
+                    System.out.println("Unknown command \"" + s + "\" (try stop or stats)");
+            }
+        } catch(IOException e) {
+            // Fall through
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0) {
+            System.out.println("Usage: DedicatedServer <world> [port <port>] [bench <ticks>]");
+            return;
+        }
+        
+        WorldInfo info = new WorldInfo(args[0]);
+        int port = Constants.PORT_DEFAULT;
+        int benchTicks = -1;
+        for(int i = 1; i + 1 < args.length; i += 2) {
+            if(args[i].equals("port"))
+                port = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("bench"))
+                benchTicks = Integer.parseInt(args[i+1]);
+        }
+        
+        Stabilise.bootstrap();
+        
+        if(benchTicks > 0) {
+            new DedicatedServer(info, port, new Profiler(true, "root", true)).bench(benchTicks);
+            return;
+        }
+        
+        DedicatedServer server = new DedicatedServer(info, port, null);
+        // Shutting down from the console stops the tick loop at its next
+        // update, after which we close the world on this thread.
+        Thread console = new Thread(() -> {
+            server.readConsole();
+            server.shutdown();
+        }, "ConsoleThread");
+        console.setDaemon(true);
+        console.start();
+        
+        server.run(); // returns once shut down
+        server.closeWorld();
+    }
+    
+}
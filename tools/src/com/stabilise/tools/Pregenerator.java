@@ -0,0 +1,290 @@
+package com.stabilise.tools;
+
+import java.util.BitSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.core.main.Stabilise;
+import com.stabilise.util.Log;
+import com.stabilise.util.concurrent.Tasks;
+import com.stabilise.util.concurrent.task.Task;
+import com.stabilise.util.concurrent.task.TaskHandle;
+import com.stabilise.world.HostWorld;
+import com.stabilise.world.Region;
+import com.stabilise.world.WorldInfo;
+import com.stabilise.world.WorldStatistics;
+import com.stabilise.world.dimension.Dimension;
+import com.stabilise.world.loader.WorldFormat;
+import com.stabilise.world.multiverse.HostMultiverse;
+
+/**
+ * Generates and saves every region in an area of a world, without a window
+ * or a player, so that the world doesn't have to generate them as it is
+ * played.
+ * 
+ * <pre>
+ * Pregenerator &lt;world&gt; [dim &lt;dimension&gt;] (radius &lt;r&gt; | rect &lt;x0&gt; &lt;y0&gt; &lt;x1&gt; &lt;y1&gt;) [threads &lt;n&gt;]
+ * </pre>
+ * 
+ * <p>{@code radius} covers the square of regions within {@code r} regions of
+ * the spawn region, nearest first; {@code rect} covers the rectangle of
+ * regions between the given region coordinates, inclusive, row by row. At
+ * most {@code threads} regions (by default, twice the number of processors)
+ * are in flight at once.
+ * 
+ * <p>Progress is recorded in {@link #PROGRESS_FILE} in the world directory,
+ * so if the tool is interrupted, running it again with the same arguments
+ * resumes where it left off.
+ */
+public class Pregenerator {
+    
+    /** The name of the file in which progress is recorded. */
+    public static final String PROGRESS_FILE = "pregen.progress";
+    /** How often progress is printed and recorded, in milliseconds. */
+    private static final long REPORT_INTERVAL = 2000;
+    
+    
+    private final WorldInfo info;
+    private final String dimName;
+    /** The area, in region coordinates. Unused for a radius. */
+    private int x0, y0, x1, y1;
+    /** The radius, or -1 if pregenerating a rectangle. */
+    private int radius = -1;
+    private int concurrency = 2 * Runtime.getRuntime().availableProcessors();
+    
+    /** The spawn region, about which a radius is centred. */
+    private int spawnX, spawnY;
+    private HostWorld world;
+    private FileHandle progressFile;
+    
+    /** Which regions have finished, by index. */
+    private final BitSet done = new BitSet();
+    /** Every region below this index has finished. */
+    private int lowWaterMark = 0;
+    
+    
+    private Pregenerator(String[] args) {
+        int i = 0;
+        info = new WorldInfo(arg(args, i++));
+        String dim = Dimension.defaultDimensionName();
+        boolean areaGiven = false;
+        while(i < args.length) {
+            switch(args[i++]) {
+                case "dim":
+                    dim = arg(args, i++);
+                    break;
+                case "radius":
+                    radius = intArg(args, i++);
+                    areaGiven = radius >= 0;
+                    break;
+                case "rect":
+                    x0 = Math.min(intArg(args, i), intArg(args, i+2));
+                    x1 = Math.max(intArg(args, i), intArg(args, i+2));
+                    y0 = Math.min(intArg(args, i+1), intArg(args, i+3));
+                    y1 = Math.max(intArg(args, i+1), intArg(args, i+3));
+                    radius = -1;
+                    areaGiven = true;
+                    i += 4;
+                    break;
+                case "threads":
+                    concurrency = intArg(args, i++);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option \"" + args[i-1] + "\"");
+            }
+        }
+        dimName = dim;
+        if(!areaGiven)
+            throw new IllegalArgumentException("Specify either a radius or a rect");
+        if(concurrency < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+    }
+    
+    private static String arg(String[] args, int i) {
+        if(i >= args.length)
+            throw new IllegalArgumentException("Missing argument");
+        return args[i];
+    }
+    
+    private static int intArg(String[] args, int i) {
+        return Integer.parseInt(arg(args, i));
+    }
+    
+    /**
+     * Returns the number of regions to pregenerate.
+     */
+    private int total() {
+        if(radius >= 0)
+            return (2*radius + 1) * (2*radius + 1);
+        return (x1 - x0 + 1) * (y1 - y0 + 1);
+    }
+    
+    /**
+     * Returns the x-coordinate of the region at the given index, where
+     * indices run from 0 to {@link #total()}. This ordering is what the
+     * progress file relies on, so it must not change.
+     */
+    private int regionX(int index) {
+        if(radius < 0)
+            return x0 + index % (x1 - x0 + 1);
+        return spawnX + ringPos(index, true);
+    }
+    
+    private int regionY(int index) {
+        if(radius < 0)
+            return y0 + index / (x1 - x0 + 1);
+        return spawnY + ringPos(index, false);
+    }
+    
+    /**
+     * Returns the x or y offset from the centre of the index'th position of a
+     * square spiral, which visits each ring about the centre in turn.
+     */
+    private static int ringPos(int index, boolean x) {
+        if(index == 0)
+            return 0;
+        // Ring r contains indices (2r-1)^2 to (2r+1)^2 - 1
+        int r = (int)Math.ceil((Math.sqrt(index + 1) - 1) / 2);
+        int side = 2*r;
+        int i = index - (2*r - 1) * (2*r - 1);
+        int edge = i / side, along = i % side;
+        switch(edge) {
+            case 0:  return x ? r : -r + 1 + along;  // right, going up
+            case 1:  return x ? r - 1 - along : r;   // top, going left
+            case 2:  return x ? -r : r - 1 - along;  // left, going down
+            default: return x ? -r + 1 + along : -r; // bottom, going right
+        }
+    }
+    
+    /**
+     * Returns a description of what is being pregenerated, so that progress
+     * is only resumed for the same job.
+     */
+    private String jobKey() {
+        return dimName + (radius >= 0
+                ? " radius " + radius + " about " + spawnX + "," + spawnY
+                : " rect " + x0 + "," + y0 + " " + x1 + "," + y1);
+    }
+    
+    private void readProgress() {
+        if(!progressFile.exists())
+            return;
+        String[] lines = progressFile.readString().split("\n");
+        if(lines.length == 2 && lines[0].equals(jobKey())) {
+            lowWaterMark = Math.min(Integer.parseInt(lines[1].trim()), total());
+            done.set(0, lowWaterMark);
+        }
+    }
+    
+    private synchronized void writeProgress() {
+        progressFile.writeString(jobKey() + "\n" + lowWaterMark + "\n", false);
+    }
+    
+    private synchronized void finished(int index) {
+        done.set(index);
+        lowWaterMark = done.nextClearBit(lowWaterMark);
+    }
+    
+    private synchronized int lowWaterMark() {
+        return lowWaterMark;
+    }
+    
+    private void run() throws Exception {
+        info.load();
+        WorldFormat.migrate(info);
+        progressFile = info.getWorldDir().child(PROGRESS_FILE);
+        
+        HostMultiverse multiverse = new HostMultiverse(info, null);
+        try {
+            world = multiverse.loadDimension(dimName);
+            world.preloadJob.run(); // wait for the loaders and generators
+            spawnX = world.getDimension().info.spawnSliceX >> Region.REGION_SIZE_SHIFT;
+            spawnY = world.getDimension().info.spawnSliceY >> Region.REGION_SIZE_SHIFT;
+            
+            readProgress();
+            int total = total();
+            int start = lowWaterMark;
+            if(start > 0)
+                System.out.println("Resuming " + jobKey() + " from region " + start + "/" + total);
+            
+            Task task = Task.builder(Tasks.newThreadExecutor())
+                    .name("Pregenerating " + jobKey())
+                    .begin()
+                    .andThen(total, h -> pregenerate(h, start, total))
+                    .start();
+            
+            while(!task.stopped()) {
+                task.await(REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+                task.printStack();
+                writeProgress();
+            }
+            writeProgress();
+            if(task.failed())
+                System.out.println("Pregeneration failed");
+            else if(lowWaterMark() == total)
+                progressFile.delete();
+        } finally {
+            multiverse.close();
+        }
+        System.out.println(world.stats);
+    }
+    
+    private void pregenerate(TaskHandle h, int start, int total) throws InterruptedException {
+        WorldStatistics stats = world.stats;
+        Semaphore inFlight = new Semaphore(concurrency);
+        long startTime = System.nanoTime();
+        long startBytes = stats.saver.bytes.sum();
+        h.set(start);
+        
+        for(int i = start; i < total; i++) {
+            h.checkCancel();
+            inFlight.acquire();
+            final int index = i;
+            boolean started = world.regions.pregenerate(regionX(i), regionY(i), (r, success) -> {
+                if(success) // otherwise it's retried on resume
+                    finished(index);
+                h.increment();
+                inFlight.release();
+            });
+            if(!started) { // loaded by the world itself
+                finished(index);
+                h.increment();
+                inFlight.release();
+            }
+            if(i % concurrency == 0)
+                h.setStatus(status(stats, i - start, startTime, startBytes));
+        }
+        
+        // Wait for the stragglers
+        inFlight.acquire(concurrency);
+        h.setStatus(status(stats, total - start, startTime, startBytes));
+    }
+    
+    private static String status(WorldStatistics stats, int regions, long startTime, long startBytes) {
+        double secs = Math.max(1e-3, (System.nanoTime() - startTime) / 1e9);
+        return String.format("%.1f regions/sec, %.1f MB written; %s",
+                regions / secs, (stats.saver.bytes.sum() - startBytes) / 1e6,
+                stats.genTimes);
+    }
+    
+    public static void main(String[] args) {
+        Pregenerator p;
+        try {
+            p = new Pregenerator(args);
+        } catch(IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: Pregenerator <world> [dim <dimension>] "
+                    + "(radius <r> | rect <x0> <y0> <x1> <y1>) [threads <n>]");
+            return;
+        }
+        
+        Stabilise.bootstrap();
+        try {
+            p.run();
+        } catch(Exception e) {
+            Log.get().postSevere("Pregeneration failed", e);
+        }
+    }
+    
+}